@@ -30,7 +30,10 @@ import org.thoughtcrime.securesms.dependencies.InjectableType;
 import org.thoughtcrime.securesms.dependencies.SignalCommunicationModule;
 import org.thoughtcrime.securesms.jobs.CreateSignedPreKeyJob;
 import org.thoughtcrime.securesms.jobs.GcmRefreshJob;
+import org.thoughtcrime.securesms.jobs.JobLane;
+import org.thoughtcrime.securesms.jobs.MasterSecretJob;
 import org.thoughtcrime.securesms.jobs.persistence.EncryptingJobSerializer;
+import org.thoughtcrime.securesms.jobs.requirements.DownloadSlotRequirementProvider;
 import org.thoughtcrime.securesms.jobs.requirements.MasterSecretRequirementProvider;
 import org.thoughtcrime.securesms.jobs.requirements.ServiceRequirementProvider;
 import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess;
@@ -68,6 +71,7 @@ public class ApplicationContext extends MultiDexApplication implements Dependenc
 
   private ExpiringMessageManager expiringMessageManager;
   private JobManager             jobManager;
+  private JobManager             bulkJobManager;
   private ObjectGraph            objectGraph;
 
   public static ApplicationContext getInstance(Context context) {
@@ -100,6 +104,14 @@ public class ApplicationContext extends MultiDexApplication implements Dependenc
     return jobManager;
   }
 
+  /**
+   * @return The JobManager for attachment transfers, directory refreshes, and multi-device
+   *         syncs, which runs on its own threads so that it can't delay message jobs.
+   */
+  public JobManager getBulkJobManager() {
+    return bulkJobManager;
+  }
+
   public ExpiringMessageManager getExpiringMessageManager() {
     return expiringMessageManager;
   }
@@ -113,15 +125,30 @@ public class ApplicationContext extends MultiDexApplication implements Dependenc
   }
 
   private void initializeJobManager() {
-    this.jobManager = JobManager.newBuilder(this)
-                                .withName("TextSecureJobs")
-                                .withDependencyInjector(this)
-                                .withJobSerializer(new EncryptingJobSerializer())
-                                .withRequirementProviders(new MasterSecretRequirementProvider(this),
-                                                          new ServiceRequirementProvider(this),
-                                                          new NetworkRequirementProvider(this))
-                                .withConsumerThreads(5)
-                                .build();
+    this.jobManager     = createJobManager(JobLane.MESSAGES);
+    this.bulkJobManager = createJobManager(JobLane.BULK);
+  }
+
+  private JobManager createJobManager(final JobLane lane) {
+    return JobManager.newBuilder(this)
+                     .withName(lane.getName())
+                     .withDependencyInjector(new DependencyInjector() {
+                       @Override
+                       public void injectDependencies(Object object) {
+                         ApplicationContext.this.injectDependencies(object);
+
+                         if (object instanceof MasterSecretJob) {
+                           ((MasterSecretJob)object).setLane(lane);
+                         }
+                       }
+                     })
+                     .withJobSerializer(new EncryptingJobSerializer())
+                     .withRequirementProviders(new MasterSecretRequirementProvider(this),
+                                               new ServiceRequirementProvider(this),
+                                               new NetworkRequirementProvider(this),
+                                               new DownloadSlotRequirementProvider())
+                     .withConsumerThreads(lane.getConsumerThreads())
+                     .build();
   }
 
   private void initializeDependencyInjection() {
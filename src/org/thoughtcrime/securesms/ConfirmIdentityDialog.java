@@ -176,11 +176,8 @@ public class ConfirmIdentityDialog extends AlertDialog {
                                                                        legacy ? Base64.decode(messageRecord.getBody().getBody()) : null,
                                                                        !legacy ? Base64.decode(messageRecord.getBody().getBody()) : null);
 
-            long pushId = pushDatabase.insert(envelope);
-
-            ApplicationContext.getInstance(getContext())
-                              .getJobManager()
-                              .add(new PushDecryptJob(getContext(), pushId, messageRecord.getId()));
+            pushDatabase.insert(envelope, messageRecord.getId());
+            PushDecryptJob.scheduleDrain(getContext());
           } catch (IOException e) {
             throw new AssertionError(e);
           }
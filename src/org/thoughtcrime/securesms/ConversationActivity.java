@@ -167,6 +167,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 import static org.thoughtcrime.securesms.TransportOption.Type;
@@ -1112,9 +1113,13 @@ public class ConversationActivity extends PassphraseRequiredActionBarActivity
                                         .getGroupMembers(GroupUtil.getDecodedId(recipients.getPrimaryRecipient().getAddress().toGroupString()), false);
           }
 
-          for (Address recipientAddress : recipients.getAddresses()) {
-            Log.w(TAG, "Loading identity for: " + recipientAddress);
-            identityRecordList.add(identityDatabase.getIdentity(recipientAddress));
+          List<Address>                          addresses  = Arrays.asList(recipients.getAddresses());
+          Map<Address, Optional<IdentityRecord>> identities = identityDatabase.getIdentities(addresses);
+
+          Log.w(TAG, "Loaded identities for " + addresses.size() + " recipients");
+
+          for (Address recipientAddress : addresses) {
+            identityRecordList.add(identities.get(recipientAddress));
           }
 
           String message = null;
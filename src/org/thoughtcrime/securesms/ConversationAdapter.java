@@ -22,6 +22,8 @@ import android.support.annotation.LayoutRes;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -33,16 +35,15 @@ import android.widget.TextView;
 
 import org.thoughtcrime.securesms.ConversationAdapter.HeaderViewHolder;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
-import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.FastCursorRecyclerViewAdapter;
 import org.thoughtcrime.securesms.database.MmsSmsColumns;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.database.loaders.ConversationRows;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.MmsMessageRecord;
 import org.thoughtcrime.securesms.mms.SlideDeck;
 import org.thoughtcrime.securesms.recipients.Recipients;
-import org.thoughtcrime.securesms.util.Conversions;
 import org.thoughtcrime.securesms.util.DateUtils;
 import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.StickyHeaderDecoration;
@@ -75,8 +76,8 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
 
   private static final int MAX_CACHE_SIZE = 40;
   private static final String TAG = ConversationAdapter.class.getSimpleName();
-  private final Map<String,SoftReference<MessageRecord>> messageRecordCache =
-      Collections.synchronizedMap(new LRUCache<String, SoftReference<MessageRecord>>(MAX_CACHE_SIZE));
+  private final Map<String,CachedRecord> messageRecordCache =
+      Collections.synchronizedMap(new LRUCache<String, CachedRecord>(MAX_CACHE_SIZE));
 
   private static final int MESSAGE_TYPE_OUTGOING           = 0;
   private static final int MESSAGE_TYPE_INCOMING           = 1;
@@ -99,6 +100,10 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   private final @NonNull  Calendar          calendar;
   private final @NonNull  MessageDigest     digest;
 
+  private @NonNull  ConversationRows rows = ConversationRows.EMPTY;
+  private @Nullable ConversationRows loadedRows;
+  private @Nullable Snapshot         dispatched;
+
   protected static class ViewHolder extends RecyclerView.ViewHolder {
     public <V extends View & BindableConversationItem> ViewHolder(final @NonNull V itemView) {
       super(itemView);
@@ -180,11 +185,92 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
 
   @Override
   public void changeCursor(Cursor cursor) {
-    messageRecordCache.clear();
     super.cleanFastRecords();
     super.changeCursor(cursor);
   }
 
+  /**
+   * @param rows The rows a ConversationLoader built for {@code cursor}, if any, so the swap can
+   *             dispatch their diff instead of walking and diffing the cursor here.
+   */
+  public void changeCursor(@Nullable Cursor cursor, @Nullable ConversationRows rows) {
+    this.loadedRows = rows;
+    changeCursor(cursor);
+    this.loadedRows = null;
+  }
+
+  public @NonNull ConversationRows getRows() {
+    return rows;
+  }
+
+  /**
+   * Diffs the new cursor against what was last dispatched, by item id and row version, so that
+   * e.g. a delivery receipt only rebinds the row it changed.
+   */
+  @Override
+  protected void onCursorSwapped(boolean wasValid) {
+    updateRows();
+
+    Snapshot current = getSnapshot();
+
+    if (dispatched == null || !wasValid) {
+      notifyDataSetChanged();
+    } else if (!dispatchLoadedDiff(dispatched, current)) {
+      Log.w(TAG, "No diff from the loader, diffing " + current.ids.length + " items here.");
+      DiffUtil.calculateDiff(new ConversationRows.Callback(dispatched.ids, dispatched.versions,
+                                                           current.ids, current.versions), false)
+              .dispatchUpdatesTo(this);
+    }
+
+    dispatched = current;
+  }
+
+  /**
+   * Dispatches the diff the loader computed between the previous and current cursor rows, along
+   * with any footer change and released fast records around them.
+   *
+   * @return false if the loader didn't diff against the rows that were last dispatched.
+   */
+  private boolean dispatchLoadedDiff(@NonNull Snapshot previous, @NonNull Snapshot current) {
+    DiffUtil.DiffResult diff = current.rows.getDiffFrom(previous.rows);
+
+    if (diff == null || previous.headerCount != current.headerCount) return false;
+    if (!isSubsequence(current.fastIds, previous.fastIds))          return false;
+
+    if (previous.hasFooter && !current.hasFooter) {
+      notifyItemRemoved(previous.ids.length - 1);
+    }
+
+    for (int i=previous.fastIds.length-1, j=current.fastIds.length-1;i>=0;i--) {
+      if (j >= 0 && previous.fastIds[i] == current.fastIds[j]) j--;
+      else                                                     notifyItemRemoved(previous.headerCount + i);
+    }
+
+    diff.dispatchUpdatesTo(new OffsetListUpdateCallback(current.headerCount + current.fastIds.length));
+
+    if (!previous.hasFooter && current.hasFooter) {
+      notifyItemInserted(current.ids.length - 1);
+    }
+
+    return true;
+  }
+
+  private static boolean isSubsequence(@NonNull long[] items, @NonNull long[] sequence) {
+    int i = 0;
+
+    for (int j=0;i<items.length && j<sequence.length;j++) {
+      if (items[i] == sequence[j]) i++;
+    }
+
+    return i == items.length;
+  }
+
+  @Override
+  public void addFastRecord(@NonNull MessageRecord record) {
+    super.addFastRecord(record);
+    dispatched = getSnapshot();
+  }
+
   @Override
   protected void onBindItemViewHolder(ViewHolder viewHolder, @NonNull MessageRecord messageRecord) {
     long start = System.currentTimeMillis();
@@ -268,15 +354,7 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
 
   @Override
   public long getItemId(@NonNull Cursor cursor) {
-    String fastPreflightId = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.FAST_PREFLIGHT_ID));
-
-    if (fastPreflightId != null) {
-      return Long.valueOf(fastPreflightId);
-    }
-
-    final String unique = cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsColumns.UNIQUE_ROW_ID));
-    final byte[] bytes  = digest.digest(unique.getBytes());
-    return Conversions.byteArrayToLong(bytes);
+    return ConversationRows.getItemId(digest, cursor);
   }
 
   @Override
@@ -296,19 +374,68 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   protected MessageRecord getRecordFromCursor(@NonNull Cursor cursor) {
     long   messageId = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.ID));
     String type      = cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT));
+    long   version   = getRowVersion(cursor);
 
-    final SoftReference<MessageRecord> reference = messageRecordCache.get(type + messageId);
-    if (reference != null) {
-      final MessageRecord record = reference.get();
+    final CachedRecord cached = messageRecordCache.get(type + messageId);
+    if (cached != null && cached.version == version) {
+      final MessageRecord record = cached.reference.get();
       if (record != null) return record;
     }
 
     final MessageRecord messageRecord = db.readerFor(cursor, masterSecret).getCurrent();
-    messageRecordCache.put(type + messageId, new SoftReference<>(messageRecord));
+    messageRecordCache.put(type + messageId, new CachedRecord(version, messageRecord));
 
     return messageRecord;
   }
 
+  private long getRowVersion(@NonNull Cursor cursor) {
+    int position = cursor.getPosition();
+
+    if (rows.isFor(cursor) && position >= 0 && position < rows.size()) {
+      return rows.getVersion(position);
+    }
+
+    return ConversationRows.calculateVersion(cursor);
+  }
+
+  private void updateRows() {
+    Cursor cursor = getCursor();
+
+    if (!isActiveCursor() || cursor == null) {
+      rows = ConversationRows.EMPTY;
+    } else if (loadedRows != null && loadedRows.isFor(cursor)) {
+      rows = loadedRows;
+    } else if (!rows.isFor(cursor)) {
+      rows = ConversationRows.create(cursor, null);
+    }
+  }
+
+  private @NonNull Snapshot getSnapshot() {
+    if (!rows.isFor(getCursor())) updateRows();
+
+    int    count       = getItemCount();
+    int    headerCount = hasHeaderView() ? 1 : 0;
+    int    cursorStart = headerCount + getFastAccessSize();
+    long[] ids         = new long[count];
+    long[] versions    = new long[count];
+    long[] fastIds     = new long[getFastAccessSize()];
+
+    for (int i=0;i<count;i++) {
+      if (isHeaderPosition(i) || isFooterPosition(i)) {
+        ids[i] = getItemId(i);
+      } else if (isFastAccessPosition(i)) {
+        ids[i]                   = getItemId(i);
+        versions[i]              = System.identityHashCode(getRecordForPositionOrThrow(i));
+        fastIds[i - headerCount] = ids[i];
+      } else {
+        ids[i]      = rows.getId(i - cursorStart);
+        versions[i] = rows.getVersion(i - cursorStart);
+      }
+    }
+
+    return new Snapshot(rows, ids, versions, fastIds, headerCount, hasFooterView());
+  }
+
   public void close() {
     getCursor().close();
   }
@@ -403,6 +530,64 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
     viewHolder.setText(getContext().getResources().getQuantityString(R.plurals.ConversationAdapter_n_unread_messages, (position + 1), (position + 1)));
   }
 
+  private static class CachedRecord {
+    private final long                         version;
+    private final SoftReference<MessageRecord> reference;
+
+    private CachedRecord(long version, @NonNull MessageRecord record) {
+      this.version   = version;
+      this.reference = new SoftReference<>(record);
+    }
+  }
+
+  private static class Snapshot {
+    private final ConversationRows rows;
+    private final long[]           ids;
+    private final long[]           versions;
+    private final long[]           fastIds;
+    private final int              headerCount;
+    private final boolean          hasFooter;
+
+    private Snapshot(ConversationRows rows, long[] ids, long[] versions, long[] fastIds,
+                     int headerCount, boolean hasFooter)
+    {
+      this.rows        = rows;
+      this.ids         = ids;
+      this.versions    = versions;
+      this.fastIds     = fastIds;
+      this.headerCount = headerCount;
+      this.hasFooter   = hasFooter;
+    }
+  }
+
+  private class OffsetListUpdateCallback implements ListUpdateCallback {
+    private final int offset;
+
+    private OffsetListUpdateCallback(int offset) {
+      this.offset = offset;
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+      notifyItemRangeInserted(position + offset, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+      notifyItemRangeRemoved(position + offset, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+      notifyItemMoved(fromPosition + offset, toPosition + offset);
+    }
+
+    @Override
+    public void onChanged(int position, int count, Object payload) {
+      notifyItemRangeChanged(position + offset, count, payload);
+    }
+  }
+
   static class LastSeenHeader extends StickyHeaderDecoration {
 
     private final ConversationAdapter adapter;
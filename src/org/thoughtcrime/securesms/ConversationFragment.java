@@ -57,6 +57,7 @@ import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.loaders.ConversationLoader;
+import org.thoughtcrime.securesms.database.loaders.ConversationRows;
 import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.mms.OutgoingMediaMessage;
@@ -83,7 +84,8 @@ public class ConversationFragment extends Fragment
 {
   private static final String TAG = ConversationFragment.class.getSimpleName();
 
-  private static final long   PARTIAL_CONVERSATION_LIMIT = 500L;
+  private static final int CONVERSATION_PAGE_SIZE = 100;
+  private static final int PAGE_PREFETCH_DISTANCE = 20;
 
   private final ActionModeCallback actionModeCallback     = new ActionModeCallback();
   private final ItemClickListener  selectionClickListener = new ConversationFragmentItemClickListener();
@@ -94,6 +96,8 @@ public class ConversationFragment extends Fragment
   private Recipients                  recipients;
   private long                        threadId;
   private long                        lastSeen;
+  private long                        windowStart;
+  private boolean                     loadingOlderPage;
   private boolean                     firstLoad;
   private ActionMode                  actionMode;
   private Locale                      locale;
@@ -135,9 +139,7 @@ public class ConversationFragment extends Fragment
     loadMoreView.setOnClickListener(new OnClickListener() {
       @Override
       public void onClick(View v) {
-        Bundle args = new Bundle();
-        args.putLong("limit", 0);
-        getLoaderManager().restartLoader(0, args, ConversationFragment.this);
+        loadOlderPage();
       }
     });
     return view;
@@ -410,7 +412,18 @@ public class ConversationFragment extends Fragment
 
   @Override
   public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-    return new ConversationLoader(getActivity(), threadId, args.getLong("limit", PARTIAL_CONVERSATION_LIMIT), lastSeen);
+    ConversationRows shownRows = list.getAdapter() != null ? getListAdapter().getRows() : null;
+    return new ConversationLoader(getActivity(), threadId, args.getLong("page_before", Long.MAX_VALUE), CONVERSATION_PAGE_SIZE, lastSeen, shownRows);
+  }
+
+  private void loadOlderPage() {
+    if (loadingOlderPage || windowStart <= 0) return;
+
+    Bundle args = new Bundle();
+    args.putLong("page_before", windowStart);
+
+    loadingOlderPage = true;
+    getLoaderManager().restartLoader(0, args, this);
   }
 
 
@@ -420,7 +433,10 @@ public class ConversationFragment extends Fragment
     ConversationLoader loader = (ConversationLoader)cursorLoader;
 
     if (list.getAdapter() != null) {
-      if (cursor.getCount() >= PARTIAL_CONVERSATION_LIMIT && loader.hasLimit()) {
+      windowStart      = loader.getWindowStart();
+      loadingOlderPage = false;
+
+      if (loader.hasMore()) {
         getListAdapter().setFooterView(loadMoreView);
       } else {
         getListAdapter().setFooterView(null);
@@ -430,7 +446,7 @@ public class ConversationFragment extends Fragment
         setLastSeen(loader.getLastSeen());
       }
 
-      getListAdapter().changeCursor(cursor);
+      getListAdapter().changeCursor(cursor, loader.getRows(cursor));
 
       int lastSeenPosition = getListAdapter().findLastSeenPosition(lastSeen);
 
@@ -533,6 +549,10 @@ public class ConversationFragment extends Fragment
         bindScrollHeader(conversationDateHeader, positionId);
       }
 
+      if (rv.getAdapter() != null && positionId >= rv.getAdapter().getItemCount() - PAGE_PREFETCH_DISTANCE) {
+        loadOlderPage();
+      }
+
       wasAtBottom           = currentlyAtBottom;
       wasAtZoomScrollHeight = currentlyAtZoomScrollHeight;
       lastPositionId        = positionId;
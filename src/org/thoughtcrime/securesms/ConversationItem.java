@@ -563,7 +563,7 @@ public class ConversationItem extends LinearLayout
                                                                         AttachmentDatabase.TRANSFER_PROGRESS_STARTED);
 
         ApplicationContext.getInstance(context)
-                          .getJobManager()
+                          .getBulkJobManager()
                           .add(new AttachmentDownloadJob(context, messageRecord.getId(),
                                                          ((DatabaseAttachment)slide.asAttachment()).getAttachmentId(), true));
       }
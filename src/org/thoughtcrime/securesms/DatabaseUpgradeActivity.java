@@ -20,7 +20,6 @@ package org.thoughtcrime.securesms;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
@@ -36,7 +35,7 @@ import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.MmsDatabase.Reader;
-import org.thoughtcrime.securesms.database.PushDatabase;
+import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.jobs.AttachmentDownloadJob;
 import org.thoughtcrime.securesms.jobs.CreateSignedPreKeyJob;
@@ -69,6 +68,7 @@ public class DatabaseUpgradeActivity extends BaseActivity {
   public static final int MEDIA_DOWNLOAD_CONTROLS_VERSION      = 151;
   public static final int REDPHONE_SUPPORT_VERSION             = 157;
   public static final int NO_MORE_CANONICAL_DB_VERSION         = 276;
+  public static final int INCREMENTAL_THREAD_SUMMARY_VERSION   = 282;
 
   private static final SortedSet<Integer> UPGRADE_VERSIONS = new TreeSet<Integer>() {{
     add(NO_MORE_KEY_EXCHANGE_PREFIX_VERSION);
@@ -83,6 +83,7 @@ public class DatabaseUpgradeActivity extends BaseActivity {
     add(MEDIA_DOWNLOAD_CONTROLS_VERSION);
     add(REDPHONE_SUPPORT_VERSION);
     add(NO_MORE_CANONICAL_DB_VERSION);
+    add(INCREMENTAL_THREAD_SUMMARY_VERSION);
   }};
 
   private MasterSecret masterSecret;
@@ -216,7 +217,7 @@ public class DatabaseUpgradeActivity extends BaseActivity {
 
       if (params[0] < CONTACTS_ACCOUNT_VERSION) {
         ApplicationContext.getInstance(getApplicationContext())
-                          .getJobManager()
+                          .getBulkJobManager()
                           .add(new DirectoryRefreshJob(getApplicationContext()));
       }
 
@@ -229,10 +230,19 @@ public class DatabaseUpgradeActivity extends BaseActivity {
                           .getJobManager()
                           .add(new RefreshAttributesJob(getApplicationContext()));
         ApplicationContext.getInstance(getApplicationContext())
-                          .getJobManager()
+                          .getBulkJobManager()
                           .add(new DirectoryRefreshJob(getApplicationContext()));
       }
 
+      if (params[0] < INCREMENTAL_THREAD_SUMMARY_VERSION) {
+        DatabaseFactory.getThreadDatabase(context).rebuildThreadSummaries(new ThreadDatabase.ProgressListener() {
+          @Override
+          public void onProgress(int complete, int total) {
+            setProgress(complete, total);
+          }
+        });
+      }
+
       return null;
     }
 
@@ -252,7 +262,7 @@ public class DatabaseUpgradeActivity extends BaseActivity {
         } else if (record != null && !record.isOutgoing() && record.isPush()) {
           Log.w(TAG, "queuing new attachment download job for incoming push part " + attachment.getAttachmentId() + ".");
           ApplicationContext.getInstance(context)
-                            .getJobManager()
+                            .getBulkJobManager()
                             .add(new AttachmentDownloadJob(context, attachment.getMmsId(), attachment.getAttachmentId(), false));
         }
         reader.close();
@@ -260,22 +270,7 @@ public class DatabaseUpgradeActivity extends BaseActivity {
     }
 
     private void scheduleMessagesInPushDatabase(Context context) {
-      PushDatabase pushDatabase = DatabaseFactory.getPushDatabase(context);
-      Cursor       pushReader   = null;
-
-      try {
-        pushReader = pushDatabase.getPending();
-
-        while (pushReader != null && pushReader.moveToNext()) {
-          ApplicationContext.getInstance(getApplicationContext())
-                            .getJobManager()
-                            .add(new PushDecryptJob(getApplicationContext(),
-                                                    pushReader.getLong(pushReader.getColumnIndexOrThrow(PushDatabase.ID))));
-        }
-      } finally {
-        if (pushReader != null)
-          pushReader.close();
-      }
+      PushDecryptJob.scheduleDrain(context);
     }
 
     @Override
@@ -410,7 +410,7 @@ public class RecipientPreferenceActivity extends PassphraseRequiredActionBarActi
                                  .getTextCapability() == DirectoryHelper.UserCapabilities.Capability.SUPPORTED)
               {
                 ApplicationContext.getInstance(context)
-                                  .getJobManager()
+                                  .getBulkJobManager()
                                   .add(new MultiDeviceContactUpdateJob(context, recipients.getPrimaryRecipient().getAddress()));
               }
               return null;
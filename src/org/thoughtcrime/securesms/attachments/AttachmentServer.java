@@ -4,19 +4,21 @@ package org.thoughtcrime.securesms.attachments;
 import android.content.Context;
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import org.spongycastle.util.encoders.Hex;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
+import org.thoughtcrime.securesms.crypto.SeekablePartInputStream;
 import org.thoughtcrime.securesms.mms.PartAuthority;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.Util;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.ServerSocket;
@@ -24,352 +26,666 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Properties;
-import java.util.StringTokenizer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Streams a decrypted attachment to MediaPlayer over a loopback HTTP connection.
+ *
+ * All AttachmentServers share one listening socket, and requests are routed to an
+ * attachment by the secret token in their path. Connections are kept alive between
+ * requests and served concurrently, and each attachment keeps a small cache of decrypted
+ * chunks, so the repeated range requests MediaPlayer makes while seeking only decrypt
+ * the chunks they actually touch.
+ *
  * @author      Stefan "frostymarvelous" Froelich <stefan d0t froelich At whisppa DoT com>
  */
-public class AttachmentServer implements Runnable {
+public class AttachmentServer {
 
   private static final String TAG = AttachmentServer.class.getSimpleName();
 
-  private final Context      context;
-  private final MasterSecret masterSecret;
-  private final Attachment   attachment;
-  private final ServerSocket socket;
-  private final int          port;
-  private final String       auth;
+  private static final int CHUNK_SIZE        = 64 * 1024;
+  private static final int MAX_CACHED_CHUNKS = 16;
 
-  private volatile boolean isRunning;
+  private static final AtomicLong requests       = new AtomicLong();
+  private static final AtomicLong seeks          = new AtomicLong();
+  private static final AtomicLong totalSeekTime  = new AtomicLong();
+  private static final AtomicLong maxSeekTime    = new AtomicLong();
+  private static final AtomicLong bytesServed    = new AtomicLong();
+  private static final AtomicLong bytesDecrypted = new AtomicLong();
+
+  private static @Nullable Server sharedServer;
+
+  private final Server       server;
+  private final String       token;
+  private final Registration registration;
+
+  private boolean stopped;
 
   public AttachmentServer(Context context, MasterSecret masterSecret, Attachment attachment)
       throws IOException
   {
-    try {
-      this.context      = context;
-      this.masterSecret = masterSecret;
-      this.attachment   = attachment;
-      this.socket       = new ServerSocket(0, 0, InetAddress.getByAddress(new byte[]{127, 0, 0, 1}));
-      this.port         = socket.getLocalPort();
-      this.auth         = new String(Hex.encode(Util.getSecretBytes(16)));
-
-      this.socket.setSoTimeout(5000);
-    } catch (UnknownHostException e) {
-      throw new AssertionError(e);
-    }
+    this.server       = acquireServer();
+    this.token        = new String(Hex.encode(Util.getSecretBytes(16)));
+    this.registration = new Registration(context, masterSecret, attachment);
   }
 
   public Uri getUri() {
-    return Uri.parse(String.format("http://127.0.0.1:%d/%s", port, auth));
+    return Uri.parse(String.format(Locale.US, "http://127.0.0.1:%d/%s", server.port, token));
   }
 
   public void start() {
-    isRunning = true;
-    new Thread(this).start();
+    server.register(token, registration);
   }
 
   public void stop() {
-    isRunning = false;
+    synchronized (this) {
+      if (stopped) return;
+      stopped = true;
+    }
+
+    server.unregister(token);
+    registration.close();
+    releaseServer(server);
   }
 
-  @Override
-  public void run() {
-    while (isRunning) {
-      Socket client = null;
+  public static @NonNull Stats getStats() {
+    return new Stats(requests.get(), seeks.get(), totalSeekTime.get(), maxSeekTime.get(),
+                     bytesServed.get(), bytesDecrypted.get());
+  }
 
-      try {
-        client = socket.accept();
+  private static synchronized Server acquireServer() throws IOException {
+    if (sharedServer == null) {
+      sharedServer = new Server();
+      sharedServer.start();
+    }
 
-        if (client != null) {
-          StreamToMediaPlayerTask task = new StreamToMediaPlayerTask(client, "/" + auth);
+    sharedServer.handles++;
+    return sharedServer;
+  }
 
-          if (task.processRequest()) {
-            task.execute();
-          }
-        }
+  private static synchronized void releaseServer(Server server) {
+    if (server.handles <= 0) return;
 
-      } catch (SocketTimeoutException e) {
-        Log.w(TAG, e);
-      } catch (IOException e) {
-        Log.e(TAG, "Error connecting to client", e);
-      } finally {
-        try {if (client != null) client.close();} catch (IOException e) {}
-      }
+    if (--server.handles == 0) {
+      server.shutdown();
+      if (sharedServer == server) sharedServer = null;
     }
+  }
 
-    Log.d(TAG, "Proxy interrupted. Shutting down.");
+  private static void recordSeek(long time) {
+    seeks.incrementAndGet();
+    totalSeekTime.addAndGet(time);
+
+    long max;
+
+    do {
+      max = maxSeekTime.get();
+    } while (time > max && !maxSeekTime.compareAndSet(max, time));
   }
 
+  private static class Server implements Runnable {
+
+    private static final int KEEP_ALIVE_TIMEOUT      = 15000;
+    private static final int BUSY_KEEP_ALIVE_TIMEOUT = 1000;
+    private static final int BUSY_CONNECTIONS        = 4;
 
-  private class StreamToMediaPlayerTask {
+    private final ServerSocket              socket;
+    private final int                       port;
+    private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+    private final Set<Socket>               clients       = new HashSet<>();
+    private final ExecutorService           executor      = Executors.newCachedThreadPool();
 
-    private final @NonNull Socket client;
-    private final @NonNull String auth;
+    private int              handles;
+    private volatile boolean isRunning;
 
-    private long       cbSkip;
-    private Properties parameters;
-    private Properties request;
-    private Properties requestHeaders;
-//    private String filePath;
+    Server() throws IOException {
+      try {
+        this.socket = new ServerSocket(0, 0, InetAddress.getByAddress(new byte[]{127, 0, 0, 1}));
+        this.port   = socket.getLocalPort();
+      } catch (UnknownHostException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    void start() {
+      isRunning = true;
+      new Thread(this, TAG).start();
+    }
+
+    void register(String token, Registration registration) {
+      registrations.put(token, registration);
+    }
 
-    public StreamToMediaPlayerTask(@NonNull Socket client, @NonNull String auth) {
-      this.client = client;
-      this.auth   = auth;
+    void unregister(String token) {
+      registrations.remove(token);
     }
 
-    public boolean processRequest() throws IOException {
-            InputStream is         = client.getInputStream();
-      final int         bufferSize = 8192;
-            byte[]      buffer     = new byte[bufferSize];
-            int         splitByte  = 0;
-            int         readLength = 0;
+    void shutdown() {
+      isRunning = false;
 
-      {
-        int read = is.read(buffer, 0, bufferSize);
-        while (read > 0) {
-          readLength += read;
-          splitByte = findHeaderEnd(buffer, readLength);
-          if (splitByte > 0)
-            break;
-          read = is.read(buffer, readLength, bufferSize - readLength);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        Log.w(TAG, e);
+      }
+
+      synchronized (clients) {
+        for (Socket client : clients) {
+          try {
+            client.close();
+          } catch (IOException e) {
+            Log.w(TAG, e);
+          }
         }
       }
 
-      // Create a BufferedReader for parsing the header.
-      ByteArrayInputStream hbis = new ByteArrayInputStream(buffer, 0, readLength);
-      BufferedReader       hin  = new BufferedReader(new InputStreamReader(hbis));
+      executor.shutdown();
+    }
+
+    @Override
+    public void run() {
+      while (isRunning) {
+        try {
+          serve(socket.accept());
+        } catch (IOException e) {
+          if (isRunning) Log.w(TAG, "Error accepting client", e);
+        }
+      }
 
-      request        = new Properties();
-      parameters     = new Properties();
-      requestHeaders = new Properties();
+      Log.d(TAG, "Proxy shut down. " + getStats());
+    }
 
-      try {
-        decodeHeader(hin, request, parameters, requestHeaders);
-      } catch (InterruptedException e1) {
-        Log.e(TAG, "Exception: " + e1.getMessage());
-        e1.printStackTrace();
+    private void serve(final Socket client) throws IOException {
+      synchronized (clients) {
+        clients.add(client);
       }
 
-      for (Map.Entry<Object, Object> e : requestHeaders.entrySet()) {
-        Log.i(TAG, "Header: " + e.getKey() + " : " + e.getValue());
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              handleConnection(client);
+            } finally {
+              synchronized (clients) {
+                clients.remove(client);
+              }
+
+              try {
+                client.close();
+              } catch (IOException e) {
+                Log.w(TAG, e);
+              }
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        Log.w(TAG, "Server shut down while accepting client");
+        client.close();
       }
+    }
+
+    /**
+     * Each connection gets its own thread, so an idle keep-alive never holds up a new
+     * client. Once more than a few are open, idle ones are dropped after a short wait.
+     */
+    private void handleConnection(Socket client) {
+      try {
+        InputStream  input  = new BufferedInputStream(client.getInputStream());
+        OutputStream output = new BufferedOutputStream(client.getOutputStream(), 32 * 1024);
+
+        Request request;
+
+        while (isRunning) {
+          client.setSoTimeout(isBusy() ? BUSY_KEEP_ALIVE_TIMEOUT : KEEP_ALIVE_TIMEOUT);
 
-      String range = requestHeaders.getProperty("range");
+          if ((request = Request.read(input)) == null) break;
 
-      if (range != null) {
-        Log.i(TAG, "range is: " + range);
-        range = range.substring(6);
-        int charPos = range.indexOf('-');
-        if (charPos > 0) {
-          range = range.substring(0, charPos);
+          boolean keepAlive = handleRequest(request, output);
+          output.flush();
+
+          if (!keepAlive) break;
         }
-        cbSkip = Long.parseLong(range);
-        Log.i(TAG, "range found!! " + cbSkip);
+      } catch (SocketTimeoutException e) {
+        Log.d(TAG, "Idle connection closed");
+      } catch (SocketException e) {
+        Log.d(TAG, "Client closed connection: " + e.getMessage());
+      } catch (IOException e) {
+        Log.w(TAG, e);
       }
+    }
 
-      if (!"GET".equals(request.get("method"))) {
-        Log.e(TAG, "Only GET is supported: " + request.get("method"));
-        return false;
+    private boolean isBusy() {
+      synchronized (clients) {
+        return clients.size() > BUSY_CONNECTIONS;
       }
+    }
 
-      String receivedAuth = request.getProperty("uri");
+    private boolean handleRequest(Request request, OutputStream output) throws IOException {
+      requests.incrementAndGet();
 
-      if (receivedAuth == null || !MessageDigest.isEqual(receivedAuth.getBytes(), auth.getBytes())) {
-        Log.w(TAG, "Bad auth token!");
+      long         startTime    = System.currentTimeMillis();
+      boolean      keepAlive    = request.isKeepAlive();
+      Registration registration = registrations.get(request.getToken());
+
+      if (!"GET".equals(request.method) && !"HEAD".equals(request.method)) {
+        writeStatus(output, "405 Method Not Allowed", 0, false);
         return false;
       }
 
-//      filePath = request.getProperty("uri");
+      if (registration == null) {
+        Log.w(TAG, "Bad auth token!");
+        writeStatus(output, "404 Not Found", 0, keepAlive);
+        return keepAlive;
+      }
 
-      return true;
-    }
+      long   size  = registration.getSize();
+      long[] range = request.getRange(size);
 
-    protected void execute() throws IOException {
-      InputStream inputStream = PartAuthority.getAttachmentStream(context, masterSecret, attachment.getDataUri());
-      long        fileSize    = attachment.getSize();
+      if (range == null) {
+        writeStatus(output, "416 Range Not Satisfiable", 0, keepAlive, "Content-Range: bytes */" + size);
+        return keepAlive;
+      }
+
+      long start = range[0];
+      long end   = range[1];
 
-      String headers = "";
-      if (cbSkip > 0) {// It is a seek or skip request if there's a Range
-        // header
-        headers += "HTTP/1.1 206 Partial Content\r\n";
-        headers += "Content-Type: " + attachment.getContentType() + "\r\n";
-        headers += "Accept-Ranges: bytes\r\n";
-        headers += "Content-Length: " + (fileSize - cbSkip) + "\r\n";
-        headers += "Content-Range: bytes " + cbSkip + "-" + (fileSize - 1) + "/" + fileSize + "\r\n";
-        headers += "Connection: Keep-Alive\r\n";
-        headers += "\r\n";
+      if (request.hasRange()) {
+        writeStatus(output, "206 Partial Content", end - start, keepAlive,
+                    "Content-Type: " + registration.getContentType(),
+                    "Accept-Ranges: bytes",
+                    "Content-Range: bytes " + start + "-" + (end - 1) + "/" + size);
       } else {
-        headers += "HTTP/1.1 200 OK\r\n";
-        headers += "Content-Type: " + attachment.getContentType() + "\r\n";
-        headers += "Accept-Ranges: bytes\r\n";
-        headers += "Content-Length: " + fileSize + "\r\n";
-        headers += "Connection: Keep-Alive\r\n";
-        headers += "\r\n";
+        writeStatus(output, "200 OK", end - start, keepAlive,
+                    "Content-Type: " + registration.getContentType(),
+                    "Accept-Ranges: bytes");
       }
 
-      Log.i(TAG, "headers: " + headers);
+      if ("HEAD".equals(request.method)) return keepAlive;
 
-      OutputStream output = null;
-      byte[] buff = new byte[64 * 1024];
-      try {
-        output = new BufferedOutputStream(client.getOutputStream(), 32 * 1024);
-        output.write(headers.getBytes());
+      long position = start;
 
-        inputStream.skip(cbSkip);
-//        dataSource.skipFully(data, cbSkip);//try to skip as much as possible
+      while (position < end) {
+        long   chunkIndex  = position / CHUNK_SIZE;
+        int    chunkOffset = (int)(position % CHUNK_SIZE);
+        byte[] chunk       = registration.getChunk(chunkIndex);
 
-        // Loop as long as there's stuff to send and client has not closed
-        int cbRead;
-        while (!client.isClosed() && (cbRead = inputStream.read(buff, 0, buff.length)) != -1) {
-          output.write(buff, 0, cbRead);
+        if (chunk.length <= chunkOffset) {
+          throw new IOException("Attachment ended early at " + position + " of " + size);
         }
+
+        if (position == start && start > 0) {
+          recordSeek(System.currentTimeMillis() - startTime);
+        }
+
+        int length = (int)Math.min(chunk.length - chunkOffset, end - position);
+
+        output.write(chunk, chunkOffset, length);
+        bytesServed.addAndGet(length);
+        position += length;
+      }
+
+      return keepAlive;
+    }
+
+    private void writeStatus(OutputStream output, String status, long contentLength, boolean keepAlive, String... headers)
+        throws IOException
+    {
+      StringBuilder response = new StringBuilder();
+
+      response.append("HTTP/1.1 ").append(status).append("\r\n");
+
+      for (String header : headers) {
+        response.append(header).append("\r\n");
       }
-      catch (SocketException socketException) {
-        Log.e(TAG, "SocketException() thrown, proxy client has probably closed. This can exit harmlessly");
+
+      response.append("Content-Length: ").append(contentLength).append("\r\n");
+      response.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+      response.append("\r\n");
+
+      output.write(response.toString().getBytes());
+    }
+  }
+
+  private static class Request {
+
+    private static final int MAX_HEADER_LENGTH = 8192;
+
+    private final String              method;
+    private final String              path;
+    private final String              version;
+    private final Map<String, String> headers;
+
+    private Request(String method, String path, String version, Map<String, String> headers) {
+      this.method  = method;
+      this.path    = path;
+      this.version = version;
+      this.headers = headers;
+    }
+
+    static @Nullable Request read(InputStream input) throws IOException {
+      String requestLine = readLine(input);
+
+      while (requestLine != null && requestLine.isEmpty()) {
+        requestLine = readLine(input);
+      }
+
+      if (requestLine == null) return null;
+
+      String[] parts = requestLine.split(" ");
+
+      if (parts.length < 2) throw new IOException("Bad request line: " + requestLine);
+
+      Map<String, String> headers = new HashMap<>();
+      String              line;
+
+      while ((line = readLine(input)) != null && !line.isEmpty()) {
+        int separator = line.indexOf(':');
+
+        if (separator > 0) {
+          headers.put(line.substring(0, separator).trim().toLowerCase(Locale.US), line.substring(separator + 1).trim());
+        }
       }
-      catch (Exception e) {
-        Log.e(TAG, "Exception thrown from streaming task:");
-        Log.e(TAG, e.getClass().getName() + " : " + e.getLocalizedMessage());
+
+      String path  = parts[1];
+      int    query = path.indexOf('?');
+
+      if (query >= 0) path = path.substring(0, query);
+
+      return new Request(parts[0], path, parts.length > 2 ? parts[2] : "HTTP/1.0", headers);
+    }
+
+    String getToken() {
+      return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    boolean isKeepAlive() {
+      String connection = headers.get("connection");
+
+      if ("HTTP/1.0".equals(version)) return "keep-alive".equalsIgnoreCase(connection);
+      else                            return !"close".equalsIgnoreCase(connection);
+    }
+
+    boolean hasRange() {
+      return headers.get("range") != null;
+    }
+
+    /**
+     * @return The requested [start, end) byte range, the whole attachment if there's no
+     *         single byte range, or null if the range can't be satisfied.
+     */
+    @Nullable long[] getRange(long size) {
+      String range = headers.get("range");
+
+      if (range == null || !range.startsWith("bytes=") || range.indexOf(',') != -1) {
+        headers.remove("range");
+        return new long[] {0, size};
       }
 
-      // Cleanup
       try {
-        if (output != null) {
-          output.close();
+        String spec      = range.substring("bytes=".length()).trim();
+        int    separator = spec.indexOf('-');
+
+        if (separator == -1) throw new NumberFormatException(spec);
+
+        String startSpec = spec.substring(0, separator).trim();
+        String endSpec   = spec.substring(separator + 1).trim();
+
+        if (startSpec.isEmpty()) {
+          long suffix = Long.parseLong(endSpec);
+          return suffix <= 0 ? null : new long[] {Math.max(0, size - suffix), size};
         }
-        client.close();
+
+        long start = Long.parseLong(startSpec);
+        long end   = endSpec.isEmpty() ? size : Math.min(size, Long.parseLong(endSpec) + 1);
+
+        if (start >= size || start >= end) return null;
+        else                               return new long[] {start, end};
+      } catch (NumberFormatException e) {
+        Log.w(TAG, "Ignoring bad range: " + range);
+        headers.remove("range");
+        return new long[] {0, size};
       }
-      catch (IOException e) {
-        Log.e(TAG, "IOException while cleaning up streaming task:");
-        Log.e(TAG, e.getClass().getName() + " : " + e.getLocalizedMessage());
-        e.printStackTrace();
+    }
+
+    private static @Nullable String readLine(InputStream input) throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int                   read;
+
+      while ((read = input.read()) != -1) {
+        if (read == '\n') break;
+        if (read != '\r') line.write(read);
+
+        if (line.size() > MAX_HEADER_LENGTH) throw new IOException("Header line too long");
       }
+
+      if (read == -1 && line.size() == 0) return null;
+
+      return line.toString();
     }
+  }
 
-    /**
-     * Find byte index separating header from body. It must be the last byte of
-     * the first two sequential new lines.
-     **/
-    private int findHeaderEnd(final byte[] buf, int rlen) {
-      int splitbyte = 0;
-      while (splitbyte + 3 < rlen) {
-        if (buf[splitbyte] == '\r' && buf[splitbyte + 1] == '\n'
-            && buf[splitbyte + 2] == '\r' && buf[splitbyte + 3] == '\n')
-          return splitbyte + 4;
-        splitbyte++;
+  /**
+   * An attachment being served, with its decrypting streams left open between requests and
+   * an LRU cache of its most recently used decrypted chunks.
+   *
+   * The cache lock is only held to look up and store chunks. Part attachments are decrypted
+   * on a pooled stream per concurrent request, so a cache hit never waits on a decrypt.
+   */
+  private static class Registration {
+
+    private static final int MAX_IDLE_STREAMS = 2;
+
+    private final Context      context;
+    private final MasterSecret masterSecret;
+    private final Attachment   attachment;
+
+    private final LRUCache<Long, byte[]>              chunks         = new LRUCache<>(MAX_CACHED_CHUNKS);
+    private final LinkedList<SeekablePartInputStream> idleStreams    = new LinkedList<>();
+    private final Object                              sequentialLock = new Object();
+
+    private volatile boolean     seekable;
+    private volatile boolean     closed;
+    private          long        size = -1;
+    private          InputStream sequentialStream;
+    private          long        sequentialPosition;
+
+    Registration(Context context, MasterSecret masterSecret, Attachment attachment) {
+      this.context      = context;
+      this.masterSecret = masterSecret;
+      this.attachment   = attachment;
+    }
+
+    String getContentType() {
+      return attachment.getContentType();
+    }
+
+    synchronized long getSize() throws IOException {
+      if (size == -1) {
+        SeekablePartInputStream stream = PartAuthority.getSeekableAttachmentStream(context, masterSecret, attachment.getDataUri());
+
+        if (stream != null) {
+          seekable = true;
+          size     = stream.getPlaintextLength();
+          idleStreams.add(stream);
+        } else {
+          size = attachment.getSize();
+        }
       }
-      return 0;
+
+      return size;
     }
 
+    byte[] getChunk(long chunkIndex) throws IOException {
+      synchronized (chunks) {
+        byte[] chunk = chunks.get(chunkIndex);
+        if (chunk != null) return chunk;
+      }
+
+      long   start  = chunkIndex * CHUNK_SIZE;
+      int    length = (int)Math.min(CHUNK_SIZE, getSize() - start);
+      byte[] chunk  = seekable ? readSeekableChunk(start, length) : readSequentialChunk(start, length);
+
+      bytesDecrypted.addAndGet(chunk.length);
+
+      synchronized (chunks) {
+        chunks.put(chunkIndex, chunk);
+      }
+
+      return chunk;
+    }
+
+    void close() {
+      synchronized (chunks) {
+        chunks.clear();
+      }
+
+      synchronized (this) {
+        closed = true;
+
+        for (SeekablePartInputStream stream : idleStreams) {
+          Util.close(stream);
+        }
+
+        idleStreams.clear();
+      }
+
+      synchronized (sequentialLock) {
+        if (sequentialStream != null) Util.close(sequentialStream);
+        sequentialStream = null;
+      }
+    }
+
+    private byte[] readSeekableChunk(long start, int length) throws IOException {
+      SeekablePartInputStream stream = acquireSeekableStream();
 
-    /**
-     * Decodes the sent headers and loads the data into java Properties' key -
-     * value pairs
-     **/
-    private void decodeHeader(BufferedReader in, Properties pre,
-                              Properties parms, Properties header) throws InterruptedException {
       try {
-        // Read the request line
-        String inLine = in.readLine();
-        if (inLine == null)
+        stream.seek(start);
+        return readChunk(stream, length);
+      } finally {
+        releaseSeekableStream(stream);
+      }
+    }
+
+    private SeekablePartInputStream acquireSeekableStream() throws IOException {
+      synchronized (this) {
+        if (closed)                 throw new IOException("Attachment is no longer being served");
+        if (!idleStreams.isEmpty()) return idleStreams.removeFirst();
+      }
+
+      SeekablePartInputStream stream = PartAuthority.getSeekableAttachmentStream(context, masterSecret, attachment.getDataUri());
+
+      if (stream == null) throw new IOException("Attachment is no longer seekable");
+      return stream;
+    }
+
+    private void releaseSeekableStream(SeekablePartInputStream stream) {
+      synchronized (this) {
+        if (!closed && idleStreams.size() < MAX_IDLE_STREAMS) {
+          idleStreams.addFirst(stream);
           return;
-        StringTokenizer st = new StringTokenizer(inLine);
-        if (!st.hasMoreTokens())
-          Log.e(TAG,
-                "BAD REQUEST: Syntax error. Usage: GET /example/file.html");
-
-        String method = st.nextToken();
-        pre.put("method", method);
-
-        if (!st.hasMoreTokens())
-          Log.e(TAG,
-                "BAD REQUEST: Missing URI. Usage: GET /example/file.html");
-
-        String uri = st.nextToken();
-
-        // Decode parameters from the URI
-        int qmi = uri.indexOf('?');
-        if (qmi >= 0) {
-          decodeParms(uri.substring(qmi + 1), parms);
-          uri = decodePercent(uri.substring(0, qmi));
-        } else
-          uri = decodePercent(uri);
-
-        // If there's another token, it's protocol version,
-        // followed by HTTP headers. Ignore version but parse headers.
-        // NOTE: this now forces header names lowercase since they are
-        // case insensitive and vary by client.
-        if (st.hasMoreTokens()) {
-          String line = in.readLine();
-          while (line != null && line.trim().length() > 0) {
-            int p = line.indexOf(':');
-            if (p >= 0)
-              header.put(line.substring(0, p).trim().toLowerCase(),
-                         line.substring(p + 1).trim());
-            line = in.readLine();
-          }
         }
+      }
+
+      Util.close(stream);
+    }
+
+    private byte[] readSequentialChunk(long start, int length) throws IOException {
+      synchronized (sequentialLock) {
+        if (closed) throw new IOException("Attachment is no longer being served");
 
-        pre.put("uri", uri);
-      } catch (IOException ioe) {
-        Log.e(TAG,
-              "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
+        byte[] chunk = readChunk(getSequentialStream(start), length);
+        sequentialPosition += chunk.length;
+
+        return chunk;
       }
     }
 
     /**
-     * Decodes parameters in percent-encoded URI-format ( e.g.
-     * "name=Jack%20Daniels&pass=Single%20Malt" ) and adds them to given
-     * Properties. NOTE: this doesn't support multiple identical keys due to the
-     * simplicity of Properties -- if you need multiples, you might want to
-     * replace the Properties with a Hashtable of Vectors or such.
+     * Attachments that aren't stored as parts can only be read front to back, so the
+     * stream is kept open for requests that move forward and reopened for ones that don't.
      */
-    private void decodeParms(String parms, Properties p)
-        throws InterruptedException {
-      if (parms == null)
-        return;
+    private InputStream getSequentialStream(long position) throws IOException {
+      if (sequentialStream == null || position < sequentialPosition) {
+        if (sequentialStream != null) Util.close(sequentialStream);
 
-      StringTokenizer st = new StringTokenizer(parms, "&");
-      while (st.hasMoreTokens()) {
-        String e = st.nextToken();
-        int sep = e.indexOf('=');
-        if (sep >= 0)
-          p.put(decodePercent(e.substring(0, sep)).trim(),
-                decodePercent(e.substring(sep + 1)));
+        sequentialStream   = PartAuthority.getAttachmentStream(context, masterSecret, attachment.getDataUri());
+        sequentialPosition = 0;
       }
+
+      while (sequentialPosition < position) {
+        long skipped = sequentialStream.skip(position - sequentialPosition);
+
+        if (skipped <= 0) throw new IOException("Unable to skip to " + position);
+
+        bytesDecrypted.addAndGet(skipped);
+        sequentialPosition += skipped;
+      }
+
+      return sequentialStream;
     }
 
-    /**
-     * Decodes the percent encoding scheme. <br/>
-     * For example: "an+example%20string" -> "an example string"
-     */
-    private String decodePercent(String str) throws InterruptedException {
-      try {
-        StringBuffer sb = new StringBuffer();
-        for (int i = 0; i < str.length(); i++) {
-          char c = str.charAt(i);
-          switch (c) {
-            case '+':
-              sb.append(' ');
-              break;
-            case '%':
-              sb.append((char) Integer.parseInt(
-                  str.substring(i + 1, i + 3), 16));
-              i += 2;
-              break;
-            default:
-              sb.append(c);
-              break;
-          }
-        }
-        return sb.toString();
-      } catch (Exception e) {
-        Log.e(TAG, "BAD REQUEST: Bad percent-encoding.");
-        return null;
+    private static byte[] readChunk(InputStream in, int length) throws IOException {
+      byte[] chunk  = new byte[Math.max(0, length)];
+      int    offset = 0;
+
+      while (offset < chunk.length) {
+        int read = in.read(chunk, offset, chunk.length - offset);
+
+        if (read == -1) break;
+        else            offset += read;
       }
+
+      return offset == chunk.length ? chunk : Arrays.copyOf(chunk, offset);
+    }
+  }
+
+  public static class Stats {
+
+    private final long requests;
+    private final long seeks;
+    private final long totalSeekTime;
+    private final long maxSeekTime;
+    private final long bytesServed;
+    private final long bytesDecrypted;
+
+    private Stats(long requests, long seeks, long totalSeekTime, long maxSeekTime, long bytesServed, long bytesDecrypted) {
+      this.requests       = requests;
+      this.seeks          = seeks;
+      this.totalSeekTime  = totalSeekTime;
+      this.maxSeekTime    = maxSeekTime;
+      this.bytesServed    = bytesServed;
+      this.bytesDecrypted = bytesDecrypted;
+    }
+
+    public long getAverageSeekTime() {
+      return seeks == 0 ? 0 : totalSeekTime / seeks;
+    }
+
+    public long getMaxSeekTime() {
+      return maxSeekTime;
+    }
+
+    public double getDecryptedPerServed() {
+      return bytesServed == 0 ? 0 : (double)bytesDecrypted / bytesServed;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return "requests: " + requests + ", seeks: " + seeks + ", avg seek: " + getAverageSeekTime() + "ms" +
+             ", max seek: " + maxSeekTime + "ms, served: " + bytesServed + ", decrypted: " + bytesDecrypted +
+             ", decrypted/served: " + getDecryptedPerServed();
     }
   }
-}
\ No newline at end of file
+}
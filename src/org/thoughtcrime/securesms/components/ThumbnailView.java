@@ -23,6 +23,8 @@ import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.glide.EncryptedCacheDecoder;
+import org.thoughtcrime.securesms.glide.EncryptedCacheEncoder;
 import org.thoughtcrime.securesms.mms.DecryptableStreamUriLoader.DecryptableUri;
 import org.thoughtcrime.securesms.mms.RoundedCorners;
 import org.thoughtcrime.securesms.mms.Slide;
@@ -149,7 +151,9 @@ public class ThumbnailView extends FrameLayout {
 
     Glide.with(getContext())
          .load(new DecryptableUri(masterSecret, uri))
-         .diskCacheStrategy(DiskCacheStrategy.NONE)
+         .diskCacheStrategy(DiskCacheStrategy.RESULT)
+         .encoder(new EncryptedCacheEncoder(masterSecret))
+         .cacheDecoder(new EncryptedCacheDecoder(getContext(), masterSecret))
          .crossFade()
          .transform(new RoundedCorners(getContext(), true, radius, backgroundColorHint))
          .into(image);
@@ -185,7 +189,9 @@ public class ThumbnailView extends FrameLayout {
     @SuppressWarnings("ConstantConditions")
     DrawableRequestBuilder<DecryptableUri> builder = Glide.with(getContext())
                                                           .load(new DecryptableUri(masterSecret, slide.getThumbnailUri()))
-                                                          .diskCacheStrategy(DiskCacheStrategy.NONE)
+                                                          .diskCacheStrategy(DiskCacheStrategy.RESULT)
+                                                          .encoder(new EncryptedCacheEncoder(masterSecret))
+                                                          .cacheDecoder(new EncryptedCacheDecoder(getContext(), masterSecret))
                                                           .crossFade()
                                                           .transform(new RoundedCorners(getContext(), true, radius, backgroundColorHint));
 
@@ -6,8 +6,10 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
 import android.graphics.Paint;
+import android.graphics.Paint.FontMetricsInt;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
+import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
@@ -24,8 +26,13 @@ import org.thoughtcrime.securesms.components.emoji.parsing.EmojiPageBitmap;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiTree;
 import org.thoughtcrime.securesms.util.FutureTaskListener;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.Util;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 class EmojiProvider {
@@ -34,8 +41,14 @@ class EmojiProvider {
   private static volatile EmojiProvider instance = null;
   private static final    Paint         paint    = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
 
+  private static final int MAX_CACHED_TEXTS = 256;
+
   private final EmojiTree emojiTree = new EmojiTree();
 
+  private final Map<String, EmojiParser.CandidateList> candidateCache  = Collections.synchronizedMap(new LRUCache<String, EmojiParser.CandidateList>(MAX_CACHED_TEXTS));
+  private final Map<SpanKey, EmojifiedText>           emojifiedCache  = new LRUCache<>(MAX_CACHED_TEXTS);
+  private final Map<EmojiDrawInfo, EmojiDrawable>     loadedDrawables = new HashMap<>();
+
   private static final int EMOJI_RAW_HEIGHT = 64;
   private static final int EMOJI_RAW_WIDTH  = 64;
   private static final int EMOJI_VERT_PAD   = 0;
@@ -62,6 +75,12 @@ class EmojiProvider {
     for (EmojiPageModel page : EmojiPages.PAGES) {
       if (page.hasSpriteMap()) {
         EmojiPageBitmap pageBitmap = new EmojiPageBitmap(context, page, decodeScale);
+        pageBitmap.setEvictionListener(new EmojiPageBitmap.EvictionListener() {
+          @Override
+          public void onEvicted(@NonNull EmojiPageBitmap page) {
+            onPageEvicted(page);
+          }
+        });
 
         for (int i=0;i<page.getEmoji().length;i++) {
           emojiTree.add(page.getEmoji()[i], new EmojiDrawInfo(pageBitmap, i));
@@ -72,28 +91,57 @@ class EmojiProvider {
 
   @Nullable EmojiParser.CandidateList getCandidates(@Nullable CharSequence text) {
     if (text == null) return null;
-    return new EmojiParser(emojiTree).findCandidates(text);
+
+    String                    key        = text.toString();
+    EmojiParser.CandidateList candidates = candidateCache.get(key);
+
+    if (candidates == null) {
+      candidates = new EmojiParser(emojiTree).findCandidates(text);
+      candidateCache.put(key, candidates);
+    }
+
+    return candidates;
   }
 
   @Nullable Spannable emojify(@Nullable CharSequence text, @NonNull TextView tv) {
     return emojify(getCandidates(text), text, tv);
   }
 
+  /**
+   * Emojified texts are cached once all of their sprite pages are loaded, so rebinding a message
+   * that was already shown reuses its spans and drawables instead of allocating new ones. The
+   * key includes the text size, typeface and font metrics, since those decide each span's size.
+   * The returned Spannable is always a fresh copy that callers may modify.
+   */
   @Nullable Spannable emojify(@Nullable EmojiParser.CandidateList matches,
                               @Nullable CharSequence text,
                               @NonNull TextView tv) {
     if (matches == null || text == null) return null;
     SpannableStringBuilder      builder = new SpannableStringBuilder(text);
 
-    for (EmojiParser.Candidate candidate : matches) {
-      Drawable drawable = getEmojiDrawable(candidate.getDrawInfo());
+    if (matches.size() == 0) return builder;
+
+    SpanKey       key       = new SpanKey(text.toString(), tv.getTextSize(), tv.getTypeface(), tv.getPaint().getFontMetricsInt());
+    EmojifiedText emojified = emojifiedCache.get(key);
+
+    if (emojified == null) {
+      emojified = new EmojifiedText(matches.size());
+
+      for (EmojiParser.Candidate candidate : matches) {
+        EmojiDrawable drawable = getEmojiDrawable(candidate.getDrawInfo());
+
+        if (drawable != null) {
+          emojified.add(new EmojiSpan(drawable, tv), candidate.getStartIndex(), candidate.getEndIndex(), drawable.isLoaded());
+        }
+      }
 
-      if (drawable != null) {
-        builder.setSpan(new EmojiSpan(drawable, tv), candidate.getStartIndex(), candidate.getEndIndex(),
-                        Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+      if (emojified.isLoaded()) {
+        emojifiedCache.put(key, emojified);
       }
     }
 
+    emojified.applyTo(builder);
+
     return builder;
   }
 
@@ -102,17 +150,29 @@ class EmojiProvider {
     return getEmojiDrawable(drawInfo);
   }
 
-  private @Nullable Drawable getEmojiDrawable(@Nullable EmojiDrawInfo drawInfo) {
+  /**
+   * Drawables whose page is loaded are shared by every span and view showing that emoji. Until
+   * then each caller gets its own drawable, so the view that asked for it is the one that gets
+   * invalidated when the page finishes decoding.
+   */
+  private @Nullable EmojiDrawable getEmojiDrawable(@Nullable final EmojiDrawInfo drawInfo) {
     if (drawInfo == null)  {
       return null;
     }
 
+    EmojiDrawable loaded = loadedDrawables.get(drawInfo);
+    if (loaded != null) return loaded;
+
     final EmojiDrawable drawable = new EmojiDrawable(drawInfo, decodeScale);
     drawInfo.getPage().get().addListener(new FutureTaskListener<Bitmap>() {
       @Override public void onSuccess(final Bitmap result) {
         Util.runOnMain(new Runnable() {
           @Override public void run() {
             drawable.setBitmap(result);
+
+            if (result != null && !loadedDrawables.containsKey(drawInfo)) {
+              loadedDrawables.put(drawInfo, drawable);
+            }
           }
         });
       }
@@ -124,8 +184,92 @@ class EmojiProvider {
     return drawable;
   }
 
+  private void onPageEvicted(@NonNull EmojiPageBitmap page) {
+    Iterator<EmojiDrawInfo> iterator = loadedDrawables.keySet().iterator();
+
+    while (iterator.hasNext()) {
+      if (iterator.next().getPage() == page) iterator.remove();
+    }
+
+    emojifiedCache.clear();
+  }
+
+  private static class SpanKey {
+    private final String   text;
+    private final float    textSize;
+    private final Typeface typeface;
+    private final int      ascent;
+    private final int      descent;
+    private final int      top;
+    private final int      bottom;
+
+    SpanKey(@NonNull String text, float textSize, @Nullable Typeface typeface, @Nullable FontMetricsInt fm) {
+      this.text     = text;
+      this.textSize = textSize;
+      this.typeface = typeface;
+      this.ascent   = fm != null ? fm.ascent  : 0;
+      this.descent  = fm != null ? fm.descent : 0;
+      this.top      = fm != null ? fm.top     : 0;
+      this.bottom   = fm != null ? fm.bottom  : 0;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (other == null || !(other instanceof SpanKey)) return false;
+
+      SpanKey that = (SpanKey)other;
+      return this.textSize == that.textSize &&
+             this.ascent   == that.ascent   &&
+             this.descent  == that.descent  &&
+             this.top      == that.top      &&
+             this.bottom   == that.bottom   &&
+             Util.equals(this.typeface, that.typeface) &&
+             this.text.equals(that.text);
+    }
+
+    @Override
+    public int hashCode() {
+      return Util.hashCode(text, textSize, typeface, ascent, descent, top, bottom);
+    }
+  }
+
+  private static class EmojifiedText {
+    private final EmojiSpan[] spans;
+    private final int[]       starts;
+    private final int[]       ends;
+
+    private int     count;
+    private boolean loaded = true;
+
+    EmojifiedText(int capacity) {
+      this.spans  = new EmojiSpan[capacity];
+      this.starts = new int[capacity];
+      this.ends   = new int[capacity];
+    }
+
+    void add(@NonNull EmojiSpan span, int start, int end, boolean loaded) {
+      spans[count]  = span;
+      starts[count] = start;
+      ends[count]   = end;
+      count++;
+
+      this.loaded &= loaded;
+    }
+
+    boolean isLoaded() {
+      return loaded;
+    }
+
+    void applyTo(@NonNull Spannable spannable) {
+      for (int i=0;i<count;i++) {
+        spannable.setSpan(spans[i], starts[i], ends[i], Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+      }
+    }
+  }
+
   class EmojiDrawable extends Drawable {
     private final EmojiDrawInfo info;
+    private final Rect          source;
     private       Bitmap        bmp;
     private       float         intrinsicWidth;
     private       float         intrinsicHeight;
@@ -144,6 +288,18 @@ class EmojiProvider {
       this.info            = info;
       this.intrinsicWidth  = EMOJI_RAW_WIDTH  * decodeScale;
       this.intrinsicHeight = EMOJI_RAW_HEIGHT * decodeScale;
+
+      final int row       = info.getIndex() / EMOJI_PER_ROW;
+      final int row_index = info.getIndex() % EMOJI_PER_ROW;
+
+      this.source = new Rect((int)(row_index * intrinsicWidth),
+                             (int)(row * intrinsicHeight + row * verticalPad)+1,
+                             (int)(((row_index + 1) * intrinsicWidth)-1),
+                             (int)((row + 1) * intrinsicHeight + row * verticalPad)-1);
+    }
+
+    boolean isLoaded() {
+      return bmp != null;
     }
 
     @Override
@@ -152,16 +308,7 @@ class EmojiProvider {
         return;
       }
 
-      final int row = info.getIndex() / EMOJI_PER_ROW;
-      final int row_index = info.getIndex() % EMOJI_PER_ROW;
-
-      canvas.drawBitmap(bmp,
-                        new Rect((int)(row_index * intrinsicWidth),
-                                 (int)(row * intrinsicHeight + row * verticalPad)+1,
-                                 (int)(((row_index + 1) * intrinsicWidth)-1),
-                                 (int)((row + 1) * intrinsicHeight + row * verticalPad)-1),
-                        getBounds(),
-                        paint);
+      canvas.drawBitmap(bmp, source, getBounds(), paint);
     }
 
     @TargetApi(VERSION_CODES.HONEYCOMB_MR1)
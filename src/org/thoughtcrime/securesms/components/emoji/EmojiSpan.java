@@ -1,5 +1,6 @@
 package org.thoughtcrime.securesms.components.emoji;
 
+import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Paint.FontMetricsInt;
 import android.graphics.drawable.Drawable;
@@ -23,6 +24,8 @@ public class EmojiSpan extends AnimatingImageSpan {
   @Override public int getSize(Paint paint, CharSequence text, int start, int end,
                                FontMetricsInt fm)
   {
+    getDrawable().setBounds(0, 0, size, size);
+
     if (fm != null && this.fm != null) {
       fm.ascent  = this.fm.ascent;
       fm.descent = this.fm.descent;
@@ -33,4 +36,12 @@ public class EmojiSpan extends AnimatingImageSpan {
       return super.getSize(paint, text, start, end, fm);
     }
   }
+
+  @Override public void draw(Canvas canvas, CharSequence text, int start, int end,
+                             float x, int top, int y, int bottom, Paint paint)
+  {
+    // Loaded emoji drawables are shared between spans of different sizes
+    getDrawable().setBounds(0, 0, size, size);
+    super.draw(canvas, text, start, end, x, top, y, bottom, paint);
+  }
 }
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.os.AsyncTask;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import org.thoughtcrime.securesms.components.emoji.EmojiPageModel;
@@ -14,18 +15,32 @@ import org.thoughtcrime.securesms.util.Util;
 
 import java.io.IOException;
 import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
+/**
+ * A lazily decoded emoji sprite page. Decoded pages are kept strongly reachable, least recently
+ * used first out, for as long as they fit in a memory budget shared by all pages, so scrolling
+ * back to an emoji doesn't wait on another asynchronous decode.
+ */
 public class EmojiPageBitmap {
 
   private static final String TAG = EmojiPageBitmap.class.getName();
 
+  private static final Map<EmojiPageBitmap, Bitmap> retainedPages = new LinkedHashMap<>(16, 0.75f, true);
+
+  private static long memoryBudget = Runtime.getRuntime().maxMemory() / 8;
+  private static long memoryUsed;
+
   private final Context        context;
   private final EmojiPageModel model;
   private final float          decodeScale;
 
   private SoftReference<Bitmap>        bitmapReference;
   private ListenableFutureTask<Bitmap> task;
+  private EvictionListener             evictionListener;
 
   public EmojiPageBitmap(@NonNull Context context, @NonNull EmojiPageModel model, float decodeScale) {
     this.context     = context.getApplicationContext();
@@ -33,11 +48,31 @@ public class EmojiPageBitmap {
     this.decodeScale = decodeScale;
   }
 
+  /**
+   * Sets how many bytes of decoded pages may be retained. The most recently used page is always
+   * kept, even if it alone is over budget.
+   */
+  public static void setMemoryBudget(long bytes) {
+    synchronized (retainedPages) {
+      memoryBudget = bytes;
+      trimToBudget();
+    }
+  }
+
+  /**
+   * Called on the main thread when this page's bitmap is dropped from the retained set.
+   */
+  public void setEvictionListener(@Nullable EvictionListener evictionListener) {
+    this.evictionListener = evictionListener;
+  }
+
   public ListenableFutureTask<Bitmap> get() {
     Util.assertMainThread();
 
-    if (bitmapReference != null && bitmapReference.get() != null) {
-      return new ListenableFutureTask<>(bitmapReference.get());
+    Bitmap bitmap = getRetainedBitmap();
+
+    if (bitmap != null) {
+      return new ListenableFutureTask<>(bitmap);
     } else if (task != null) {
       return task;
     } else {
@@ -68,13 +103,18 @@ public class EmojiPageBitmap {
   }
 
   private Bitmap loadPage() throws IOException {
-    if (bitmapReference != null && bitmapReference.get() != null) return bitmapReference.get();
+    Bitmap retained = getRetainedBitmap();
+    if (retained != null) return retained;
 
     try {
       final Bitmap bitmap = BitmapUtil.createScaledBitmap(context,
                                                           "file:///android_asset/" + model.getSprite(),
                                                           decodeScale);
-      bitmapReference = new SoftReference<>(bitmap);
+      synchronized (retainedPages) {
+        bitmapReference = new SoftReference<>(bitmap);
+        retain(bitmap);
+      }
+
       Log.w(TAG, "onPageLoaded(" + model.getSprite() + ")");
       return bitmap;
     } catch (BitmapDecodingException e) {
@@ -83,8 +123,59 @@ public class EmojiPageBitmap {
     }
   }
 
+  private @Nullable Bitmap getRetainedBitmap() {
+    synchronized (retainedPages) {
+      Bitmap bitmap = retainedPages.get(this);
+
+      if (bitmap == null && bitmapReference != null) {
+        bitmap = bitmapReference.get();
+        if (bitmap != null) retain(bitmap);
+      }
+
+      return bitmap;
+    }
+  }
+
+  private void retain(@NonNull Bitmap bitmap) {
+    Bitmap previous = retainedPages.put(this, bitmap);
+
+    if (previous != null) memoryUsed -= getByteCount(previous);
+    memoryUsed += getByteCount(bitmap);
+
+    trimToBudget();
+  }
+
+  private static void trimToBudget() {
+    Iterator<Map.Entry<EmojiPageBitmap, Bitmap>> iterator = retainedPages.entrySet().iterator();
+
+    while (memoryUsed > memoryBudget && retainedPages.size() > 1) {
+      Map.Entry<EmojiPageBitmap, Bitmap> eldest = iterator.next();
+      final EmojiPageBitmap              page   = eldest.getKey();
+
+      memoryUsed -= getByteCount(eldest.getValue());
+      iterator.remove();
+
+      Log.w(TAG, "Evicting page " + page.model.getSprite() + ", retained: " + memoryUsed + "/" + memoryBudget);
+
+      Util.runOnMain(new Runnable() {
+        @Override
+        public void run() {
+          if (page.evictionListener != null) page.evictionListener.onEvicted(page);
+        }
+      });
+    }
+  }
+
+  private static long getByteCount(@NonNull Bitmap bitmap) {
+    return (long)bitmap.getRowBytes() * bitmap.getHeight();
+  }
+
   @Override
   public String toString() {
     return model.getSprite();
   }
+
+  public interface EvictionListener {
+    void onEvicted(@NonNull EmojiPageBitmap page);
+  }
 }
@@ -24,8 +24,9 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -33,31 +34,55 @@ import java.util.List;
  */
 public class EmojiParser {
 
+  private static final char FITZPATRICK_HIGH_SURROGATE    = Fitzpatrick.TYPE_1_2.unicode.charAt(0);
+  private static final char FITZPATRICK_LOW_SURROGATE_MIN = Fitzpatrick.TYPE_1_2.unicode.charAt(1);
+  private static final char FITZPATRICK_LOW_SURROGATE_MAX = Fitzpatrick.TYPE_6.unicode.charAt(1);
+
   private final EmojiTree emojiTree;
 
   public EmojiParser(EmojiTree emojiTree) {
     this.emojiTree = emojiTree;
   }
 
+  /**
+   * Finds the longest emoji at each position in a single pass. From each position the trie is
+   * walked one char at a time until it has no matching child, so no prefix is ever rescanned,
+   * and a trailing Fitzpatrick modifier is folded into the match.
+   */
   public @NonNull CandidateList findCandidates(@Nullable CharSequence text) {
-    List<Candidate> results = new LinkedList<>();
+    if (text == null) return new CandidateList(Collections.<Candidate>emptyList(), false);
 
-    if (text == null) return new CandidateList(results, false);
+    List<Candidate> results   = null;
+    int             length    = text.length();
+    boolean         allEmojis = length > 0;
 
-    boolean allEmojis = text.length() > 0;
+    for (int i = 0; i < length; i++) {
+      int           emojiEnd = -1;
+      EmojiDrawInfo drawInfo = null;
 
-    for (int i = 0; i < text.length(); i++) {
-      int emojiEnd = getEmojiEndPos(text, i);
+      if (emojiTree.isEmojiStart(text.charAt(i))) {
+        int node = EmojiTree.ROOT;
 
-      if (emojiEnd != -1) {
-        EmojiDrawInfo drawInfo = emojiTree.getEmoji(text, i, emojiEnd);
+        for (int j = i; j < length; j++) {
+          node = emojiTree.getChild(node, text.charAt(j));
+
+          if (node == EmojiTree.NO_NODE) break;
 
-        if (emojiEnd + 2 <= text.length()) {
-          if (Fitzpatrick.fitzpatrickFromUnicode(text, emojiEnd) != null) {
-            emojiEnd += 2;
+          EmojiDrawInfo nodeInfo = emojiTree.getEmoji(node);
+
+          if (nodeInfo != null) {
+            emojiEnd = j + 1;
+            drawInfo = nodeInfo;
           }
         }
+      }
+
+      if (emojiEnd != -1) {
+        if (isFitzpatrickModifier(text, emojiEnd)) {
+          emojiEnd += 2;
+        }
 
+        if (results == null) results = new ArrayList<>();
         results.add(new Candidate(i, emojiEnd, drawInfo));
 
         i = emojiEnd - 1;
@@ -66,23 +91,18 @@ public class EmojiParser {
       }
     }
 
+    if (results == null) results = Collections.emptyList();
+
     return new CandidateList(results, allEmojis);
   }
 
-  private int getEmojiEndPos(CharSequence text, int startPos) {
-    int best = -1;
-
-    for (int j = startPos + 1; j <= text.length(); j++) {
-      EmojiTree.Matches status = emojiTree.isEmoji(text, startPos, j);
-
-      if (status.exactMatch()) {
-        best = j;
-      } else if (status.impossibleMatch()) {
-        return best;
-      }
+  private static boolean isFitzpatrickModifier(CharSequence text, int index) {
+    if (index + 2 > text.length() || text.charAt(index) != FITZPATRICK_HIGH_SURROGATE) {
+      return false;
     }
 
-    return best;
+    char low = text.charAt(index + 1);
+    return low >= FITZPATRICK_LOW_SURROGATE_MIN && low <= FITZPATRICK_LOW_SURROGATE_MAX;
   }
 
   public class Candidate {
@@ -22,28 +22,57 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 
 import android.support.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * A char trie stored in primitive arrays. Each node keeps its child characters sorted, so a
+ * step is a binary search with no boxing. A bitmap of the characters that can start an emoji
+ * lets text with no emoji be rejected one char at a time.
  */
 public class EmojiTree {
 
-  private final EmojiTreeNode root = new EmojiTreeNode();
+  static final int ROOT    = 0;
+  static final int NO_NODE = -1;
+
+  private static final char[] NO_KEYS     = new char[0];
+  private static final int[]  NO_CHILDREN = new int[0];
+
+  private final long[] startChars = new long[(Character.MAX_VALUE + 1) / 64];
+
+  private char[][]        childKeys   = new char[64][];
+  private int[][]         childNodes  = new int[64][];
+  private int[]           childCounts = new int[64];
+  private EmojiDrawInfo[] emoji       = new EmojiDrawInfo[64];
+  private int             nodeCount;
+
+  public EmojiTree() {
+    nodeCount = 1;
+    childKeys[ROOT]  = NO_KEYS;
+    childNodes[ROOT] = NO_CHILDREN;
+  }
 
   public void add(String emojiEncoding, EmojiDrawInfo emoji) {
-    EmojiTreeNode tree = root;
+    if (emojiEncoding.length() == 0) return;
+
+    char first = emojiEncoding.charAt(0);
+    startChars[first >>> 6] |= 1L << first;
 
-    for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
+    int node = ROOT;
+
+    for (int i=0;i<emojiEncoding.length();i++) {
+      char c     = emojiEncoding.charAt(i);
+      int  child = getChild(node, c);
+
+      if (child == NO_NODE) {
+        child = addChild(node, c);
       }
 
-      tree = tree.getChild(c);
+      node = child;
     }
 
-    tree.setEmoji(emoji);
+    this.emoji[node] = emoji;
   }
 
   public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
@@ -51,66 +80,87 @@ public class EmojiTree {
       return Matches.POSSIBLY;
     }
 
-    EmojiTreeNode tree = root;
+    int node = walk(sequence, startPosition, endPosition);
 
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
-
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
-      }
+    if      (node == NO_NODE)     return Matches.IMPOSSIBLE;
+    else if (emoji[node] != null) return Matches.EXACTLY;
+    else                          return Matches.POSSIBLY;
+  }
 
-      tree = tree.getChild(character);
-    }
+  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
+    int node = walk(unicode, startPosition, endPostiion);
+    return node == NO_NODE ? null : emoji[node];
+  }
 
-    return tree.isEndOfEmoji() ? Matches.EXACTLY : Matches.POSSIBLY;
+  /**
+   * @return true if some emoji begins with this character.
+   */
+  boolean isEmojiStart(char c) {
+    return (startChars[c >>> 6] & (1L << c)) != 0;
   }
 
-  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
-    EmojiTreeNode tree = root;
+  /**
+   * @return the child of {@code node} reached by {@code c}, or {@link #NO_NODE}.
+   */
+  int getChild(int node, char c) {
+    int index = Arrays.binarySearch(childKeys[node], 0, childCounts[node], c);
+    return index >= 0 ? childNodes[node][index] : NO_NODE;
+  }
 
-    for (int i=startPosition; i<endPostiion; i++) {
-      char character = unicode.charAt(i);
+  /**
+   * @return the emoji that ends at {@code node}, or null if it's only a prefix.
+   */
+  @Nullable EmojiDrawInfo getEmoji(int node) {
+    return emoji[node];
+  }
 
-      if (!tree.hasChild(character)) {
-        return null;
-      }
+  private int walk(CharSequence sequence, int startPosition, int endPosition) {
+    int node = ROOT;
 
-      tree = tree.getChild(character);
+    for (int i=startPosition; i<endPosition && node != NO_NODE; i++) {
+      node = getChild(node, sequence.charAt(i));
     }
 
-    return tree.getEmoji();
+    return node;
   }
 
+  private int addChild(int parent, char c) {
+    int node = nodeCount++;
 
-  private static class EmojiTreeNode {
-
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
+    if (node == emoji.length) {
+      int capacity = emoji.length * 2;
 
-    public void setEmoji(EmojiDrawInfo emoji) {
-      this.emoji = emoji;
+      childKeys   = Arrays.copyOf(childKeys, capacity);
+      childNodes  = Arrays.copyOf(childNodes, capacity);
+      childCounts = Arrays.copyOf(childCounts, capacity);
+      emoji       = Arrays.copyOf(emoji, capacity);
     }
 
-    public @Nullable EmojiDrawInfo getEmoji() {
-      return emoji;
-    }
+    childKeys[node]  = NO_KEYS;
+    childNodes[node] = NO_CHILDREN;
 
-    boolean hasChild(char child) {
-      return children.containsKey(child);
-    }
+    char[] keys     = childKeys[parent];
+    int[]  children = childNodes[parent];
+    int    count    = childCounts[parent];
+    int    index    = -(Arrays.binarySearch(keys, 0, count, c) + 1);
 
-    void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
-    }
+    if (count == keys.length) {
+      keys     = Arrays.copyOf(keys, Math.max(2, count * 2));
+      children = Arrays.copyOf(children, keys.length);
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
+      childKeys[parent]  = keys;
+      childNodes[parent] = children;
     }
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
-    }
+    System.arraycopy(keys, index, keys, index + 1, count - index);
+    System.arraycopy(children, index, children, index + 1, count - index);
+
+    keys[index]     = c;
+    children[index] = node;
+
+    childCounts[parent] = count + 1;
+
+    return node;
   }
 
   public enum Matches {
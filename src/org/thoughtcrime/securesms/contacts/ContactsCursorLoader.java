@@ -28,14 +28,16 @@ import android.util.Log;
 
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.database.Address;
+import org.thoughtcrime.securesms.database.ContactSearchDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
-import org.thoughtcrime.securesms.recipients.RecipientFactory;
-import org.thoughtcrime.securesms.recipients.Recipients;
-import org.thoughtcrime.securesms.util.DirectoryHelper;
-import org.thoughtcrime.securesms.util.DirectoryHelper.UserCapabilities.Capability;
+import org.thoughtcrime.securesms.database.TextSecureDirectory;
+import org.thoughtcrime.securesms.jobs.ContactSearchIndexJob;
 import org.thoughtcrime.securesms.util.NumberUtil;
+import org.thoughtcrime.securesms.util.TextSecurePreferences;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * CursorLoader that initializes a ContactsDatabase instance
@@ -62,17 +64,26 @@ public class ContactsCursorLoader extends CursorLoader {
 
   @Override
   public Cursor loadInBackground() {
-    ContactsDatabase  contactsDatabase = DatabaseFactory.getContactsDatabase(getContext());
-    ArrayList<Cursor> cursorList       = new ArrayList<>(3);
+    ContactsDatabase      contactsDatabase      = DatabaseFactory.getContactsDatabase(getContext());
+    ContactSearchDatabase contactSearchDatabase = DatabaseFactory.getContactSearchDatabase(getContext());
+    ArrayList<Cursor>     cursorList            = new ArrayList<>(3);
 
-    if (mode != MODE_SMS_ONLY) {
-      cursorList.add(contactsDatabase.queryTextSecureContacts(filter));
+    if (TextUtils.isEmpty(filter)) {
+      ContactSearchIndexJob.scheduleRefresh(getContext());
     }
 
-    if (mode == MODE_ALL) {
-      cursorList.add(contactsDatabase.querySystemContacts(filter));
-    } else if (mode == MODE_SMS_ONLY) {
-      cursorList.add(filterNonPushContacts(contactsDatabase.querySystemContacts(filter)));
+    if (!TextUtils.isEmpty(filter) && contactSearchDatabase.isIndexed()) {
+      cursorList.add(contactsDatabase.querySearchIndex(filter, mode != MODE_SMS_ONLY, mode != MODE_PUSH_ONLY));
+    } else {
+      if (mode != MODE_SMS_ONLY) {
+        cursorList.add(contactsDatabase.queryTextSecureContacts(filter));
+      }
+
+      if (mode == MODE_ALL) {
+        cursorList.add(contactsDatabase.querySystemContacts(filter));
+      } else if (mode == MODE_SMS_ONLY) {
+        cursorList.add(filterNonPushContacts(contactsDatabase.querySystemContacts(filter)));
+      }
     }
 
     if (!TextUtils.isEmpty(filter) && NumberUtil.isValidSmsOrEmail(filter)) {
@@ -93,34 +104,51 @@ public class ContactsCursorLoader extends CursorLoader {
     return new MergeCursor(cursorList.toArray(new Cursor[0]));
   }
 
+  /**
+   * Keeps the system contacts that aren't registered users, checking each number against the
+   * directory's in-memory registered set rather than querying the directory per row.
+   */
   private @NonNull Cursor filterNonPushContacts(@NonNull Cursor cursor) {
     try {
-      final long startMillis = System.currentTimeMillis();
-      final MatrixCursor matrix = new MatrixCursor(new String[]{ContactsDatabase.ID_COLUMN,
-                                                                ContactsDatabase.NAME_COLUMN,
-                                                                ContactsDatabase.NUMBER_COLUMN,
-                                                                ContactsDatabase.NUMBER_TYPE_COLUMN,
-                                                                ContactsDatabase.LABEL_COLUMN,
-                                                                ContactsDatabase.CONTACT_TYPE_COLUMN});
+      final long         startMillis = System.currentTimeMillis();
+      final Set<String>  registered  = getRegisteredNumbers();
+      final MatrixCursor matrix      = new MatrixCursor(new String[]{ContactsDatabase.ID_COLUMN,
+                                                                     ContactsDatabase.NAME_COLUMN,
+                                                                     ContactsDatabase.NUMBER_COLUMN,
+                                                                     ContactsDatabase.NUMBER_TYPE_COLUMN,
+                                                                     ContactsDatabase.LABEL_COLUMN,
+                                                                     ContactsDatabase.CONTACT_TYPE_COLUMN});
+
+      final int idColumn         = cursor.getColumnIndexOrThrow(ContactsDatabase.ID_COLUMN);
+      final int nameColumn       = cursor.getColumnIndexOrThrow(ContactsDatabase.NAME_COLUMN);
+      final int numberColumn     = cursor.getColumnIndexOrThrow(ContactsDatabase.NUMBER_COLUMN);
+      final int numberTypeColumn = cursor.getColumnIndexOrThrow(ContactsDatabase.NUMBER_TYPE_COLUMN);
+      final int labelColumn      = cursor.getColumnIndexOrThrow(ContactsDatabase.LABEL_COLUMN);
+
       while (cursor.moveToNext()) {
-        final String     number     = cursor.getString(cursor.getColumnIndexOrThrow(ContactsDatabase.NUMBER_COLUMN));
-        final Recipients recipients = RecipientFactory.getRecipientsFor(getContext(), new Address[]{Address.fromExternal(getContext(), number)}, true);
-
-        if (DirectoryHelper.getUserCapabilities(getContext(), recipients)
-                           .getTextCapability() != Capability.SUPPORTED)
-        {
-          matrix.addRow(new Object[]{cursor.getLong(cursor.getColumnIndexOrThrow(ContactsDatabase.ID_COLUMN)),
-                                     cursor.getString(cursor.getColumnIndexOrThrow(ContactsDatabase.NAME_COLUMN)),
+        final String number = cursor.getString(numberColumn);
+
+        if (!registered.contains(Address.fromExternal(getContext(), number).serialize())) {
+          matrix.addRow(new Object[]{cursor.getLong(idColumn),
+                                     cursor.getString(nameColumn),
                                      number,
-                                     cursor.getString(cursor.getColumnIndexOrThrow(ContactsDatabase.NUMBER_TYPE_COLUMN)),
-                                     cursor.getString(cursor.getColumnIndexOrThrow(ContactsDatabase.LABEL_COLUMN)),
+                                     cursor.getString(numberTypeColumn),
+                                     cursor.getString(labelColumn),
                                      ContactsDatabase.NORMAL_TYPE});
         }
       }
-      Log.w(TAG, "filterNonPushContacts() -> " + (System.currentTimeMillis() - startMillis) + "ms");
+      Log.w(TAG, "filterNonPushContacts() -> " + cursor.getCount() + " contacts in " + (System.currentTimeMillis() - startMillis) + "ms");
       return matrix;
     } finally {
       cursor.close();
     }
   }
+
+  private @NonNull Set<String> getRegisteredNumbers() {
+    if (!TextSecurePreferences.isPushRegistered(getContext())) {
+      return Collections.emptySet();
+    }
+
+    return TextSecureDirectory.getInstance(getContext()).getRegisteredNumbers();
+  }
 }
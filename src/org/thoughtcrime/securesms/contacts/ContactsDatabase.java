@@ -36,6 +36,8 @@ import android.util.Pair;
 
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.database.Address;
+import org.thoughtcrime.securesms.database.ContactSearchDatabase;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.push.ContactTokenDetails;
@@ -219,6 +221,25 @@ public class ContactsDatabase {
 
   }
 
+  /**
+   * Answers a filtered search from the local contact search index. Registered users come back
+   * as push contacts and everyone else as system contacts, like the two provider queries above.
+   */
+  @NonNull Cursor querySearchIndex(@NonNull String filter, boolean includePush, boolean includeSystem) {
+    Cursor cursor = DatabaseFactory.getContactSearchDatabase(context).query(filter, includePush, includeSystem);
+
+    Map<String, String> projectionMap = new HashMap<String, String>() {{
+      put(ID_COLUMN, ContactSearchDatabase.ID);
+      put(NAME_COLUMN, ContactSearchDatabase.NAME);
+      put(NUMBER_COLUMN, ContactSearchDatabase.NUMBER);
+      put(NUMBER_TYPE_COLUMN, ContactSearchDatabase.NUMBER_TYPE);
+      put(LABEL_COLUMN, ContactSearchDatabase.LABEL);
+      put(CONTACT_TYPE_COLUMN, ContactSearchDatabase.REGISTERED); // 0 or 1, NORMAL_TYPE or PUSH_TYPE
+    }};
+
+    return new ProjectionMappingCursor(cursor, projectionMap);
+  }
+
   private void addContactVoiceSupport(List<ContentProviderOperation> operations,
                                       @NonNull Address address, long rawContactId)
   {
@@ -0,0 +1,161 @@
+package org.thoughtcrime.securesms.crypto;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Reads a part written in the chunked format described by {@link ChunkedPartFormat}.
+ *
+ * Only the chunk containing the current position is read, authenticated, and decrypted,
+ * so seeking and skipping cost O(1) regardless of the offset. The final chunk is always
+ * authenticated before end of stream is reported, so truncation is detected.
+ */
+public class ChunkedDecryptingPartInputStream extends SeekablePartInputStream {
+
+  private final RandomAccessFile file;
+  private final SecretKeySpec    cipherKey;
+  private final Mac              mac;
+  private final byte[]           header;
+  private final int              chunkSize;
+  private final long             lastChunkIndex;
+  private final long             plaintextLength;
+  private final byte[]           ciphertext;
+  private final byte[]           plaintext;
+  private final byte[]           theirMac;
+
+  private long position;
+  private long loadedChunkIndex = -1;
+  private int  loadedChunkLength;
+
+  /**
+   * Takes ownership of the open file, which is closed with this stream. If the part isn't
+   * valid, the caller still owns it and should close it.
+   */
+  ChunkedDecryptingPartInputStream(@NonNull MasterSecret masterSecret, @NonNull RandomAccessFile file) throws IOException {
+    this.file      = file;
+    this.cipherKey = masterSecret.getEncryptionKey();
+    this.mac       = ChunkedPartFormat.initializeMac(masterSecret.getMacKey());
+    this.header    = new byte[ChunkedPartFormat.HEADER_LENGTH];
+
+    this.file.seek(0);
+    this.file.readFully(header);
+
+    if (!ChunkedPartFormat.isChunkedHeader(header)) {
+      throw new IOException("Not a chunked part");
+    }
+
+    this.chunkSize = ChunkedPartFormat.getChunkSize(header);
+
+    long bodyLength      = this.file.length() - ChunkedPartFormat.HEADER_LENGTH - ChunkedPartFormat.MAC_LENGTH;
+    long storedChunkSize = chunkSize + ChunkedPartFormat.MAC_LENGTH;
+
+    if (chunkSize <= 0 || chunkSize > ChunkedPartFormat.MAX_CHUNK_SIZE || chunkSize % 16 != 0 ||
+        bodyLength < 0 || bodyLength % storedChunkSize >= chunkSize)
+    {
+      throw new IOException("Invalid chunked part length");
+    }
+
+    this.lastChunkIndex  = bodyLength / storedChunkSize;
+    this.plaintextLength = lastChunkIndex * chunkSize + bodyLength % storedChunkSize;
+    this.ciphertext      = new byte[chunkSize];
+    this.plaintext       = new byte[chunkSize];
+    this.theirMac        = new byte[ChunkedPartFormat.MAC_LENGTH];
+  }
+
+  @Override
+  public long getPlaintextLength() {
+    return plaintextLength;
+  }
+
+  @Override
+  public long getPosition() {
+    return position;
+  }
+
+  @Override
+  public void seek(long position) throws IOException {
+    if (position < 0) throw new IOException("Negative seek: " + position);
+    this.position = Math.min(position, plaintextLength);
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] buffer = new byte[1];
+    int    read   = read(buffer, 0, 1);
+
+    return read == -1 ? -1 : buffer[0] & 0xFF;
+  }
+
+  @Override
+  public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) return 0;
+
+    if (position >= plaintextLength) {
+      loadChunk(lastChunkIndex);
+      return -1;
+    }
+
+    long chunkIndex  = position / chunkSize;
+    int  chunkOffset = (int)(position % chunkSize);
+
+    loadChunk(chunkIndex);
+
+    int read = Math.min(length, loadedChunkLength - chunkOffset);
+    System.arraycopy(plaintext, chunkOffset, buffer, offset, read);
+    position += read;
+
+    return read;
+  }
+
+  @Override
+  public long skip(long skipAmount) throws IOException {
+    if (skipAmount <= 0) return 0;
+
+    long skipped = Math.min(skipAmount, plaintextLength - position);
+    position += skipped;
+
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return (int)Math.min(Integer.MAX_VALUE, plaintextLength - position);
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  private void loadChunk(long chunkIndex) throws IOException {
+    if (chunkIndex == loadedChunkIndex) return;
+
+    boolean last   = chunkIndex == lastChunkIndex;
+    int     length = last ? (int)(plaintextLength - lastChunkIndex * chunkSize) : chunkSize;
+
+    file.seek(ChunkedPartFormat.HEADER_LENGTH + chunkIndex * (chunkSize + ChunkedPartFormat.MAC_LENGTH));
+    file.readFully(ciphertext, 0, length);
+    file.readFully(theirMac);
+
+    ChunkedPartFormat.verifyMac(mac, header, chunkIndex, last, ciphertext, 0, length, theirMac);
+
+    try {
+      Cipher cipher = ChunkedPartFormat.initializeCipher(Cipher.DECRYPT_MODE, cipherKey, header, chunkIndex, chunkSize);
+      cipher.doFinal(ciphertext, 0, length, plaintext, 0);
+    } catch (ShortBufferException | BadPaddingException | IllegalBlockSizeException e) {
+      throw new AssertionError(e);
+    }
+
+    loadedChunkIndex  = chunkIndex;
+    loadedChunkLength = length;
+  }
+}
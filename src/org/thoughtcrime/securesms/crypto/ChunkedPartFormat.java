@@ -0,0 +1,131 @@
+package org.thoughtcrime.securesms.crypto;
+
+import android.support.annotation.NonNull;
+
+import org.thoughtcrime.securesms.util.Conversions;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The on-disk layout of a chunked, seekable encrypted part:
+ *
+ * <pre>
+ * header: magic (4) | version (4) | chunk size (4) | nonce (8)
+ * chunk:  AES-CTR ciphertext (chunk size, or shorter for the last chunk) | HmacSHA1 (20)
+ * </pre>
+ *
+ * Every chunk is MACed over the header, its index, whether it's the final chunk, and
+ * its ciphertext, so chunks can be authenticated and decrypted independently without
+ * being reordered or truncated. The CTR counter for a chunk is derived from the nonce
+ * and the chunk's first block, so any chunk can be decrypted without its predecessors.
+ * The last chunk is always present, even if it's empty.
+ */
+final class ChunkedPartFormat {
+
+  static final int VERSION        = 1;
+  static final int CHUNK_SIZE     = 64 * 1024;
+  static final int MAX_CHUNK_SIZE = 1024 * 1024;
+  static final int NONCE_LENGTH   = 8;
+  static final int HEADER_LENGTH  = 4 + 4 + 4 + NONCE_LENGTH;
+  static final int MAC_LENGTH     = 20;
+
+  private static final byte[] MAGIC = {'S', 'P', 'R', 'T'};
+
+  private ChunkedPartFormat() {}
+
+  static byte[] createHeader(int chunkSize, byte[] nonce) {
+    byte[] header = new byte[HEADER_LENGTH];
+
+    System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+    Conversions.intToByteArray(header, 4, VERSION);
+    Conversions.intToByteArray(header, 8, chunkSize);
+    System.arraycopy(nonce, 0, header, 12, NONCE_LENGTH);
+
+    return header;
+  }
+
+  static boolean isChunkedFormat(@NonNull RandomAccessFile file) throws IOException {
+    if (file.length() < HEADER_LENGTH + MAC_LENGTH) return false;
+
+    byte[] header = new byte[8];
+
+    file.seek(0);
+    file.readFully(header);
+
+    return isChunkedHeader(header);
+  }
+
+  static boolean isChunkedHeader(@NonNull byte[] header) {
+    for (int i=0;i<MAGIC.length;i++) {
+      if (header[i] != MAGIC[i]) return false;
+    }
+
+    return Conversions.byteArrayToInt(header, 4) == VERSION;
+  }
+
+  static int getChunkSize(@NonNull byte[] header) {
+    return Conversions.byteArrayToInt(header, 8);
+  }
+
+  static Mac initializeMac(@NonNull SecretKeySpec key) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA1");
+      mac.init(key);
+
+      return mac;
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  static Cipher initializeCipher(int mode, @NonNull SecretKeySpec key, @NonNull byte[] header, long chunkIndex, int chunkSize) {
+    try {
+      byte[] iv = new byte[16];
+      System.arraycopy(header, 12, iv, 0, NONCE_LENGTH);
+      Conversions.longToByteArray(iv, NONCE_LENGTH, chunkIndex * (chunkSize / 16));
+
+      Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+      cipher.init(mode, key, new IvParameterSpec(iv));
+
+      return cipher;
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  static byte[] calculateMac(@NonNull Mac mac, @NonNull byte[] header, long chunkIndex, boolean last,
+                             @NonNull byte[] ciphertext, int offset, int length)
+  {
+    byte[] index = new byte[8];
+    Conversions.longToByteArray(index, 0, chunkIndex);
+
+    mac.update(header);
+    mac.update(index);
+    mac.update((byte)(last ? 1 : 0));
+    mac.update(ciphertext, offset, length);
+
+    return mac.doFinal();
+  }
+
+  static void verifyMac(@NonNull Mac mac, @NonNull byte[] header, long chunkIndex, boolean last,
+                        @NonNull byte[] ciphertext, int offset, int length, @NonNull byte[] theirMac)
+      throws IOException
+  {
+    byte[] ourMac = calculateMac(mac, header, chunkIndex, last, ciphertext, offset, length);
+
+    if (!MessageDigest.isEqual(ourMac, theirMac)) {
+      throw new IOException("Bad MAC on chunk " + chunkIndex);
+    }
+  }
+}
@@ -22,9 +22,10 @@ import org.thoughtcrime.securesms.util.LimitedInputStream;
 import org.thoughtcrime.securesms.util.Util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
@@ -44,47 +45,106 @@ public class DecryptingPartInputStream {
   private static final int IV_LENGTH  = 16;
   private static final int MAC_LENGTH = 20;
 
+  /**
+   * Opens a part for reading. Chunked parts are authenticated chunk by chunk and
+   * support O(1) skips. Legacy CBC parts have the MAC over the entire file verified
+   * before any plaintext is returned.
+   *
+   * The file is opened once, and the format check, MAC check and decryption all read
+   * from that descriptor, so a part migrated or replaced concurrently is read either
+   * entirely before or entirely after the swap.
+   */
   public static InputStream createFor(MasterSecret masterSecret, File file)
       throws IOException
   {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+
     try {
-      if (file.length() <= IV_LENGTH + MAC_LENGTH) {
+      if (ChunkedPartFormat.isChunkedFormat(in)) {
+        return new ChunkedDecryptingPartInputStream(masterSecret, in);
+      }
+
+      long length = in.length();
+
+      if (length <= IV_LENGTH + MAC_LENGTH) {
         throw new IOException("File too short");
       }
 
-      verifyMac(masterSecret, file);
+      verifyMac(masterSecret, in);
+      in.seek(0);
 
-      FileInputStream fileStream = new FileInputStream(file);
-      byte[]          ivBytes    = new byte[IV_LENGTH];
+      InputStream fileStream = Channels.newInputStream(in.getChannel());
+      byte[]      ivBytes    = new byte[IV_LENGTH];
       readFully(fileStream, ivBytes);
 
+      return createCipherStream(masterSecret, ivBytes, new LimitedInputStream(fileStream, length - MAC_LENGTH - IV_LENGTH));
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a part for random access. Chunked parts are authenticated chunk by chunk as
+   * they're read, and legacy CBC parts have their MAC verified once when opened. Like
+   * {@link #createFor(MasterSecret, File)}, everything is read from a single descriptor.
+   */
+  public static SeekablePartInputStream createSeekableFor(MasterSecret masterSecret, File file)
+      throws IOException
+  {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+
+    try {
+      if (ChunkedPartFormat.isChunkedFormat(in)) {
+        return new ChunkedDecryptingPartInputStream(masterSecret, in);
+      }
+
+      return new LegacySeekablePartInputStream(masterSecret, in);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  public static boolean isLegacyFormat(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+
+    try {
+      return !ChunkedPartFormat.isChunkedFormat(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static InputStream createCipherStream(MasterSecret masterSecret, byte[] ivBytes, InputStream ciphertext) {
+    try {
       Cipher          cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
       IvParameterSpec iv     = new IvParameterSpec(ivBytes);
       cipher.init(Cipher.DECRYPT_MODE, masterSecret.getEncryptionKey(), iv);
 
-      return new CipherInputStreamWrapper(new LimitedInputStream(fileStream, file.length() - MAC_LENGTH - IV_LENGTH), cipher);
+      return new CipherInputStreamWrapper(ciphertext, cipher);
     } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException e) {
       throw new AssertionError(e);
     }
   }
 
-  private static void verifyMac(MasterSecret masterSecret, File file) throws IOException {
-    Mac             mac        = initializeMac(masterSecret.getMacKey());
-    FileInputStream macStream  = new FileInputStream(file);
-    InputStream     dataStream = new LimitedInputStream(new FileInputStream(file), file.length() - MAC_LENGTH);
-    byte[]          theirMac   = new byte[MAC_LENGTH];
+  static void verifyMac(MasterSecret masterSecret, RandomAccessFile file) throws IOException {
+    Mac    mac       = initializeMac(masterSecret.getMacKey());
+    long   remaining = file.length() - MAC_LENGTH;
+    byte[] theirMac  = new byte[MAC_LENGTH];
+    byte[] buffer    = new byte[4096];
 
-    if (macStream.skip(file.length() - MAC_LENGTH) != file.length() - MAC_LENGTH) {
-      throw new IOException("Unable to seek");
-    }
+    file.seek(remaining);
+    file.readFully(theirMac);
+    file.seek(0);
 
-    readFully(macStream, theirMac);
+    while (remaining > 0) {
+      int read = file.read(buffer, 0, (int)Math.min(buffer.length, remaining));
 
-    byte[] buffer = new byte[4096];
-    int    read;
+      if (read == -1) throw new IOException("Stream ended early");
 
-    while ((read = dataStream.read(buffer)) != -1) {
       mac.update(buffer, 0, read);
+      remaining -= read;
     }
 
     byte[] ourMac = mac.doFinal();
@@ -92,9 +152,6 @@ public class DecryptingPartInputStream {
     if (!MessageDigest.isEqual(ourMac, theirMac)) {
       throw new IOException("Bad MAC");
     }
-
-    macStream.close();
-    dataStream.close();
   }
 
   private static Mac initializeMac(SecretKeySpec key) {
@@ -114,6 +171,8 @@ public class DecryptingPartInputStream {
     for (;;) {
       int read = in.read(buffer, offset, buffer.length-offset);
 
+      if (read == -1) throw new IOException("Stream ended early");
+
       if (read + offset < buffer.length) offset += read;
       else                               return;
     }
@@ -19,50 +19,82 @@ package org.thoughtcrime.securesms.crypto;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 import android.util.Log;
 
 /**
  * A class for streaming an encrypted MMS "part" to disk.
- * 
+ *
+ * Parts are written in the chunked format described by {@link ChunkedPartFormat},
+ * which allows them to be read back with random access. The destination is usually a
+ * part file, but any stream may be used for data that is read back from a file later.
+ * A stream passed in by the caller is flushed, but not closed, by {@link #close()}.
+ *
  * @author Moxie Marlinspike
  */
 
-public class EncryptingPartOutputStream extends FileOutputStream {
+public class EncryptingPartOutputStream extends FilterOutputStream {
+
+  private final SecretKeySpec cipherKey;
+  private final Mac           mac;
+  private final byte[]        header;
+  private final byte[]        chunk;
+  private final byte[]        ciphertext;
+  private final boolean       ownsStream;
 
-  private Cipher cipher;
-  private Mac mac;
+  private int     chunkOffset;
+  private long    chunkIndex;
   private boolean closed;
 
   public EncryptingPartOutputStream(File file, MasterSecret masterSecret) throws FileNotFoundException {
-    super(file);
+    this(new FileOutputStream(file), masterSecret, true);
+  }
+
+  public EncryptingPartOutputStream(OutputStream out, MasterSecret masterSecret) throws IOException {
+    this(out, masterSecret, false);
+  }
+
+  private EncryptingPartOutputStream(OutputStream out, MasterSecret masterSecret, boolean ownsStream)
+      throws FileNotFoundException
+  {
+    super(out);
+
+    byte[] nonce = new byte[ChunkedPartFormat.NONCE_LENGTH];
+    new SecureRandom().nextBytes(nonce);
+
+    this.cipherKey  = masterSecret.getEncryptionKey();
+    this.mac        = ChunkedPartFormat.initializeMac(masterSecret.getMacKey());
+    this.header     = ChunkedPartFormat.createHeader(ChunkedPartFormat.CHUNK_SIZE, nonce);
+    this.chunk      = new byte[ChunkedPartFormat.CHUNK_SIZE];
+    this.ciphertext = new byte[ChunkedPartFormat.CHUNK_SIZE];
+    this.ownsStream = ownsStream;
+    this.closed     = false;
 
     try {
-      mac    = initializeMac(masterSecret.getMacKey());
-      cipher = initializeCipher(mac, masterSecret.getEncryptionKey());
-      closed = false;
+      out.write(header, 0, header.length);
     } catch (IOException ioe) {
       Log.w("EncryptingPartOutputStream", ioe);
-      throw new FileNotFoundException("Couldn't write IV");
-    } catch (InvalidKeyException e) {
-      throw new AssertionError(e);
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError(e);
-    } catch (NoSuchPaddingException e) {
-      throw new AssertionError(e);
+      if (ownsStream) closeQuietly(out);
+      throw new FileNotFoundException("Couldn't write header");
     }
   }
 
+  @Override
+  public void write(int b) throws IOException {
+    this.write(new byte[] {(byte)b}, 0, 1);
+  }
+
   @Override
   public void write(byte[] buffer) throws IOException {
     this.write(buffer, 0, buffer.length);
@@ -70,53 +102,53 @@ public class EncryptingPartOutputStream extends FileOutputStream {
 
   @Override
   public void write(byte[] buffer, int offset, int length) throws IOException {
-    byte[] encryptedBuffer = cipher.update(buffer, offset, length);
+    while (length > 0) {
+      int copy = Math.min(length, chunk.length - chunkOffset);
+      System.arraycopy(buffer, offset, chunk, chunkOffset, copy);
+
+      chunkOffset += copy;
+      offset      += copy;
+      length      -= copy;
 
-    if (encryptedBuffer != null) {
-      mac.update(encryptedBuffer);
-      super.write(encryptedBuffer, 0, encryptedBuffer.length);
+      if (chunkOffset == chunk.length) {
+        writeChunk(false);
+      }
     }
   }
 
   @Override
   public void close() throws IOException {
-    try {
-      if (!closed) {
-        byte[] encryptedRemainder = cipher.doFinal();
-        mac.update(encryptedRemainder);
+    if (!closed) {
+      writeChunk(true);
+      closed = true;
+    }
 
-        byte[] macBytes = mac.doFinal();
+    if (ownsStream) super.close();
+    else            flush();
+  }
 
-        super.write(encryptedRemainder, 0, encryptedRemainder.length);
-        super.write(macBytes, 0, macBytes.length);
+  private void writeChunk(boolean last) throws IOException {
+    try {
+      Cipher cipher   = ChunkedPartFormat.initializeCipher(Cipher.ENCRYPT_MODE, cipherKey, header, chunkIndex, chunk.length);
+      int    length   = cipher.doFinal(chunk, 0, chunkOffset, ciphertext, 0);
+      byte[] macBytes = ChunkedPartFormat.calculateMac(mac, header, chunkIndex, last, ciphertext, 0, length);
 
-        closed = true;
-      }
+      out.write(ciphertext, 0, length);
+      out.write(macBytes, 0, macBytes.length);
 
-      super.close();
-    } catch (BadPaddingException bpe) {
-      throw new AssertionError(bpe);
-    } catch (IllegalBlockSizeException e) {
+      chunkIndex++;
+      chunkOffset = 0;
+    } catch (ShortBufferException | BadPaddingException | IllegalBlockSizeException e) {
       throw new AssertionError(e);
     }
   }
 
-  private Mac initializeMac(SecretKeySpec key) throws NoSuchAlgorithmException, InvalidKeyException {
-    Mac hmac = Mac.getInstance("HmacSHA1");
-    hmac.init(key);
-
-    return hmac;
-  }
-
-  private Cipher initializeCipher(Mac mac, SecretKeySpec key) throws IOException, InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException {
-    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-    cipher.init(Cipher.ENCRYPT_MODE, key);
-
-    byte[] ivBytes = cipher.getIV();
-    mac.update(ivBytes);
-    super.write(ivBytes, 0, ivBytes.length);
-
-    return cipher;
+  private static void closeQuietly(OutputStream out) {
+    try {
+      out.close();
+    } catch (IOException e) {
+      Log.w("EncryptingPartOutputStream", e);
+    }
   }
 
 }
@@ -48,6 +48,11 @@ public class IdentityKeyUtil {
   private static final String IDENTITY_PUBLIC_KEY_PREF                    = "pref_identity_public_v3";
   private static final String IDENTITY_PRIVATE_KEY_PREF                   = "pref_identity_private_v3";
 
+  private static final Object LOCK = new Object();
+
+  private static volatile IdentityKey     cachedIdentityKey;
+  private static volatile IdentityKeyPair cachedIdentityKeyPair;
+
   public static boolean hasIdentityKey(Context context) {
     SharedPreferences preferences = context.getSharedPreferences(MasterSecretUtil.PREFERENCES_NAME, 0);
 
@@ -57,26 +62,50 @@ public class IdentityKeyUtil {
   }
 
   public static @NonNull IdentityKey getIdentityKey(@NonNull Context context) {
-    if (!hasIdentityKey(context)) throw new AssertionError("There isn't one!");
+    IdentityKey identityKey = cachedIdentityKey;
+    if (identityKey != null) return identityKey;
 
-    try {
-      byte[] publicKeyBytes = Base64.decode(retrieve(context, IDENTITY_PUBLIC_KEY_PREF));
-      return new IdentityKey(publicKeyBytes, 0);
-    } catch (IOException | InvalidKeyException e) {
-      throw new AssertionError(e);
+    synchronized (LOCK) {
+      if (cachedIdentityKey != null) return cachedIdentityKey;
+      if (!hasIdentityKey(context))  throw new AssertionError("There isn't one!");
+
+      try {
+        byte[] publicKeyBytes = Base64.decode(retrieve(context, IDENTITY_PUBLIC_KEY_PREF));
+        identityKey = new IdentityKey(publicKeyBytes, 0);
+
+        cachedIdentityKey = identityKey;
+        return identityKey;
+      } catch (IOException | InvalidKeyException e) {
+        throw new AssertionError(e);
+      }
     }
   }
 
+  /**
+   * The decoded key pair is kept in memory after the first call, so that every session
+   * operation doesn't read and decode it from preferences again. The cache is only filled
+   * and cleared under the same lock that writes the keys, so a read that races a write can't
+   * put the old key pair back.
+   */
   public static @NonNull IdentityKeyPair getIdentityKeyPair(@NonNull Context context) {
-    if (!hasIdentityKey(context)) throw new AssertionError("There isn't one!");
+    IdentityKeyPair identityKeyPair = cachedIdentityKeyPair;
+    if (identityKeyPair != null) return identityKeyPair;
 
-    try {
-      IdentityKey  publicKey  = getIdentityKey(context);
-      ECPrivateKey privateKey = Curve.decodePrivatePoint(Base64.decode(retrieve(context, IDENTITY_PRIVATE_KEY_PREF)));
+    synchronized (LOCK) {
+      if (cachedIdentityKeyPair != null) return cachedIdentityKeyPair;
+      if (!hasIdentityKey(context))      throw new AssertionError("There isn't one!");
 
-      return new IdentityKeyPair(publicKey, privateKey);
-    } catch (IOException e) {
-      throw new AssertionError(e);
+      try {
+        IdentityKey  publicKey  = getIdentityKey(context);
+        ECPrivateKey privateKey = Curve.decodePrivatePoint(Base64.decode(retrieve(context, IDENTITY_PRIVATE_KEY_PREF)));
+
+        identityKeyPair = new IdentityKeyPair(publicKey, privateKey);
+
+        cachedIdentityKeyPair = identityKeyPair;
+        return identityKeyPair;
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
     }
   }
 
@@ -85,24 +114,28 @@ public class IdentityKeyUtil {
     IdentityKey  djbIdentityKey = new IdentityKey(djbKeyPair.getPublicKey());
     ECPrivateKey djbPrivateKey  = djbKeyPair.getPrivateKey();
 
-    save(context, IDENTITY_PUBLIC_KEY_PREF, Base64.encodeBytes(djbIdentityKey.serialize()));
-    save(context, IDENTITY_PRIVATE_KEY_PREF, Base64.encodeBytes(djbPrivateKey.serialize()));
+    synchronized (LOCK) {
+      save(context, IDENTITY_PUBLIC_KEY_PREF, Base64.encodeBytes(djbIdentityKey.serialize()));
+      save(context, IDENTITY_PRIVATE_KEY_PREF, Base64.encodeBytes(djbPrivateKey.serialize()));
+    }
   }
 
   public static void migrateIdentityKeys(@NonNull Context context,
                                          @NonNull MasterSecret masterSecret)
   {
-    if (!hasIdentityKey(context)) {
-      if (hasLegacyIdentityKeys(context)) {
-        IdentityKeyPair legacyPair = getLegacyIdentityKeyPair(context, masterSecret);
-
-        save(context, IDENTITY_PUBLIC_KEY_PREF, Base64.encodeBytes(legacyPair.getPublicKey().serialize()));
-        save(context, IDENTITY_PRIVATE_KEY_PREF, Base64.encodeBytes(legacyPair.getPrivateKey().serialize()));
-
-        delete(context, IDENTITY_PUBLIC_KEY_CIPHERTEXT_LEGACY_PREF);
-        delete(context, IDENTITY_PRIVATE_KEY_CIPHERTEXT_LEGACY_PREF);
-      } else {
-        generateIdentityKeys(context);
+    synchronized (LOCK) {
+      if (!hasIdentityKey(context)) {
+        if (hasLegacyIdentityKeys(context)) {
+          IdentityKeyPair legacyPair = getLegacyIdentityKeyPair(context, masterSecret);
+
+          save(context, IDENTITY_PUBLIC_KEY_PREF, Base64.encodeBytes(legacyPair.getPublicKey().serialize()));
+          save(context, IDENTITY_PRIVATE_KEY_PREF, Base64.encodeBytes(legacyPair.getPrivateKey().serialize()));
+
+          delete(context, IDENTITY_PUBLIC_KEY_CIPHERTEXT_LEGACY_PREF);
+          delete(context, IDENTITY_PRIVATE_KEY_CIPHERTEXT_LEGACY_PREF);
+        } else {
+          generateIdentityKeys(context);
+        }
       }
     }
   }
@@ -134,15 +167,27 @@ public class IdentityKeyUtil {
   }
 
   private static void save(Context context, String key, String value) {
-    SharedPreferences preferences   = context.getSharedPreferences(MasterSecretUtil.PREFERENCES_NAME, 0);
-    Editor preferencesEditor        = preferences.edit();
+    synchronized (LOCK) {
+      SharedPreferences preferences   = context.getSharedPreferences(MasterSecretUtil.PREFERENCES_NAME, 0);
+      Editor preferencesEditor        = preferences.edit();
 
-    preferencesEditor.putString(key, value);
-    if (!preferencesEditor.commit()) throw new AssertionError("failed to save identity key/value to shared preferences");
+      preferencesEditor.putString(key, value);
+      if (!preferencesEditor.commit()) throw new AssertionError("failed to save identity key/value to shared preferences");
+
+      clearCache();
+    }
   }
 
   private static void delete(Context context, String key) {
-    context.getSharedPreferences(MasterSecretUtil.PREFERENCES_NAME, 0).edit().remove(key).commit();
+    synchronized (LOCK) {
+      context.getSharedPreferences(MasterSecretUtil.PREFERENCES_NAME, 0).edit().remove(key).commit();
+      clearCache();
+    }
+  }
+
+  private static void clearCache() {
+    cachedIdentityKey     = null;
+    cachedIdentityKeyPair = null;
   }
 
 }
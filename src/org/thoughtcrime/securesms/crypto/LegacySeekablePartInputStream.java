@@ -0,0 +1,175 @@
+package org.thoughtcrime.securesms.crypto;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Random access over a legacy IV | AES-CBC | HmacSHA1 part.
+ *
+ * Any CBC block can be decrypted using the ciphertext block before it as the IV, so a seek
+ * only costs decrypting the read-ahead window around the new position. The plaintext length
+ * comes from the padding in the last block. The whole-file MAC is verified once, when the
+ * stream is opened, rather than on every reposition.
+ */
+class LegacySeekablePartInputStream extends SeekablePartInputStream {
+
+  private static final int BLOCK_SIZE  = 16;
+  private static final int IV_LENGTH   = 16;
+  private static final int MAC_LENGTH  = 20;
+  private static final int WINDOW_SIZE = 64 * 1024;
+
+  private final RandomAccessFile file;
+  private final SecretKeySpec    cipherKey;
+  private final Cipher           cipher;
+  private final long             plaintextLength;
+  private final byte[]           ciphertext;
+  private final byte[]           window;
+  private final byte[]           iv;
+
+  private long position;
+  private long windowStart = -1;
+  private int  windowLength;
+
+  /**
+   * Takes ownership of the open file, which is closed with this stream. If the part isn't
+   * valid, the caller still owns it and should close it.
+   */
+  LegacySeekablePartInputStream(@NonNull MasterSecret masterSecret, @NonNull RandomAccessFile file) throws IOException {
+    long ciphertextLength = file.length() - IV_LENGTH - MAC_LENGTH;
+
+    if (ciphertextLength <= 0 || ciphertextLength % BLOCK_SIZE != 0) {
+      throw new IOException("Invalid legacy part length");
+    }
+
+    DecryptingPartInputStream.verifyMac(masterSecret, file);
+
+    this.file       = file;
+    this.cipherKey  = masterSecret.getEncryptionKey();
+    this.ciphertext = new byte[WINDOW_SIZE];
+    this.window     = new byte[WINDOW_SIZE];
+    this.iv         = new byte[BLOCK_SIZE];
+
+    try {
+      this.cipher = Cipher.getInstance("AES/CBC/NoPadding");
+    } catch (GeneralSecurityException e) {
+      throw new AssertionError(e);
+    }
+
+    this.plaintextLength = ciphertextLength - getPaddingLength(ciphertextLength);
+  }
+
+  @Override
+  public long getPlaintextLength() {
+    return plaintextLength;
+  }
+
+  @Override
+  public long getPosition() {
+    return position;
+  }
+
+  @Override
+  public void seek(long position) throws IOException {
+    if (position < 0) throw new IOException("Negative seek: " + position);
+    this.position = Math.min(position, plaintextLength);
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] buffer = new byte[1];
+    int    read   = read(buffer, 0, 1);
+
+    return read == -1 ? -1 : buffer[0] & 0xFF;
+  }
+
+  @Override
+  public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0)                 return 0;
+    if (position >= plaintextLength) return -1;
+
+    if (windowStart == -1 || position < windowStart || position >= windowStart + windowLength) {
+      loadWindow(position - position % BLOCK_SIZE);
+    }
+
+    int windowOffset = (int)(position - windowStart);
+    int read         = Math.min(length, windowLength - windowOffset);
+
+    System.arraycopy(window, windowOffset, buffer, offset, read);
+    position += read;
+
+    return read;
+  }
+
+  @Override
+  public long skip(long skipAmount) throws IOException {
+    if (skipAmount <= 0) return 0;
+
+    long skipped = Math.min(skipAmount, plaintextLength - position);
+    position += skipped;
+
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return (int)Math.min(Integer.MAX_VALUE, plaintextLength - position);
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  private void loadWindow(long start) throws IOException {
+    int length = (int)Math.min(WINDOW_SIZE, plaintextLength - start);
+    int blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+    decryptBlocks(start, blocks, window);
+
+    windowStart  = start;
+    windowLength = length;
+  }
+
+  private long getPaddingLength(long ciphertextLength) throws IOException {
+    byte[] lastBlock = new byte[BLOCK_SIZE];
+    decryptBlocks(ciphertextLength - BLOCK_SIZE, 1, lastBlock);
+
+    int padding = lastBlock[BLOCK_SIZE - 1] & 0xFF;
+
+    if (padding < 1 || padding > BLOCK_SIZE) {
+      throw new IOException("Bad padding");
+    }
+
+    for (int i=BLOCK_SIZE - padding;i<BLOCK_SIZE;i++) {
+      if ((lastBlock[i] & 0xFF) != padding) throw new IOException("Bad padding");
+    }
+
+    return padding;
+  }
+
+  /**
+   * Decrypts whole blocks starting at the block-aligned plaintext offset, using the
+   * preceding ciphertext block (or the part's IV for the first block) as the IV.
+   */
+  private void decryptBlocks(long start, int blocks, byte[] output) throws IOException {
+    int length = blocks * BLOCK_SIZE;
+
+    file.seek(start);
+    file.readFully(iv);
+    file.readFully(ciphertext, 0, length);
+
+    try {
+      cipher.init(Cipher.DECRYPT_MODE, cipherKey, new IvParameterSpec(iv));
+      cipher.doFinal(ciphertext, 0, length, output, 0);
+    } catch (GeneralSecurityException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
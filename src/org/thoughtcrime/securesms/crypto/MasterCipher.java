@@ -28,14 +28,12 @@ import org.whispersystems.libsignal.ecc.ECPrivateKey;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
-import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
@@ -49,26 +47,29 @@ import javax.crypto.spec.SecretKeySpec;
  * 1) 16 byte random IV.
  * 2) AES-CBC(plaintext)
  * 3) HMAC-SHA1 of 1 and 2
+ *
+ * Bodies are usually stored as the Base64 encoding of that. Raw bodies are stored as a
+ * {@link #RAW_BODY_VERSION} byte followed by the same bytes, unencoded.
+ *
+ * Cipher and MAC instances are expensive to look up, so they're borrowed from a small
+ * shared pool rather than created for every MasterCipher. The pool is dropped by
+ * {@link #clearCachedContexts()} when the master secret is cleared.
  * 
  * @author Moxie Marlinspike
  */
 
 public class MasterCipher {
 
+  public static final int RAW_BODY_VERSION = 1;
+
   private final MasterSecret masterSecret;
-  private final Cipher encryptingCipher;
-  private final Cipher decryptingCipher;
-  private final Mac hmac;
-	
+
   public MasterCipher(MasterSecret masterSecret) {
-    try {
-      this.masterSecret = masterSecret;		
-      this.encryptingCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-      this.decryptingCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-      this.hmac             = Mac.getInstance("HmacSHA1");
-    } catch (NoSuchPaddingException | NoSuchAlgorithmException nspe) {
-      throw new AssertionError(nspe);
-    }
+    this.masterSecret = masterSecret;
+  }
+
+  public static void clearCachedContexts() {
+    CipherContext.clear();
   }
 
   public byte[] encryptKey(ECPrivateKey privateKey) {
@@ -78,11 +79,50 @@ public class MasterCipher {
   public String encryptBody(@NonNull  String body)  {
     return encryptAndEncodeBytes(body.getBytes());
   }
-	
+
   public String decryptBody(String body) throws InvalidMessageException {
-    return new String(decodeAndDecryptBytes(body));
+    CipherContext context = CipherContext.obtain();
+
+    try {
+      int length = decrypt(context, decodeBytes(body), 0);
+      return new String(context.buffer, 0, length);
+    } finally {
+      context.recycle();
+    }
   }
-	
+
+  public String decryptRawBody(@NonNull byte[] rawBody) throws InvalidMessageException {
+    checkRawBodyVersion(rawBody);
+
+    CipherContext context = CipherContext.obtain();
+
+    try {
+      int length = decrypt(context, rawBody, 1);
+      return new String(context.buffer, 0, length);
+    } finally {
+      context.recycle();
+    }
+  }
+
+  /**
+   * Re-encodes a Base64 body as a raw body. It doesn't need the master secret, so stored
+   * bodies can be converted without decrypting them.
+   */
+  public static byte[] toRawBody(@NonNull String body) throws InvalidMessageException {
+    byte[] encrypted = decodeBytes(body);
+    byte[] rawBody   = new byte[encrypted.length + 1];
+
+    rawBody[0] = RAW_BODY_VERSION;
+    System.arraycopy(encrypted, 0, rawBody, 1, encrypted.length);
+
+    return rawBody;
+  }
+
+  public static String fromRawBody(@NonNull byte[] rawBody) throws InvalidMessageException {
+    checkRawBodyVersion(rawBody);
+    return Base64.encodeBytes(rawBody, 1, rawBody.length - 1);
+  }
+
   public ECPrivateKey decryptKey(byte[] key)
       throws org.whispersystems.libsignal.InvalidKeyException
   {
@@ -92,132 +132,236 @@ public class MasterCipher {
       throw new org.whispersystems.libsignal.InvalidKeyException(ime);
     }
   }
-	
+
   public byte[] decryptBytes(@NonNull byte[] decodedBody) throws InvalidMessageException {
+    CipherContext context = CipherContext.obtain();
+
     try {
-      Mac mac              = getMac(masterSecret.getMacKey());
-      byte[] encryptedBody = verifyMacBody(mac, decodedBody);
-			
-      Cipher cipher        = getDecryptingCipher(masterSecret.getEncryptionKey(), encryptedBody);
-      byte[] encrypted     = getDecryptedBody(cipher, encryptedBody);
-			
-      return encrypted;
-    } catch (GeneralSecurityException ge) {
-      throw new InvalidMessageException(ge);
+      int length = decrypt(context, decodedBody, 0);
+      return Arrays.copyOf(context.buffer, length);
+    } finally {
+      context.recycle();
     }
   }
-	
+
   public byte[] encryptBytes(byte[] body) {
+    CipherContext context = CipherContext.obtain();
+
     try {
-      Cipher cipher              = getEncryptingCipher(masterSecret.getEncryptionKey());
-      Mac    mac                 = getMac(masterSecret.getMacKey());
-		
-      byte[] encryptedBody       = getEncryptedBody(cipher, body);
-      byte[] encryptedAndMacBody = getMacBody(mac, encryptedBody);
-		
+      Cipher cipher = context.getEncryptingCipher(masterSecret.getEncryptionKey());
+      Mac    mac    = context.getMac(masterSecret.getMacKey());
+
+      byte[] iv                  = cipher.getIV();
+      byte[] encryptedAndMacBody = new byte[iv.length + cipher.getOutputSize(body.length) + mac.getMacLength()];
+
+      System.arraycopy(iv, 0, encryptedAndMacBody, 0, iv.length);
+
+      int encryptedLength = iv.length + cipher.doFinal(body, 0, body.length, encryptedAndMacBody, iv.length);
+
+      if (encryptedLength + mac.getMacLength() != encryptedAndMacBody.length) {
+        encryptedAndMacBody = Arrays.copyOf(encryptedAndMacBody, encryptedLength + mac.getMacLength());
+      }
+
+      mac.update(encryptedAndMacBody, 0, encryptedLength);
+      mac.doFinal(encryptedAndMacBody, encryptedLength);
+
       return encryptedAndMacBody;
     } catch (GeneralSecurityException ge) {
       Log.w("bodycipher", ge);
       return null;
-    }	
-		
+    } finally {
+      context.recycle();
+    }
   }
-	
+
   public boolean verifyMacFor(String content, byte[] theirMac) {
     byte[] ourMac = getMacFor(content);
     Log.w("MasterCipher", "Our Mac: " + Hex.toString(ourMac));
     Log.w("MasterCipher", "Thr Mac: " + Hex.toString(theirMac));
     return Arrays.equals(ourMac, theirMac);
   }
-	
+
   public byte[] getMacFor(String content) {
     Log.w("MasterCipher", "Macing: " + content);
+    CipherContext context = CipherContext.obtain();
+
     try {
-      Mac mac = getMac(masterSecret.getMacKey());
-      return mac.doFinal(content.getBytes());
+      return context.getMac(masterSecret.getMacKey()).doFinal(content.getBytes());
     } catch (GeneralSecurityException ike) {
       throw new AssertionError(ike);
+    } finally {
+      context.recycle();
+    }
+  }
+
+  /**
+   * Verifies and decrypts into the context's buffer, without copying the ciphertext or MAC.
+   *
+   * @param offset Where the IV starts in encryptedAndMac.
+   * @return The length of the plaintext at the start of the context's buffer.
+   */
+  private int decrypt(@NonNull CipherContext context, @NonNull byte[] encryptedAndMac, int offset)
+      throws InvalidMessageException
+  {
+    try {
+      Mac mac       = context.getMac(masterSecret.getMacKey());
+      int macLength = mac.getMacLength();
+
+      if (encryptedAndMac.length - offset < macLength) {
+        throw new InvalidMessageException("length(encrypted body + MAC) < length(MAC)");
+      }
+
+      int encryptedLength = encryptedAndMac.length - offset - macLength;
+
+      mac.update(encryptedAndMac, offset, encryptedLength);
+
+      if (!isEqual(mac.doFinal(), encryptedAndMac, offset + encryptedLength)) {
+        throw new InvalidMessageException("MAC doesen't match.");
+      }
+
+      Cipher cipher    = context.decryptingCipher;
+      int    blockSize = cipher.getBlockSize();
+
+      if (encryptedLength < blockSize) {
+        throw new InvalidMessageException("length(encrypted body) < length(IV)");
+      }
+
+      cipher.init(Cipher.DECRYPT_MODE, masterSecret.getEncryptionKey(), new IvParameterSpec(encryptedAndMac, offset, blockSize));
+
+      byte[] buffer = context.getBuffer(cipher.getOutputSize(encryptedLength - blockSize));
+
+      return cipher.doFinal(encryptedAndMac, offset + blockSize, encryptedLength - blockSize, buffer, 0);
+    } catch (GeneralSecurityException ge) {
+      throw new InvalidMessageException(ge);
+    }
+  }
+
+  private static void checkRawBodyVersion(@NonNull byte[] rawBody) throws InvalidMessageException {
+    if (rawBody.length == 0 || rawBody[0] != RAW_BODY_VERSION) {
+      throw new InvalidMessageException("Unknown raw body version");
     }
   }
 
-  private byte[] decodeAndDecryptBytes(String body) throws InvalidMessageException {
+  private static byte[] decodeBytes(String body) throws InvalidMessageException {
     try {
-      byte[] decodedBody = Base64.decode(body);
-      return decryptBytes(decodedBody);
+      return Base64.decode(body);
     } catch (IOException e) {
       throw new InvalidMessageException("Bad Base64 Encoding...", e);
     }
   }
-	
+
   private String encryptAndEncodeBytes(@NonNull  byte[] bytes) {
     byte[] encryptedAndMacBody = encryptBytes(bytes);
     return Base64.encodeBytes(encryptedAndMacBody);
   }
-	
-  private byte[] verifyMacBody(@NonNull Mac hmac, @NonNull byte[] encryptedAndMac) throws InvalidMessageException {
-    if (encryptedAndMac.length < hmac.getMacLength()) {
-      throw new InvalidMessageException("length(encrypted body + MAC) < length(MAC)");
-    }
-
-    byte[] encrypted = new byte[encryptedAndMac.length - hmac.getMacLength()];
-    System.arraycopy(encryptedAndMac, 0, encrypted, 0, encrypted.length);
-		
-    byte[] remoteMac = new byte[hmac.getMacLength()];
-    System.arraycopy(encryptedAndMac, encryptedAndMac.length - remoteMac.length, remoteMac, 0, remoteMac.length);
-		
-    byte[] localMac  = hmac.doFinal(encrypted);
-		
-    if (!Arrays.equals(remoteMac, localMac))
-      throw new InvalidMessageException("MAC doesen't match.");
-		
-    return encrypted;
-  }
-	
-  private byte[] getDecryptedBody(Cipher cipher, byte[] encryptedBody) throws IllegalBlockSizeException, BadPaddingException {
-    return cipher.doFinal(encryptedBody, cipher.getBlockSize(), encryptedBody.length - cipher.getBlockSize());
-  }
-	
-  private byte[] getEncryptedBody(Cipher cipher, byte[] body) throws IllegalBlockSizeException, BadPaddingException {
-    byte[] encrypted = cipher.doFinal(body);
-    byte[] iv        = cipher.getIV();
-		
-    byte[] ivAndBody = new byte[iv.length + encrypted.length];
-    System.arraycopy(iv, 0, ivAndBody, 0, iv.length);
-    System.arraycopy(encrypted, 0, ivAndBody, iv.length, encrypted.length);
-		
-    return ivAndBody;
-  }
-	
-  private Mac getMac(SecretKeySpec key) throws NoSuchAlgorithmException, InvalidKeyException {
-    //		Mac hmac = Mac.getInstance("HmacSHA1");
-    hmac.init(key);
-
-    return hmac;
-  }
-	
-  private byte[] getMacBody(Mac hmac, byte[] encryptedBody) {
-    byte[] mac             = hmac.doFinal(encryptedBody);
-    byte[] encryptedAndMac = new byte[encryptedBody.length + mac.length];
-
-    System.arraycopy(encryptedBody, 0, encryptedAndMac, 0, encryptedBody.length);
-    System.arraycopy(mac, 0, encryptedAndMac, encryptedBody.length, mac.length);
-		
-    return encryptedAndMac;
-  }
-	
-  private Cipher getDecryptingCipher(SecretKeySpec key, byte[] encryptedBody) throws InvalidKeyException, InvalidAlgorithmParameterException, NoSuchAlgorithmException, NoSuchPaddingException {
-    //		Cipher cipher      = Cipher.getInstance("AES/CBC/PKCS5Padding");
-    IvParameterSpec iv = new IvParameterSpec(encryptedBody, 0, decryptingCipher.getBlockSize());
-    decryptingCipher.init(Cipher.DECRYPT_MODE, key, iv);
-		
-    return decryptingCipher;
-  }
-	
-  private Cipher getEncryptingCipher(SecretKeySpec key) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchPaddingException {
-    //		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-    encryptingCipher.init(Cipher.ENCRYPT_MODE, key);
-		
-    return encryptingCipher;
-  }
-	
+
+  private static boolean isEqual(byte[] ourMac, byte[] theirMacAndBody, int theirMacOffset) {
+    int result = 0;
+
+    for (int i=0;i<ourMac.length;i++) {
+      result |= ourMac[i] ^ theirMacAndBody[theirMacOffset + i];
+    }
+
+    return result == 0;
+  }
+
+  private static class CipherContext {
+
+    private static final int MAX_POOL_SIZE   = 4;
+    private static final int MAX_BUFFER_SIZE = 16 * 1024;
+
+    private static final ArrayDeque<CipherContext> pool = new ArrayDeque<>(MAX_POOL_SIZE);
+
+    private static int generation;
+
+    private final Cipher encryptingCipher;
+    private final Cipher decryptingCipher;
+    private final Mac    hmac;
+    private final int    contextGeneration;
+
+    private SecretKeySpec macKey;
+    private byte[]        buffer = new byte[256];
+
+    private CipherContext(int contextGeneration) {
+      try {
+        this.encryptingCipher  = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        this.decryptingCipher  = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        this.hmac              = Mac.getInstance("HmacSHA1");
+        this.contextGeneration = contextGeneration;
+      } catch (NoSuchPaddingException | NoSuchAlgorithmException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    static CipherContext obtain() {
+      int currentGeneration;
+
+      synchronized (pool) {
+        CipherContext context = pool.poll();
+        if (context != null) return context;
+
+        currentGeneration = generation;
+      }
+
+      return new CipherContext(currentGeneration);
+    }
+
+    static void clear() {
+      synchronized (pool) {
+        generation++;
+
+        for (CipherContext context : pool) {
+          context.wipe();
+        }
+
+        pool.clear();
+      }
+    }
+
+    void recycle() {
+      if (buffer.length > MAX_BUFFER_SIZE) {
+        wipe();
+        buffer = new byte[256];
+      }
+
+      synchronized (pool) {
+        if (contextGeneration == generation && pool.size() < MAX_POOL_SIZE) {
+          pool.push(this);
+          return;
+        }
+      }
+
+      wipe();
+    }
+
+    Mac getMac(SecretKeySpec key) throws InvalidKeyException {
+      if (macKey != key) {
+        hmac.init(key);
+        macKey = key;
+      } else {
+        hmac.reset();
+      }
+
+      return hmac;
+    }
+
+    Cipher getEncryptingCipher(SecretKeySpec key) throws InvalidKeyException {
+      encryptingCipher.init(Cipher.ENCRYPT_MODE, key);
+      return encryptingCipher;
+    }
+
+    byte[] getBuffer(int length) {
+      if (buffer.length < length) {
+        Arrays.fill(buffer, (byte)0x00);
+        buffer = new byte[length];
+      }
+
+      return buffer;
+    }
+
+    private void wipe() {
+      Arrays.fill(buffer, (byte)0x00);
+      macKey = null;
+    }
+  }
 }
@@ -0,0 +1,18 @@
+package org.thoughtcrime.securesms.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A decrypting part stream that knows its plaintext length up front and can be
+ * repositioned without decrypting the data in between.
+ */
+public abstract class SeekablePartInputStream extends InputStream {
+
+  public abstract long getPlaintextLength();
+
+  public abstract long getPosition();
+
+  public abstract void seek(long position) throws IOException;
+
+}
@@ -0,0 +1,167 @@
+package org.thoughtcrime.securesms.crypto.storage;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.whispersystems.libsignal.SignalProtocolAddress;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, write-through cache of serialized session records, along with a set
+ * of striped locks so that loads and stores for unrelated addresses don't serialize
+ * behind each other.
+ *
+ * Records are held in their serialized form so that every caller gets its own
+ * mutable SessionRecord, exactly as if it had been read from disk.
+ */
+public class SessionRecordCache {
+
+  private static final int MAX_ENTRIES  = 500;
+  private static final int LOCK_STRIPES = 32;
+
+  private final Map<SignalProtocolAddress, byte[]> records;
+  private final ReentrantLock[]                   locks;
+
+  private final AtomicLong hits             = new AtomicLong();
+  private final AtomicLong misses           = new AtomicLong();
+  private final AtomicLong lockAcquisitions = new AtomicLong();
+  private final AtomicLong lockContentions  = new AtomicLong();
+  private final AtomicLong lockWaitNanos    = new AtomicLong();
+
+  SessionRecordCache() {
+    this.records = new LinkedHashMap<SignalProtocolAddress, byte[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<SignalProtocolAddress, byte[]> eldest) {
+        return size() > MAX_ENTRIES;
+      }
+    };
+
+    this.locks = new ReentrantLock[LOCK_STRIPES];
+
+    for (int i=0;i<locks.length;i++) {
+      locks[i] = new ReentrantLock();
+    }
+  }
+
+  void lock(@NonNull SignalProtocolAddress address) {
+    ReentrantLock lock = getLock(address);
+
+    lockAcquisitions.incrementAndGet();
+
+    if (!lock.tryLock()) {
+      long startTime = System.nanoTime();
+      lock.lock();
+      lockContentions.incrementAndGet();
+      lockWaitNanos.addAndGet(System.nanoTime() - startTime);
+    }
+  }
+
+  void unlock(@NonNull SignalProtocolAddress address) {
+    getLock(address).unlock();
+  }
+
+  @Nullable byte[] get(@NonNull SignalProtocolAddress address) {
+    byte[] serialized;
+
+    synchronized (records) {
+      serialized = records.get(address);
+    }
+
+    if (serialized != null) hits.incrementAndGet();
+    else                    misses.incrementAndGet();
+
+    return serialized;
+  }
+
+  void put(@NonNull SignalProtocolAddress address, @NonNull byte[] serialized) {
+    synchronized (records) {
+      records.put(address, serialized);
+    }
+  }
+
+  void remove(@NonNull SignalProtocolAddress address) {
+    synchronized (records) {
+      records.remove(address);
+    }
+  }
+
+  void clear() {
+    synchronized (records) {
+      records.clear();
+    }
+  }
+
+  @NonNull Stats getStats() {
+    int size;
+
+    synchronized (records) {
+      size = records.size();
+    }
+
+    return new Stats(size, hits.get(), misses.get(), lockAcquisitions.get(),
+                     lockContentions.get(), lockWaitNanos.get());
+  }
+
+  private ReentrantLock getLock(@NonNull SignalProtocolAddress address) {
+    return locks[(address.hashCode() & 0x7fffffff) % locks.length];
+  }
+
+  public static class Stats {
+
+    private final int  size;
+    private final long hits;
+    private final long misses;
+    private final long lockAcquisitions;
+    private final long lockContentions;
+    private final long lockWaitNanos;
+
+    Stats(int size, long hits, long misses, long lockAcquisitions, long lockContentions, long lockWaitNanos) {
+      this.size             = size;
+      this.hits             = hits;
+      this.misses           = misses;
+      this.lockAcquisitions = lockAcquisitions;
+      this.lockContentions  = lockContentions;
+      this.lockWaitNanos    = lockWaitNanos;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public double getHitRate() {
+      long total = hits + misses;
+      return total == 0 ? 0 : (double)hits / total;
+    }
+
+    public long getLockAcquisitions() {
+      return lockAcquisitions;
+    }
+
+    public long getLockContentions() {
+      return lockContentions;
+    }
+
+    public long getLockWaitNanos() {
+      return lockWaitNanos;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return "size: " + size + ", hits: " + hits + ", misses: " + misses +
+             ", hit rate: " + getHitRate() + ", lock waits: " + lockContentions + "/" + lockAcquisitions +
+             ", lock wait ms: " + (lockWaitNanos / 1000000);
+    }
+  }
+}
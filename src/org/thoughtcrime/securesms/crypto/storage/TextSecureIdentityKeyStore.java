@@ -89,22 +89,24 @@ public class TextSecureIdentityKeyStore implements IdentityKeyStore {
     return saveIdentity(address, identityKey, false);
   }
 
+  /**
+   * Only reads identity state, which {@link IdentityDatabase} caches and keeps consistent with
+   * writes, so this doesn't serialize on the lock that {@link #saveIdentity} holds.
+   */
   @Override
   public boolean isTrustedIdentity(SignalProtocolAddress address, IdentityKey identityKey, Direction direction) {
-    synchronized (LOCK) {
-      IdentityDatabase identityDatabase = DatabaseFactory.getIdentityDatabase(context);
-      String           ourNumber        = TextSecurePreferences.getLocalNumber(context);
-      Address          theirAddress     = Address.fromExternal(context, address.getName());
+    IdentityDatabase identityDatabase = DatabaseFactory.getIdentityDatabase(context);
+    String           ourNumber        = TextSecurePreferences.getLocalNumber(context);
+    Address          theirAddress     = Address.fromExternal(context, address.getName());
 
-      if (ourNumber.equals(address.getName()) || Address.fromSerialized(ourNumber).equals(theirAddress)) {
-        return identityKey.equals(IdentityKeyUtil.getIdentityKey(context));
-      }
+    if (ourNumber.equals(address.getName()) || Address.fromSerialized(ourNumber).equals(theirAddress)) {
+      return identityKey.equals(IdentityKeyUtil.getIdentityKey(context));
+    }
 
-      switch (direction) {
-        case SENDING:   return isTrustedForSending(identityKey, identityDatabase.getIdentity(theirAddress));
-        case RECEIVING: return true;
-        default:        throw new AssertionError("Unknown direction: " + direction);
-      }
+    switch (direction) {
+      case SENDING:   return isTrustedForSending(identityKey, identityDatabase.getIdentity(theirAddress));
+      case RECEIVING: return true;
+      default:        throw new AssertionError("Unknown direction: " + direction);
     }
   }
 
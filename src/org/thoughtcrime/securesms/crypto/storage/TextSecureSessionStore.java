@@ -33,6 +33,8 @@ public class TextSecureSessionStore implements SessionStore {
   private static final String SESSIONS_DIRECTORY_V2 = "sessions-v2";
   private static final Object FILE_LOCK             = new Object();
 
+  private static final SessionRecordCache CACHE = new SessionRecordCache();
+
   private static final int SINGLE_STATE_VERSION   = 1;
   private static final int ARCHIVE_STATES_VERSION = 2;
   private static final int PLAINTEXT_VERSION      = 3;
@@ -52,56 +54,52 @@ public class TextSecureSessionStore implements SessionStore {
 
   @Override
   public SessionRecord loadSession(@NonNull SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
-      try {
-        FileInputStream in            = new FileInputStream(getSessionFile(address));
-        int             versionMarker = readInteger(in);
+    CACHE.lock(address);
 
-        if (versionMarker > CURRENT_VERSION) {
-          throw new AssertionError("Unknown version: " + versionMarker);
-        }
+    try {
+      byte[] cached = CACHE.get(address);
 
-        byte[] serialized = readBlob(in);
-        in.close();
+      if (cached != null) {
+        return new SessionRecord(cached);
+      }
 
-        if (versionMarker < PLAINTEXT_VERSION && masterSecret != null) {
-          serialized = new MasterCipher(masterSecret).decryptBytes(serialized);
-        } else if (versionMarker < PLAINTEXT_VERSION) {
-          throw new AssertionError("Session didn't get migrated: (" + versionMarker + "," + address + ")");
-        }
+      SessionRecord record = loadSessionFromDisk(address);
 
-        if (versionMarker == SINGLE_STATE_VERSION) {
-          SessionStructure sessionStructure = SessionStructure.parseFrom(serialized);
-          SessionState     sessionState     = new SessionState(sessionStructure);
-          return new SessionRecord(sessionState);
-        } else if (versionMarker >= ARCHIVE_STATES_VERSION) {
-          return new SessionRecord(serialized);
-        } else {
-          throw new AssertionError("Unknown version: " + versionMarker);
-        }
-      } catch (InvalidMessageException | IOException e) {
-        Log.w(TAG, "No existing session information found.");
-        return new SessionRecord();
+      if (record != null) {
+        CACHE.put(address, record.serialize());
+        return record;
       }
+
+      return new SessionRecord();
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    } finally {
+      CACHE.unlock(address);
     }
   }
 
   @Override
   public void storeSession(@NonNull SignalProtocolAddress address, @NonNull SessionRecord record) {
-    synchronized (FILE_LOCK) {
-      try {
-        RandomAccessFile sessionFile  = new RandomAccessFile(getSessionFile(address), "rw");
-        FileChannel      out          = sessionFile.getChannel();
-
-        out.position(0);
-        writeInteger(CURRENT_VERSION, out);
-        writeBlob(record.serialize(), out);
-        out.truncate(out.position());
+    CACHE.lock(address);
 
-        sessionFile.close();
-      } catch (IOException e) {
-        throw new AssertionError(e);
-      }
+    try {
+      byte[]           serialized   = record.serialize();
+      RandomAccessFile sessionFile  = new RandomAccessFile(getSessionFile(address), "rw");
+      FileChannel      out          = sessionFile.getChannel();
+
+      out.position(0);
+      writeInteger(CURRENT_VERSION, out);
+      writeBlob(serialized, out);
+      out.truncate(out.position());
+
+      sessionFile.close();
+
+      CACHE.put(address, serialized);
+    } catch (IOException e) {
+      CACHE.remove(address);
+      throw new AssertionError(e);
+    } finally {
+      CACHE.unlock(address);
     }
   }
 
@@ -117,7 +115,14 @@ public class TextSecureSessionStore implements SessionStore {
 
   @Override
   public void deleteSession(SignalProtocolAddress address) {
-    getSessionFile(address).delete();
+    CACHE.lock(address);
+
+    try {
+      getSessionFile(address).delete();
+      CACHE.remove(address);
+    } finally {
+      CACHE.unlock(address);
+    }
   }
 
   @Override
@@ -164,8 +169,14 @@ public class TextSecureSessionStore implements SessionStore {
           SignalProtocolAddress address = getAddressName(session);
 
           if (address != null) {
-            SessionRecord sessionRecord = loadSession(address);
-            storeSession(address, sessionRecord);
+            CACHE.lock(address);
+
+            try {
+              SessionRecord sessionRecord = loadSession(address);
+              storeSession(address, sessionRecord);
+            } finally {
+              CACHE.unlock(address);
+            }
           }
         }
       }
@@ -181,15 +192,58 @@ public class TextSecureSessionStore implements SessionStore {
           SignalProtocolAddress address = getAddressName(session);
 
           if (address != null) {
-            SessionRecord sessionRecord = loadSession(address);
-            sessionRecord.archiveCurrentState();
-            storeSession(address, sessionRecord);
+            CACHE.lock(address);
+
+            try {
+              SessionRecord sessionRecord = loadSession(address);
+              sessionRecord.archiveCurrentState();
+              storeSession(address, sessionRecord);
+            } finally {
+              CACHE.unlock(address);
+            }
           }
         }
       }
     }
   }
 
+  public static SessionRecordCache.Stats getCacheStats() {
+    return CACHE.getStats();
+  }
+
+  private @Nullable SessionRecord loadSessionFromDisk(@NonNull SignalProtocolAddress address) {
+    try {
+      FileInputStream in            = new FileInputStream(getSessionFile(address));
+      int             versionMarker = readInteger(in);
+
+      if (versionMarker > CURRENT_VERSION) {
+        throw new AssertionError("Unknown version: " + versionMarker);
+      }
+
+      byte[] serialized = readBlob(in);
+      in.close();
+
+      if (versionMarker < PLAINTEXT_VERSION && masterSecret != null) {
+        serialized = new MasterCipher(masterSecret).decryptBytes(serialized);
+      } else if (versionMarker < PLAINTEXT_VERSION) {
+        throw new AssertionError("Session didn't get migrated: (" + versionMarker + "," + address + ")");
+      }
+
+      if (versionMarker == SINGLE_STATE_VERSION) {
+        SessionStructure sessionStructure = SessionStructure.parseFrom(serialized);
+        SessionState     sessionState     = new SessionState(sessionStructure);
+        return new SessionRecord(sessionState);
+      } else if (versionMarker >= ARCHIVE_STATES_VERSION) {
+        return new SessionRecord(serialized);
+      } else {
+        throw new AssertionError("Unknown version: " + versionMarker);
+      }
+    } catch (InvalidMessageException | IOException e) {
+      Log.w(TAG, "No existing session information found.");
+      return null;
+    }
+  }
+
   private File getSessionFile(SignalProtocolAddress address) {
     return new File(getSessionDirectory(), getSessionName(address));
   }
@@ -36,27 +36,34 @@ import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.attachments.Attachment;
 import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
+import org.thoughtcrime.securesms.crypto.ChunkedDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.DecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.EncryptingPartOutputStream;
 import org.thoughtcrime.securesms.crypto.MasterCipher;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.crypto.MasterSecretUnion;
+import org.thoughtcrime.securesms.crypto.SeekablePartInputStream;
 import org.thoughtcrime.securesms.mms.MediaStream;
 import org.thoughtcrime.securesms.mms.MmsException;
 import org.thoughtcrime.securesms.mms.PartAuthority;
+import org.thoughtcrime.securesms.util.BitmapDecodingException;
 import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.MediaUtil.ThumbnailData;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.video.EncryptedMediaDataSource;
 import org.whispersystems.libsignal.InvalidMessageException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -89,6 +96,8 @@ public class AttachmentDatabase extends Database {
   public static final int TRANSFER_PROGRESS_PENDING = 2;
   public static final int TRANSFER_PROGRESS_FAILED  = 3;
 
+  private static final int MAX_CAPTURED_THUMBNAIL_SOURCE = 2 * 1024 * 1024;
+
   private static final String PART_ID_WHERE = ROW_ID + " = ? AND " + UNIQUE_ID + " = ?";
 
   private static final String[] PROJECTION = new String[] {ROW_ID + " AS " + ATTACHMENT_ID_ALIAS,
@@ -114,6 +123,12 @@ public class AttachmentDatabase extends Database {
   };
 
   private final ExecutorService thumbnailExecutor = Util.newSingleThreadedLifoExecutor();
+  private static final int SWEEP_BATCH_SIZE = 400;
+
+  private final ExecutorService migrationExecutor = Util.newSingleThreadedLifoExecutor();
+  private final ExecutorService fileSweeper       = Util.newSingleThreadedLifoExecutor();
+  private final Set<String>     pendingMigrations = new HashSet<>();
+  private final Object          fileLock          = new Object();
 
   public AttachmentDatabase(Context context, SQLiteOpenHelper databaseHelper) {
     super(context, databaseHelper);
@@ -128,6 +143,22 @@ public class AttachmentDatabase extends Database {
     else                    return dataStream;
   }
 
+  public @NonNull SeekablePartInputStream getSeekableAttachmentStream(@NonNull MasterSecret masterSecret, @NonNull AttachmentId attachmentId)
+      throws IOException
+  {
+    File dataFile = getAttachmentDataFile(attachmentId, DATA);
+
+    if (dataFile == null) throw new IOException("No data file for: " + attachmentId);
+
+    SeekablePartInputStream inputStream = DecryptingPartInputStream.createSeekableFor(masterSecret, dataFile);
+
+    if (!(inputStream instanceof ChunkedDecryptingPartInputStream)) {
+      migrateLegacyPart(masterSecret, dataFile);
+    }
+
+    return inputStream;
+  }
+
   public @NonNull InputStream getThumbnailStream(@NonNull MasterSecret masterSecret, @NonNull AttachmentId attachmentId)
       throws IOException
   {
@@ -230,11 +261,11 @@ public class AttachmentDatabase extends Database {
         String thumbnail = cursor.getString(1);
 
         if (!TextUtils.isEmpty(data)) {
-          new File(data).delete();
+          deleteFile(data);
         }
 
         if (!TextUtils.isEmpty(thumbnail)) {
-          new File(thumbnail).delete();
+          deleteFile(thumbnail);
         }
       }
     } finally {
@@ -245,6 +276,103 @@ public class AttachmentDatabase extends Database {
     database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {mmsId + ""});
   }
 
+  /**
+   * Deletes the attachment rows for every message matched by {@code messageIdQuery}, a
+   * subquery selecting message ids. Their files are removed later by a background sweeper,
+   * once the deleting transaction has committed.
+   */
+  /*package*/ void deleteAttachmentsForMessages(@NonNull String messageIdQuery, @Nullable String[] args) {
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    String         where    = MMS_ID + " IN (" + messageIdQuery + ")";
+    List<String>   files    = new LinkedList<>();
+    Cursor         cursor   = null;
+
+    try {
+      cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL}, where, args, null, null, null);
+
+      while (cursor != null && cursor.moveToNext()) {
+        if (!cursor.isNull(0)) files.add(cursor.getString(0));
+        if (!cursor.isNull(1)) files.add(cursor.getString(1));
+      }
+    } finally {
+      if (cursor != null)
+        cursor.close();
+    }
+
+    database.delete(TABLE_NAME, where, args);
+    sweepFiles(files);
+  }
+
+  /**
+   * Removes files that are no longer referenced by any attachment row. The check runs on the
+   * sweeper thread, so it waits for an uncommitted delete to finish, and files whose delete
+   * was rolled back are kept.
+   */
+  @SuppressWarnings("ResultOfMethodCallIgnored")
+  private void sweepFiles(final @NonNull List<String> files) {
+    if (files.isEmpty()) return;
+
+    fileSweeper.execute(new Runnable() {
+      @Override
+      public void run() {
+        List<String> batch = new LinkedList<>();
+        int          swept = 0;
+
+        for (String file : files) {
+          batch.add(file);
+
+          if (batch.size() == SWEEP_BATCH_SIZE) {
+            swept += sweepUnreferenced(batch);
+            batch.clear();
+          }
+        }
+
+        swept += sweepUnreferenced(batch);
+
+        Log.w(TAG, "Swept " + swept + " of " + files.size() + " attachment files");
+      }
+    });
+  }
+
+  @SuppressWarnings("ResultOfMethodCallIgnored")
+  private int sweepUnreferenced(@NonNull List<String> files) {
+    if (files.isEmpty()) return 0;
+
+    SQLiteDatabase database     = databaseHelper.getReadableDatabase();
+    Set<String>    referenced   = new HashSet<>();
+    String[]       args         = new String[files.size() * 2];
+    String         placeholders = TextUtils.join(",", Collections.nCopies(files.size(), "?"));
+    Cursor         cursor       = null;
+    int            swept        = 0;
+
+    for (int i=0;i<files.size();i++) {
+      args[i]                = files.get(i);
+      args[files.size() + i] = files.get(i);
+    }
+
+    try {
+      cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL},
+                              DATA + " IN (" + placeholders + ") OR " + THUMBNAIL + " IN (" + placeholders + ")",
+                              args, null, null, null);
+
+      while (cursor != null && cursor.moveToNext()) {
+        referenced.add(cursor.getString(0));
+        referenced.add(cursor.getString(1));
+      }
+    } finally {
+      if (cursor != null)
+        cursor.close();
+    }
+
+    for (String file : files) {
+      if (!TextUtils.isEmpty(file) && !referenced.contains(file) && deleteFile(file)) {
+        swept++;
+      }
+    }
+
+    return swept;
+  }
+
   @SuppressWarnings("ResultOfMethodCallIgnored")
   public void deleteAllAttachments() {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
@@ -254,7 +382,7 @@ public class AttachmentDatabase extends Database {
     File[] attachments          = attachmentsDirectory.listFiles();
 
     for (File attachment : attachments) {
-      attachment.delete();
+      deleteFile(attachment.getAbsolutePath());
     }
   }
 
@@ -263,9 +391,11 @@ public class AttachmentDatabase extends Database {
                                               @NonNull InputStream inputStream)
       throws MmsException
   {
-    SQLiteDatabase   database = databaseHelper.getWritableDatabase();
-    Pair<File, Long> partData = setAttachmentData(masterSecret, inputStream);
-    ContentValues    values   = new ContentValues();
+    SQLiteDatabase   database    = databaseHelper.getWritableDatabase();
+    String           contentType = getContentType(attachmentId);
+    CaptureBuffer    capture     = MediaUtil.isImageType(contentType) ? new CaptureBuffer(MAX_CAPTURED_THUMBNAIL_SOURCE) : null;
+    Pair<File, Long> partData    = setAttachmentData(masterSecret, inputStream, capture);
+    ContentValues    values      = new ContentValues();
 
     values.put(DATA, partData.first.getAbsolutePath());
     values.put(SIZE, partData.second);
@@ -284,10 +414,51 @@ public class AttachmentDatabase extends Database {
       notifyConversationListListeners();
     }
 
-    thumbnailExecutor.submit(new ThumbnailFetchCallable(masterSecret, attachmentId));
+    if (capture == null || capture.isOverflowed() || !updateCapturedThumbnail(masterSecret, attachmentId, contentType, capture)) {
+      thumbnailExecutor.submit(new ThumbnailFetchCallable(masterSecret, attachmentId));
+    }
+
     return partData.second;
   }
 
+  /**
+   * Builds the thumbnail from the plaintext captured while the part was being written, so
+   * that small images don't have to be read back and decrypted again.
+   */
+  private boolean updateCapturedThumbnail(@NonNull MasterSecret masterSecret,
+                                          @NonNull AttachmentId attachmentId,
+                                          @NonNull String contentType,
+                                          @NonNull CaptureBuffer capture)
+  {
+    try {
+      ThumbnailData data = MediaUtil.generateThumbnail(context, contentType, capture.toByteArray());
+      if (data == null) return false;
+
+      updateAttachmentThumbnail(masterSecret, attachmentId, data.toDataStream(), data.getAspectRatio());
+      return true;
+    } catch (BitmapDecodingException | MmsException e) {
+      Log.w(TAG, e);
+      return false;
+    }
+  }
+
+  private @Nullable String getContentType(@NonNull AttachmentId attachmentId) {
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+    Cursor         cursor   = null;
+
+    try {
+      cursor = database.query(TABLE_NAME, new String[] {CONTENT_TYPE}, PART_ID_WHERE, attachmentId.toStrings(), null, null, null);
+
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getString(0);
+      }
+
+      return null;
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+  }
+
   void insertAttachmentsForMessage(@NonNull MasterSecretUnion masterSecret,
                                    long mmsId,
                                    @NonNull List<Attachment> attachments)
@@ -387,15 +558,73 @@ public class AttachmentDatabase extends Database {
   {
     File dataFile = getAttachmentDataFile(attachmentId, dataType);
 
+    if (dataFile == null) return null;
+
     try {
-      if (dataFile != null) return DecryptingPartInputStream.createFor(masterSecret, dataFile);
-      else                  return null;
+      InputStream inputStream = DecryptingPartInputStream.createFor(masterSecret, dataFile);
+
+      if (!(inputStream instanceof ChunkedDecryptingPartInputStream)) {
+        migrateLegacyPart(masterSecret, dataFile);
+      }
+
+      return inputStream;
     } catch (IOException e) {
       Log.w(TAG, e);
       return null;
     }
   }
 
+  private void migrateLegacyPart(@NonNull final MasterSecret masterSecret, @NonNull final File dataFile) {
+    synchronized (pendingMigrations) {
+      if (!pendingMigrations.add(dataFile.getAbsolutePath())) return;
+    }
+
+    migrationExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        File migrated = null;
+
+        try {
+          if (!dataFile.exists() || !DecryptingPartInputStream.isLegacyFormat(dataFile)) return;
+
+          migrated = File.createTempFile("part", ".mms", dataFile.getParentFile());
+
+          Util.copy(DecryptingPartInputStream.createFor(masterSecret, dataFile),
+                    new EncryptingPartOutputStream(migrated, masterSecret));
+
+          synchronized (fileLock) {
+            if (!dataFile.exists()) {
+              Log.w(TAG, "Part deleted during migration: " + dataFile.getName());
+            } else if (migrated.renameTo(dataFile)) {
+              Log.w(TAG, "Migrated legacy part: " + dataFile.getName());
+              migrated = null;
+            } else {
+              Log.w(TAG, "Couldn't replace legacy part: " + dataFile.getName());
+            }
+          }
+        } catch (IOException e) {
+          Log.w(TAG, e);
+        } finally {
+          if (migrated != null) migrated.delete();
+
+          synchronized (pendingMigrations) {
+            pendingMigrations.remove(dataFile.getAbsolutePath());
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Part files are only removed under the same lock that a legacy migration holds while it
+   * swaps in the re-encrypted file, so a deleted part can't be brought back by the migration.
+   */
+  private boolean deleteFile(@NonNull String path) {
+    synchronized (fileLock) {
+      return new File(path).delete();
+    }
+  }
+
   private @Nullable File getAttachmentDataFile(@NonNull AttachmentId attachmentId,
                                                @NonNull String dataType)
   {
@@ -437,12 +666,54 @@ public class AttachmentDatabase extends Database {
   private @NonNull Pair<File, Long> setAttachmentData(@NonNull MasterSecret masterSecret,
                                                       @NonNull InputStream in)
       throws MmsException
+  {
+    return setAttachmentData(masterSecret, in, null);
+  }
+
+  private @NonNull Pair<File, Long> setAttachmentData(@NonNull MasterSecret masterSecret,
+                                                      @NonNull InputStream in,
+                                                      @Nullable CaptureBuffer capture)
+      throws MmsException
   {
     try {
       File partsDirectory = context.getDir("parts", Context.MODE_PRIVATE);
       File dataFile       = File.createTempFile("part", ".mms", partsDirectory);
 
-      return new Pair<>(dataFile, setAttachmentData(masterSecret, dataFile, in));
+      if (capture == null) return new Pair<>(dataFile, setAttachmentData(masterSecret, dataFile, in));
+      else                 return new Pair<>(dataFile, setAttachmentData(masterSecret, dataFile, in, capture));
+    } catch (IOException e) {
+      throw new MmsException(e);
+    }
+  }
+
+  /**
+   * Encrypts the part to disk while teeing the plaintext into the capture buffer, which stops
+   * collecting once it fills up.
+   */
+  private long setAttachmentData(@NonNull MasterSecret masterSecret,
+                                 @NonNull File destination,
+                                 @NonNull InputStream in,
+                                 @NonNull CaptureBuffer capture)
+      throws MmsException
+  {
+    try {
+      OutputStream out    = new EncryptingPartOutputStream(destination, masterSecret);
+      byte[]       buffer = new byte[8192];
+      long         total  = 0;
+      int          read;
+
+      try {
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+          capture.write(buffer, 0, read);
+          total += read;
+        }
+      } finally {
+        in.close();
+        out.close();
+      }
+
+      return total;
     } catch (IOException e) {
       throw new MmsException(e);
     }
@@ -639,12 +910,52 @@ public class AttachmentDatabase extends Database {
 
       EncryptedMediaDataSource dataSource = new EncryptedMediaDataSource(masterSecret, mediaFile);
       MediaMetadataRetriever   retriever  = new MediaMetadataRetriever();
-      retriever.setDataSource(dataSource);
 
-      Bitmap bitmap = retriever.getFrameAtTime(1000);
+      try {
+        retriever.setDataSource(dataSource);
+
+        Bitmap bitmap = retriever.getFrameAtTime(1000);
+
+        Log.w(TAG, "Generated video thumbnail...");
+        return new ThumbnailData(bitmap);
+      } finally {
+        retriever.release();
+
+        try {
+          dataSource.close();
+        } catch (IOException e) {
+          Log.w(TAG, e);
+        }
+      }
+    }
+  }
+
+  private static class CaptureBuffer extends ByteArrayOutputStream {
+
+    private final int limit;
+
+    private boolean overflowed;
+
+    private CaptureBuffer(int limit) {
+      super(8192);
+      this.limit = limit;
+    }
+
+    @Override
+    public synchronized void write(@NonNull byte[] buffer, int offset, int length) {
+      if (overflowed) return;
+
+      if (count + length > limit) {
+        overflowed = true;
+        buf        = new byte[0];
+        count      = 0;
+      } else {
+        super.write(buffer, offset, length);
+      }
+    }
 
-      Log.w(TAG, "Generated video thumbnail...");
-      return new ThumbnailData(bitmap);
+    private synchronized boolean isOverflowed() {
+      return overflowed;
     }
   }
 }
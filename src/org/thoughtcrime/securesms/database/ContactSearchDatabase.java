@@ -0,0 +1,435 @@
+package org.thoughtcrime.securesms.database;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.util.TextSecurePreferences;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A local copy of the system contacts' names and phone numbers, broken into prefix-searchable
+ * tokens. The contact picker and the conversation list filter use it to answer a search with a
+ * single indexed query instead of asking the contacts provider for every keystroke.
+ *
+ * Every contact is indexed the first time, and afterwards only contacts the provider reports
+ * as changed or deleted since the last refresh are rewritten.
+ */
+public class ContactSearchDatabase extends Database {
+
+  private static final String TAG = ContactSearchDatabase.class.getSimpleName();
+
+  private static final String TABLE_NAME  = "contact_search";
+  public  static final String ID          = "_id";
+  private static final String CONTACT_ID  = "contact_id";
+  public  static final String NAME        = "name";
+  public  static final String NUMBER      = "number";
+  public  static final String NUMBER_TYPE = "number_type";
+  public  static final String LABEL       = "label";
+  private static final String ADDRESS     = "address";
+  public  static final String REGISTERED  = "registered";
+
+  private static final String TOKEN_TABLE_NAME = "contact_search_token";
+  private static final String TOKEN            = "token";
+  private static final String SEARCH_ID        = "search_id";
+
+  private static final String REGISTERED_LABEL = "TextSecure";
+
+  private static final Pattern PHONE_NUMBER_PATTERN = Pattern.compile("[0-9+()\\-.\\s]*[0-9][0-9+()\\-.\\s]*");
+
+  private static final int MIN_NUMBER_SUFFIX_LENGTH = 3;
+  private static final int MAX_QUERY_TOKENS         = 8;
+  private static final int BATCH_SIZE               = 500;
+  private static final int WRITE_BATCH_SIZE         = 50;
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID + " INTEGER PRIMARY KEY, " +
+                                            CONTACT_ID + " INTEGER, " + NAME + " TEXT, " + NUMBER + " TEXT, " +
+                                            NUMBER_TYPE + " INTEGER, " + LABEL + " TEXT, " + ADDRESS + " TEXT, " +
+                                            REGISTERED + " INTEGER DEFAULT 0);";
+
+  public static final String CREATE_TOKEN_TABLE = "CREATE TABLE " + TOKEN_TABLE_NAME + " (" + TOKEN + " TEXT, " +
+                                                  SEARCH_ID + " INTEGER);";
+
+  public static final String[] CREATE_INDEXS = {
+      "CREATE INDEX IF NOT EXISTS contact_search_contact_id_index ON " + TABLE_NAME + " (" + CONTACT_ID + ");",
+      "CREATE INDEX IF NOT EXISTS contact_search_address_index ON " + TABLE_NAME + " (" + ADDRESS + ");",
+      "CREATE INDEX IF NOT EXISTS contact_search_token_index ON " + TOKEN_TABLE_NAME + " (" + TOKEN + ");",
+      "CREATE INDEX IF NOT EXISTS contact_search_token_search_id_index ON " + TOKEN_TABLE_NAME + " (" + SEARCH_ID + ");",
+  };
+
+  public ContactSearchDatabase(Context context, SQLiteOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  /**
+   * @return true once the index has been built, so that searches can be answered from it.
+   */
+  public boolean isIndexed() {
+    return TextSecurePreferences.getContactSearchIndexTime(context) > 0;
+  }
+
+  /**
+   * Brings the index up to date with the system contacts and the directory's registered users.
+   * The contacts provider is read in full before anything is written, and the index is then
+   * rewritten a few contacts per transaction, so a refresh never holds the database for long.
+   * Callers should go through {@link org.thoughtcrime.securesms.jobs.ContactSearchIndexJob}.
+   */
+  public synchronized void refresh() {
+    long        startMillis = System.currentTimeMillis();
+    long        lastRefresh = TextSecurePreferences.getContactSearchIndexTime(context);
+    boolean     incremental = lastRefresh > 0 && Build.VERSION.SDK_INT >= 18;
+    Set<String> registered  = TextSecureDirectory.getInstance(context).getRegisteredNumbers();
+
+    Set<Long>                      staleIds;
+    Map<Long, List<IndexedNumber>> contacts;
+
+    try {
+      if (incremental) {
+        staleIds = getChangedContactIds(lastRefresh);
+        contacts = readContacts(Phone.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?", new String[] {String.valueOf(lastRefresh)});
+      } else {
+        staleIds = getIndexedContactIds();
+        contacts = readContacts(null, null);
+      }
+    } catch (SecurityException e) {
+      Log.w(TAG, e);
+      return;
+    }
+
+    int updated = updateIndex(staleIds, contacts, registered);
+
+    TextSecurePreferences.setContactSearchIndexTime(context, startMillis);
+
+    Log.w(TAG, (incremental ? "Incremental" : "Full") + " contact index refresh, " + updated +
+               " numbers in " + (System.currentTimeMillis() - startMillis) + "ms");
+  }
+
+  /**
+   * Matches contacts whose name or number contains a token starting with each word of the filter.
+   * Columns are {@link #ID}, {@link #NAME}, {@link #NUMBER}, {@link #NUMBER_TYPE}, {@link #LABEL}
+   * and {@link #REGISTERED}. Registered users are returned with their Signal address and label.
+   */
+  public @NonNull Cursor query(@NonNull String filter, boolean includeRegistered, boolean includeUnregistered) {
+    List<String> args      = new ArrayList<>();
+    String       selection = getMatchSelection(filter, args);
+
+    if (!includeRegistered)   selection += " AND " + REGISTERED + " = 0";
+    if (!includeUnregistered) selection += " AND " + REGISTERED + " = 1";
+
+    String[] projection = new String[] {ID, NAME,
+                                        "CASE WHEN " + REGISTERED + " = 1 THEN " + ADDRESS + " ELSE " + NUMBER + " END AS " + NUMBER,
+                                        "CASE WHEN " + REGISTERED + " = 1 THEN 0 ELSE " + NUMBER_TYPE + " END AS " + NUMBER_TYPE,
+                                        "CASE WHEN " + REGISTERED + " = 1 THEN ? ELSE " + LABEL + " END AS " + LABEL,
+                                        REGISTERED};
+
+    args.add(0, REGISTERED_LABEL);
+
+    String query = "SELECT " + Util.join(projection, ", ") + " FROM " + TABLE_NAME +
+                   " WHERE " + selection + " ORDER BY " + NAME + " COLLATE LOCALIZED ASC";
+
+    return databaseHelper.getReadableDatabase().rawQuery(query, args.toArray(new String[0]));
+  }
+
+  /**
+   * @return a sub-select of the serialized addresses of every contact matching the filter, for
+   * joining against other tables in the same database. Its arguments are appended to args.
+   */
+  @NonNull String getMatchingAddressesQuery(@NonNull String filter, @NonNull List<String> args) {
+    return "SELECT " + ADDRESS + " FROM " + TABLE_NAME + " WHERE " + getMatchSelection(filter, args);
+  }
+
+  @Override
+  public void reset(SQLiteOpenHelper databaseHelper) {
+    super.reset(databaseHelper);
+    TextSecurePreferences.setContactSearchIndexTime(context, 0);
+  }
+
+  private @NonNull String getMatchSelection(@NonNull String filter, @NonNull List<String> args) {
+    Set<String> tokens    = new LinkedHashSet<>(PHONE_NUMBER_PATTERN.matcher(filter).matches()
+                                                ? Collections.singletonList(filter.replaceAll("[^0-9]", ""))
+                                                : tokenize(filter));
+    String      selection = "";
+    int         count     = 0;
+
+    for (String token : tokens) {
+      if (count == MAX_QUERY_TOKENS) break;
+
+      if (count++ > 0) selection += " AND ";
+      selection += ID + " IN (SELECT " + SEARCH_ID + " FROM " + TOKEN_TABLE_NAME + " WHERE " + TOKEN + " GLOB ?)";
+      args.add(token + "*");
+    }
+
+    return count == 0 ? "0" : selection;
+  }
+
+  /**
+   * Removes the stale contacts that no longer have numbers, replaces the rows of every contact
+   * that was read, and then brings the registered flags up to date.
+   *
+   * @return the number of rows written.
+   */
+  @VisibleForTesting
+  int updateIndex(@NonNull Set<Long> staleIds,
+                  @NonNull Map<Long, List<IndexedNumber>> contacts,
+                  @NonNull Set<String> registered)
+  {
+    SQLiteDatabase db      = databaseHelper.getWritableDatabase();
+    Set<Long>      removed = new HashSet<>(staleIds);
+
+    removed.removeAll(contacts.keySet());
+
+    deleteContacts(db, removed);
+    int updated = writeContacts(db, contacts, registered);
+    updateRegistered(db, registered);
+
+    return updated;
+  }
+
+  private @NonNull Map<Long, List<IndexedNumber>> readContacts(@Nullable String selection, @Nullable String[] selectionArgs) {
+    String[]                       projection = new String[] {Phone.CONTACT_ID, Phone.DISPLAY_NAME, Phone.NUMBER, Phone.TYPE, Phone.LABEL};
+    Cursor                         cursor     = context.getContentResolver().query(Phone.CONTENT_URI, projection, selection, selectionArgs, null);
+    Map<Long, List<IndexedNumber>> contacts   = new LinkedHashMap<>();
+
+    if (cursor == null) return contacts;
+
+    try {
+      while (cursor.moveToNext()) {
+        long   contactId = cursor.getLong(0);
+        String number    = cursor.getString(2);
+
+        if (TextUtils.isEmpty(number)) continue;
+
+        List<IndexedNumber> numbers = contacts.get(contactId);
+
+        if (numbers == null) {
+          numbers = new LinkedList<>();
+          contacts.put(contactId, numbers);
+        }
+
+        numbers.add(new IndexedNumber(cursor.getString(1), number, cursor.getInt(3), cursor.getString(4),
+                                      Address.fromExternal(context, number).serialize()));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return contacts;
+  }
+
+  private @NonNull Set<Long> getIndexedContactIds() {
+    Set<Long> contactIds = new HashSet<>();
+    Cursor    cursor     = databaseHelper.getReadableDatabase().query(true, TABLE_NAME, new String[] {CONTACT_ID},
+                                                                      null, null, null, null, null, null);
+
+    addContactIds(contactIds, cursor);
+    return contactIds;
+  }
+
+  private int writeContacts(@NonNull SQLiteDatabase db,
+                            @NonNull Map<Long, List<IndexedNumber>> contacts,
+                            @NonNull Set<String> registered)
+  {
+    if (contacts.isEmpty()) return 0;
+
+    SQLiteStatement tokenInsert = db.compileStatement("INSERT INTO " + TOKEN_TABLE_NAME + " (" + TOKEN + ", " + SEARCH_ID + ") VALUES (?, ?)");
+    int             count       = 0;
+
+    try {
+      for (List<Long> batch : Util.partition(new ArrayList<>(contacts.keySet()), WRITE_BATCH_SIZE)) {
+        db.beginTransaction();
+
+        try {
+          deleteContactRows(db, batch);
+
+          for (long contactId : batch) {
+            for (IndexedNumber number : contacts.get(contactId)) {
+              ContentValues values = new ContentValues(7);
+              values.put(CONTACT_ID, contactId);
+              values.put(NAME, number.name);
+              values.put(NUMBER, number.number);
+              values.put(NUMBER_TYPE, number.type);
+              values.put(LABEL, number.label);
+              values.put(ADDRESS, number.address);
+              values.put(REGISTERED, registered.contains(number.address) ? 1 : 0);
+
+              long searchId = db.insert(TABLE_NAME, null, values);
+
+              for (String token : getTokens(number.name, number.number, number.address)) {
+                tokenInsert.bindString(1, token);
+                tokenInsert.bindLong(2, searchId);
+                tokenInsert.executeInsert();
+              }
+
+              count++;
+            }
+          }
+
+          db.setTransactionSuccessful();
+        } finally {
+          db.endTransaction();
+        }
+      }
+    } finally {
+      tokenInsert.close();
+    }
+
+    return count;
+  }
+
+  private void deleteContacts(@NonNull SQLiteDatabase db, @NonNull Collection<Long> contactIds) {
+    for (List<Long> batch : Util.partition(new ArrayList<>(contactIds), WRITE_BATCH_SIZE)) {
+      db.beginTransaction();
+
+      try {
+        deleteContactRows(db, batch);
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    }
+  }
+
+  private void deleteContactRows(@NonNull SQLiteDatabase db, @NonNull List<Long> contactIds) {
+    String   in   = TextUtils.join(", ", contactIds);
+    String[] args = new String[0];
+
+    db.delete(TOKEN_TABLE_NAME, SEARCH_ID + " IN (SELECT " + ID + " FROM " + TABLE_NAME + " WHERE " + CONTACT_ID + " IN (" + in + "))", args);
+    db.delete(TABLE_NAME, CONTACT_ID + " IN (" + in + ")", args);
+  }
+
+  private void updateRegistered(@NonNull SQLiteDatabase db, @NonNull Set<String> registered) {
+    db.beginTransaction();
+
+    try {
+      db.execSQL("UPDATE " + TABLE_NAME + " SET " + REGISTERED + " = 0 WHERE " + REGISTERED + " != 0");
+
+      for (List<String> batch : Util.partition(new ArrayList<>(registered), BATCH_SIZE)) {
+        StringBuilder query = new StringBuilder("UPDATE " + TABLE_NAME + " SET " + REGISTERED + " = 1 WHERE " + ADDRESS + " IN (");
+
+        for (int i = 0; i < batch.size(); i++) {
+          query.append(i == 0 ? "?" : ", ?");
+        }
+
+        db.execSQL(query.append(")").toString(), batch.toArray(new Object[0]));
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * @return the contacts deleted or edited since the given time, including edits that removed
+   * all of a contact's numbers.
+   */
+  @TargetApi(18)
+  private @NonNull Set<Long> getChangedContactIds(long since) {
+    Set<Long> contactIds = new HashSet<>();
+    String[]  args       = new String[] {String.valueOf(since)};
+
+    addContactIds(contactIds, context.getContentResolver().query(DeletedContacts.CONTENT_URI,
+                                                                 new String[] {DeletedContacts.CONTACT_ID},
+                                                                 DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?",
+                                                                 args, null));
+
+    addContactIds(contactIds, context.getContentResolver().query(Contacts.CONTENT_URI,
+                                                                 new String[] {Contacts._ID},
+                                                                 Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?",
+                                                                 args, null));
+
+    return contactIds;
+  }
+
+  private static void addContactIds(@NonNull Set<Long> contactIds, @Nullable Cursor cursor) {
+    try {
+      while (cursor != null && cursor.moveToNext()) {
+        contactIds.add(cursor.getLong(0));
+      }
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+  }
+
+  /**
+   * Name words are indexed lowercased. Numbers are indexed by every suffix of their digits, so
+   * that typing any part of a number, with or without the country code, is a prefix match.
+   */
+  static @NonNull Set<String> getTokens(@Nullable String name, @NonNull String number, @NonNull String address) {
+    Set<String> tokens = new HashSet<>();
+
+    if (name != null) tokens.addAll(tokenize(name));
+
+    addNumberSuffixes(tokens, number.replaceAll("[^0-9]", ""));
+    addNumberSuffixes(tokens, address.replaceAll("[^0-9]", ""));
+
+    return tokens;
+  }
+
+  private static void addNumberSuffixes(@NonNull Set<String> tokens, @NonNull String digits) {
+    for (int i = 0; i <= digits.length() - MIN_NUMBER_SUFFIX_LENGTH; i++) {
+      tokens.add(digits.substring(i));
+    }
+
+    if (digits.length() > 0 && digits.length() < MIN_NUMBER_SUFFIX_LENGTH) {
+      tokens.add(digits);
+    }
+  }
+
+  /**
+   * Lowercases with {@link Locale#ROOT}, so that the index and later searches agree even if the
+   * device locale changes in between.
+   */
+  static @NonNull List<String> tokenize(@NonNull String text) {
+    List<String> tokens = new ArrayList<>();
+
+    for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+      if (!token.isEmpty()) tokens.add(token);
+    }
+
+    return tokens;
+  }
+
+  @VisibleForTesting
+  static class IndexedNumber {
+    private final String name;
+    private final String number;
+    private final int    type;
+    private final String label;
+    private final String address;
+
+    IndexedNumber(@Nullable String name, @NonNull String number, int type, @Nullable String label, @NonNull String address) {
+      this.name    = name;
+      this.number  = number;
+      this.type    = type;
+      this.label   = label;
+      this.address = address;
+    }
+  }
+}
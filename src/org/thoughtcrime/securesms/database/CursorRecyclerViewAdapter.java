@@ -95,7 +95,9 @@ public abstract class CursorRecyclerViewAdapter<VH extends RecyclerView.ViewHold
       return null;
     }
 
-    final Cursor oldCursor = cursor;
+    final Cursor  oldCursor = cursor;
+    final boolean wasValid  = isActiveCursor();
+
     if (oldCursor != null) {
       oldCursor.unregisterDataSetObserver(observer);
     }
@@ -106,10 +108,21 @@ public abstract class CursorRecyclerViewAdapter<VH extends RecyclerView.ViewHold
     }
 
     valid = cursor != null;
-    notifyDataSetChanged();
+    onCursorSwapped(wasValid);
     return oldCursor;
   }
 
+  /**
+   * Called once a new cursor is in place to notify observers. Subclasses may dispatch
+   * fine-grained updates instead of a full data set change.
+   *
+   * @param wasValid whether the previous cursor was still valid, so that observers' view
+   *                 of the old items can be trusted.
+   */
+  protected void onCursorSwapped(boolean wasValid) {
+    notifyDataSetChanged();
+  }
+
   @Override
   public int getItemCount() {
     if (!isActiveCursor()) return 0;
@@ -173,8 +186,18 @@ public abstract class CursorRecyclerViewAdapter<VH extends RecyclerView.ViewHold
     if (isHeaderPosition(position))     return HEADER_ID;
     if (isFooterPosition(position))     return FOOTER_ID;
     if (isFastAccessPosition(position)) return getFastAccessItemId(position);
-    long itemId = getItemId(getCursorAtPositionOrThrow(position));
-    return itemId <= Long.MIN_VALUE + 1 ? itemId + 2 : itemId;
+    return getStableItemId(getCursorAtPositionOrThrow(position));
+  }
+
+  /**
+   * @return the item id for the cursor's current row, kept clear of the header and footer ids.
+   */
+  protected final long getStableItemId(@NonNull Cursor cursor) {
+    return getStableItemId(getItemId(cursor));
+  }
+
+  public static long getStableItemId(long itemId) {
+    return itemId <= FOOTER_ID ? itemId + 2 : itemId;
   }
 
   public long getItemId(@NonNull Cursor cursor) {
@@ -18,6 +18,7 @@ package org.thoughtcrime.securesms.database;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
 
@@ -26,8 +27,8 @@ import java.util.Set;
 public abstract class Database {
 
   protected static final String ID_WHERE              = "_id = ?";
-  private   static final String CONVERSATION_URI      = "content://textsecure/thread/";
-  private   static final String CONVERSATION_LIST_URI = "content://textsecure/conversation-list";
+  private   static final String CONVERSATION_URI      = DatabaseChangeNotifier.CONVERSATION_URI;
+  private   static final String CONVERSATION_LIST_URI = DatabaseChangeNotifier.CONVERSATION_LIST_URI;
 
   protected       SQLiteOpenHelper databaseHelper;
   protected final Context context;
@@ -43,11 +44,18 @@ public abstract class Database {
   }
 
   protected void notifyConversationListeners(long threadId) {
-    context.getContentResolver().notifyChange(Uri.parse(CONVERSATION_URI + threadId), null);
+    DatabaseChangeNotifier.getInstance(context).notifyConversation(threadId);
   }
 
   protected void notifyConversationListListeners() {
-    context.getContentResolver().notifyChange(Uri.parse(CONVERSATION_LIST_URI), null);
+    DatabaseChangeNotifier.getInstance(context).notifyConversationList();
+  }
+
+  /**
+   * Begins a transaction whose change notifications are held back until it ends.
+   */
+  protected void beginTransaction(SQLiteDatabase db) {
+    db.beginTransactionWithListener(DatabaseChangeNotifier.getInstance(context).getTransactionListener());
   }
 
   protected void setNotifyConverationListeners(Cursor cursor, long threadId) {
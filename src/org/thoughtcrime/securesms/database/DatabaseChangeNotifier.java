@@ -0,0 +1,212 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteTransactionListener;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Coalesces conversation and conversation list change notifications.
+ *
+ * Writes often touch the same thread several times in a row (a message insert followed by a
+ * thread update, for instance), and each notification makes the conversation and conversation
+ * list loaders requery. Notifications are instead collected for a short window and then sent
+ * once per affected thread and once for the list.
+ *
+ * Transactions begun with {@link #getTransactionListener()} hold back the notifications made
+ * inside them until they end, so observers never requery half-committed state.
+ */
+public class DatabaseChangeNotifier {
+
+  private static final long DEBOUNCE_MILLIS = 100;
+
+  static final String CONVERSATION_URI      = "content://textsecure/thread/";
+  static final String CONVERSATION_LIST_URI = "content://textsecure/conversation-list";
+
+  private static final Object                 lock = new Object();
+  private static       DatabaseChangeNotifier instance;
+
+  private final Context   context;
+  private final Handler   handler;
+  private final Set<Long> pendingThreadIds = new HashSet<>();
+
+  private final ThreadLocal<TransactionState> transactionState = new ThreadLocal<TransactionState>() {
+    @Override
+    protected TransactionState initialValue() {
+      return new TransactionState();
+    }
+  };
+
+  private boolean pendingConversationList;
+  private boolean flushScheduled;
+  private long    emittedCount;
+  private long    suppressedCount;
+
+  public static DatabaseChangeNotifier getInstance(Context context) {
+    synchronized (lock) {
+      if (instance == null)
+        instance = new DatabaseChangeNotifier(context.getApplicationContext());
+
+      return instance;
+    }
+  }
+
+  private DatabaseChangeNotifier(Context context) {
+    this(context, createHandler());
+  }
+
+  @VisibleForTesting
+  DatabaseChangeNotifier(Context context, Handler handler) {
+    this.context = context;
+    this.handler = handler;
+  }
+
+  void notifyConversation(long threadId) {
+    TransactionState transaction = transactionState.get();
+
+    if (transaction.depth > 0) {
+      if (!transaction.threadIds.add(threadId)) incrementSuppressed();
+    } else {
+      publish(threadId);
+    }
+  }
+
+  void notifyConversationList() {
+    TransactionState transaction = transactionState.get();
+
+    if (transaction.depth > 0) {
+      if (transaction.conversationList) incrementSuppressed();
+      transaction.conversationList = true;
+    } else {
+      publishConversationList();
+    }
+  }
+
+  /**
+   * @return a listener to begin write transactions with, so that changes made inside them
+   *         are only announced once the outermost one ends.
+   */
+  @NonNull SQLiteTransactionListener getTransactionListener() {
+    return transactionListener;
+  }
+
+  /**
+   * @return the number of change notifications actually sent to the content resolver.
+   */
+  public synchronized long getEmittedCount() {
+    return emittedCount;
+  }
+
+  /**
+   * @return the number of change requests that were folded into an already pending notification.
+   */
+  public synchronized long getSuppressedCount() {
+    return suppressedCount;
+  }
+
+  private synchronized void publish(long threadId) {
+    if (!pendingThreadIds.add(threadId)) suppressedCount++;
+    schedule();
+  }
+
+  private synchronized void publishConversationList() {
+    if (pendingConversationList) suppressedCount++;
+    pendingConversationList = true;
+    schedule();
+  }
+
+  private synchronized void incrementSuppressed() {
+    suppressedCount++;
+  }
+
+  private void schedule() {
+    if (!flushScheduled) {
+      flushScheduled = true;
+      handler.postDelayed(flushRunnable, DEBOUNCE_MILLIS);
+    }
+  }
+
+  private static Handler createHandler() {
+    HandlerThread handlerThread = new HandlerThread("database-notifier");
+    handlerThread.start();
+
+    return new Handler(handlerThread.getLooper());
+  }
+
+  /**
+   * Called back on the thread running the transaction, for every level of nesting.
+   */
+  private final SQLiteTransactionListener transactionListener = new SQLiteTransactionListener() {
+    @Override
+    public void onBegin() {
+      transactionState.get().depth++;
+    }
+
+    @Override
+    public void onCommit() {
+      onEnd(true);
+    }
+
+    @Override
+    public void onRollback() {
+      onEnd(false);
+    }
+
+    private void onEnd(boolean committed) {
+      TransactionState transaction = transactionState.get();
+
+      if (--transaction.depth > 0) return;
+
+      if (committed) {
+        for (long threadId : transaction.threadIds) {
+          publish(threadId);
+        }
+
+        if (transaction.conversationList) {
+          publishConversationList();
+        }
+      }
+
+      transactionState.remove();
+    }
+  };
+
+  private final Runnable flushRunnable = new Runnable() {
+    @Override
+    public void run() {
+      Set<Long> threadIds;
+      boolean   conversationList;
+
+      synchronized (DatabaseChangeNotifier.this) {
+        threadIds        = new HashSet<>(pendingThreadIds);
+        conversationList = pendingConversationList;
+
+        pendingThreadIds.clear();
+        pendingConversationList = false;
+        flushScheduled          = false;
+        emittedCount           += threadIds.size() + (conversationList ? 1 : 0);
+      }
+
+      for (long threadId : threadIds) {
+        context.getContentResolver().notifyChange(Uri.parse(CONVERSATION_URI + threadId), null);
+      }
+
+      if (conversationList) {
+        context.getContentResolver().notifyChange(Uri.parse(CONVERSATION_LIST_URI), null);
+      }
+    }
+  };
+
+  private static class TransactionState {
+    private final Set<Long> threadIds = new HashSet<>();
+
+    private int     depth;
+    private boolean conversationList;
+  }
+}
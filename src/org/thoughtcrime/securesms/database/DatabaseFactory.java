@@ -23,6 +23,7 @@ import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
@@ -102,7 +103,10 @@ public class DatabaseFactory {
   private static final int INTRODUCED_IDENTITY_TIMESTAMP                   = 35;
   private static final int SANIFY_ATTACHMENT_DOWNLOAD                      = 36;
   private static final int NO_MORE_CANONICAL_ADDRESS_DATABASE              = 37;
-  private static final int DATABASE_VERSION                                = 37;
+  private static final int INTRODUCED_CONTACT_SEARCH_INDEX                 = 38;
+  private static final int INTRODUCED_PUSH_SMS_MESSAGE_ID                  = 39;
+  private static final int INTRODUCED_RAW_SMS_BODIES                       = 40;
+  private static final int DATABASE_VERSION                                = 40;
 
   private static final String DATABASE_NAME    = "messages.db";
   private static final Object lock             = new Object();
@@ -125,6 +129,7 @@ public class DatabaseFactory {
   private final GroupDatabase groupDatabase;
   private final RecipientPreferenceDatabase recipientPreferenceDatabase;
   private final ContactsDatabase contactsDatabase;
+  private final ContactSearchDatabase contactSearchDatabase;
 
   public static DatabaseFactory getInstance(Context context) {
     synchronized (lock) {
@@ -191,6 +196,10 @@ public class DatabaseFactory {
     return getInstance(context).contactsDatabase;
   }
 
+  public static ContactSearchDatabase getContactSearchDatabase(Context context) {
+    return getInstance(context).contactSearchDatabase;
+  }
+
   private DatabaseFactory(Context context) {
     this.databaseHelper              = new DatabaseHelper(context, DATABASE_NAME, null, DATABASE_VERSION);
     this.sms                         = new SmsDatabase(context, databaseHelper);
@@ -207,6 +216,7 @@ public class DatabaseFactory {
     this.groupDatabase               = new GroupDatabase(context, databaseHelper);
     this.recipientPreferenceDatabase = new RecipientPreferenceDatabase(context, databaseHelper);
     this.contactsDatabase            = new ContactsDatabase(context);
+    this.contactSearchDatabase       = new ContactSearchDatabase(context, databaseHelper);
   }
 
   public void reset(Context context) {
@@ -225,6 +235,7 @@ public class DatabaseFactory {
     this.pushDatabase.reset(databaseHelper);
     this.groupDatabase.reset(databaseHelper);
     this.recipientPreferenceDatabase.reset(databaseHelper);
+    this.contactSearchDatabase.reset(databaseHelper);
     old.close();
   }
 
@@ -278,9 +289,18 @@ public class DatabaseFactory {
           listener.setProgress(smsCursor.getPosition() + skip, smsCount + threadCount);
 
           try {
-            String body = masterCipher.decryptBody(smsCursor.getString(smsCursor.getColumnIndexOrThrow("body")));
-            long type   = smsCursor.getLong(smsCursor.getColumnIndexOrThrow("type"));
-            long id     = smsCursor.getLong(smsCursor.getColumnIndexOrThrow("_id"));
+            int  bodyColumn = smsCursor.getColumnIndexOrThrow("body");
+            long type       = smsCursor.getLong(smsCursor.getColumnIndexOrThrow("type"));
+            long id         = smsCursor.getLong(smsCursor.getColumnIndexOrThrow("_id"));
+
+            String body;
+
+            if ((type & 0x100000) != 0) {
+              body  = masterCipher.decryptRawBody(smsCursor.getBlob(bodyColumn));
+              type &= ~0x100000;
+            } else {
+              body  = masterCipher.decryptBody(smsCursor.getString(bodyColumn));
+            }
 
             if (body.startsWith(KEY_EXCHANGE)) {
               body  = body.substring(KEY_EXCHANGE.length());
@@ -539,6 +559,8 @@ public class DatabaseFactory {
       db.execSQL(PushDatabase.CREATE_TABLE);
       db.execSQL(GroupDatabase.CREATE_TABLE);
       db.execSQL(RecipientPreferenceDatabase.CREATE_TABLE);
+      db.execSQL(ContactSearchDatabase.CREATE_TABLE);
+      db.execSQL(ContactSearchDatabase.CREATE_TOKEN_TABLE);
 
       executeStatements(db, SmsDatabase.CREATE_INDEXS);
       executeStatements(db, MmsDatabase.CREATE_INDEXS);
@@ -547,6 +569,7 @@ public class DatabaseFactory {
       executeStatements(db, MmsAddressDatabase.CREATE_INDEXS);
       executeStatements(db, DraftDatabase.CREATE_INDEXS);
       executeStatements(db, GroupDatabase.CREATE_INDEXS);
+      executeStatements(db, ContactSearchDatabase.CREATE_INDEXS);
     }
 
     @Override
@@ -1209,6 +1232,54 @@ public class DatabaseFactory {
 
       }
 
+      if (oldVersion < INTRODUCED_CONTACT_SEARCH_INDEX) {
+        db.execSQL("CREATE TABLE contact_search (_id INTEGER PRIMARY KEY, contact_id INTEGER, name TEXT, number TEXT, number_type INTEGER, label TEXT, address TEXT, registered INTEGER DEFAULT 0);");
+        db.execSQL("CREATE TABLE contact_search_token (token TEXT, search_id INTEGER);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS contact_search_contact_id_index ON contact_search (contact_id);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS contact_search_address_index ON contact_search (address);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS contact_search_token_index ON contact_search_token (token);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS contact_search_token_search_id_index ON contact_search_token (search_id);");
+      }
+
+      if (oldVersion < INTRODUCED_PUSH_SMS_MESSAGE_ID) {
+        db.execSQL("ALTER TABLE push ADD COLUMN sms_message_id INTEGER DEFAULT -1;");
+      }
+
+      if (oldVersion < INTRODUCED_RAW_SMS_BODIES) {
+        SQLiteStatement update = db.compileStatement("UPDATE sms SET body = ?, type = type | " + 0x100000 + " WHERE _id = ?");
+        long            lastId = -1;
+        int             count;
+
+        try {
+          do {
+            Cursor cursor = db.query("sms", new String[] {"_id", "body"},
+                                     "_id > ? AND type & " + 0x80000000L + " != 0 AND type & " + 0x100000 + " = 0 AND body IS NOT NULL",
+                                     new String[] {String.valueOf(lastId)}, null, null, "_id", "500");
+
+            try {
+              count = cursor.getCount();
+
+              while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+
+                try {
+                  update.clearBindings();
+                  update.bindBlob(1, MasterCipher.toRawBody(cursor.getString(1)));
+                  update.bindLong(2, lastId);
+                  update.execute();
+                } catch (InvalidMessageException e) {
+                  Log.w(TAG, e);
+                }
+              }
+            } finally {
+              cursor.close();
+            }
+          } while (count > 0);
+        } finally {
+          update.close();
+        }
+      }
+
       db.setTransactionSuccessful();
       db.endTransaction();
     }
@@ -178,10 +178,7 @@ public class EncryptingSmsDatabase extends SmsDatabase {
     }
 
     @Override
-    protected DisplayRecord.Body getBody(Cursor cursor) {
-      long type         = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.TYPE));
-      String ciphertext = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.BODY));
-
+    protected DisplayRecord.Body getBody(long type, String ciphertext) {
       if (ciphertext == null) {
         return new DisplayRecord.Body("", true);
       }
@@ -205,6 +202,20 @@ public class EncryptingSmsDatabase extends SmsDatabase {
         return new DisplayRecord.Body(context.getString(R.string.EncryptingSmsDatabase_error_decrypting_message), true);
       }
     }
+
+    @Override
+    protected DisplayRecord.Body getBody(long type, byte[] rawBody) {
+      if (rawBody == null || !SmsDatabase.Types.isSymmetricEncryption(type)) {
+        return super.getBody(type, rawBody);
+      }
+
+      try {
+        return new DisplayRecord.Body(masterCipher.decryptRawBody(rawBody), true);
+      } catch (InvalidMessageException e) {
+        Log.w("EncryptingSmsDatabase", e);
+        return new DisplayRecord.Body(context.getString(R.string.EncryptingSmsDatabase_error_decrypting_message), true);
+      }
+    }
   }
 
   private static class PlaintextCache {
@@ -32,10 +32,10 @@ public class GroupDatabase extends Database {
 
   private static final String TAG = GroupDatabase.class.getSimpleName();
 
-  private static final String TABLE_NAME          = "groups";
+          static final String TABLE_NAME          = "groups";
   private static final String ID                  = "_id";
-  private static final String GROUP_ID            = "group_id";
-  private static final String TITLE               = "title";
+          static final String GROUP_ID            = "group_id";
+          static final String TITLE               = "title";
   private static final String MEMBERS             = "members";
   private static final String AVATAR              = "avatar";
   private static final String AVATAR_ID           = "avatar_id";
@@ -133,7 +133,7 @@ public class GroupDatabase extends Database {
     contentValues.put(ACTIVE, 1);
 
     databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, contentValues);
-    RecipientFactory.clearCache(context);
+    RecipientFactory.clearCache(context, Address.fromSerialized(GroupUtil.getEncodedId(groupId)));
     notifyConversationListListeners();
   }
 
@@ -152,7 +152,7 @@ public class GroupDatabase extends Database {
                                                 GROUP_ID + " = ?",
                                                 new String[] {GroupUtil.getEncodedId(groupId)});
 
-    RecipientFactory.clearCache(context);
+    RecipientFactory.clearCache(context, Address.fromSerialized(GroupUtil.getEncodedId(groupId)));
     notifyDatabaseListeners();
     notifyConversationListListeners();
   }
@@ -163,7 +163,7 @@ public class GroupDatabase extends Database {
     databaseHelper.getWritableDatabase().update(TABLE_NAME, contentValues, GROUP_ID +  " = ?",
                                                 new String[] {GroupUtil.getEncodedId(groupId)});
 
-    RecipientFactory.clearCache(context);
+    RecipientFactory.clearCache(context, Address.fromSerialized(GroupUtil.getEncodedId(groupId)));
     notifyDatabaseListeners();
   }
 
@@ -178,7 +178,7 @@ public class GroupDatabase extends Database {
     databaseHelper.getWritableDatabase().update(TABLE_NAME, contentValues, GROUP_ID +  " = ?",
                                                 new String[] {GroupUtil.getEncodedId(groupId)});
 
-    RecipientFactory.clearCache(context);
+    RecipientFactory.clearCache(context, Address.fromSerialized(GroupUtil.getEncodedId(groupId)));
     notifyDatabaseListeners();
   }
 
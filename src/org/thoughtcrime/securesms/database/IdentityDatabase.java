@@ -31,6 +31,12 @@ import org.whispersystems.libsignal.InvalidKeyException;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class IdentityDatabase extends Database {
 
@@ -72,10 +78,25 @@ public class IdentityDatabase extends Database {
     }
   }
 
+  private static final int MAX_QUERY_ADDRESSES = 500;
+
+  /**
+   * Identities by address, absent when there is no record. Reads are lock free. Writes bump
+   * the generation so that a lookup racing a write doesn't cache what it read before it.
+   */
+  private final Map<Address, Optional<IdentityRecord>> cache = new ConcurrentHashMap<>();
+  private       long                                   generation;
+
   IdentityDatabase(Context context, SQLiteOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
+  @Override
+  public void reset(SQLiteOpenHelper databaseHelper) {
+    super.reset(databaseHelper);
+    invalidate(null);
+  }
+
   public Cursor getIdentities() {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
     return database.query(TABLE_NAME, null, null, null, null, null, null);
@@ -87,6 +108,46 @@ public class IdentityDatabase extends Database {
   }
 
   public Optional<IdentityRecord> getIdentity(Address address) {
+    Optional<IdentityRecord> cached = cache.get(address);
+    if (cached != null) return cached;
+
+    long                     generation = getGeneration();
+    Optional<IdentityRecord> record     = queryIdentity(address);
+
+    cacheIdentity(address, record, generation);
+
+    return record;
+  }
+
+  /**
+   * Looks up the identities for a set of addresses, such as the members of a group, reading
+   * any that aren't already cached in as few queries as possible.
+   */
+  public @NonNull Map<Address, Optional<IdentityRecord>> getIdentities(@NonNull Collection<Address> addresses) {
+    Map<Address, Optional<IdentityRecord>> results = new HashMap<>();
+    List<Address>                          missing = new LinkedList<>();
+
+    for (Address address : addresses) {
+      Optional<IdentityRecord> cached = cache.get(address);
+
+      if (cached != null) results.put(address, cached);
+      else                missing.add(address);
+    }
+
+    if (missing.isEmpty()) return results;
+
+    long                                   generation = getGeneration();
+    Map<Address, Optional<IdentityRecord>> queried    = queryIdentities(missing);
+
+    for (Map.Entry<Address, Optional<IdentityRecord>> entry : queried.entrySet()) {
+      cacheIdentity(entry.getKey(), entry.getValue(), generation);
+    }
+
+    results.putAll(queried);
+    return results;
+  }
+
+  private Optional<IdentityRecord> queryIdentity(Address address) {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
     Cursor         cursor   = null;
 
@@ -106,6 +167,66 @@ public class IdentityDatabase extends Database {
     return Optional.absent();
   }
 
+  private Map<Address, Optional<IdentityRecord>> queryIdentities(List<Address> addresses) {
+    SQLiteDatabase                         database = databaseHelper.getReadableDatabase();
+    Map<Address, Optional<IdentityRecord>> results  = new HashMap<>();
+
+    for (Address address : addresses) {
+      results.put(address, Optional.<IdentityRecord>absent());
+    }
+
+    for (int start=0;start<addresses.size();start+=MAX_QUERY_ADDRESSES) {
+      List<Address> batch     = addresses.subList(start, Math.min(addresses.size(), start + MAX_QUERY_ADDRESSES));
+      String[]      arguments = new String[batch.size()];
+      StringBuilder selection = new StringBuilder(ADDRESS + " IN (");
+
+      for (int i=0;i<arguments.length;i++) {
+        arguments[i] = batch.get(i).serialize();
+        selection.append(i == 0 ? "?" : ", ?");
+      }
+
+      selection.append(")");
+
+      Cursor cursor = null;
+
+      try {
+        cursor = database.query(TABLE_NAME, null, selection.toString(), arguments, null, null, null);
+
+        while (cursor != null && cursor.moveToNext()) {
+          IdentityRecord record = getIdentityRecord(cursor);
+          results.put(record.getAddress(), Optional.of(record));
+        }
+      } catch (InvalidKeyException | IOException e) {
+        throw new AssertionError(e);
+      } finally {
+        if (cursor != null) cursor.close();
+      }
+    }
+
+    return results;
+  }
+
+  private long getGeneration() {
+    synchronized (cache) {
+      return generation;
+    }
+  }
+
+  private void cacheIdentity(Address address, Optional<IdentityRecord> record, long generation) {
+    synchronized (cache) {
+      if (this.generation == generation) cache.put(address, record);
+    }
+  }
+
+  private void invalidate(@Nullable Address address) {
+    synchronized (cache) {
+      generation++;
+
+      if (address == null) cache.clear();
+      else                 cache.remove(address);
+    }
+  }
+
   public void saveIdentity(Address address, IdentityKey identityKey, VerifiedStatus verifiedStatus,
                            boolean firstUse, long timestamp, boolean nonBlockingApproval)
   {
@@ -121,6 +242,7 @@ public class IdentityDatabase extends Database {
     contentValues.put(FIRST_USE, firstUse ? 1 : 0);
 
     database.replace(TABLE_NAME, null, contentValues);
+    invalidate(address);
 
     EventBus.getDefault().post(new IdentityRecord(address, identityKey, verifiedStatus,
                                                   firstUse, timestamp, nonBlockingApproval));
@@ -133,6 +255,7 @@ public class IdentityDatabase extends Database {
     contentValues.put(NONBLOCKING_APPROVAL, nonBlockingApproval);
 
     database.update(TABLE_NAME, contentValues, ADDRESS + " = ?", new String[] {address.serialize()});
+    invalidate(address);
   }
 
   public void setVerified(Address address, IdentityKey identityKey, VerifiedStatus verifiedStatus) {
@@ -145,6 +268,8 @@ public class IdentityDatabase extends Database {
                                   new String[] {address.serialize(), Base64.encodeBytes(identityKey.serialize())});
 
     if (updated > 0) {
+      invalidate(address);
+
       Optional<IdentityRecord> record = getIdentity(address);
       if (record.isPresent()) EventBus.getDefault().post(record.get());
     }
@@ -37,7 +37,7 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
     IdentityKeyMismatchList document = new IdentityKeyMismatchList(items);
 
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.beginTransaction();
+    beginTransaction(database);
 
     try {
       setDocument(database, messageId, MISMATCHED_IDENTITIES, document);
@@ -72,7 +72,7 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
 
   protected <D extends Document<I>, I> void removeFromDocument(long messageId, String column, I object, Class<D> clazz) throws IOException {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.beginTransaction();
+    beginTransaction(database);
 
     try {
       D           document = getDocument(database, messageId, column, clazz);
@@ -104,7 +104,7 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
 
   protected <T extends Document<I>, I> void addToDocument(long messageId, String column, List<I> objects, Class<T> clazz) throws IOException {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.beginTransaction();
+    beginTransaction(database);
 
     try {
       T document = getDocument(database, messageId, column, clazz);
@@ -143,6 +143,11 @@ public class MmsAddressDatabase extends Database {
     database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {messageId+""});
   }
 
+  /*package*/ void deleteAddressesForMessages(String messageIdQuery, String[] args) {
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    database.delete(TABLE_NAME, MMS_ID + " IN (" + messageIdQuery + ")", args);
+  }
+
   public void deleteAllAddresses() {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, null, null);
@@ -43,6 +43,7 @@ import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.crypto.MasterSecretUnion;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatch;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatchList;
+import org.thoughtcrime.securesms.database.documents.LazyDocumentList;
 import org.thoughtcrime.securesms.database.documents.NetworkFailure;
 import org.thoughtcrime.securesms.database.documents.NetworkFailureList;
 import org.thoughtcrime.securesms.database.model.DisplayRecord;
@@ -60,7 +61,6 @@ import org.thoughtcrime.securesms.mms.SlideDeck;
 import org.thoughtcrime.securesms.recipients.RecipientFactory;
 import org.thoughtcrime.securesms.recipients.RecipientFormattingException;
 import org.thoughtcrime.securesms.recipients.Recipients;
-import org.thoughtcrime.securesms.util.JsonUtils;
 import org.thoughtcrime.securesms.util.ServiceUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
@@ -71,6 +71,7 @@ import org.whispersystems.libsignal.util.guava.Optional;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -220,7 +221,7 @@ public class MmsDatabase extends MessagingDatabase {
                                RECEIPT_COUNT + " = " + RECEIPT_COUNT + " + 1 WHERE " + ID + " = ?",
                                new String[] {String.valueOf(id)});
 
-              DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+              updateThreadSnippetType(id);
               notifyConversationListeners(threadId);
             }
           }
@@ -350,7 +351,27 @@ public class MmsDatabase extends MessagingDatabase {
                    " WHERE " + ID + " = ?", new String[] {id + ""});
 
     if (threadId.isPresent()) {
-      DatabaseFactory.getThreadDatabase(context).update(threadId.get(), false);
+      updateThreadSnippetType(id);
+    }
+  }
+
+  /**
+   * Updates the thread's snippet after a message's box or receipt count changed.
+   */
+  private void updateThreadSnippetType(long messageId) {
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = null;
+
+    try {
+      cursor = db.query(TABLE_NAME, new String[] {THREAD_ID, DATE_RECEIVED, MESSAGE_BOX, RECEIPT_COUNT},
+                        ID_WHERE, new String[] {String.valueOf(messageId)}, null, null, null);
+
+      if (cursor != null && cursor.moveToFirst()) {
+        DatabaseFactory.getThreadDatabase(context).updateSnippetTypeIfLatest(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2),
+                                                                             SmsDatabase.Status.STATUS_NONE, cursor.getInt(3));
+      }
+    } finally {
+      if (cursor != null) cursor.close();
     }
   }
 
@@ -454,6 +475,20 @@ public class MmsDatabase extends MessagingDatabase {
     database.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(id)});
   }
 
+  /**
+   * Marks a thread's unread messages received up to {@code receivedBefore} as notified.
+   */
+  public void markAsNotified(long threadId, long receivedBefore) {
+    SQLiteDatabase database      = databaseHelper.getWritableDatabase();
+    ContentValues  contentValues = new ContentValues();
+
+    contentValues.put(NOTIFIED, 1);
+
+    database.update(TABLE_NAME, contentValues,
+                    THREAD_ID + " = ? AND " + NOTIFIED + " = 0 AND " + DATE_RECEIVED + " <= ?",
+                    new String[] {String.valueOf(threadId), String.valueOf(receivedBefore)});
+  }
+
   public List<MarkedMessageInfo> setMessagesRead(long threadId) {
     SQLiteDatabase          database  = databaseHelper.getWritableDatabase();
     String                  where     = THREAD_ID + " = ? AND " + READ + " = 0";
@@ -461,7 +496,7 @@ public class MmsDatabase extends MessagingDatabase {
     List<MarkedMessageInfo> result    = new LinkedList<>();
     Cursor                  cursor    = null;
 
-    database.beginTransaction();
+    beginTransaction(database);
 
     try {
       cursor = database.query(TABLE_NAME, new String[] {ID, ADDRESS, DATE_SENT, MESSAGE_BOX, EXPIRES_IN, EXPIRE_STARTED}, where, selection, null, null, null);
@@ -563,7 +598,7 @@ public class MmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(messageId);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateSnippetIfLatest(threadId, getDateReceivedForMessage(messageId), true);
     notifyConversationListeners(threadId);
     notifyConversationListListeners();
 
@@ -731,7 +766,6 @@ public class MmsDatabase extends MessagingDatabase {
 
     if (!Types.isExpirationTimerUpdate(mailbox)) {
       DatabaseFactory.getThreadDatabase(context).setUnread(threadId);
-      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
     }
 
     notifyConversationListeners(threadId);
@@ -821,10 +855,20 @@ public class MmsDatabase extends MessagingDatabase {
     if (!contentValues.containsKey(DATE_SENT))
       contentValues.put(DATE_SENT, contentValues.getAsLong(DATE_RECEIVED));
 
-    long messageId = db.insert(TABLE_NAME, null, contentValues);
+    long messageId;
 
-    if (notification.getFrom() != null) {
-      addressDatabase.insertAddressesForId(messageId, MmsAddresses.forFrom(Address.fromExternal(context, Util.toIsoString(notification.getFrom().getTextString()))));
+    beginTransaction(db);
+    try {
+      messageId = db.insert(TABLE_NAME, null, contentValues);
+
+      if (notification.getFrom() != null) {
+        addressDatabase.insertAddressesForId(messageId, MmsAddresses.forFrom(Address.fromExternal(context, Util.toIsoString(notification.getFrom().getTextString()))));
+      }
+
+      DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, null, false);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
     }
 
     return new Pair<>(messageId, threadId);
@@ -832,7 +876,7 @@ public class MmsDatabase extends MessagingDatabase {
 
   public void markIncomingNotificationReceived(long threadId) {
     notifyConversationListeners(threadId);
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateLatestSnippet(threadId, true);
 
     if (org.thoughtcrime.securesms.util.Util.isDefaultSmsProvider(context)) {
       DatabaseFactory.getThreadDatabase(context).setUnread(threadId);
@@ -949,12 +993,13 @@ public class MmsDatabase extends MessagingDatabase {
 
     contentValues.put(PART_COUNT, attachments.size());
 
-    db.beginTransaction();
+    beginTransaction(db);
     try {
       long messageId = db.insert(TABLE_NAME, null, contentValues);
 
       addressDatabase.insertAddressesForId(messageId, addresses);
       partsDatabase.insertAttachmentsForMessage(masterSecret, messageId, attachments);
+      updateThreadForInsert(contentValues.getAsLong(THREAD_ID), messageId);
 
       db.setTransactionSuccessful();
       return messageId;
@@ -966,7 +1011,28 @@ public class MmsDatabase extends MessagingDatabase {
       }
 
       notifyConversationListeners(contentValues.getAsLong(THREAD_ID));
-      DatabaseFactory.getThreadDatabase(context).update(contentValues.getAsLong(THREAD_ID), true);
+    }
+  }
+
+  private void updateThreadForInsert(long threadId, long messageId) {
+    Reader        reader = readerFor(null, getMessage(messageId));
+    MessageRecord record = reader.getNext();
+    reader.close();
+
+    DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, record, true);
+  }
+
+  private long getDateReceivedForMessage(long messageId) {
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = null;
+
+    try {
+      cursor = db.query(TABLE_NAME, new String[] {DATE_RECEIVED}, ID_WHERE, new String[] {String.valueOf(messageId)}, null, null, null);
+
+      if (cursor != null && cursor.moveToFirst()) return cursor.getLong(0);
+      else                                        return Long.MAX_VALUE;
+    } finally {
+      if (cursor != null) cursor.close();
     }
   }
 
@@ -978,8 +1044,18 @@ public class MmsDatabase extends MessagingDatabase {
     addrDatabase.deleteAddressesForId(messageId);
 
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    boolean        threadDeleted;
+
+    beginTransaction(database);
+    try {
+      long dateReceived = getDateReceivedForMessage(messageId);
+      database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
+      threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, dateReceived);
+      database.setTransactionSuccessful();
+    } finally {
+      database.endTransaction();
+    }
+
     notifyConversationListeners(threadId);
     return threadDeleted;
   }
@@ -1005,57 +1081,43 @@ public class MmsDatabase extends MessagingDatabase {
 
 
   /*package*/ void deleteThreads(Set<Long> threadIds) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    String where      = "";
-    Cursor cursor     = null;
+    if (threadIds.isEmpty()) return;
 
-    for (long threadId : threadIds) {
-      where += THREAD_ID + " = '" + threadId + "' OR ";
-    }
+    deleteMessages(THREAD_ID + " IN (" + TextUtils.join(",", threadIds) + ")", null);
+  }
 
-    where = where.substring(0, where.length() - 4);
+  /*package*/ void deleteMessagesInThreadBeforeDate(long threadId, long date) {
+    String where = THREAD_ID + " = ? AND (CASE (" + MESSAGE_BOX + " & " + Types.BASE_TYPE_MASK + ") ";
 
-    try {
-      cursor = db.query(TABLE_NAME, new String[] {ID}, where, null, null, null, null);
+    for (long outgoingType : Types.OUTGOING_MESSAGE_TYPES) {
+      where += " WHEN " + outgoingType + " THEN " + DATE_SENT + " < " + date;
+    }
 
-      while (cursor != null && cursor.moveToNext()) {
-        delete(cursor.getLong(0));
-      }
+    where += (" ELSE " + DATE_RECEIVED + " < " + date + " END)");
 
-    } finally {
-      if (cursor != null)
-        cursor.close();
-    }
+    Log.w(TAG, "Executing trim query: " + where);
+    deleteMessages(where, new String[] {threadId+""});
   }
 
-  /*package*/void deleteMessagesInThreadBeforeDate(long threadId, long date) {
-    Cursor cursor = null;
+  /**
+   * Deletes every message matching {@code where}, along with its addresses and attachments,
+   * in a single transaction. Thread records are left for the caller to update.
+   */
+  private void deleteMessages(String where, String[] args) {
+    SQLiteDatabase db         = databaseHelper.getWritableDatabase();
+    String         messageIds = "SELECT " + ID + " FROM " + TABLE_NAME + " WHERE " + where;
 
+    beginTransaction(db);
     try {
-      SQLiteDatabase db = databaseHelper.getReadableDatabase();
-      String where      = THREAD_ID + " = ? AND (CASE (" + MESSAGE_BOX + " & " + Types.BASE_TYPE_MASK + ") ";
-
-      for (long outgoingType : Types.OUTGOING_MESSAGE_TYPES) {
-        where += " WHEN " + outgoingType + " THEN " + DATE_SENT + " < " + date;
-      }
-
-      where += (" ELSE " + DATE_RECEIVED + " < " + date + " END)");
-
-      Log.w("MmsDatabase", "Executing trim query: " + where);
-      cursor = db.query(TABLE_NAME, new String[] {ID}, where, new String[] {threadId+""}, null, null, null);
-
-      while (cursor != null && cursor.moveToNext()) {
-        Log.w("MmsDatabase", "Trimming: " + cursor.getLong(0));
-        delete(cursor.getLong(0));
-      }
-
+      DatabaseFactory.getAttachmentDatabase(context).deleteAttachmentsForMessages(messageIds, args);
+      DatabaseFactory.getMmsAddressDatabase(context).deleteAddressesForMessages(messageIds, args);
+      db.delete(TABLE_NAME, where, args);
+      db.setTransactionSuccessful();
     } finally {
-      if (cursor != null)
-        cursor.close();
+      db.endTransaction();
     }
   }
 
-
   public void deleteAllThreads() {
     DatabaseFactory.getAttachmentDatabase(context).deleteAllAttachments();
     DatabaseFactory.getMmsAddressDatabase(context).deleteAllAddresses();
@@ -1145,8 +1207,8 @@ public class MmsDatabase extends MessagingDatabase {
                                        0, threadId, new DisplayRecord.Body(message.getBody(), true),
                                        slideDeck, slideDeck.getSlides().size(),
                                        message.isSecure() ? MmsSmsColumns.Types.getOutgoingEncryptedMessageType() : MmsSmsColumns.Types.getOutgoingSmsMessageType(),
-                                       new LinkedList<IdentityKeyMismatch>(),
-                                       new LinkedList<NetworkFailure>(),
+                                       Collections.<IdentityKeyMismatch>emptyList(),
+                                       Collections.<NetworkFailure>emptyList(),
                                        message.getSubscriptionId(),
                                        message.getExpiresIn(),
                                        System.currentTimeMillis());
@@ -1159,6 +1221,8 @@ public class MmsDatabase extends MessagingDatabase {
     private final MasterSecret masterSecret;
     private final MasterCipher masterCipher;
 
+    private Columns columns;
+
     public Reader(MasterSecret masterSecret, Cursor cursor) {
       this.cursor       = cursor;
       this.masterSecret = masterSecret;
@@ -1175,7 +1239,9 @@ public class MmsDatabase extends MessagingDatabase {
     }
 
     public MessageRecord getCurrent() {
-      long mmsType = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_TYPE));
+      if (columns == null) columns = new Columns(cursor);
+
+      long mmsType = cursor.getLong(columns.messageType);
 
       if (mmsType == PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND) {
         return getNotificationMmsMessageRecord(cursor);
@@ -1185,22 +1251,22 @@ public class MmsDatabase extends MessagingDatabase {
     }
 
     private NotificationMmsMessageRecord getNotificationMmsMessageRecord(Cursor cursor) {
-      long id                    = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.ID));
-      long dateSent              = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_SENT));
-      long dateReceived          = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_RECEIVED));
-      long threadId              = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.THREAD_ID));
-      long mailbox               = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_BOX));
-      String address             = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS));
-      int addressDeviceId        = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS_DEVICE_ID));
+      long id                    = cursor.getLong(columns.id);
+      long dateSent              = cursor.getLong(columns.dateSent);
+      long dateReceived          = cursor.getLong(columns.dateReceived);
+      long threadId              = cursor.getLong(columns.threadId);
+      long mailbox               = cursor.getLong(columns.messageBox);
+      String address             = cursor.getString(columns.address);
+      int addressDeviceId        = cursor.getInt(columns.addressDeviceId);
       Recipients recipients      = getRecipientsFor(address);
 
-      String contentLocation     = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.CONTENT_LOCATION));
-      String transactionId       = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.TRANSACTION_ID));
-      long messageSize           = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_SIZE));
-      long expiry                = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRY));
-      int status                 = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.STATUS));
-      int receiptCount           = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.RECEIPT_COUNT));
-      int subscriptionId         = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.SUBSCRIPTION_ID));
+      String contentLocation     = cursor.getString(columns.contentLocation);
+      String transactionId       = cursor.getString(columns.transactionId);
+      long messageSize           = cursor.getLong(columns.messageSize);
+      long expiry                = cursor.getLong(columns.expiry);
+      int status                 = cursor.getInt(columns.status);
+      int receiptCount           = cursor.getInt(columns.receiptCount);
+      int subscriptionId         = cursor.getInt(columns.subscriptionId);
 
       byte[]contentLocationBytes = null;
       byte[]transactionIdBytes   = null;
@@ -1221,25 +1287,25 @@ public class MmsDatabase extends MessagingDatabase {
     }
 
     private MediaMmsMessageRecord getMediaMmsMessageRecord(Cursor cursor) {
-      long               id               = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.ID));
-      long               dateSent         = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_SENT));
-      long               dateReceived     = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_RECEIVED));
-      long               box              = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_BOX));
-      long               threadId         = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.THREAD_ID));
-      String             address          = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS));
-      int                addressDeviceId  = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS_DEVICE_ID));
-      int                receiptCount     = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.RECEIPT_COUNT));
+      long               id               = cursor.getLong(columns.id);
+      long               dateSent         = cursor.getLong(columns.dateSent);
+      long               dateReceived     = cursor.getLong(columns.dateReceived);
+      long               box              = cursor.getLong(columns.messageBox);
+      long               threadId         = cursor.getLong(columns.threadId);
+      String             address          = cursor.getString(columns.address);
+      int                addressDeviceId  = cursor.getInt(columns.addressDeviceId);
+      int                receiptCount     = cursor.getInt(columns.receiptCount);
       DisplayRecord.Body body             = getBody(cursor);
-      int                partCount        = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.PART_COUNT));
-      String             mismatchDocument = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.MISMATCHED_IDENTITIES));
-      String             networkDocument  = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.NETWORK_FAILURE));
-      int                subscriptionId   = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.SUBSCRIPTION_ID));
-      long               expiresIn        = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRES_IN));
-      long               expireStarted    = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRE_STARTED));
+      int                partCount        = cursor.getInt(columns.partCount);
+      String             mismatchDocument = cursor.getString(columns.mismatchedIdentities);
+      String             networkDocument  = cursor.getString(columns.networkFailure);
+      int                subscriptionId   = cursor.getInt(columns.subscriptionId);
+      long               expiresIn        = cursor.getLong(columns.expiresIn);
+      long               expireStarted    = cursor.getLong(columns.expireStarted);
 
       Recipients                recipients      = getRecipientsFor(address);
-      List<IdentityKeyMismatch> mismatches      = getMismatchedIdentities(mismatchDocument);
-      List<NetworkFailure>      networkFailures = getFailures(networkDocument);
+      List<IdentityKeyMismatch> mismatches      = LazyDocumentList.from(mismatchDocument, IdentityKeyMismatchList.class);
+      List<NetworkFailure>      networkFailures = LazyDocumentList.from(networkDocument, NetworkFailureList.class);
       SlideDeck                 slideDeck       = getSlideDeck(cursor);
 
       return new MediaMmsMessageRecord(context, id, recipients, recipients.getPrimaryRecipient(),
@@ -1260,34 +1326,10 @@ public class MmsDatabase extends MessagingDatabase {
       return RecipientFactory.getRecipientsFor(context, new Address[] {address}, true);
     }
 
-    private List<IdentityKeyMismatch> getMismatchedIdentities(String document) {
-      if (!TextUtils.isEmpty(document)) {
-        try {
-          return JsonUtils.fromJson(document, IdentityKeyMismatchList.class).getList();
-        } catch (IOException e) {
-          Log.w(TAG, e);
-        }
-      }
-
-      return new LinkedList<>();
-    }
-
-    private List<NetworkFailure> getFailures(String document) {
-      if (!TextUtils.isEmpty(document)) {
-        try {
-          return JsonUtils.fromJson(document, NetworkFailureList.class).getList();
-        } catch (IOException ioe) {
-          Log.w(TAG, ioe);
-        }
-      }
-
-      return new LinkedList<>();
-    }
-
     private DisplayRecord.Body getBody(Cursor cursor) {
       try {
-        String body = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.BODY));
-        long box    = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_BOX));
+        String body = cursor.getString(columns.body);
+        long box    = cursor.getLong(columns.messageBox);
 
         if (!TextUtils.isEmpty(body) && masterCipher != null && Types.isSymmetricEncryption(box)) {
           return new DisplayRecord.Body(masterCipher.decryptBody(body), true);
@@ -1314,6 +1356,58 @@ public class MmsDatabase extends MessagingDatabase {
     }
   }
 
+  /**
+   * Column indices for a reader's cursor, resolved once instead of for every column of every row.
+   */
+  private static class Columns {
+
+    private final int id;
+    private final int dateSent;
+    private final int dateReceived;
+    private final int threadId;
+    private final int messageBox;
+    private final int messageType;
+    private final int address;
+    private final int addressDeviceId;
+    private final int contentLocation;
+    private final int transactionId;
+    private final int messageSize;
+    private final int expiry;
+    private final int status;
+    private final int receiptCount;
+    private final int subscriptionId;
+    private final int body;
+    private final int partCount;
+    private final int mismatchedIdentities;
+    private final int networkFailure;
+    private final int expiresIn;
+    private final int expireStarted;
+
+    private Columns(Cursor cursor) {
+      this.id                   = cursor.getColumnIndexOrThrow(MmsDatabase.ID);
+      this.dateSent             = cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_SENT);
+      this.dateReceived         = cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_RECEIVED);
+      this.threadId             = cursor.getColumnIndexOrThrow(MmsDatabase.THREAD_ID);
+      this.messageBox           = cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_BOX);
+      this.messageType          = cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_TYPE);
+      this.address              = cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS);
+      this.addressDeviceId      = cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS_DEVICE_ID);
+      this.contentLocation      = cursor.getColumnIndexOrThrow(MmsDatabase.CONTENT_LOCATION);
+      this.transactionId        = cursor.getColumnIndexOrThrow(MmsDatabase.TRANSACTION_ID);
+      this.messageSize          = cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_SIZE);
+      this.expiry               = cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRY);
+      this.status               = cursor.getColumnIndexOrThrow(MmsDatabase.STATUS);
+      this.receiptCount         = cursor.getColumnIndexOrThrow(MmsDatabase.RECEIPT_COUNT);
+      this.subscriptionId       = cursor.getColumnIndexOrThrow(MmsDatabase.SUBSCRIPTION_ID);
+      this.body                 = cursor.getColumnIndexOrThrow(MmsDatabase.BODY);
+      this.partCount            = cursor.getColumnIndexOrThrow(MmsDatabase.PART_COUNT);
+      this.mismatchedIdentities = cursor.getColumnIndexOrThrow(MmsDatabase.MISMATCHED_IDENTITIES);
+      this.networkFailure       = cursor.getColumnIndexOrThrow(MmsDatabase.NETWORK_FAILURE);
+      this.expiresIn            = cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRES_IN);
+      this.expireStarted        = cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRE_STARTED);
+    }
+  }
+
   private long generatePduCompatTimestamp() {
     final long time = System.currentTimeMillis();
     return time - (time % 1000);
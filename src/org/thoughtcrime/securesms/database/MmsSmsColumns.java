@@ -70,6 +70,9 @@ public interface MmsSmsColumns {
     protected static final long GROUP_QUIT_BIT              = 0x20000;
     protected static final long EXPIRATION_TIMER_UPDATE_BIT = 0x40000;
 
+    // Body Storage Information
+    protected static final long RAW_BODY_BIT = 0x100000;
+
     // Encrypted Storage Information
     protected static final long ENCRYPTION_MASK                  = 0xFF000000;
     protected static final long ENCRYPTION_SYMMETRIC_BIT         = 0x80000000;
@@ -212,6 +215,10 @@ public interface MmsSmsColumns {
       return (type & ENCRYPTION_SYMMETRIC_BIT) != 0;
     }
 
+    public static boolean isRawBody(long type) {
+      return (type & RAW_BODY_BIT) != 0;
+    }
+
     public static boolean isAsymmetricEncryption(long type) {
       return (type & ENCRYPTION_ASYMMETRIC_BIT) != 0;
     }
@@ -31,7 +31,9 @@ import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.whispersystems.libsignal.util.guava.Optional;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class MmsSmsDatabase extends Database {
@@ -94,6 +96,63 @@ public class MmsSmsDatabase extends Database {
     return getConversation(threadId, 0);
   }
 
+  /**
+   * Returns every message in a thread received at or after {@code windowStart}, newest first.
+   * Both tables are range scanned on their (thread_id, date_received) index, so the cost is
+   * proportional to the size of the window rather than the size of the thread.
+   */
+  public Cursor getConversationWindow(long threadId, long windowStart) {
+    String order        = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
+    String smsSelection = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + SmsDatabase.DATE_RECEIVED + " >= " + windowStart;
+    String mmsSelection = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + MmsDatabase.DATE_RECEIVED + " >= " + windowStart;
+
+    Cursor cursor = queryTables(PROJECTION, smsSelection, mmsSelection, order, null);
+    setNotifyConverationListeners(cursor, threadId);
+
+    return cursor;
+  }
+
+  /**
+   * Finds the keyset boundary of the page of {@code pageSize} messages received before
+   * {@code before}, for use with {@link #getConversationWindow(long, long)}.
+   *
+   * Only the (thread_id, date_received) indexes are read, at most {@code pageSize + 1} entries
+   * from each table.
+   *
+   * @return The date_received of the oldest message in the page, or 0 if the page reaches the
+   *         beginning of the thread.
+   */
+  public long getConversationPageStart(long threadId, long before, int pageSize) {
+    String smsQuery = "SELECT " + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED +
+                      " FROM " + SmsDatabase.TABLE_NAME +
+                      " WHERE " + SmsDatabase.THREAD_ID + " = ? AND " + SmsDatabase.DATE_RECEIVED + " < ?" +
+                      " ORDER BY " + SmsDatabase.DATE_RECEIVED + " DESC LIMIT " + (pageSize + 1);
+    String mmsQuery = "SELECT " + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED +
+                      " FROM " + MmsDatabase.TABLE_NAME +
+                      " WHERE " + MmsDatabase.THREAD_ID + " = ? AND " + MmsDatabase.DATE_RECEIVED + " < ?" +
+                      " ORDER BY " + MmsDatabase.DATE_RECEIVED + " DESC LIMIT " + (pageSize + 1);
+    String query    = "SELECT " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM (" + smsQuery + ")" +
+                      " UNION ALL SELECT " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM (" + mmsQuery + ")" +
+                      " ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC LIMIT 2 OFFSET " + (pageSize - 1);
+
+    String[]       args   = new String[] {String.valueOf(threadId), String.valueOf(before),
+                                          String.valueOf(threadId), String.valueOf(before)};
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = null;
+
+    try {
+      cursor = db.rawQuery(query, args);
+
+      if (cursor != null && cursor.getCount() > 1 && cursor.moveToFirst()) {
+        return cursor.getLong(0);
+      }
+
+      return 0;
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+  }
+
   public Cursor getIdentityConflictMessagesForThread(long threadId) {
     String order           = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " ASC";
     String selection       = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + MmsSmsColumns.MISMATCHED_IDENTITIES + " IS NOT NULL";
@@ -111,21 +170,65 @@ public class MmsSmsDatabase extends Database {
     return  queryTables(PROJECTION, selection, order, "1");
   }
 
-  public Cursor getUnread() {
-    String order           = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " ASC";
-    String selection       = MmsSmsColumns.READ + " = 0 AND " + MmsSmsColumns.NOTIFIED + " = 0";
+  /**
+   * Returns up to {@code limit} of a thread's unread, un-notified messages, newest first.
+   */
+  public Cursor getUnread(long threadId, int limit) {
+    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
+    String selection = MmsSmsColumns.READ + " = 0 AND " + MmsSmsColumns.NOTIFIED + " = 0 AND " + MmsSmsColumns.THREAD_ID + " = " + threadId;
 
-    return queryTables(PROJECTION, selection, order, null);
+    return queryTables(PROJECTION, selection, order, String.valueOf(limit));
+  }
+
+  /**
+   * Summarizes unread, un-notified messages per thread with one aggregate query per table.
+   */
+  public @NonNull Map<Long, UnreadThread> getUnreadThreads() {
+    return getUnreadThreads(null, null);
   }
 
   public int getUnreadCount(long threadId) {
-    String selection = MmsSmsColumns.READ + " = 0 AND " + MmsSmsColumns.NOTIFIED + " = 0 AND " + MmsSmsColumns.THREAD_ID + " = " + threadId;
-    Cursor cursor    = queryTables(PROJECTION, selection, null, null);
+    UnreadThread thread = getUnreadThreads(MmsSmsColumns.THREAD_ID + " = ?", new String[] {String.valueOf(threadId)}).get(threadId);
+    return thread != null ? thread.getCount() : 0;
+  }
+
+  private @NonNull Map<Long, UnreadThread> getUnreadThreads(@Nullable String selection, @Nullable String[] args) {
+    Map<Long, UnreadThread> threads = new HashMap<>();
+
+    addUnreadThreads(threads, SmsDatabase.TABLE_NAME, SmsDatabase.DATE_RECEIVED, selection, args);
+    addUnreadThreads(threads, MmsDatabase.TABLE_NAME, MmsDatabase.DATE_RECEIVED, selection, args);
+
+    return threads;
+  }
+
+  private void addUnreadThreads(@NonNull Map<Long, UnreadThread> threads,
+                                @NonNull String table, @NonNull String dateReceived,
+                                @Nullable String selection, @Nullable String[] args)
+  {
+    SQLiteDatabase db      = databaseHelper.getReadableDatabase();
+    String[]       columns = {MmsSmsColumns.THREAD_ID, "COUNT(*)", "MAX(" + dateReceived + ")"};
+    String         where   = MmsSmsColumns.READ + " = 0 AND " + MmsSmsColumns.NOTIFIED + " = 0";
+    Cursor         cursor  = null;
+
+    if (selection != null) where += " AND " + selection;
 
     try {
-      return cursor != null ? cursor.getCount() : 0;
+      cursor = db.query(table, columns, where, args, MmsSmsColumns.THREAD_ID, null, null);
+
+      while (cursor != null && cursor.moveToNext()) {
+        long         threadId = cursor.getLong(0);
+        UnreadThread existing = threads.get(threadId);
+        UnreadThread thread   = new UnreadThread(threadId, cursor.getInt(1), cursor.getLong(2));
+
+        if (existing != null) {
+          thread = new UnreadThread(threadId, existing.getCount() + thread.getCount(),
+                                    Math.max(existing.getLatestReceived(), thread.getLatestReceived()));
+        }
+
+        threads.put(threadId, thread);
+      }
     } finally {
-      if (cursor != null) cursor.close();;
+      if (cursor != null) cursor.close();
     }
   }
 
@@ -142,6 +245,10 @@ public class MmsSmsDatabase extends Database {
   }
 
   private Cursor queryTables(String[] projection, String selection, String order, String limit) {
+    return queryTables(projection, selection, selection, order, limit);
+  }
+
+  private Cursor queryTables(String[] projection, String smsSelection, String mmsSelection, String order, String limit) {
     String[] mmsProjection = {MmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT,
                               MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED,
                               MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " AS " + MmsSmsColumns.ID,
@@ -281,9 +388,9 @@ public class MmsSmsDatabase extends Database {
     smsColumnsPresent.add(SmsDatabase.STATUS);
 
     @SuppressWarnings("deprecation")
-    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, selection, null, null, null);
+    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, mmsSelection, null, null, null);
     @SuppressWarnings("deprecation")
-    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, selection, null, null, null);
+    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, smsSelection, null, null, null);
 
     SQLiteQueryBuilder unionQueryBuilder = new SQLiteQueryBuilder();
     String unionQuery = unionQueryBuilder.buildUnionQuery(new String[] {smsSubQuery, mmsSubQuery}, order, limit);
@@ -313,6 +420,7 @@ public class MmsSmsDatabase extends Database {
     private final Optional<MasterSecret>       masterSecret;
     private       EncryptingSmsDatabase.Reader smsReader;
     private       MmsDatabase.Reader           mmsReader;
+    private       int                          transportColumn = -1;
 
     public Reader(Cursor cursor, @Nullable MasterSecret masterSecret) {
       this.cursor       = cursor;
@@ -348,7 +456,9 @@ public class MmsSmsDatabase extends Database {
     }
 
     public MessageRecord getCurrent() {
-      String type = cursor.getString(cursor.getColumnIndexOrThrow(TRANSPORT));
+      if (transportColumn == -1) transportColumn = cursor.getColumnIndexOrThrow(TRANSPORT);
+
+      String type = cursor.getString(transportColumn);
 
       if      (MmsSmsDatabase.MMS_TRANSPORT.equals(type)) return getMmsReader().getCurrent();
       else if (MmsSmsDatabase.SMS_TRANSPORT.equals(type)) return getSmsReader().getCurrent();
@@ -359,4 +469,28 @@ public class MmsSmsDatabase extends Database {
       cursor.close();
     }
   }
+
+  public static class UnreadThread {
+    private final long threadId;
+    private final int  count;
+    private final long latestReceived;
+
+    UnreadThread(long threadId, int count, long latestReceived) {
+      this.threadId       = threadId;
+      this.count          = count;
+      this.latestReceived = latestReceived;
+    }
+
+    public long getThreadId() {
+      return threadId;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public long getLatestReceived() {
+      return latestReceived;
+    }
+  }
 }
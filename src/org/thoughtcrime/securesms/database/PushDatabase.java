@@ -27,18 +27,35 @@ public class PushDatabase extends Database {
   public  static final String LEGACY_MSG   = "body";
   public  static final String CONTENT      = "content";
   public  static final String TIMESTAMP    = "timestamp";
+  private static final String SMS_MESSAGE_ID = "sms_message_id";
 
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID + " INTEGER PRIMARY KEY, " +
-      TYPE + " INTEGER, " + SOURCE + " TEXT, " + DEVICE_ID + " INTEGER, " + LEGACY_MSG + " TEXT, " + CONTENT + " TEXT, " + TIMESTAMP + " INTEGER);";
+      TYPE + " INTEGER, " + SOURCE + " TEXT, " + DEVICE_ID + " INTEGER, " + LEGACY_MSG + " TEXT, " + CONTENT + " TEXT, " + TIMESTAMP + " INTEGER, " +
+      SMS_MESSAGE_ID + " INTEGER DEFAULT -1);";
 
   public PushDatabase(Context context, SQLiteOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
 
   public long insert(@NonNull SignalServiceEnvelope envelope) {
+    return insert(envelope, -1);
+  }
+
+  /**
+   * @param smsMessageId The existing message that decrypting this envelope should update,
+   *                     rather than inserting a new one, or -1.
+   */
+  public long insert(@NonNull SignalServiceEnvelope envelope, long smsMessageId) {
     Optional<Long> messageId = find(envelope);
 
     if (messageId.isPresent()) {
+      if (smsMessageId > 0) {
+        ContentValues values = new ContentValues(1);
+        values.put(SMS_MESSAGE_ID, smsMessageId);
+
+        databaseHelper.getWritableDatabase().update(TABLE_NAME, values, ID_WHERE, new String[] {String.valueOf(messageId.get())});
+      }
+
       return messageId.get();
     } else {
       ContentValues values = new ContentValues();
@@ -48,6 +65,7 @@ public class PushDatabase extends Database {
       values.put(LEGACY_MSG, envelope.hasLegacyMessage() ? Base64.encodeBytes(envelope.getLegacyMessage()) : "");
       values.put(CONTENT, envelope.hasContent() ? Base64.encodeBytes(envelope.getContent()) : "");
       values.put(TIMESTAMP, envelope.getTimestamp());
+      values.put(SMS_MESSAGE_ID, smsMessageId);
 
       return databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, values);
     }
@@ -88,6 +106,27 @@ public class PushDatabase extends Database {
     return databaseHelper.getReadableDatabase().query(TABLE_NAME, null, null, null, null, null, null);
   }
 
+  public Cursor getPending(long afterId, int limit) {
+    return databaseHelper.getReadableDatabase().query(TABLE_NAME, null, ID + " > ?", new String[] {String.valueOf(afterId)},
+                                                      null, null, ID + " ASC", String.valueOf(limit));
+  }
+
+  /**
+   * All tables share one database, so a transaction started here also covers the messages
+   * inserted while a pending envelope is processed.
+   */
+  public void beginTransaction() {
+    beginTransaction(databaseHelper.getWritableDatabase());
+  }
+
+  public void setTransactionSuccessful() {
+    databaseHelper.getWritableDatabase().setTransactionSuccessful();
+  }
+
+  public void endTransaction() {
+    databaseHelper.getWritableDatabase().endTransaction();
+  }
+
   public void delete(long id) {
     databaseHelper.getWritableDatabase().delete(TABLE_NAME, ID_WHERE, new String[] {id+""});
   }
@@ -149,6 +188,14 @@ public class PushDatabase extends Database {
       }
     }
 
+    public long getCurrentId() {
+      return cursor.getLong(cursor.getColumnIndexOrThrow(ID));
+    }
+
+    public long getCurrentSmsMessageId() {
+      return cursor.getLong(cursor.getColumnIndexOrThrow(SMS_MESSAGE_ID));
+    }
+
     public void close() {
       this.cursor.close();
     }
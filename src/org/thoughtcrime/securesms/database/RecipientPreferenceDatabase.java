@@ -17,7 +17,9 @@ import org.thoughtcrime.securesms.recipients.Recipients;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class RecipientPreferenceDatabase extends Database {
 
@@ -95,31 +97,7 @@ public class RecipientPreferenceDatabase extends Database {
                               null, null, null);
 
       if (cursor != null && cursor.moveToNext()) {
-        boolean blocked               = cursor.getInt(cursor.getColumnIndexOrThrow(BLOCK))                == 1;
-        String  notification          = cursor.getString(cursor.getColumnIndexOrThrow(NOTIFICATION));
-        int     vibrateState          = cursor.getInt(cursor.getColumnIndexOrThrow(VIBRATE));
-        long    muteUntil             = cursor.getLong(cursor.getColumnIndexOrThrow(MUTE_UNTIL));
-        String  serializedColor       = cursor.getString(cursor.getColumnIndexOrThrow(COLOR));
-        Uri     notificationUri       = notification == null ? null : Uri.parse(notification);
-        boolean seenInviteReminder    = cursor.getInt(cursor.getColumnIndexOrThrow(SEEN_INVITE_REMINDER)) == 1;
-        int     defaultSubscriptionId = cursor.getInt(cursor.getColumnIndexOrThrow(DEFAULT_SUBSCRIPTION_ID));
-        int     expireMessages        = cursor.getInt(cursor.getColumnIndexOrThrow(EXPIRE_MESSAGES));
-
-        MaterialColor color;
-
-        try {
-          color = serializedColor == null ? null : MaterialColor.fromSerialized(serializedColor);
-        } catch (MaterialColor.UnknownColorException e) {
-          Log.w(TAG, e);
-          color = null;
-        }
-
-        Log.w(TAG, "Muted until: " + muteUntil);
-
-        return Optional.of(new RecipientsPreferences(blocked, muteUntil,
-                                                     VibrateState.fromId(vibrateState),
-                                                     notificationUri, color, seenInviteReminder,
-                                                     defaultSubscriptionId, expireMessages));
+        return Optional.of(getRecipientsPreferences(cursor));
       }
 
       return Optional.absent();
@@ -128,6 +106,70 @@ public class RecipientPreferenceDatabase extends Database {
     }
   }
 
+  /**
+   * Looks up the preferences of many individual addresses with a single query.
+   *
+   * @return The preferences of each address that has any; addresses without a row are omitted.
+   */
+  public @NonNull Map<Address, RecipientsPreferences> getIndividualRecipientsPreferences(@NonNull List<Address> addresses) {
+    Map<Address, RecipientsPreferences> results = new HashMap<>();
+
+    if (addresses.isEmpty()) return results;
+
+    SQLiteDatabase database  = databaseHelper.getReadableDatabase();
+    String[]       args      = new String[addresses.size()];
+    StringBuilder  selection = new StringBuilder(ADDRESSES + " IN (");
+    Cursor         cursor    = null;
+
+    for (int i=0;i<args.length;i++) {
+      args[i] = addresses.get(i).serialize();
+      selection.append(i == 0 ? "?" : ", ?");
+    }
+
+    selection.append(")");
+
+    try {
+      cursor = database.query(TABLE_NAME, null, selection.toString(), args, null, null, null);
+
+      while (cursor != null && cursor.moveToNext()) {
+        Address address = Address.fromSerialized(cursor.getString(cursor.getColumnIndexOrThrow(ADDRESSES)));
+        results.put(address, getRecipientsPreferences(cursor));
+      }
+
+      return results;
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+  }
+
+  private @NonNull RecipientsPreferences getRecipientsPreferences(@NonNull Cursor cursor) {
+    boolean blocked               = cursor.getInt(cursor.getColumnIndexOrThrow(BLOCK))                == 1;
+    String  notification          = cursor.getString(cursor.getColumnIndexOrThrow(NOTIFICATION));
+    int     vibrateState          = cursor.getInt(cursor.getColumnIndexOrThrow(VIBRATE));
+    long    muteUntil             = cursor.getLong(cursor.getColumnIndexOrThrow(MUTE_UNTIL));
+    String  serializedColor       = cursor.getString(cursor.getColumnIndexOrThrow(COLOR));
+    Uri     notificationUri       = notification == null ? null : Uri.parse(notification);
+    boolean seenInviteReminder    = cursor.getInt(cursor.getColumnIndexOrThrow(SEEN_INVITE_REMINDER)) == 1;
+    int     defaultSubscriptionId = cursor.getInt(cursor.getColumnIndexOrThrow(DEFAULT_SUBSCRIPTION_ID));
+    int     expireMessages        = cursor.getInt(cursor.getColumnIndexOrThrow(EXPIRE_MESSAGES));
+
+    MaterialColor color;
+
+    try {
+      color = serializedColor == null ? null : MaterialColor.fromSerialized(serializedColor);
+    } catch (MaterialColor.UnknownColorException e) {
+      Log.w(TAG, e);
+      color = null;
+    }
+
+    Log.w(TAG, "Muted until: " + muteUntil);
+
+    return new RecipientsPreferences(blocked, muteUntil,
+                                     VibrateState.fromId(vibrateState),
+                                     notificationUri, color, seenInviteReminder,
+                                     defaultSubscriptionId, expireMessages);
+  }
+
   public void setColor(Recipients recipients, MaterialColor color) {
     ContentValues values = new ContentValues();
     values.put(COLOR, color.serialize());
@@ -23,13 +23,16 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
 
 import org.thoughtcrime.securesms.ApplicationContext;
+import org.thoughtcrime.securesms.crypto.MasterCipher;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatch;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatchList;
+import org.thoughtcrime.securesms.database.documents.LazyDocumentList;
 import org.thoughtcrime.securesms.database.model.DisplayRecord;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.SmsMessageRecord;
@@ -39,13 +42,13 @@ import org.thoughtcrime.securesms.recipients.Recipients;
 import org.thoughtcrime.securesms.sms.IncomingGroupMessage;
 import org.thoughtcrime.securesms.sms.IncomingTextMessage;
 import org.thoughtcrime.securesms.sms.OutgoingTextMessage;
-import org.thoughtcrime.securesms.util.JsonUtils;
 import org.whispersystems.jobqueue.JobManager;
+import org.whispersystems.libsignal.InvalidMessageException;
 import org.whispersystems.libsignal.util.guava.Optional;
 
-import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -117,12 +120,35 @@ public class SmsDatabase extends MessagingDatabase {
                " SET " + TYPE + " = (" + TYPE + " & " + (Types.TOTAL_MASK - maskOff) + " | " + maskOn + " )" +
                " WHERE " + ID + " = ?", new String[] {id+""});
 
-    long threadId = getThreadIdForMessage(id);
-
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    long threadId = updateThreadSnippetType(id);
     notifyConversationListeners(threadId);
   }
 
+  /**
+   * Updates the thread's snippet after a message's type, status or receipt count changed.
+   *
+   * @return The message's thread id, or -1 if it doesn't exist.
+   */
+  private long updateThreadSnippetType(long messageId) {
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = null;
+
+    try {
+      cursor = db.query(TABLE_NAME, new String[] {THREAD_ID, DATE_RECEIVED, TYPE, STATUS, RECEIPT_COUNT},
+                        ID_WHERE, new String[] {String.valueOf(messageId)}, null, null, null);
+
+      if (cursor == null || !cursor.moveToFirst()) return -1;
+
+      long threadId = cursor.getLong(0);
+
+      DatabaseFactory.getThreadDatabase(context).updateSnippetTypeIfLatest(threadId, cursor.getLong(1), cursor.getLong(2),
+                                                                           cursor.getInt(3), cursor.getInt(4));
+      return threadId;
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+  }
+
   public long getThreadIdForMessage(long id) {
     String sql        = "SELECT " + THREAD_ID + " FROM " + TABLE_NAME + " WHERE " + ID + " = ?";
     String[] sqlArgs  = new String[] {id+""};
@@ -246,9 +272,7 @@ public class SmsDatabase extends MessagingDatabase {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(id)});
 
-    long threadId = getThreadIdForMessage(id);
-
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    long threadId = updateThreadSnippetType(id);
     notifyConversationListeners(threadId);
   }
 
@@ -260,8 +284,7 @@ public class SmsDatabase extends MessagingDatabase {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {id+""});
 
-    long threadId = getThreadIdForMessage(id);
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    long threadId = updateThreadSnippetType(id);
     notifyConversationListeners(threadId);
   }
 
@@ -278,6 +301,20 @@ public class SmsDatabase extends MessagingDatabase {
     database.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(id)});
   }
 
+  /**
+   * Marks a thread's unread messages received up to {@code receivedBefore} as notified.
+   */
+  public void markAsNotified(long threadId, long receivedBefore) {
+    SQLiteDatabase database      = databaseHelper.getWritableDatabase();
+    ContentValues  contentValues = new ContentValues();
+
+    contentValues.put(NOTIFIED, 1);
+
+    database.update(TABLE_NAME, contentValues,
+                    THREAD_ID + " = ? AND " + NOTIFIED + " = 0 AND " + DATE_RECEIVED + " <= ?",
+                    new String[] {String.valueOf(threadId), String.valueOf(receivedBefore)});
+  }
+
   public void incrementDeliveryReceiptCount(SyncMessageId messageId) {
     SQLiteDatabase database     = databaseHelper.getWritableDatabase();
     Cursor         cursor       = null;
@@ -294,15 +331,14 @@ public class SmsDatabase extends MessagingDatabase {
           Address ourAddress   = Address.fromSerialized(cursor.getString(cursor.getColumnIndexOrThrow(ADDRESS)));
 
           if (ourAddress.equals(theirAddress)) {
-            long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
+            long id = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
 
             database.execSQL("UPDATE " + TABLE_NAME +
                              " SET " + RECEIPT_COUNT + " = " + RECEIPT_COUNT + " + 1 WHERE " +
                              ID + " = ?",
-                             new String[] {String.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ID)))});
+                             new String[] {String.valueOf(id)});
 
-            DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-            notifyConversationListeners(threadId);
+            notifyConversationListeners(updateThreadSnippetType(id));
             foundMessage = true;
           }
         }
@@ -325,7 +361,7 @@ public class SmsDatabase extends MessagingDatabase {
     List<MarkedMessageInfo> results   = new LinkedList<>();
     Cursor                  cursor    = null;
 
-    database.beginTransaction();
+    beginTransaction(database);
     try {
       cursor = database.query(TABLE_NAME, new String[] {ID, ADDRESS, DATE_SENT, TYPE, EXPIRES_IN, EXPIRE_STARTED}, where, selection, null, null, null);
 
@@ -401,15 +437,19 @@ public class SmsDatabase extends MessagingDatabase {
   }
 
   protected Pair<Long, Long> updateMessageBodyAndType(long messageId, String body, long maskOff, long maskOn) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    SQLiteDatabase db      = databaseHelper.getWritableDatabase();
+    byte[]         rawBody = getRawBody(maskOn, body);
+
+    if (rawBody != null) maskOn |= Types.RAW_BODY_BIT;
+
     db.execSQL("UPDATE " + TABLE_NAME + " SET " + BODY + " = ?, " +
-                   TYPE + " = (" + TYPE + " & " + (Types.TOTAL_MASK - maskOff) + " | " + maskOn + ") " +
+                   TYPE + " = (" + TYPE + " & " + (Types.TOTAL_MASK - (maskOff | Types.RAW_BODY_BIT)) + " | " + maskOn + ") " +
                    "WHERE " + ID + " = ?",
-               new String[] {body, messageId + ""});
+               new Object[] {rawBody != null ? rawBody : body, messageId});
 
     long threadId = getThreadIdForMessage(messageId);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateSnippetIfLatest(threadId, getDateReceivedForMessage(messageId), true);
     notifyConversationListeners(threadId);
     notifyConversationListListeners();
 
@@ -421,21 +461,29 @@ public class SmsDatabase extends MessagingDatabase {
     SmsMessageRecord record = reader.getNext();
 
     ContentValues contentValues = new ContentValues();
-    contentValues.put(TYPE, (record.getType() & ~Types.BASE_TYPE_MASK) | Types.BASE_INBOX_TYPE);
     contentValues.put(ADDRESS, record.getIndividualRecipient().getAddress().serialize());
     contentValues.put(ADDRESS_DEVICE_ID, record.getRecipientDeviceId());
     contentValues.put(DATE_RECEIVED, System.currentTimeMillis());
     contentValues.put(DATE_SENT, record.getDateSent());
     contentValues.put(PROTOCOL, 31337);
     contentValues.put(READ, 0);
-    contentValues.put(BODY, record.getBody().getBody());
+    contentValues.put(TYPE, putBody(contentValues, (record.getType() & ~Types.BASE_TYPE_MASK) | Types.BASE_INBOX_TYPE,
+                                    record.getBody().getBody()));
     contentValues.put(THREAD_ID, record.getThreadId());
     contentValues.put(EXPIRES_IN, record.getExpiresIn());
 
-    SQLiteDatabase db           = databaseHelper.getWritableDatabase();
-    long           newMessageId = db.insert(TABLE_NAME, null, contentValues);
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    long           newMessageId;
+
+    beginTransaction(db);
+    try {
+      newMessageId = db.insert(TABLE_NAME, null, contentValues);
+      updateThreadForInsert(record.getThreadId(), newMessageId, true);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
-    DatabaseFactory.getThreadDatabase(context).update(record.getThreadId(), true);
     notifyConversationListeners(record.getThreadId());
 
     jobManager.add(new TrimThreadJob(context, record.getThreadId()));
@@ -470,9 +518,17 @@ public class SmsDatabase extends MessagingDatabase {
     values.put(THREAD_ID, threadId);
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    long messageId    = db.insert(TABLE_NAME, null, values);
+    long messageId;
+
+    beginTransaction(db);
+    try {
+      messageId = db.insert(TABLE_NAME, null, values);
+      updateThreadForInsert(threadId, messageId, true);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
     notifyConversationListeners(threadId);
     jobManager.add(new TrimThreadJob(context, threadId));
 
@@ -540,23 +596,28 @@ public class SmsDatabase extends MessagingDatabase {
 
     values.put(REPLY_PATH_PRESENT, message.isReplyPathPresent());
     values.put(SERVICE_CENTER, message.getServiceCenterAddress());
-    values.put(BODY, message.getMessageBody());
-    values.put(TYPE, type);
+    values.put(TYPE, putBody(values, type, message.getMessageBody()));
     values.put(THREAD_ID, threadId);
 
     if (message.isPush() && isDuplicate(message, threadId)) {
       Log.w(TAG, "Duplicate message (" + message.getSentTimestampMillis() + "), ignoring...");
       return Optional.absent();
     } else {
-      SQLiteDatabase db        = databaseHelper.getWritableDatabase();
-      long           messageId = db.insert(TABLE_NAME, null, values);
+      SQLiteDatabase db = databaseHelper.getWritableDatabase();
+      long           messageId;
 
-      if (unread) {
-        DatabaseFactory.getThreadDatabase(context).setUnread(threadId);
-      }
+      beginTransaction(db);
+      try {
+        messageId = db.insert(TABLE_NAME, null, values);
 
-      if (!message.isIdentityUpdate() && !message.isIdentityVerified() && !message.isIdentityDefault()) {
-        DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+        if (unread) {
+          DatabaseFactory.getThreadDatabase(context).setUnread(threadId);
+        }
+
+        updateThreadForInsert(threadId, messageId, !message.isIdentityUpdate() && !message.isIdentityVerified() && !message.isIdentityDefault());
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
       }
 
       if (message.getSubscriptionId() != -1) {
@@ -594,24 +655,31 @@ public class SmsDatabase extends MessagingDatabase {
     ContentValues contentValues = new ContentValues(6);
     contentValues.put(ADDRESS, address.serialize());
     contentValues.put(THREAD_ID, threadId);
-    contentValues.put(BODY, message.getMessageBody());
+    contentValues.put(TYPE, putBody(contentValues, type, message.getMessageBody()));
     contentValues.put(DATE_RECEIVED, System.currentTimeMillis());
     contentValues.put(DATE_SENT, date);
     contentValues.put(READ, 1);
-    contentValues.put(TYPE, type);
     contentValues.put(SUBSCRIPTION_ID, message.getSubscriptionId());
     contentValues.put(EXPIRES_IN, message.getExpiresIn());
     contentValues.put(RECEIPT_COUNT, earlyReceiptCache.remove(date, address));
 
-    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
-    long           messageId = db.insert(TABLE_NAME, ADDRESS, contentValues);
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    long           messageId;
+
+    beginTransaction(db);
+    try {
+      messageId = db.insert(TABLE_NAME, ADDRESS, contentValues);
+      updateThreadForInsert(threadId, messageId, !message.isIdentityVerified() && !message.isIdentityDefault());
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
     if (insertListener != null) {
       insertListener.onComplete();
     }
 
     if (!message.isIdentityVerified() && !message.isIdentityDefault()) {
-      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
       DatabaseFactory.getThreadDatabase(context).setLastSeen(threadId);
     }
 
@@ -667,12 +735,77 @@ public class SmsDatabase extends MessagingDatabase {
     Log.w("MessageDatabase", "Deleting: " + messageId);
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     long threadId     = getThreadIdForMessage(messageId);
-    db.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    boolean threadDeleted;
+
+    beginTransaction(db);
+    try {
+      long dateReceived = getDateReceivedForMessage(messageId);
+      db.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
+      threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDelete(threadId, dateReceived);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
     notifyConversationListeners(threadId);
     return threadDeleted;
   }
 
+  private long getDateReceivedForMessage(long messageId) {
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = null;
+
+    try {
+      cursor = db.query(TABLE_NAME, new String[] {DATE_RECEIVED}, ID_WHERE, new String[] {String.valueOf(messageId)}, null, null, null);
+
+      if (cursor != null && cursor.moveToFirst()) return cursor.getLong(0);
+      else                                        return Long.MAX_VALUE;
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+  }
+
+  private void updateThreadForInsert(long threadId, long messageId, boolean updateSnippet) {
+    SmsMessageRecord record = null;
+
+    if (updateSnippet) {
+      Reader reader = readerFor(getMessage(messageId));
+      record = reader.getNext();
+      reader.close();
+    }
+
+    DatabaseFactory.getThreadDatabase(context).updateForInsert(threadId, record, true);
+  }
+
+  /**
+   * Stores symmetrically encrypted bodies as raw bytes rather than Base64 text, so they can
+   * be decrypted without decoding them first.
+   *
+   * @return The type to store with the body, with {@link Types#RAW_BODY_BIT} set if it's raw.
+   */
+  private long putBody(ContentValues values, long type, @Nullable String body) {
+    byte[] rawBody = getRawBody(type, body);
+
+    if (rawBody != null) {
+      values.put(BODY, rawBody);
+      return type | Types.RAW_BODY_BIT;
+    } else {
+      values.put(BODY, body);
+      return type & ~Types.RAW_BODY_BIT;
+    }
+  }
+
+  private @Nullable byte[] getRawBody(long type, @Nullable String body) {
+    if (body == null || !Types.isSymmetricEncryption(type)) return null;
+
+    try {
+      return MasterCipher.toRawBody(body);
+    } catch (InvalidMessageException e) {
+      Log.w(TAG, e);
+      return null;
+    }
+  }
+
   private boolean isDuplicate(IncomingTextMessage message, long threadId) {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
     Cursor         cursor   = database.query(TABLE_NAME, null, DATE_SENT + " = ? AND " + ADDRESS + " = ? AND " + THREAD_ID + " = ?",
@@ -705,16 +838,10 @@ public class SmsDatabase extends MessagingDatabase {
   }
 
   /*package*/ void deleteThreads(Set<Long> threadIds) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    String where      = "";
-
-    for (long threadId : threadIds) {
-      where += THREAD_ID + " = '" + threadId + "' OR ";
-    }
-
-    where = where.substring(0, where.length() - 4);
+    if (threadIds.isEmpty()) return;
 
-    db.delete(TABLE_NAME, where, null);
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.delete(TABLE_NAME, THREAD_ID + " IN (" + TextUtils.join(",", threadIds) + ")", null);
   }
 
   /*package */ void deleteAllThreads() {
@@ -724,7 +851,7 @@ public class SmsDatabase extends MessagingDatabase {
 
   /*package*/ SQLiteDatabase beginTransaction() {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.beginTransaction();
+    beginTransaction(database);
     return database;
   }
 
@@ -786,7 +913,7 @@ public class SmsDatabase extends MessagingDatabase {
                                   message.getRecipients(), message.getRecipients().getPrimaryRecipient(),
                                   1, System.currentTimeMillis(), System.currentTimeMillis(),
                                   0, message.isSecureMessage() ? MmsSmsColumns.Types.getOutgoingEncryptedMessageType() : MmsSmsColumns.Types.getOutgoingSmsMessageType(),
-                                  threadId, 0, new LinkedList<IdentityKeyMismatch>(),
+                                  threadId, 0, Collections.<IdentityKeyMismatch>emptyList(),
                                   message.getSubscriptionId(), message.getExpiresIn(),
                                   System.currentTimeMillis());
     }
@@ -796,6 +923,8 @@ public class SmsDatabase extends MessagingDatabase {
 
     private final Cursor cursor;
 
+    private Columns columns;
+
     public Reader(Cursor cursor) {
       this.cursor = cursor;
     }
@@ -813,23 +942,26 @@ public class SmsDatabase extends MessagingDatabase {
     }
 
     public SmsMessageRecord getCurrent() {
-      long    messageId        = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.ID));
-      Address address          = Address.fromSerialized(cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS)));
-      int     addressDeviceId  = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS_DEVICE_ID));
-      long    type             = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.TYPE));
-      long    dateReceived     = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.NORMALIZED_DATE_RECEIVED));
-      long    dateSent         = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.NORMALIZED_DATE_SENT));
-      long    threadId         = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.THREAD_ID));
-      int     status           = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.STATUS));
-      int     receiptCount     = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.RECEIPT_COUNT));
-      String  mismatchDocument = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.MISMATCHED_IDENTITIES));
-      int     subscriptionId   = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.SUBSCRIPTION_ID));
-      long    expiresIn        = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.EXPIRES_IN));
-      long    expireStarted    = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.EXPIRE_STARTED));
-
-      List<IdentityKeyMismatch> mismatches = getMismatches(mismatchDocument);
+      if (columns == null) columns = new Columns(cursor);
+
+      long    messageId        = cursor.getLong(columns.id);
+      Address address          = Address.fromSerialized(cursor.getString(columns.address));
+      int     addressDeviceId  = cursor.getInt(columns.addressDeviceId);
+      long    type             = cursor.getLong(columns.type);
+      long    dateReceived     = cursor.getLong(columns.dateReceived);
+      long    dateSent         = cursor.getLong(columns.dateSent);
+      long    threadId         = cursor.getLong(columns.threadId);
+      int     status           = cursor.getInt(columns.status);
+      int     receiptCount     = cursor.getInt(columns.receiptCount);
+      String  mismatchDocument = cursor.getString(columns.mismatchedIdentities);
+      int     subscriptionId   = cursor.getInt(columns.subscriptionId);
+      long    expiresIn        = cursor.getLong(columns.expiresIn);
+      long    expireStarted    = cursor.getLong(columns.expireStarted);
+
+      List<IdentityKeyMismatch> mismatches = LazyDocumentList.from(mismatchDocument, IdentityKeyMismatchList.class);
       Recipients                recipients = getRecipientsFor(address);
-      DisplayRecord.Body        body       = getBody(cursor);
+      DisplayRecord.Body        body       = Types.isRawBody(type) ? getBody(type, cursor.getBlob(columns.body))
+                                                                     : getBody(type, cursor.getString(columns.body));
 
       return new SmsMessageRecord(context, messageId, body, recipients,
                                   recipients.getPrimaryRecipient(),
@@ -843,22 +975,7 @@ public class SmsDatabase extends MessagingDatabase {
       return RecipientFactory.getRecipientsFor(context, new Address[] {address}, true);
     }
 
-    private List<IdentityKeyMismatch> getMismatches(String document) {
-      try {
-        if (!TextUtils.isEmpty(document)) {
-          return JsonUtils.fromJson(document, IdentityKeyMismatchList.class).getList();
-        }
-      } catch (IOException e) {
-        Log.w(TAG, e);
-      }
-
-      return new LinkedList<>();
-    }
-
-    protected DisplayRecord.Body getBody(Cursor cursor) {
-      long type   = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.TYPE));
-      String body = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.BODY));
-
+    protected DisplayRecord.Body getBody(long type, String body) {
       if (Types.isSymmetricEncryption(type)) {
         return new DisplayRecord.Body(body, false);
       } else {
@@ -866,11 +983,62 @@ public class SmsDatabase extends MessagingDatabase {
       }
     }
 
+    /**
+     * Raw bodies are handed on in their Base64 form, so records read without the master
+     * secret can be copied or used as snippets like any other.
+     */
+    protected DisplayRecord.Body getBody(long type, byte[] rawBody) {
+      try {
+        return getBody(type, rawBody == null ? null : MasterCipher.fromRawBody(rawBody));
+      } catch (InvalidMessageException e) {
+        Log.w(TAG, e);
+        return getBody(type, (String)null);
+      }
+    }
+
     public void close() {
       cursor.close();
     }
   }
 
+  /**
+   * Column indices for a reader's cursor, resolved once instead of for every column of every row.
+   */
+  private static class Columns {
+
+    private final int id;
+    private final int address;
+    private final int addressDeviceId;
+    private final int type;
+    private final int dateReceived;
+    private final int dateSent;
+    private final int threadId;
+    private final int status;
+    private final int receiptCount;
+    private final int mismatchedIdentities;
+    private final int subscriptionId;
+    private final int expiresIn;
+    private final int expireStarted;
+    private final int body;
+
+    private Columns(Cursor cursor) {
+      this.id                   = cursor.getColumnIndexOrThrow(SmsDatabase.ID);
+      this.address              = cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS);
+      this.addressDeviceId      = cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS_DEVICE_ID);
+      this.type                 = cursor.getColumnIndexOrThrow(SmsDatabase.TYPE);
+      this.dateReceived         = cursor.getColumnIndexOrThrow(SmsDatabase.NORMALIZED_DATE_RECEIVED);
+      this.dateSent             = cursor.getColumnIndexOrThrow(SmsDatabase.NORMALIZED_DATE_SENT);
+      this.threadId             = cursor.getColumnIndexOrThrow(SmsDatabase.THREAD_ID);
+      this.status               = cursor.getColumnIndexOrThrow(SmsDatabase.STATUS);
+      this.receiptCount         = cursor.getColumnIndexOrThrow(SmsDatabase.RECEIPT_COUNT);
+      this.mismatchedIdentities = cursor.getColumnIndexOrThrow(SmsDatabase.MISMATCHED_IDENTITIES);
+      this.subscriptionId       = cursor.getColumnIndexOrThrow(SmsDatabase.SUBSCRIPTION_ID);
+      this.expiresIn            = cursor.getColumnIndexOrThrow(SmsDatabase.EXPIRES_IN);
+      this.expireStarted        = cursor.getColumnIndexOrThrow(SmsDatabase.EXPIRE_STARTED);
+      this.body                 = cursor.getColumnIndexOrThrow(SmsDatabase.BODY);
+    }
+  }
+
   public interface InsertListener {
     public void onComplete();
   }
@@ -15,6 +15,7 @@ import org.whispersystems.signalservice.api.push.ContactTokenDetails;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -63,6 +64,8 @@ public class TextSecureDirectory {
   private final DatabaseHelper databaseHelper;
   private final Context        context;
 
+  private Set<String> registeredNumbers;
+
   private TextSecureDirectory(Context context) {
     this.context = context;
     this.databaseHelper = new DatabaseHelper(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -142,6 +145,22 @@ public class TextSecureDirectory {
 //    }
 //  }
 
+  /**
+   * @return the serialized addresses of every registered user in the directory, loaded once
+   * and kept until the directory changes. Lets callers check many contacts without a query each.
+   */
+  public synchronized @NonNull Set<String> getRegisteredNumbers() {
+    if (registeredNumbers == null) {
+      registeredNumbers = Collections.unmodifiableSet(new HashSet<>(getActiveNumbers()));
+    }
+
+    return registeredNumbers;
+  }
+
+  private synchronized void invalidateRegisteredNumbers() {
+    registeredNumbers = null;
+  }
+
   public String getRelay(String e164number) {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
     Cursor         cursor   = null;
@@ -170,6 +189,8 @@ public class TextSecureDirectory {
     values.put(VOICE, token.isVoice());
     values.put(VIDEO, token.isVideo());
     db.replace(TABLE_NAME, null, values);
+
+    invalidateRegisteredNumbers();
   }
 
   public void setNumbers(List<ContactTokenDetails> activeTokens, Collection<Address> inactiveAddresses) {
@@ -201,6 +222,7 @@ public class TextSecureDirectory {
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
+      invalidateRegisteredNumbers();
     }
   }
 
@@ -23,6 +23,7 @@ import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
@@ -104,27 +105,38 @@ public class ThreadDatabase extends Database {
     return db.insert(TABLE_NAME, null, contentValues);
   }
 
-  private void updateThread(long threadId, long count, String body, @Nullable Uri attachment,
-                            long date, int status, int receiptCount, long type, boolean unarchive,
-                            long expiresIn)
-  {
-    ContentValues contentValues = new ContentValues(7);
-    contentValues.put(DATE, date - date % 1000);
+  private void updateThread(long threadId, long count, @NonNull MessageRecord record, boolean unarchive) {
+    ContentValues contentValues = getSnippetValues(record, unarchive);
     contentValues.put(MESSAGE_COUNT, count);
-    contentValues.put(SNIPPET, body);
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
+    notifyConversationListListeners();
+  }
+
+  private void updateThreadSnippet(long threadId, @NonNull MessageRecord record, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.update(TABLE_NAME, getSnippetValues(record, unarchive), ID + " = ?", new String[] {threadId + ""});
+  }
+
+  private ContentValues getSnippetValues(@NonNull MessageRecord record, boolean unarchive) {
+    long date       = record.getTimestamp();
+    Uri  attachment = getAttachmentUriFor(record);
+
+    ContentValues contentValues = new ContentValues(8);
+    contentValues.put(DATE, date - date % 1000);
+    contentValues.put(SNIPPET, record.getBody().getBody());
     contentValues.put(SNIPPET_URI, attachment == null ? null : attachment.toString());
-    contentValues.put(SNIPPET_TYPE, type);
-    contentValues.put(STATUS, status);
-    contentValues.put(RECEIPT_COUNT, receiptCount);
-    contentValues.put(EXPIRES_IN, expiresIn);
+    contentValues.put(SNIPPET_TYPE, record.getType());
+    contentValues.put(STATUS, record.getDeliveryStatus());
+    contentValues.put(RECEIPT_COUNT, record.getReceiptCount());
+    contentValues.put(EXPIRES_IN, record.getExpiresIn());
 
     if (unarchive) {
       contentValues.put(ARCHIVED, 0);
     }
 
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
-    notifyConversationListListeners();
+    return contentValues;
   }
 
   public void updateSnippet(long threadId, String snippet, @Nullable Uri attachment, long date, long type, boolean unarchive) {
@@ -151,16 +163,10 @@ public class ThreadDatabase extends Database {
   }
 
   private void deleteThreads(Set<Long> threadIds) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    String where      = "";
-
-    for (long threadId : threadIds) {
-      where += ID + " = '" + threadId + "' OR ";
-    }
-
-    where = where.substring(0, where.length() - 4);
+    if (threadIds.isEmpty()) return;
 
-    db.delete(TABLE_NAME, where, null);
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.delete(TABLE_NAME, ID + " IN (" + TextUtils.join(",", threadIds) + ")", null);
     notifyConversationListListeners();
   }
 
@@ -171,53 +177,58 @@ public class ThreadDatabase extends Database {
   }
 
   public void trimAllThreads(int length, ProgressListener listener) {
-    Cursor cursor   = null;
-    int threadCount = 0;
-    int complete    = 0;
+    List<Long> threadIds = new LinkedList<>();
+    Cursor     cursor    = null;
 
     try {
-      cursor = this.getConversationList();
-
-      if (cursor != null)
-        threadCount = cursor.getCount();
+      SQLiteDatabase db = databaseHelper.getReadableDatabase();
+      cursor = db.query(TABLE_NAME, new String[] {ID}, ARCHIVED + " = ? AND " + MESSAGE_COUNT + " != 0",
+                        new String[] {"0"}, null, null, DATE + " DESC");
 
       while (cursor != null && cursor.moveToNext()) {
-        long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
-        trimThread(threadId, length);
-
-        listener.onProgress(++complete, threadCount);
+        threadIds.add(cursor.getLong(0));
       }
     } finally {
       if (cursor != null)
         cursor.close();
     }
+
+    int complete = 0;
+
+    for (long threadId : threadIds) {
+      trimThread(threadId, length);
+      listener.onProgress(++complete, threadIds.size());
+    }
   }
 
+  /**
+   * Deletes every message older than the {@code length} newest ones. The cutoff comes from a
+   * single indexed query, both message tables are trimmed in one transaction, and the thread
+   * record is recomputed once afterwards.
+   */
   public void trimThread(long threadId, int length) {
-    Log.w("ThreadDatabase", "Trimming thread: " + threadId + " to: " + length);
-    Cursor cursor = null;
+    if (length <= 0) return;
 
-    try {
-      cursor = DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId);
+    long cutoff = DatabaseFactory.getMmsSmsDatabase(context).getConversationPageStart(threadId, Long.MAX_VALUE, length);
 
-      if (cursor != null && length > 0 && cursor.getCount() > length) {
-        Log.w("ThreadDatabase", "Cursor count is greater than length!");
-        cursor.moveToPosition(length - 1);
+    if (cutoff <= 0) return;
 
-        long lastTweetDate = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED));
+    Log.w("ThreadDatabase", "Trimming thread: " + threadId + " to: " + length + ", cut off date: " + cutoff);
 
-        Log.w("ThreadDatabase", "Cut off tweet date: " + lastTweetDate);
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
-        DatabaseFactory.getSmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, lastTweetDate);
-        DatabaseFactory.getMmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, lastTweetDate);
+    beginTransaction(db);
+    try {
+      DatabaseFactory.getSmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, cutoff);
+      DatabaseFactory.getMmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, cutoff);
 
-        update(threadId, false);
-        notifyConversationListeners(threadId);
-      }
+      update(threadId, false);
+      db.setTransactionSuccessful();
     } finally {
-      if (cursor != null)
-        cursor.close();
+      db.endTransaction();
     }
+
+    notifyConversationListeners(threadId);
   }
 
   public void setAllThreadsRead() {
@@ -300,6 +311,26 @@ public class ThreadDatabase extends Database {
     return cursor;
   }
 
+  /**
+   * Finds the threads with a contact whose name or number matches the filter, or a group whose
+   * title contains it, in a single query against the local contact search index.
+   */
+  public Cursor getFilteredConversationList(@NonNull String filter) {
+    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
+    List<String>   args      = new LinkedList<>();
+    String         addresses = DatabaseFactory.getContactSearchDatabase(context).getMatchingAddressesQuery(filter, args);
+
+    String selection = ADDRESSES + " IN (" + addresses + ") OR " +
+                       ADDRESSES + " IN (SELECT " + GroupDatabase.GROUP_ID + " FROM " + GroupDatabase.TABLE_NAME +
+                       " WHERE " + GroupDatabase.TITLE + " LIKE ?)";
+
+    args.add("%" + filter + "%");
+
+    Cursor cursor = db.query(TABLE_NAME, null, selection, args.toArray(new String[0]), null, null, DATE + " DESC");
+    setNotifyConverationListListeners(cursor);
+    return cursor;
+  }
+
   public Cursor getConversationList() {
     SQLiteDatabase db     = databaseHelper.getReadableDatabase();
     Cursor         cursor =  db.query(TABLE_NAME, null, ARCHIVED + " = ? AND " + MESSAGE_COUNT + " != 0", new String[] {"0"}, null, null, DATE + " DESC");
@@ -395,10 +426,19 @@ public class ThreadDatabase extends Database {
   }
 
   public void deleteConversations(Set<Long> selectedConversations) {
-    DatabaseFactory.getSmsDatabase(context).deleteThreads(selectedConversations);
-    DatabaseFactory.getMmsDatabase(context).deleteThreads(selectedConversations);
-    DatabaseFactory.getDraftDatabase(context).clearDrafts(selectedConversations);
-    deleteThreads(selectedConversations);
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    beginTransaction(db);
+    try {
+      DatabaseFactory.getSmsDatabase(context).deleteThreads(selectedConversations);
+      DatabaseFactory.getMmsDatabase(context).deleteThreads(selectedConversations);
+      DatabaseFactory.getDraftDatabase(context).clearDrafts(selectedConversations);
+      deleteThreads(selectedConversations);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
     notifyConversationListeners(selectedConversations);
     notifyConversationListListeners();
   }
@@ -496,29 +536,201 @@ public class ThreadDatabase extends Database {
       return true;
     }
 
-    MmsSmsDatabase.Reader reader = null;
+    MessageRecord record = getLatestRecord(threadId);
+
+    if (record != null) {
+      updateThread(threadId, count, record, unarchive);
+      notifyConversationListListeners();
+      return false;
+    } else {
+      deleteThread(threadId);
+      notifyConversationListListeners();
+      return true;
+    }
+  }
+
+  /**
+   * Updates a thread's summary after a single message has been inserted into it, without
+   * recounting or re-querying the whole conversation. Should be called inside the same
+   * transaction as the insert.
+   *
+   * @param record The inserted message, or null if it shouldn't become the thread's snippet.
+   */
+  public void updateForInsert(long threadId, @Nullable MessageRecord record, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.execSQL("UPDATE " + TABLE_NAME + " SET " + MESSAGE_COUNT + " = " + MESSAGE_COUNT + " + 1 WHERE " + ID + " = ?",
+               new Object[] {threadId});
+
+    if (record != null && record.getDateReceived() >= getLatestDateReceived(threadId)) {
+      updateThreadSnippet(threadId, record, unarchive);
+    }
+
+    notifyConversationListListeners();
+  }
+
+  /**
+   * Updates a thread's snippet after one of its messages changed in place, without
+   * recounting the conversation. The latest message is only re-read if the changed one
+   * could be it.
+   */
+  public void updateSnippetIfLatest(long threadId, long dateReceived, boolean unarchive) {
+    if (dateReceived >= getLatestDateReceived(threadId)) {
+      updateLatestSnippet(threadId, unarchive);
+    } else if (unarchive) {
+      unarchiveConversation(threadId);
+    }
+  }
+
+  /**
+   * Re-reads a thread's latest message into its snippet, without recounting the conversation.
+   */
+  public void updateLatestSnippet(long threadId, boolean unarchive) {
+    MessageRecord record = getLatestRecord(threadId);
+
+    if (record != null) {
+      updateThreadSnippet(threadId, record, unarchive);
+      notifyConversationListListeners();
+    } else {
+      update(threadId, unarchive);
+    }
+  }
+
+  /**
+   * Updates a thread's snippet type, status and receipt count after one of its messages
+   * changed state. Nothing is re-read or recounted, and the thread is left alone unless
+   * the message is its latest.
+   */
+  public void updateSnippetTypeIfLatest(long threadId, long dateReceived, long type, int status, int receiptCount) {
+    if (dateReceived < getLatestDateReceived(threadId)) return;
+
+    ContentValues contentValues = new ContentValues(3);
+    contentValues.put(SNIPPET_TYPE, type);
+    contentValues.put(STATUS, status);
+    contentValues.put(RECEIPT_COUNT, receiptCount);
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(threadId)});
+    notifyConversationListListeners();
+  }
+
+  /**
+   * Updates a thread's summary after a single message has been deleted from it. The snippet
+   * is only re-queried if the deleted message could have been the snippet, and the thread is
+   * only recounted if it appears to be empty. Should be called inside the same transaction
+   * as the delete.
+   *
+   * @return true if the thread was deleted.
+   */
+  public boolean updateForDelete(long threadId, long deletedDateReceived) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.execSQL("UPDATE " + TABLE_NAME + " SET " + MESSAGE_COUNT + " = " + MESSAGE_COUNT + " - 1 WHERE " + ID + " = ? AND " + MESSAGE_COUNT + " > 0",
+               new Object[] {threadId});
+
+    if (getStoredMessageCount(threadId) <= 0) {
+      return update(threadId, false);
+    }
+
+    if (deletedDateReceived >= getLatestDateReceived(threadId)) {
+      MessageRecord record = getLatestRecord(threadId);
+
+      if (record == null) return update(threadId, false);
+      else                updateThreadSnippet(threadId, record, false);
+    }
+
+    notifyConversationListListeners();
+    return false;
+  }
+
+  /**
+   * Recomputes every thread's message count and snippet from scratch, repairing any drift
+   * in the incrementally maintained values. Threads without messages are left alone, since
+   * they may still hold a draft.
+   */
+  public void rebuildThreadSummaries(@Nullable ProgressListener listener) {
+    MmsSmsDatabase mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
+    SQLiteDatabase db             = databaseHelper.getWritableDatabase();
+    List<Long>     threadIds      = new LinkedList<>();
+    Cursor         cursor         = null;
 
     try {
-      reader = mmsSmsDatabase.readerFor(mmsSmsDatabase.getConversationSnippet(threadId));
-      MessageRecord record;
-
-      if (reader != null && (record = reader.getNext()) != null) {
-        updateThread(threadId, count, record.getBody().getBody(), getAttachmentUriFor(record),
-                     record.getTimestamp(), record.getDeliveryStatus(), record.getReceiptCount(),
-                     record.getType(), unarchive, record.getExpiresIn());
-        notifyConversationListListeners();
-        return false;
+      cursor = db.query(TABLE_NAME, new String[] {ID}, null, null, null, null, null);
+
+      while (cursor != null && cursor.moveToNext()) {
+        threadIds.add(cursor.getLong(0));
+      }
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+
+    int complete = 0;
+
+    for (long threadId : threadIds) {
+      long          count  = mmsSmsDatabase.getConversationCount(threadId);
+      MessageRecord record = count > 0 ? getLatestRecord(threadId) : null;
+
+      if (record != null) {
+        updateThread(threadId, count, record, false);
       } else {
-        deleteThread(threadId);
-        notifyConversationListListeners();
-        return true;
+        ContentValues contentValues = new ContentValues(1);
+        contentValues.put(MESSAGE_COUNT, 0);
+        db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(threadId)});
       }
+
+      if (listener != null) {
+        listener.onProgress(++complete, threadIds.size());
+      }
+    }
+
+    notifyConversationListListeners();
+  }
+
+  private @Nullable MessageRecord getLatestRecord(long threadId) {
+    MmsSmsDatabase        mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
+    MmsSmsDatabase.Reader reader         = null;
+
+    try {
+      reader = mmsSmsDatabase.readerFor(mmsSmsDatabase.getConversationSnippet(threadId));
+      return reader.getNext();
     } finally {
       if (reader != null)
         reader.close();
     }
   }
 
+  private long getLatestDateReceived(long threadId) {
+    return Math.max(getMaxValue(SmsDatabase.TABLE_NAME, SmsDatabase.DATE_RECEIVED, threadId),
+                    getMaxValue(MmsDatabase.TABLE_NAME, MmsDatabase.DATE_RECEIVED, threadId));
+  }
+
+  private long getMaxValue(String table, String column, long threadId) {
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = null;
+
+    try {
+      cursor = db.rawQuery("SELECT MAX(" + column + ") FROM " + table + " WHERE " + MmsSmsColumns.THREAD_ID + " = ?",
+                           new String[] {String.valueOf(threadId)});
+
+      if (cursor != null && cursor.moveToFirst()) return cursor.getLong(0);
+      else                                        return 0;
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+  }
+
+  private long getStoredMessageCount(long threadId) {
+    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    Cursor         cursor = null;
+
+    try {
+      cursor = db.query(TABLE_NAME, new String[] {MESSAGE_COUNT}, ID_WHERE, new String[] {String.valueOf(threadId)}, null, null, null);
+
+      if (cursor != null && cursor.moveToFirst()) return cursor.getLong(0);
+      else                                        return 0;
+    } finally {
+      if (cursor != null) cursor.close();
+    }
+  }
+
   private @Nullable Uri getAttachmentUriFor(MessageRecord record) {
     if (!record.isMms() || record.isMmsNotification() || record.isGroupAction()) return null;
 
@@ -0,0 +1,73 @@
+package org.thoughtcrime.securesms.database.documents;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.util.JsonUtils;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A read-only view of a serialized {@link Document} that is only parsed the first time its
+ * contents are accessed. Most message rows never have their mismatch or failure documents
+ * inspected, so binding them shouldn't pay for the JSON parse.
+ */
+public class LazyDocumentList<T> extends AbstractList<T> {
+
+  private static final String TAG = LazyDocumentList.class.getSimpleName();
+
+  private final String                        document;
+  private final Class<? extends Document<T>> documentClass;
+
+  private List<T> list;
+
+  private LazyDocumentList(@NonNull String document, @NonNull Class<? extends Document<T>> documentClass) {
+    this.document      = document;
+    this.documentClass = documentClass;
+  }
+
+  /**
+   * @return the shared empty list if there is no document, otherwise a list that parses the
+   * document on first access.
+   */
+  public static @NonNull <T> List<T> from(@Nullable String document, @NonNull Class<? extends Document<T>> documentClass) {
+    if (TextUtils.isEmpty(document)) return Collections.emptyList();
+    else                             return new LazyDocumentList<>(document, documentClass);
+  }
+
+  @Override
+  public T get(int index) {
+    return getList().get(index);
+  }
+
+  @Override
+  public int size() {
+    return getList().size();
+  }
+
+  @Override
+  public @NonNull Iterator<T> iterator() {
+    return getList().iterator();
+  }
+
+  private synchronized @NonNull List<T> getList() {
+    if (list == null) {
+      try {
+        List<T> parsed = JsonUtils.fromJson(document, documentClass).getList();
+        if (parsed != null) list = Collections.unmodifiableList(parsed);
+      } catch (IOException e) {
+        Log.w(TAG, e);
+      }
+
+      if (list == null) list = Collections.emptyList();
+    }
+
+    return list;
+  }
+}
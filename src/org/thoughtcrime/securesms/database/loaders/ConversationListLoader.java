@@ -62,6 +62,10 @@ public class ConversationListLoader extends AbstractCursorLoader {
   }
 
   private Cursor getFilteredConversationList(String filter) {
+    if (DatabaseFactory.getContactSearchDatabase(context).isIndexed()) {
+      return DatabaseFactory.getThreadDatabase(context).getFilteredConversationList(filter.trim());
+    }
+
     List<String> numbers = ContactAccessor.getInstance().getNumbersForThreadSearchFilter(context, filter);
     List<Address> addresses = new LinkedList<>();
 
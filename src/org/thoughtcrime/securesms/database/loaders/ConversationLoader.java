@@ -2,36 +2,83 @@ package org.thoughtcrime.securesms.database.loaders;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.support.annotation.Nullable;
 
 import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.util.AbstractCursorLoader;
 
 public class ConversationLoader extends AbstractCursorLoader {
   private final long threadId;
-  private       long limit;
+  private final long pageBefore;
+  private final int  pageSize;
+  private       long windowStart = -1;
   private       long lastSeen;
 
-  public ConversationLoader(Context context, long threadId, long limit, long lastSeen) {
+  private volatile @Nullable ConversationRows rows;
+
+  /**
+   * @param pageBefore The start of the currently loaded window, or Long.MAX_VALUE for the first
+   *                   page. The window is extended by one page of messages older than this, and
+   *                   then stays fixed across reloads so that new messages don't shift it.
+   *                   The first page is grown to reach a page past {@code lastSeen}, so the
+   *                   last seen position is always in the initial window.
+   * @param shownRows  The rows currently shown, if any, for the first load to be diffed against.
+   */
+  public ConversationLoader(Context context, long threadId, long pageBefore, int pageSize, long lastSeen,
+                            @Nullable ConversationRows shownRows)
+  {
     super(context);
-    this.threadId = threadId;
-    this.limit    = limit;
-    this.lastSeen = lastSeen;
+    this.threadId   = threadId;
+    this.pageBefore = pageBefore;
+    this.pageSize   = pageSize;
+    this.lastSeen   = lastSeen;
+    this.rows       = shownRows;
+  }
+
+  public boolean hasMore() {
+    return windowStart > 0;
   }
 
-  public boolean hasLimit() {
-    return limit > 0;
+  public long getWindowStart() {
+    return windowStart;
   }
 
   public long getLastSeen() {
     return lastSeen;
   }
 
+  /**
+   * @return the rows built for {@code cursor} on the loader thread, or null if it wasn't the
+   *         cursor most recently loaded.
+   */
+  public @Nullable ConversationRows getRows(@Nullable Cursor cursor) {
+    ConversationRows rows = this.rows;
+    return rows != null && rows.isFor(cursor) ? rows : null;
+  }
+
   @Override
   public Cursor getCursor() {
     if (lastSeen == -1) {
       this.lastSeen = DatabaseFactory.getThreadDatabase(context).getLastSeen(threadId);
     }
 
-    return DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId, limit);
+    MmsSmsDatabase database = DatabaseFactory.getMmsSmsDatabase(context);
+
+    if (windowStart == -1) {
+      this.windowStart = database.getConversationPageStart(threadId, pageBefore, pageSize);
+
+      if (pageBefore == Long.MAX_VALUE && lastSeen > 0 && windowStart > lastSeen) {
+        this.windowStart = database.getConversationPageStart(threadId, lastSeen + 1, pageSize);
+      }
+    }
+
+    Cursor cursor = database.getConversationWindow(threadId, windowStart);
+
+    if (cursor != null) {
+      this.rows = ConversationRows.create(cursor, rows);
+    }
+
+    return cursor;
   }
 }
@@ -0,0 +1,193 @@
+package org.thoughtcrime.securesms.database.loaders;
+
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
+
+import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.database.CursorRecyclerViewAdapter;
+import org.thoughtcrime.securesms.database.MmsDatabase;
+import org.thoughtcrime.securesms.database.MmsSmsColumns;
+import org.thoughtcrime.securesms.database.SmsDatabase;
+import org.thoughtcrime.securesms.util.Conversions;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The stable item id and version of every row in a conversation cursor, along with the diff from
+ * the rows loaded before it. Built on the loader thread so a cursor swap only has to dispatch it.
+ */
+public class ConversationRows {
+
+  /**
+   * Columns whose values can change for an existing message, e.g. on a delivery receipt,
+   * a decrypt or an attachment transfer. A row's version is a hash of these.
+   */
+  private static final String[] VERSION_LONG_COLUMNS = {
+      SmsDatabase.TYPE, MmsDatabase.MESSAGE_BOX, MmsDatabase.MESSAGE_TYPE, SmsDatabase.STATUS,
+      MmsDatabase.STATUS, MmsSmsColumns.RECEIPT_COUNT, MmsDatabase.PART_COUNT,
+      MmsSmsColumns.NORMALIZED_DATE_SENT, MmsSmsColumns.NORMALIZED_DATE_RECEIVED,
+      MmsSmsColumns.EXPIRES_IN, MmsSmsColumns.EXPIRE_STARTED, MmsSmsColumns.SUBSCRIPTION_ID,
+      AttachmentDatabase.ATTACHMENT_ID_ALIAS, AttachmentDatabase.SIZE, AttachmentDatabase.TRANSFER_STATE
+  };
+
+  private static final String[] VERSION_STRING_COLUMNS = {
+      SmsDatabase.BODY, SmsDatabase.ADDRESS, MmsSmsColumns.MISMATCHED_IDENTITIES,
+      MmsDatabase.NETWORK_FAILURE, AttachmentDatabase.DATA, AttachmentDatabase.THUMBNAIL
+  };
+
+  public static final ConversationRows EMPTY = new ConversationRows(null, new long[0], new long[0], null, null);
+
+  private final @Nullable Cursor              cursor;
+  private final @NonNull  long[]              ids;
+  private final @NonNull  long[]              versions;
+  private final @Nullable long[]              diffBase;
+  private final @Nullable DiffUtil.DiffResult diff;
+
+  private ConversationRows(@Nullable Cursor cursor, @NonNull long[] ids, @NonNull long[] versions,
+                           @Nullable long[] diffBase, @Nullable DiffUtil.DiffResult diff)
+  {
+    this.cursor   = cursor;
+    this.ids      = ids;
+    this.versions = versions;
+    this.diffBase = diffBase;
+    this.diff     = diff;
+  }
+
+  /**
+   * Walks every row of the cursor, and diffs the result against {@code previous} if there is one.
+   */
+  public static @NonNull ConversationRows create(@NonNull Cursor cursor, @Nullable ConversationRows previous) {
+    MessageDigest digest        = getDigest();
+    int[]         longColumns   = getColumnIndexes(cursor, VERSION_LONG_COLUMNS);
+    int[]         stringColumns = getColumnIndexes(cursor, VERSION_STRING_COLUMNS);
+    long[]        ids           = new long[cursor.getCount()];
+    long[]        versions      = new long[ids.length];
+
+    for (int i=0;i<ids.length && cursor.moveToPosition(i);i++) {
+      ids[i]      = CursorRecyclerViewAdapter.getStableItemId(getItemId(digest, cursor));
+      versions[i] = calculateVersion(cursor, longColumns, stringColumns);
+    }
+
+    if (previous == null) {
+      return new ConversationRows(cursor, ids, versions, null, null);
+    }
+
+    DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new Callback(previous.ids, previous.versions, ids, versions), false);
+    return new ConversationRows(cursor, ids, versions, previous.ids, diff);
+  }
+
+  public boolean isFor(@Nullable Cursor cursor) {
+    return cursor != null && this.cursor == cursor;
+  }
+
+  public int size() {
+    return ids.length;
+  }
+
+  public long getId(int position) {
+    return ids[position];
+  }
+
+  public long getVersion(int position) {
+    return versions[position];
+  }
+
+  /**
+   * @return the diff that turns {@code rows} into these rows, or null if these weren't diffed
+   *         against them.
+   */
+  public @Nullable DiffUtil.DiffResult getDiffFrom(@Nullable ConversationRows rows) {
+    if (rows == null || diff == null || rows.ids != diffBase) return null;
+    return diff;
+  }
+
+  public static long getItemId(@NonNull MessageDigest digest, @NonNull Cursor cursor) {
+    String fastPreflightId = cursor.getString(cursor.getColumnIndexOrThrow(AttachmentDatabase.FAST_PREFLIGHT_ID));
+
+    if (fastPreflightId != null) {
+      return Long.valueOf(fastPreflightId);
+    }
+
+    final String unique = cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsColumns.UNIQUE_ROW_ID));
+    final byte[] bytes  = digest.digest(unique.getBytes());
+    return Conversions.byteArrayToLong(bytes);
+  }
+
+  public static long calculateVersion(@NonNull Cursor cursor) {
+    return calculateVersion(cursor, getColumnIndexes(cursor, VERSION_LONG_COLUMNS),
+                            getColumnIndexes(cursor, VERSION_STRING_COLUMNS));
+  }
+
+  public static @NonNull MessageDigest getDigest() {
+    try {
+      return MessageDigest.getInstance("SHA1");
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new AssertionError("SHA1 isn't supported!");
+    }
+  }
+
+  private static long calculateVersion(@NonNull Cursor cursor, @NonNull int[] longColumns, @NonNull int[] stringColumns) {
+    long version = 17;
+
+    for (int column : longColumns) {
+      version = 31 * version + cursor.getLong(column);
+    }
+
+    for (int column : stringColumns) {
+      String value = cursor.getString(column);
+      version = 31 * version + (value == null ? 0 : value.hashCode());
+    }
+
+    return version;
+  }
+
+  private static int[] getColumnIndexes(@NonNull Cursor cursor, @NonNull String[] columns) {
+    int[] indexes = new int[columns.length];
+
+    for (int i=0;i<columns.length;i++) {
+      indexes[i] = cursor.getColumnIndexOrThrow(columns[i]);
+    }
+
+    return indexes;
+  }
+
+  /**
+   * Diffs two lists of rows by item id, and by version for the rows present in both.
+   */
+  public static class Callback extends DiffUtil.Callback {
+    private final long[] oldIds;
+    private final long[] oldVersions;
+    private final long[] newIds;
+    private final long[] newVersions;
+
+    public Callback(long[] oldIds, long[] oldVersions, long[] newIds, long[] newVersions) {
+      this.oldIds      = oldIds;
+      this.oldVersions = oldVersions;
+      this.newIds      = newIds;
+      this.newVersions = newVersions;
+    }
+
+    @Override
+    public int getOldListSize() {
+      return oldIds.length;
+    }
+
+    @Override
+    public int getNewListSize() {
+      return newIds.length;
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+      return oldIds[oldItemPosition] == newIds[newItemPosition];
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+      return oldVersions[oldItemPosition] == newVersions[newItemPosition];
+    }
+  }
+}
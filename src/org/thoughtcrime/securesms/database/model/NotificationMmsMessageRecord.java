@@ -28,7 +28,7 @@ import org.thoughtcrime.securesms.mms.SlideDeck;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.Recipients;
 
-import java.util.LinkedList;
+import java.util.Collections;
 
 /**
  * Represents the message record model for MMS messages that are
@@ -55,7 +55,7 @@ public class NotificationMmsMessageRecord extends MmsMessageRecord {
   {
     super(context, id, new Body("", true), recipients, individualRecipient, recipientDeviceId,
           dateSent, dateReceived, threadId, Status.STATUS_NONE, receiptCount, mailbox,
-          new LinkedList<IdentityKeyMismatch>(), new LinkedList<NetworkFailure>(), subscriptionId,
+          Collections.<IdentityKeyMismatch>emptyList(), Collections.<NetworkFailure>emptyList(), subscriptionId,
           0, 0, slideDeck);
 
     this.contentLocation = contentLocation;
@@ -28,7 +28,7 @@ import org.thoughtcrime.securesms.database.documents.NetworkFailure;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.Recipients;
 
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -52,7 +52,7 @@ public class SmsMessageRecord extends MessageRecord {
   {
     super(context, id, body, recipients, individualRecipient, recipientDeviceId,
           dateSent, dateReceived, threadId, status, receiptCount, type,
-          mismatches, new LinkedList<NetworkFailure>(), subscriptionId,
+          mismatches, Collections.<NetworkFailure>emptyList(), subscriptionId,
           expiresIn, expireStarted);
   }
 
@@ -0,0 +1,63 @@
+package org.thoughtcrime.securesms.glide;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.ResourceDecoder;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
+import com.bumptech.glide.load.resource.bitmap.BitmapResource;
+import com.bumptech.glide.load.resource.gifbitmap.GifBitmapWrapper;
+import com.bumptech.glide.load.resource.gifbitmap.GifBitmapWrapperResource;
+
+import org.thoughtcrime.securesms.crypto.DecryptingPartInputStream;
+import org.thoughtcrime.securesms.crypto.MasterSecret;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads back bitmaps written by {@link EncryptedCacheEncoder}. Entries that can't be decrypted
+ * are treated as cache misses, and Glide drops them and loads from the source instead.
+ */
+public class EncryptedCacheDecoder implements ResourceDecoder<File, GifBitmapWrapper> {
+
+  private static final String TAG = EncryptedCacheDecoder.class.getSimpleName();
+
+  private final MasterSecret masterSecret;
+  private final BitmapPool   bitmapPool;
+
+  public EncryptedCacheDecoder(@NonNull Context context, @NonNull MasterSecret masterSecret) {
+    this.masterSecret = masterSecret;
+    this.bitmapPool   = Glide.get(context).getBitmapPool();
+  }
+
+  @Override
+  public Resource<GifBitmapWrapper> decode(File source, int width, int height) throws IOException {
+    InputStream in = null;
+
+    try {
+      in = DecryptingPartInputStream.createFor(masterSecret, source);
+
+      Bitmap bitmap = BitmapFactory.decodeStream(in);
+      if (bitmap == null) return null;
+
+      return new GifBitmapWrapperResource(new GifBitmapWrapper(BitmapResource.obtain(bitmap, bitmapPool), null));
+    } catch (IOException e) {
+      Log.w(TAG, e);
+      return null;
+    } finally {
+      if (in != null) in.close();
+    }
+  }
+
+  @Override
+  public String getId() {
+    return "EncryptedCacheDecoder.org.thoughtcrime.securesms.glide";
+  }
+}
@@ -0,0 +1,61 @@
+package org.thoughtcrime.securesms.glide;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.bumptech.glide.load.ResourceEncoder;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.resource.gifbitmap.GifBitmapWrapper;
+
+import org.thoughtcrime.securesms.crypto.EncryptingPartOutputStream;
+import org.thoughtcrime.securesms.crypto.MasterSecret;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes transformed bitmaps to Glide's disk cache encrypted under the master secret, so that
+ * only the small, already downsampled variant has to be decrypted and decoded next time.
+ * Animated results aren't cached.
+ */
+public class EncryptedCacheEncoder implements ResourceEncoder<GifBitmapWrapper> {
+
+  private static final String TAG = EncryptedCacheEncoder.class.getSimpleName();
+
+  private static final int QUALITY = 90;
+
+  private final MasterSecret masterSecret;
+
+  public EncryptedCacheEncoder(@NonNull MasterSecret masterSecret) {
+    this.masterSecret = masterSecret;
+  }
+
+  @Override
+  public boolean encode(Resource<GifBitmapWrapper> data, OutputStream os) {
+    Resource<Bitmap> resource = data.get().getBitmapResource();
+
+    if (resource == null) {
+      return false;
+    }
+
+    Bitmap                bitmap = resource.get();
+    Bitmap.CompressFormat format = bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+
+    try {
+      OutputStream out     = new EncryptingPartOutputStream(os, masterSecret);
+      boolean      success = bitmap.compress(format, QUALITY, out);
+
+      out.close();
+      return success;
+    } catch (IOException e) {
+      Log.w(TAG, e);
+      return false;
+    }
+  }
+
+  @Override
+  public String getId() {
+    return "EncryptedCacheEncoder.org.thoughtcrime.securesms.glide";
+  }
+}
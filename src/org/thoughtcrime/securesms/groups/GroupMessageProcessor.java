@@ -210,7 +210,7 @@ public class GroupMessageProcessor {
                                              boolean  outgoing)
   {
     if (group.getAvatar().isPresent()) {
-      ApplicationContext.getInstance(context).getJobManager()
+      ApplicationContext.getInstance(context).getBulkJobManager()
                         .add(new AvatarDownloadJob(context, group.getGroupId()));
     }
 
@@ -16,6 +16,7 @@ import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.dependencies.InjectableType;
 import org.thoughtcrime.securesms.events.PartProgressEvent;
+import org.thoughtcrime.securesms.jobs.requirements.DownloadSlotRequirement;
 import org.thoughtcrime.securesms.jobs.requirements.MasterSecretRequirement;
 import org.thoughtcrime.securesms.mms.MmsException;
 import org.thoughtcrime.securesms.notifications.MessageNotifier;
@@ -34,12 +35,16 @@ import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
 public class AttachmentDownloadJob extends MasterSecretJob implements InjectableType {
   private static final long   serialVersionUID    = 2L;
   private static final int    MAX_ATTACHMENT_SIZE = 150 * 1024  * 1024;
+  private static final int    MAX_RETRIES         = 10;
+  private static final int    MAX_RUN_ITERATIONS  = 100;
+  private static final long   MAX_BACKOFF_MILLIS  = TimeUnit.MINUTES.toMillis(1);
   private static final String TAG                  = AttachmentDownloadJob.class.getSimpleName();
 
   @Inject transient SignalServiceMessageReceiver messageReceiver;
@@ -49,18 +54,31 @@ public class AttachmentDownloadJob extends MasterSecretJob implements Injectable
   private final long    partUniqueId;
   private final boolean manual;
 
+  private final DownloadSlotRequirement slotRequirement;
+
+  private transient DownloadSlotRequirement legacySlotRequirement;
+
   public AttachmentDownloadJob(Context context, long messageId, AttachmentId attachmentId, boolean manual) {
+    this(context, messageId, attachmentId, manual, new DownloadSlotRequirement(context, messageId, attachmentId));
+  }
+
+  private AttachmentDownloadJob(Context context, long messageId, AttachmentId attachmentId, boolean manual,
+                                DownloadSlotRequirement slotRequirement)
+  {
     super(context, JobParameters.newBuilder()
-                                .withGroupId(AttachmentDownloadJob.class.getCanonicalName())
+                                .withGroupId(AttachmentDownloadJob.class.getCanonicalName() + "::" + messageId)
                                 .withRequirement(new MasterSecretRequirement(context))
                                 .withRequirement(new NetworkRequirement(context))
+                                .withRequirement(slotRequirement)
                                 .withPersistence()
+                                .withRetryCount(MAX_RUN_ITERATIONS)
                                 .create());
 
-    this.messageId    = messageId;
-    this.partRowId    = attachmentId.getRowId();
-    this.partUniqueId = attachmentId.getUniqueId();
-    this.manual       = manual;
+    this.messageId       = messageId;
+    this.partRowId       = attachmentId.getRowId();
+    this.partUniqueId    = attachmentId.getUniqueId();
+    this.manual          = manual;
+    this.slotRequirement = slotRequirement;
   }
 
   @Override
@@ -68,7 +86,7 @@ public class AttachmentDownloadJob extends MasterSecretJob implements Injectable
   }
 
   @Override
-  public void onRun(MasterSecret masterSecret) throws IOException {
+  public void onRun(MasterSecret masterSecret) throws IOException, RequirementNotMetException {
     final AttachmentDatabase database     = DatabaseFactory.getAttachmentDatabase(context);
     final AttachmentId       attachmentId = new AttachmentId(partRowId, partUniqueId);
     final Attachment         attachment   = database.getAttachment(masterSecret, attachmentId);
@@ -88,10 +106,26 @@ public class AttachmentDownloadJob extends MasterSecretJob implements Injectable
       return;
     }
 
-    Log.w(TAG, "Downloading push part " + attachmentId);
-    database.setTransferState(messageId, attachmentId, AttachmentDatabase.TRANSFER_PROGRESS_STARTED);
+    AttachmentDownloadScheduler scheduler       = AttachmentDownloadScheduler.getInstance();
+    DownloadSlotRequirement     slotRequirement = getSlotRequirement();
+    long                        startTime       = scheduler.tryAcquire(slotRequirement, slotRequirement.getThreadId());
+    boolean                     success         = false;
+
+    if (startTime == -1) {
+      Log.w(TAG, "No download slot free, deferring " + attachmentId);
+      throw new RequirementNotMetException();
+    }
+
+    try {
+      Log.w(TAG, "Downloading push part " + attachmentId);
+      database.setTransferState(messageId, attachmentId, AttachmentDatabase.TRANSFER_PROGRESS_STARTED);
+
+      success = retrieveAttachment(masterSecret, messageId, attachmentId, attachment);
+      slotRequirement.clearRetryDelay();
+    } finally {
+      scheduler.release(startTime, success, attachment.getSize());
+    }
 
-    retrieveAttachment(masterSecret, messageId, attachmentId, attachment);
     MessageNotifier.updateNotification(context, masterSecret);
   }
 
@@ -99,17 +133,49 @@ public class AttachmentDownloadJob extends MasterSecretJob implements Injectable
   public void onCanceled() {
     final AttachmentId attachmentId = new AttachmentId(partRowId, partUniqueId);
     markFailed(messageId, attachmentId);
+    getSlotRequirement().clearRetryDelay();
   }
 
+  /**
+   * Network failures are retried with an exponential backoff for this attachment alone. The
+   * job goes back to the queue until the delay passes, so it doesn't hold a consumer thread.
+   * Waiting for a slot or a delay uses up run iterations, so retries are counted separately.
+   */
   @Override
   public boolean onShouldRetryThrowable(Exception exception) {
-    return (exception instanceof PushNetworkException);
+    if (!(exception instanceof PushNetworkException)) return false;
+
+    DownloadSlotRequirement slotRequirement = getSlotRequirement();
+    int                     attempts        = slotRequirement.getRetryAttempts();
+
+    if (attempts >= MAX_RETRIES) return false;
+
+    long backoff = Math.min(MAX_BACKOFF_MILLIS, TimeUnit.SECONDS.toMillis(1) << Math.min(attempts, 6));
+
+    Log.w(TAG, "Retrying download in " + backoff + "ms");
+    slotRequirement.setRetryDelay(attempts + 1, backoff);
+
+    return true;
+  }
+
+  /**
+   * Jobs persisted before the slot requirement existed don't wait for their retry delay, but
+   * still take a slot and count their retries.
+   */
+  private DownloadSlotRequirement getSlotRequirement() {
+    if (slotRequirement != null) return slotRequirement;
+
+    if (legacySlotRequirement == null) {
+      legacySlotRequirement = new DownloadSlotRequirement(context, messageId, new AttachmentId(partRowId, partUniqueId));
+    }
+
+    return legacySlotRequirement;
   }
 
-  private void retrieveAttachment(MasterSecret masterSecret,
-                                  long messageId,
-                                  final AttachmentId attachmentId,
-                                  final Attachment attachment)
+  private boolean retrieveAttachment(MasterSecret masterSecret,
+                                     long messageId,
+                                     final AttachmentId attachmentId,
+                                     final Attachment attachment)
       throws IOException
   {
 
@@ -128,9 +194,11 @@ public class AttachmentDownloadJob extends MasterSecretJob implements Injectable
       });
 
       database.insertAttachmentsForPlaceholder(masterSecret, messageId, attachmentId, stream);
+      return true;
     } catch (InvalidPartException | NonSuccessfulResponseCodeException | InvalidMessageException | MmsException e) {
       Log.w(TAG, e);
       markFailed(messageId, attachmentId);
+      return false;
     } finally {
       if (attachmentFile != null)
         attachmentFile.delete();
@@ -0,0 +1,191 @@
+package org.thoughtcrime.securesms.jobs;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.thoughtcrime.securesms.notifications.MessageNotifier;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bounds how many attachment downloads run at once.
+ *
+ * Download jobs are grouped per message, so the bulk lane may hand several of them to its
+ * consumer threads at the same time. A download job only becomes runnable while a slot is
+ * free here, and takes the slot without blocking before touching the network. Jobs that can't
+ * run yet stay in the job queue instead of holding a consumer thread, and listeners are told
+ * when a slot frees up or a retry delay expires so the queue can be scanned again.
+ *
+ * Once a download for the thread on screen has found every slot taken, other downloads leave
+ * the next free slot to it.
+ */
+public class AttachmentDownloadScheduler {
+
+  private static final String TAG = AttachmentDownloadScheduler.class.getSimpleName();
+
+  private static final int MAX_CONCURRENT_DOWNLOADS = 3;
+
+  private static final AttachmentDownloadScheduler instance = new AttachmentDownloadScheduler(MAX_CONCURRENT_DOWNLOADS);
+
+  private final int               maxConcurrent;
+  private final List<Listener>    listeners      = new CopyOnWriteArrayList<>();
+  private final Map<Object, Long> visibleWaiting = new WeakHashMap<>();
+
+  private int  running;
+  private long started;
+  private long deferred;
+  private long succeeded;
+  private long failed;
+  private long totalBytes;
+  private long totalDownloadTime;
+
+  public static AttachmentDownloadScheduler getInstance() {
+    return instance;
+  }
+
+  AttachmentDownloadScheduler(int maxConcurrent) {
+    this.maxConcurrent = maxConcurrent;
+  }
+
+  public void addListener(@NonNull Listener listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * @param download identifies the waiting download until it takes its slot.
+   * @param threadId the thread the download belongs to, or -1 if unknown.
+   */
+  public synchronized boolean isSlotAvailable(@NonNull Object download, long threadId) {
+    long visibleThread = MessageNotifier.getVisibleThread();
+
+    if (threadId != -1 && threadId == visibleThread) {
+      if (running < maxConcurrent) return true;
+
+      visibleWaiting.put(download, threadId);
+      return false;
+    }
+
+    if (visibleWaiting.containsValue(visibleThread)) {
+      return running < maxConcurrent - 1;
+    }
+
+    return running < maxConcurrent;
+  }
+
+  /**
+   * Takes a download slot if {@link #isSlotAvailable(Object, long)} allows it.
+   *
+   * @return the time the slot was acquired, to be passed to {@link #release(long, boolean, long)},
+   *         or -1 if no slot is free for this download.
+   */
+  public synchronized long tryAcquire(@NonNull Object download, long threadId) {
+    if (!isSlotAvailable(download, threadId)) {
+      deferred++;
+      return -1;
+    }
+
+    visibleWaiting.remove(download);
+    running++;
+    started++;
+
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Frees the slot taken by {@link #tryAcquire(Object, long)}.
+   *
+   * @param bytes the size of the downloaded attachment, if it succeeded.
+   */
+  public void release(long startTime, boolean success, long bytes) {
+    Stats stats;
+
+    synchronized (this) {
+      running--;
+
+      if (success) {
+        succeeded++;
+        totalBytes        += bytes;
+        totalDownloadTime += System.currentTimeMillis() - startTime;
+      } else {
+        failed++;
+      }
+
+      stats = getStats();
+    }
+
+    Log.w(TAG, stats.toString());
+
+    for (Listener listener : listeners) {
+      listener.onSlotReleased();
+    }
+  }
+
+  /**
+   * Asks listeners to check for runnable downloads again once a retry delay has passed.
+   */
+  public void scheduleRetry(long delayMillis) {
+    for (Listener listener : listeners) {
+      listener.onRetryScheduled(delayMillis);
+    }
+  }
+
+  public synchronized @NonNull Stats getStats() {
+    return new Stats(running, started, deferred, succeeded, failed, totalBytes, totalDownloadTime);
+  }
+
+  public interface Listener {
+    void onSlotReleased();
+    void onRetryScheduled(long delayMillis);
+  }
+
+  public static class Stats {
+
+    private final int  running;
+    private final long started;
+    private final long deferred;
+    private final long succeeded;
+    private final long failed;
+    private final long totalBytes;
+    private final long totalDownloadTime;
+
+    private Stats(int running, long started, long deferred, long succeeded, long failed,
+                  long totalBytes, long totalDownloadTime)
+    {
+      this.running           = running;
+      this.started           = started;
+      this.deferred          = deferred;
+      this.succeeded         = succeeded;
+      this.failed            = failed;
+      this.totalBytes        = totalBytes;
+      this.totalDownloadTime = totalDownloadTime;
+    }
+
+    public int getRunning() {
+      return running;
+    }
+
+    /**
+     * @return how many times a download job was picked up without a free slot and put back.
+     */
+    public long getDeferred() {
+      return deferred;
+    }
+
+    /**
+     * @return bytes per second over the time spent in successful downloads.
+     */
+    public long getThroughput() {
+      return totalDownloadTime == 0 ? 0 : totalBytes * 1000 / totalDownloadTime;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return "downloads running: " + running + ", started: " + started + ", deferred: " + deferred +
+             ", succeeded: " + succeeded + ", failed: " + failed +
+             ", throughput: " + getThroughput() + "B/s";
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package org.thoughtcrime.securesms.jobs;
+
+import android.content.Context;
+
+import org.thoughtcrime.securesms.ApplicationContext;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.whispersystems.jobqueue.JobParameters;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Refreshes the {@link org.thoughtcrime.securesms.database.ContactSearchDatabase} off the
+ * caller's thread. Requests that arrive while a refresh is queued share it.
+ */
+public class ContactSearchIndexJob extends ContextJob {
+
+  private static final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
+
+  public static void scheduleRefresh(Context context) {
+    if (refreshScheduled.compareAndSet(false, true)) {
+      ApplicationContext.getInstance(context)
+                        .getBulkJobManager()
+                        .add(new ContactSearchIndexJob(context));
+    }
+  }
+
+  private ContactSearchIndexJob(Context context) {
+    super(context, JobParameters.newBuilder()
+                                .withGroupId(ContactSearchIndexJob.class.getSimpleName())
+                                .create());
+  }
+
+  @Override
+  public void onAdded() {}
+
+  @Override
+  public void onRun() {
+    refreshScheduled.set(false);
+    DatabaseFactory.getContactSearchDatabase(context).refresh();
+  }
+
+  @Override
+  public boolean onShouldRetry(Exception exception) {
+    return false;
+  }
+
+  @Override
+  public void onCanceled() {}
+}
@@ -0,0 +1,149 @@
+package org.thoughtcrime.securesms.jobs;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.whispersystems.jobqueue.Job;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A JobManager instance with its own persistent queue and consumer threads.
+ *
+ * Latency sensitive work (sends, receives, decrypts) runs in {@link #MESSAGES}, while
+ * long running transfers and syncs run in {@link #BULK}, so a backlog of attachment
+ * downloads can't occupy every consumer thread while a text message waits to be sent.
+ * Jobs that share a group id must always be added to the same lane.
+ *
+ * Stats cover the lane's {@link MasterSecretJob}s, which include every send, attachment and
+ * avatar download, and multi-device sync.
+ */
+public enum JobLane {
+
+  MESSAGES("TextSecureJobs", 5),
+  BULK("TextSecureBulkJobs", 4);
+
+  private static final String TAG = JobLane.class.getSimpleName();
+
+  private static final long SLOW_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final String name;
+  private final int    consumerThreads;
+
+  /**
+   * Jobs that haven't started yet. Held weakly, so a job the JobManager cancels or drops
+   * without running it stops being counted once it's no longer referenced.
+   */
+  private final Set<Job> queued = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<Job, Boolean>()));
+
+  private final AtomicInteger running       = new AtomicInteger();
+  private final AtomicLong    started       = new AtomicLong();
+  private final AtomicLong    runs          = new AtomicLong();
+  private final AtomicLong    totalWaitTime = new AtomicLong();
+  private final AtomicLong    maxWaitTime   = new AtomicLong();
+  private final AtomicLong    totalRunTime  = new AtomicLong();
+
+  JobLane(String name, int consumerThreads) {
+    this.name            = name;
+    this.consumerThreads = consumerThreads;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getConsumerThreads() {
+    return consumerThreads;
+  }
+
+  public @NonNull Stats getStats() {
+    return new Stats(name, queued.size(), running.get(), started.get(), runs.get(),
+                     totalWaitTime.get(), maxWaitTime.get(), totalRunTime.get());
+  }
+
+  void onQueued(@NonNull Job job) {
+    queued.add(job);
+  }
+
+  void onRunStarted(@NonNull Job job, long waitTime) {
+    running.incrementAndGet();
+
+    if (!queued.remove(job)) return;
+
+    started.incrementAndGet();
+    totalWaitTime.addAndGet(waitTime);
+
+    long max;
+
+    do {
+      max = maxWaitTime.get();
+    } while (waitTime > max && !maxWaitTime.compareAndSet(max, waitTime));
+
+    if (waitTime > SLOW_WAIT_MILLIS) {
+      Log.w(TAG, job.getClass().getSimpleName() + " waited " + waitTime + "ms in " + name + " (" + getStats() + ")");
+    }
+  }
+
+  void onRunFinished(long runTime) {
+    running.decrementAndGet();
+    runs.incrementAndGet();
+    totalRunTime.addAndGet(runTime);
+  }
+
+  public static class Stats {
+
+    private final String name;
+    private final int    queued;
+    private final int    running;
+    private final long   started;
+    private final long   runs;
+    private final long   totalWaitTime;
+    private final long   maxWaitTime;
+    private final long   totalRunTime;
+
+    private Stats(String name, int queued, int running, long started, long runs,
+                  long totalWaitTime, long maxWaitTime, long totalRunTime)
+    {
+      this.name          = name;
+      this.queued        = queued;
+      this.running       = running;
+      this.started       = started;
+      this.runs          = runs;
+      this.totalWaitTime = totalWaitTime;
+      this.maxWaitTime   = maxWaitTime;
+      this.totalRunTime  = totalRunTime;
+    }
+
+    public int getQueueDepth() {
+      return queued;
+    }
+
+    public int getRunning() {
+      return running;
+    }
+
+    public long getAverageWaitTime() {
+      return started == 0 ? 0 : totalWaitTime / started;
+    }
+
+    public long getMaxWaitTime() {
+      return maxWaitTime;
+    }
+
+    public long getAverageRunTime() {
+      return runs == 0 ? 0 : totalRunTime / runs;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return name + " queued: " + queued + ", running: " + running + ", started: " + started +
+             ", avg wait: " + getAverageWaitTime() + "ms, max wait: " + maxWaitTime + "ms" +
+             ", runs: " + runs + ", avg run: " + getAverageRunTime() + "ms";
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.jobs;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
 
 import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.service.KeyCachingService;
@@ -8,14 +9,37 @@ import org.whispersystems.jobqueue.JobParameters;
 
 public abstract class MasterSecretJob extends ContextJob {
 
+  private transient JobLane lane;
+  private transient long    queuedTime;
+
   public MasterSecretJob(Context context, JobParameters parameters) {
     super(context, parameters);
   }
 
+  /**
+   * Called by the lane's JobManager once this job has been added to (or restored into) its queue.
+   */
+  public void setLane(@NonNull JobLane lane) {
+    if (this.lane != null) return;
+
+    this.lane       = lane;
+    this.queuedTime = System.currentTimeMillis();
+
+    lane.onQueued(this);
+  }
+
   @Override
   public void onRun() throws Exception {
-    MasterSecret masterSecret = getMasterSecret();
-    onRun(masterSecret);
+    long startTime = System.currentTimeMillis();
+
+    if (lane != null) lane.onRunStarted(this, startTime - queuedTime);
+
+    try {
+      MasterSecret masterSecret = getMasterSecret();
+      onRun(masterSecret);
+    } finally {
+      if (lane != null) lane.onRunFinished(System.currentTimeMillis() - startTime);
+    }
   }
 
   @Override
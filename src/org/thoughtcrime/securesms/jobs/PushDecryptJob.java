@@ -82,8 +82,13 @@ import org.whispersystems.signalservice.api.messages.multidevice.VerifiedMessage
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import org.whispersystems.signalservice.api.util.InvalidNumberException;
 
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PushDecryptJob extends ContextJob {
 
@@ -91,9 +96,34 @@ public class PushDecryptJob extends ContextJob {
 
   public static final String TAG = PushDecryptJob.class.getSimpleName();
 
+  private static final long DRAIN_PENDING  = -2;
+  private static final int  MAX_BATCH_SIZE = 50;
+
+  private static final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+  private static final BatchStats    batchStats     = new BatchStats();
+
   private final long messageId;
   private final long smsMessageId;
 
+  private transient Set<Long> pendingNotificationThreads;
+  private transient boolean   pendingNotificationUpdate;
+
+  /**
+   * Schedules a job that decrypts everything waiting in the {@link PushDatabase}, unless one
+   * is already queued and hasn't started yet.
+   */
+  public static void scheduleDrain(Context context) {
+    if (drainScheduled.compareAndSet(false, true)) {
+      ApplicationContext.getInstance(context)
+                        .getJobManager()
+                        .add(new PushDecryptJob(context, DRAIN_PENDING));
+    }
+  }
+
+  public static BatchStats getBatchStats() {
+    return batchStats;
+  }
+
   public PushDecryptJob(Context context, long pushMessageId) {
     this(context, pushMessageId, -1);
   }
@@ -119,21 +149,129 @@ public class PushDecryptJob extends ContextJob {
       return;
     }
 
-    MasterSecret          masterSecret         = KeyCachingService.getMasterSecret(context);
-    PushDatabase          database             = DatabaseFactory.getPushDatabase(context);
-    SignalServiceEnvelope envelope             = database.get(messageId);
-    Optional<Long>        optionalSmsMessageId = smsMessageId > 0 ? Optional.of(smsMessageId) :
-                                                                 Optional.<Long>absent();
-
+    MasterSecret      masterSecret = KeyCachingService.getMasterSecret(context);
+    PushDatabase      database     = DatabaseFactory.getPushDatabase(context);
     MasterSecretUnion masterSecretUnion;
 
     if (masterSecret == null) masterSecretUnion = new MasterSecretUnion(MasterSecretUtil.getAsymmetricMasterSecret(context, null));
     else                      masterSecretUnion = new MasterSecretUnion(masterSecret);
 
+    if (messageId == DRAIN_PENDING) {
+      drainPending(masterSecretUnion);
+      return;
+    }
+
+    SignalServiceEnvelope envelope             = database.get(messageId);
+    Optional<Long>        optionalSmsMessageId = smsMessageId > 0 ? Optional.of(smsMessageId) :
+                                                                 Optional.<Long>absent();
+
     handleMessage(masterSecretUnion, envelope, optionalSmsMessageId);
     database.delete(messageId);
   }
 
+  /**
+   * Decrypts pending envelopes in arrival order, so each sender's messages are still processed
+   * in order, refreshing notifications once per batch rather than once per message.
+   *
+   * Session state isn't stored in the database, so each envelope's messages are committed
+   * together with its removal from the push table before the next envelope is decrypted.
+   */
+  private void drainPending(@NonNull MasterSecretUnion masterSecret) {
+    PushDatabase database = DatabaseFactory.getPushDatabase(context);
+    long         lastId   = 0;
+
+    drainScheduled.set(false);
+
+    while (true) {
+      List<PendingEnvelope> batch     = getPendingBatch(database, lastId);
+      long                  startTime = System.nanoTime();
+
+      if (batch.isEmpty()) break;
+
+      pendingNotificationThreads = new HashSet<>();
+      pendingNotificationUpdate  = false;
+
+      for (PendingEnvelope pending : batch) {
+        decryptPending(masterSecret, database, pending);
+        lastId = pending.id;
+      }
+
+      Set<Long> threadIds     = pendingNotificationThreads;
+      boolean   generalUpdate = pendingNotificationUpdate;
+
+      pendingNotificationThreads = null;
+      pendingNotificationUpdate  = false;
+
+      if (!threadIds.isEmpty()) MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull(), threadIds);
+      if (generalUpdate)        MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull());
+
+      batchStats.increment(batch.size(), System.nanoTime() - startTime);
+      Log.w(TAG, "Decrypted batch of " + batch.size() + " (" + batchStats + ")");
+    }
+  }
+
+  private void decryptPending(@NonNull MasterSecretUnion masterSecret,
+                              @NonNull PushDatabase database,
+                              @NonNull PendingEnvelope pending)
+  {
+    database.beginTransaction();
+
+    try {
+      handleMessage(masterSecret, pending.envelope, pending.smsMessageId);
+      database.delete(pending.id);
+      database.setTransactionSuccessful();
+      return;
+    } catch (RuntimeException e) {
+      Log.w(TAG, e);
+    } finally {
+      database.endTransaction();
+    }
+
+    // The envelope has most likely already advanced the session, so decrypting it again
+    // can't succeed. Record it as a message that failed to decrypt instead.
+    database.beginTransaction();
+
+    try {
+      handleCorruptMessage(masterSecret, pending.envelope, pending.smsMessageId);
+      database.delete(pending.id);
+      database.setTransactionSuccessful();
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Leaving envelope " + pending.id + " for the next drain", e);
+    } finally {
+      database.endTransaction();
+    }
+  }
+
+  private List<PendingEnvelope> getPendingBatch(@NonNull PushDatabase database, long afterId) {
+    List<PendingEnvelope> batch  = new LinkedList<>();
+    PushDatabase.Reader   reader = database.readerFor(database.getPending(afterId, MAX_BATCH_SIZE));
+
+    try {
+      SignalServiceEnvelope envelope;
+
+      while ((envelope = reader.getNext()) != null) {
+        long           smsMessageId = reader.getCurrentSmsMessageId();
+        Optional<Long> updateId     = smsMessageId > 0 ? Optional.of(smsMessageId) : Optional.<Long>absent();
+
+        batch.add(new PendingEnvelope(reader.getCurrentId(), envelope, updateId));
+      }
+    } finally {
+      reader.close();
+    }
+
+    return batch;
+  }
+
+  private void updateNotification(@NonNull MasterSecretUnion masterSecret, long threadId) {
+    if (pendingNotificationThreads != null) pendingNotificationThreads.add(threadId);
+    else                                    MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull(), threadId);
+  }
+
+  private void updateNotification(@NonNull MasterSecretUnion masterSecret) {
+    if (pendingNotificationThreads != null) pendingNotificationUpdate = true;
+    else                                    MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull());
+  }
+
   @Override
   public boolean onShouldRetry(Exception exception) {
     return false;
@@ -313,7 +451,7 @@ public class PushDecryptJob extends ContextJob {
       sessionStore.deleteAllSessions(envelope.getSource());
 
       SecurityEvent.broadcastSecurityUpdateEvent(context);
-      MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull(), threadId);
+      updateNotification(masterSecret, threadId);
     }
   }
 
@@ -429,7 +567,7 @@ public class PushDecryptJob extends ContextJob {
 
     if (threadId != null) {
       DatabaseFactory.getThreadDatabase(getContext()).setRead(threadId, true);
-      MessageNotifier.updateNotification(getContext(), masterSecret.getMasterSecret().orNull());
+      updateNotification(masterSecret);
     }
 
     MessageNotifier.setLastDesktopActivityTimestamp(message.getTimestamp());
@@ -440,13 +578,13 @@ public class PushDecryptJob extends ContextJob {
   {
     if (message.isContactsRequest()) {
       ApplicationContext.getInstance(context)
-                        .getJobManager()
+                        .getBulkJobManager()
                         .add(new MultiDeviceContactUpdateJob(getContext()));
     }
 
     if (message.isGroupsRequest()) {
       ApplicationContext.getInstance(context)
-                        .getJobManager()
+                        .getBulkJobManager()
                         .add(new MultiDeviceGroupUpdateJob(getContext()));
     }
 
@@ -480,7 +618,7 @@ public class PushDecryptJob extends ContextJob {
 
     MessageNotifier.setLastDesktopActivityTimestamp(envelopeTimestamp);
     MessageNotifier.cancelDelayedNotifications();
-    MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull());
+    updateNotification(masterSecret);
   }
 
   private void handleMediaMessage(@NonNull MasterSecretUnion masterSecret,
@@ -513,7 +651,7 @@ public class PushDecryptJob extends ContextJob {
 
       for (DatabaseAttachment attachment : attachments) {
         ApplicationContext.getInstance(context)
-                          .getJobManager()
+                          .getBulkJobManager()
                           .add(new AttachmentDownloadJob(context, insertResult.get().getMessageId(), attachment.getAttachmentId(), false));
 
         if (!masterSecret.getMasterSecret().isPresent()) {
@@ -527,7 +665,7 @@ public class PushDecryptJob extends ContextJob {
         DatabaseFactory.getSmsDatabase(context).deleteMessage(smsMessageId.get());
       }
 
-      MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull(), insertResult.get().getThreadId());
+      updateNotification(masterSecret, insertResult.get().getThreadId());
     }
   }
 
@@ -583,7 +721,7 @@ public class PushDecryptJob extends ContextJob {
 
     for (DatabaseAttachment attachment : DatabaseFactory.getAttachmentDatabase(context).getAttachmentsForMessage(null, messageId)) {
       ApplicationContext.getInstance(context)
-                        .getJobManager()
+                        .getBulkJobManager()
                         .add(new AttachmentDownloadJob(context, messageId, attachment.getAttachmentId(), false));
     }
 
@@ -638,7 +776,7 @@ public class PushDecryptJob extends ContextJob {
     }
 
     if (threadId != null) {
-      MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull(), threadId);
+      updateNotification(masterSecret, threadId);
     }
   }
 
@@ -687,7 +825,7 @@ public class PushDecryptJob extends ContextJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsInvalidVersionKeyExchange(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull(), insertResult.get().getThreadId());
+        updateNotification(masterSecret, insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsInvalidVersionKeyExchange(smsMessageId.get());
@@ -705,7 +843,7 @@ public class PushDecryptJob extends ContextJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsDecryptFailed(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull(), insertResult.get().getThreadId());
+        updateNotification(masterSecret, insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsDecryptFailed(smsMessageId.get());
@@ -723,7 +861,7 @@ public class PushDecryptJob extends ContextJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsNoSession(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull(), insertResult.get().getThreadId());
+        updateNotification(masterSecret, insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsNoSession(smsMessageId.get());
@@ -741,7 +879,7 @@ public class PushDecryptJob extends ContextJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsLegacyVersion(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull(), insertResult.get().getThreadId());
+        updateNotification(masterSecret, insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsLegacyVersion(smsMessageId.get());
@@ -787,7 +925,7 @@ public class PushDecryptJob extends ContextJob {
 
         if (insertResult.isPresent()) {
           database.setMismatchedIdentity(insertResult.get().getMessageId(), sourceAddress, identityKey);
-          MessageNotifier.updateNotification(context, masterSecret.getMasterSecret().orNull(), insertResult.get().getThreadId());
+          updateNotification(masterSecret, insertResult.get().getThreadId());
         }
       } else {
         database.updateMessageBody(masterSecret, smsMessageId.get(), encoded);
@@ -825,4 +963,62 @@ public class PushDecryptJob extends ContextJob {
       return RecipientFactory.getRecipientsFor(context, new Address[] {Address.fromExternal(context, envelope.getSource())}, false);
     }
   }
+
+  private static class PendingEnvelope {
+    private final long                  id;
+    private final SignalServiceEnvelope envelope;
+    private final Optional<Long>        smsMessageId;
+
+    private PendingEnvelope(long id, @NonNull SignalServiceEnvelope envelope, @NonNull Optional<Long> smsMessageId) {
+      this.id           = id;
+      this.envelope     = envelope;
+      this.smsMessageId = smsMessageId;
+    }
+  }
+
+  public static class BatchStats {
+
+    private final AtomicLong batches   = new AtomicLong();
+    private final AtomicLong envelopes = new AtomicLong();
+    private final AtomicLong maxBatch  = new AtomicLong();
+    private final AtomicLong nanos     = new AtomicLong();
+
+    private void increment(int batchSize, long elapsedNanos) {
+      batches.incrementAndGet();
+      envelopes.addAndGet(batchSize);
+      nanos.addAndGet(elapsedNanos);
+
+      long max;
+      while ((max = maxBatch.get()) < batchSize && !maxBatch.compareAndSet(max, batchSize));
+    }
+
+    public long getBatches() {
+      return batches.get();
+    }
+
+    public long getEnvelopes() {
+      return envelopes.get();
+    }
+
+    public long getMaxBatchSize() {
+      return maxBatch.get();
+    }
+
+    public double getAverageBatchSize() {
+      long count = batches.get();
+      return count == 0 ? 0 : (double)envelopes.get() / count;
+    }
+
+    public double getEnvelopesPerSecond() {
+      long elapsed = nanos.get();
+      return elapsed == 0 ? 0 : envelopes.get() * 1000000000.0 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+      return "batches: " + getBatches() + ", envelopes: " + getEnvelopes() +
+             ", average batch: " + getAverageBatchSize() + ", max batch: " + getMaxBatchSize() +
+             ", envelopes/s: " + getEnvelopesPerSecond();
+    }
+  }
 }
@@ -36,7 +36,7 @@ public abstract class PushReceivedJob extends ContextJob {
       directory.setNumber(contactTokenDetails, true);
 
       Recipients recipients = RecipientFactory.getRecipientsFor(context, new Address[] {source}, false);
-      ApplicationContext.getInstance(context).getJobManager().add(new DirectoryRefreshJob(context, KeyCachingService.getMasterSecret(context), recipients));
+      ApplicationContext.getInstance(context).getBulkJobManager().add(new DirectoryRefreshJob(context, KeyCachingService.getMasterSecret(context), recipients));
     }
 
     if (envelope.isReceipt()) {
@@ -53,8 +53,8 @@ public abstract class PushReceivedJob extends ContextJob {
     JobManager jobManager = ApplicationContext.getInstance(context).getJobManager();
 
     if (!recipients.isBlocked()) {
-      long messageId = DatabaseFactory.getPushDatabase(context).insert(envelope);
-      jobManager.add(new PushDecryptJob(context, messageId));
+      DatabaseFactory.getPushDatabase(context).insert(envelope);
+      PushDecryptJob.scheduleDrain(context);
     } else {
       Log.w(TAG, "*** Received blocked push message, ignoring...");
     }
@@ -0,0 +1,109 @@
+package org.thoughtcrime.securesms.jobs.requirements;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.thoughtcrime.securesms.attachments.AttachmentId;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.jobs.AttachmentDownloadScheduler;
+import org.whispersystems.jobqueue.dependencies.ContextDependent;
+import org.whispersystems.jobqueue.requirements.Requirement;
+
+/**
+ * Present while an attachment download slot is free for the job's thread and the job's retry
+ * delay, if any, has passed. Paired with {@link DownloadSlotRequirementProvider}.
+ *
+ * The job manager only stores a job when it's added, so the retry count and delay are kept in
+ * preferences, where they survive a restart.
+ */
+public class DownloadSlotRequirement implements Requirement, ContextDependent {
+
+  private static final long   serialVersionUID = 1L;
+  private static final String PREFERENCES_NAME = "AttachmentDownloadRetries";
+
+  private transient Context context;
+
+  private final long messageId;
+  private final long partRowId;
+  private final long partUniqueId;
+
+  private transient Long threadId;
+  private transient Long retryTime;
+
+  public DownloadSlotRequirement(Context context, long messageId, AttachmentId attachmentId) {
+    this.context      = context;
+    this.messageId    = messageId;
+    this.partRowId    = attachmentId.getRowId();
+    this.partUniqueId = attachmentId.getUniqueId();
+  }
+
+  public synchronized long getThreadId() {
+    if (threadId == null) {
+      threadId = DatabaseFactory.getMmsDatabase(context).getThreadIdForMessage(messageId);
+    }
+
+    return threadId;
+  }
+
+  public int getRetryAttempts() {
+    return getPreferences().getInt(getAttemptsKey(), 0);
+  }
+
+  public synchronized void setRetryDelay(int attempts, long delayMillis) {
+    this.retryTime = System.currentTimeMillis() + delayMillis;
+
+    getPreferences().edit()
+                    .putInt(getAttemptsKey(), attempts)
+                    .putLong(getRetryTimeKey(), retryTime)
+                    .apply();
+
+    AttachmentDownloadScheduler.getInstance().scheduleRetry(delayMillis);
+  }
+
+  public synchronized void clearRetryDelay() {
+    this.retryTime = 0L;
+
+    getPreferences().edit()
+                    .remove(getAttemptsKey())
+                    .remove(getRetryTimeKey())
+                    .apply();
+  }
+
+  @Override
+  public boolean isPresent() {
+    long now       = System.currentTimeMillis();
+    long retryTime = getRetryTime();
+
+    if (now < retryTime) {
+      AttachmentDownloadScheduler.getInstance().scheduleRetry(retryTime - now);
+      return false;
+    }
+
+    return AttachmentDownloadScheduler.getInstance().isSlotAvailable(this, getThreadId());
+  }
+
+  @Override
+  public void setContext(Context context) {
+    this.context = context;
+  }
+
+  private synchronized long getRetryTime() {
+    if (retryTime == null) {
+      retryTime = getPreferences().getLong(getRetryTimeKey(), 0);
+    }
+
+    return retryTime;
+  }
+
+  private SharedPreferences getPreferences() {
+    return context.getSharedPreferences(PREFERENCES_NAME, 0);
+  }
+
+  private String getAttemptsKey() {
+    return partRowId + "_" + partUniqueId + "_attempts";
+  }
+
+  private String getRetryTimeKey() {
+    return partRowId + "_" + partUniqueId + "_retry_time";
+  }
+}
@@ -0,0 +1,61 @@
+package org.thoughtcrime.securesms.jobs.requirements;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.thoughtcrime.securesms.jobs.AttachmentDownloadScheduler;
+import org.whispersystems.jobqueue.requirements.RequirementListener;
+import org.whispersystems.jobqueue.requirements.RequirementProvider;
+
+public class DownloadSlotRequirementProvider implements RequirementProvider, AttachmentDownloadScheduler.Listener {
+
+  private final Handler  handler;
+  private final Runnable notifier;
+
+  private RequirementListener listener;
+  private long                wakeTime = Long.MAX_VALUE;
+
+  public DownloadSlotRequirementProvider() {
+    this.handler  = new Handler(Looper.getMainLooper());
+    this.notifier = new Runnable() {
+      @Override
+      public void run() {
+        synchronized (DownloadSlotRequirementProvider.this) {
+          wakeTime = Long.MAX_VALUE;
+        }
+
+        onSlotReleased();
+      }
+    };
+
+    AttachmentDownloadScheduler.getInstance().addListener(this);
+  }
+
+  @Override
+  public void setListener(RequirementListener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void onSlotReleased() {
+    if (listener != null) {
+      listener.onRequirementStatusChanged();
+    }
+  }
+
+  /**
+   * Only the earliest pending retry is posted. Jobs that are still waiting after it fires ask
+   * for their own wake up again when the queue checks them.
+   */
+  @Override
+  public synchronized void onRetryScheduled(long delayMillis) {
+    long time = SystemClock.uptimeMillis() + delayMillis;
+
+    if (time >= wakeTime) return;
+
+    wakeTime = time;
+    handler.removeCallbacks(notifier);
+    handler.postAtTime(notifier, time);
+  }
+}
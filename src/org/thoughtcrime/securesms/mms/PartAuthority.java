@@ -10,6 +10,7 @@ import android.support.annotation.Nullable;
 import org.thoughtcrime.securesms.attachments.Attachment;
 import org.thoughtcrime.securesms.attachments.AttachmentId;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
+import org.thoughtcrime.securesms.crypto.SeekablePartInputStream;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.providers.PersistentBlobProvider;
 import org.thoughtcrime.securesms.providers.PartProvider;
@@ -58,6 +59,19 @@ public class PartAuthority {
     }
   }
 
+  /**
+   * @return A seekable stream for attachment parts, or null for Uris that can only be read sequentially.
+   */
+  public static @Nullable SeekablePartInputStream getSeekableAttachmentStream(@NonNull Context context, @NonNull MasterSecret masterSecret, @NonNull Uri uri)
+      throws IOException
+  {
+    if (uriMatcher.match(uri) == PART_ROW) {
+      return DatabaseFactory.getAttachmentDatabase(context).getSeekableAttachmentStream(masterSecret, new PartUriParser(uri).getPartId());
+    }
+
+    return null;
+  }
+
   public static @Nullable String getAttachmentFileName(@NonNull Context context, @NonNull MasterSecret masterSecret, @NonNull Uri uri) {
     int match = uriMatcher.match(uri);
 
@@ -6,6 +6,7 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.GlideBuilder;
 import com.bumptech.glide.load.engine.cache.DiskCache;
 import com.bumptech.glide.load.engine.cache.DiskCacheAdapter;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
 import com.bumptech.glide.load.model.GlideUrl;
 import com.bumptech.glide.module.GlideModule;
 
@@ -17,9 +18,12 @@ import org.thoughtcrime.securesms.mms.DecryptableStreamUriLoader.DecryptableUri;
 import java.io.InputStream;
 
 public class TextSecureGlideModule implements GlideModule {
+
+  private static final int DISK_CACHE_SIZE = 32 * 1024 * 1024;
+
   @Override
   public void applyOptions(Context context, GlideBuilder builder) {
-//    builder.setDiskCache(new NoopDiskCacheFactory());
+    builder.setDiskCache(new InternalCacheDiskCacheFactory(context, DiskCache.Factory.DEFAULT_DISK_CACHE_DIR, DISK_CACHE_SIZE));
   }
 
   @Override
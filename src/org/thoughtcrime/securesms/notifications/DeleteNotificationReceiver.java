@@ -12,16 +12,20 @@ public class DeleteNotificationReceiver extends BroadcastReceiver {
 
   public static String DELETE_NOTIFICATION_ACTION = "org.thoughtcrime.securesms.DELETE_NOTIFICATION";
 
-  public static String EXTRA_IDS = "message_ids";
-  public static String EXTRA_MMS = "is_mms";
+  public static String EXTRA_IDS             = "message_ids";
+  public static String EXTRA_MMS             = "is_mms";
+  public static String EXTRA_THREAD_IDS      = "thread_ids";
+  public static String EXTRA_RECEIVED_BEFORE = "received_before";
 
   @Override
   public void onReceive(final Context context, Intent intent) {
     if (DELETE_NOTIFICATION_ACTION.equals(intent.getAction())) {
       MessageNotifier.clearReminder(context);
 
-      final long[]    ids = intent.getLongArrayExtra(EXTRA_IDS);
-      final boolean[] mms = intent.getBooleanArrayExtra(EXTRA_MMS);
+      final long[]    ids            = intent.getLongArrayExtra(EXTRA_IDS);
+      final boolean[] mms            = intent.getBooleanArrayExtra(EXTRA_MMS);
+      final long[]    threadIds      = intent.getLongArrayExtra(EXTRA_THREAD_IDS);
+      final long[]    receivedBefore = intent.getLongArrayExtra(EXTRA_RECEIVED_BEFORE);
 
       if (ids == null  || mms == null || ids.length != mms.length) return;
 
@@ -33,6 +37,13 @@ public class DeleteNotificationReceiver extends BroadcastReceiver {
             else         DatabaseFactory.getMmsDatabase(context).markAsNotified(ids[i]);
           }
 
+          if (threadIds != null && receivedBefore != null && threadIds.length == receivedBefore.length) {
+            for (int i=0;i<threadIds.length;i++) {
+              DatabaseFactory.getSmsDatabase(context).markAsNotified(threadIds[i], receivedBefore[i]);
+              DatabaseFactory.getMmsDatabase(context).markAsNotified(threadIds[i], receivedBefore[i]);
+            }
+          }
+
           return null;
         }
       }.execute();
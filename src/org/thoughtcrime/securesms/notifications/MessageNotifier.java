@@ -43,6 +43,7 @@ import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessagingDatabase.MarkedMessageInfo;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase.UnreadThread;
 import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord;
@@ -58,9 +59,15 @@ import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.webrtc.CallNotificationBuilder;
 import org.whispersystems.signalservice.internal.util.Util;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
@@ -88,16 +95,23 @@ public class MessageNotifier {
   private static final String NOTIFICATION_GROUP        = "messages";
   private static final long   MIN_AUDIBLE_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(2);
   private static final long   DESKTOP_ACTIVITY_PERIOD   = TimeUnit.MINUTES.toMillis(1);
+  private static final int    MAX_MESSAGES_PER_THREAD   = 10;
 
   private volatile static       long               visibleThread                = -1;
   private volatile static       long               lastDesktopActivityTimestamp = -1;
   private volatile static       long               lastAudibleNotification      = -1;
   private          static final CancelableExecutor executor                     = new CancelableExecutor();
 
+  private static final Map<Long, ThreadNotifications> threadCache = new HashMap<>();
+
   public static void setVisibleThread(long threadId) {
     visibleThread = threadId;
   }
 
+  public static long getVisibleThread() {
+    return visibleThread;
+  }
+
   public static void setLastDesktopActivityTimestamp(long timestamp) {
     lastDesktopActivityTimestamp = timestamp;
   }
@@ -185,7 +199,16 @@ public class MessageNotifier {
     }
   }
 
+  /**
+   * Rebuilds the notification state from scratch. Callers that changed message bodies or
+   * attachments without naming a thread, like decrypting with a new master secret or finishing
+   * a download, come through here, so every cached thread is reread.
+   */
   public static void updateNotification(@NonNull Context context, @Nullable MasterSecret masterSecret) {
+    synchronized (threadCache) {
+      threadCache.clear();
+    }
+
     if (!TextSecurePreferences.isNotificationsEnabled(context)) {
       return;
     }
@@ -212,6 +235,8 @@ public class MessageNotifier {
   {
     boolean    isVisible  = visibleThread == threadId;
 
+    invalidateThread(threadId);
+
     ThreadDatabase threads    = DatabaseFactory.getThreadDatabase(context);
     Recipients     recipients = DatabaseFactory.getThreadDatabase(context)
                                                .getRecipientsForThreadId(threadId);
@@ -234,28 +259,77 @@ public class MessageNotifier {
     }
   }
 
+  /**
+   * Equivalent to calling {@link #updateNotification(Context, MasterSecret, long)} for each
+   * thread, but rebuilds the notification state at most once.
+   */
+  public static void updateNotification(@NonNull  Context context,
+                                        @Nullable MasterSecret masterSecret,
+                                        @NonNull  Set<Long> threadIds)
+  {
+    long           visible  = visibleThread;
+    ThreadDatabase threads  = DatabaseFactory.getThreadDatabase(context);
+    boolean        inThread = false;
+    long           signalId = -1;
+
+    for (long threadId : threadIds) {
+      invalidateThread(threadId);
+    }
+
+    if (threadIds.contains(visible)) {
+      List<MarkedMessageInfo> messageIds = threads.setRead(visible, false);
+      MarkReadReceiver.process(context, messageIds);
+    }
+
+    if (!TextSecurePreferences.isNotificationsEnabled(context)) {
+      return;
+    }
+
+    for (long threadId : threadIds) {
+      Recipients recipients = threads.getRecipientsForThreadId(threadId);
+
+      if      (recipients != null && recipients.isMuted()) continue;
+      else if (threadId == visible)                        inThread = true;
+      else                                                 signalId = threadId;
+    }
+
+    if (inThread) {
+      sendInThreadNotification(context, threads.getRecipientsForThreadId(visible));
+    }
+
+    if (signalId != -1) {
+      if (System.currentTimeMillis() - lastDesktopActivityTimestamp < DESKTOP_ACTIVITY_PERIOD) {
+        Log.w(TAG, "Scheduling delayed notification...");
+        executor.execute(new DelayedNotification(context, masterSecret, signalId));
+      } else {
+        updateNotification(context, masterSecret, true, 0);
+      }
+    }
+  }
+
   private static void updateNotification(@NonNull  Context context,
                                          @Nullable MasterSecret masterSecret,
                                          boolean signal,
                                          int     reminderCount)
   {
-    Cursor telcoCursor = null;
-    Cursor pushCursor  = null;
+    Cursor pushCursor = null;
 
     try {
-      telcoCursor = DatabaseFactory.getMmsSmsDatabase(context).getUnread();
-      pushCursor  = DatabaseFactory.getPushDatabase(context).getPending();
+      Map<Long, UnreadThread> unreadThreads = DatabaseFactory.getMmsSmsDatabase(context).getUnreadThreads();
+      pushCursor = DatabaseFactory.getPushDatabase(context).getPending();
+
+      if (unreadThreads.isEmpty() && (pushCursor == null || pushCursor.isAfterLast())) {
+        synchronized (threadCache) {
+          threadCache.clear();
+        }
 
-      if ((telcoCursor == null || telcoCursor.isAfterLast()) &&
-          (pushCursor == null || pushCursor.isAfterLast()))
-      {
         cancelActiveNotifications(context);
         updateBadge(context, 0);
         clearReminder(context);
         return;
       }
 
-      NotificationState notificationState = constructNotificationState(context, masterSecret, telcoCursor);
+      NotificationState notificationState = constructNotificationState(context, masterSecret, unreadThreads);
 
       if (signal && (System.currentTimeMillis() - lastAudibleNotification) < MIN_AUDIBLE_PERIOD_MILLIS) {
         signal = false;
@@ -266,7 +340,7 @@ public class MessageNotifier {
       if (notificationState.hasMultipleThreads()) {
         if (Build.VERSION.SDK_INT >= 23) {
           for (long threadId : notificationState.getThreads()) {
-            sendSingleThreadNotification(context, masterSecret, new NotificationState(notificationState.getNotificationsForThread(threadId)), false, true);
+            sendSingleThreadNotification(context, masterSecret, notificationState.getStateForThread(threadId), false, true);
           }
         }
 
@@ -282,8 +356,7 @@ public class MessageNotifier {
         scheduleReminder(context, reminderCount);
       }
     } finally {
-      if (telcoCursor != null) telcoCursor.close();
-      if (pushCursor != null)  pushCursor.close();
+      if (pushCursor != null) pushCursor.close();
     }
   }
 
@@ -423,32 +496,84 @@ public class MessageNotifier {
     ringtone.play();
   }
 
+  /**
+   * Builds the notification state from the newest {@link #MAX_MESSAGES_PER_THREAD} messages of
+   * each unread thread. A thread's messages are only reread when its unread summary changes or
+   * it has been invalidated, so a new message doesn't reload every other thread. Updates that
+   * don't name a thread invalidate them all.
+   */
   private static NotificationState constructNotificationState(@NonNull  Context context,
                                                               @Nullable MasterSecret masterSecret,
-                                                              @NonNull  Cursor cursor)
+                                                              @NonNull  Map<Long, UnreadThread> unreadThreads)
+  {
+    NotificationState         notificationState = new NotificationState();
+    List<ThreadNotifications> threads           = new LinkedList<>();
+    List<PendingItem>         items             = new ArrayList<>();
+
+    synchronized (threadCache) {
+      threadCache.keySet().retainAll(unreadThreads.keySet());
+
+      for (UnreadThread unreadThread : unreadThreads.values()) {
+        ThreadNotifications thread = threadCache.get(unreadThread.getThreadId());
+
+        if (thread == null || !thread.isCurrent(unreadThread, masterSecret != null)) {
+          thread = loadThreadNotifications(context, masterSecret, unreadThread);
+          threadCache.put(unreadThread.getThreadId(), thread);
+        }
+
+        if (thread.threadRecipients == null || !thread.threadRecipients.isMuted()) {
+          threads.add(thread);
+          items.addAll(thread.items);
+        }
+      }
+    }
+
+    Collections.sort(items, new Comparator<PendingItem>() {
+      @Override
+      public int compare(PendingItem lhs, PendingItem rhs) {
+        if      (lhs.dateReceived < rhs.dateReceived) return -1;
+        else if (lhs.dateReceived > rhs.dateReceived) return 1;
+        else                                          return 0;
+      }
+    });
+
+    for (PendingItem item : items) {
+      notificationState.addNotification(item.notificationItem);
+    }
+
+    for (ThreadNotifications thread : threads) {
+      notificationState.setThreadSummary(thread.summary.getThreadId(), thread.summary.getCount(), thread.summary.getLatestReceived());
+    }
+
+    return notificationState;
+  }
+
+  private static ThreadNotifications loadThreadNotifications(@NonNull  Context context,
+                                                             @Nullable MasterSecret masterSecret,
+                                                             @NonNull  UnreadThread unreadThread)
   {
-    NotificationState notificationState = new NotificationState();
-    MessageRecord record;
-    MmsSmsDatabase.Reader reader;
+    long                    threadId         = unreadThread.getThreadId();
+    Recipients              threadRecipients = null;
+    LinkedList<PendingItem> items            = new LinkedList<>();
+    Cursor                  cursor           = DatabaseFactory.getMmsSmsDatabase(context).getUnread(threadId, MAX_MESSAGES_PER_THREAD);
+    MessageRecord           record;
+    MmsSmsDatabase.Reader   reader;
+
+    if (threadId != -1) {
+      threadRecipients = DatabaseFactory.getThreadDatabase(context).getRecipientsForThreadId(threadId);
+    }
 
     if (masterSecret == null) reader = DatabaseFactory.getMmsSmsDatabase(context).readerFor(cursor);
     else                      reader = DatabaseFactory.getMmsSmsDatabase(context).readerFor(cursor, masterSecret);
 
     while ((record = reader.getNext()) != null) {
-      long         id               = record.getId();
-      boolean      mms              = record.isMms() || record.isMmsNotification();
-      Recipient    recipient        = record.getIndividualRecipient();
-      Recipients   recipients       = record.getRecipients();
-      long         threadId         = record.getThreadId();
-      CharSequence body             = record.getDisplayBody();
-      Recipients   threadRecipients = null;
-      SlideDeck    slideDeck        = null;
-      long         timestamp        = record.getTimestamp();
-
-
-      if (threadId != -1) {
-        threadRecipients = DatabaseFactory.getThreadDatabase(context).getRecipientsForThreadId(threadId);
-      }
+      long         id         = record.getId();
+      boolean      mms        = record.isMms() || record.isMmsNotification();
+      Recipient    recipient  = record.getIndividualRecipient();
+      Recipients   recipients = record.getRecipients();
+      CharSequence body       = record.getDisplayBody();
+      SlideDeck    slideDeck  = null;
+      long         timestamp  = record.getTimestamp();
 
       if (SmsDatabase.Types.isDecryptInProgressType(record.getType()) || !record.getBody().isPlaintext()) {
         body = SpanUtil.italic(context.getString(R.string.MessageNotifier_locked_message));
@@ -462,13 +587,18 @@ public class MessageNotifier {
         slideDeck = ((MediaMmsMessageRecord)record).getSlideDeck();
       }
 
-      if (threadRecipients == null || !threadRecipients.isMuted()) {
-        notificationState.addNotification(new NotificationItem(id, mms, recipient, recipients, threadRecipients, threadId, body, timestamp, slideDeck));
-      }
+      items.addFirst(new PendingItem(record.getDateReceived(),
+                                     new NotificationItem(id, mms, recipient, recipients, threadRecipients, threadId, body, timestamp, slideDeck)));
     }
 
     reader.close();
-    return notificationState;
+    return new ThreadNotifications(unreadThread, masterSecret != null, threadRecipients, items);
+  }
+
+  private static void invalidateThread(long threadId) {
+    synchronized (threadCache) {
+      threadCache.remove(threadId);
+    }
   }
 
   private static void updateBadge(Context context, int count) {
@@ -567,6 +697,40 @@ public class MessageNotifier {
     }
   }
 
+  private static class ThreadNotifications {
+
+    private final           UnreadThread      summary;
+    private final           boolean           unlocked;
+    private final @Nullable Recipients        threadRecipients;
+    private final           List<PendingItem> items;
+
+    private ThreadNotifications(@NonNull UnreadThread summary, boolean unlocked,
+                                @Nullable Recipients threadRecipients, @NonNull List<PendingItem> items)
+    {
+      this.summary          = summary;
+      this.unlocked         = unlocked;
+      this.threadRecipients = threadRecipients;
+      this.items            = items;
+    }
+
+    private boolean isCurrent(@NonNull UnreadThread unreadThread, boolean unlocked) {
+      return this.unlocked == unlocked                              &&
+             summary.getCount() == unreadThread.getCount()          &&
+             summary.getLatestReceived() == unreadThread.getLatestReceived();
+    }
+  }
+
+  private static class PendingItem {
+
+    private final long             dateReceived;
+    private final NotificationItem notificationItem;
+
+    private PendingItem(long dateReceived, NotificationItem notificationItem) {
+      this.dateReceived     = dateReceived;
+      this.notificationItem = notificationItem;
+    }
+  }
+
   private static class CancelableExecutor {
 
     private final Executor                 executor = Executors.newSingleThreadExecutor();
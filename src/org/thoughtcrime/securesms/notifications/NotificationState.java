@@ -13,14 +13,17 @@ import org.thoughtcrime.securesms.ConversationPopupActivity;
 import org.thoughtcrime.securesms.database.RecipientPreferenceDatabase.VibrateState;
 import org.thoughtcrime.securesms.recipients.Recipients;
 
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 public class NotificationState {
 
-  private final LinkedList<NotificationItem> notifications = new LinkedList<>();
-  private final LinkedHashSet<Long>          threads       = new LinkedHashSet<>();
+  private final LinkedList<NotificationItem> notifications   = new LinkedList<>();
+  private final LinkedHashSet<Long>          threads         = new LinkedHashSet<>();
+  private final Map<Long, ThreadSummary>     threadSummaries = new HashMap<>();
 
   private int notificationCount = 0;
 
@@ -43,6 +46,14 @@ public class NotificationState {
     notificationCount++;
   }
 
+  /**
+   * Records a thread's full unread count and newest message, for when only its most recent
+   * messages were added as notifications.
+   */
+  public void setThreadSummary(long threadId, int messageCount, long latestReceived) {
+    threadSummaries.put(threadId, new ThreadSummary(messageCount, latestReceived));
+  }
+
   public @Nullable Uri getRingtone() {
     if (!notifications.isEmpty()) {
       Recipients recipients = notifications.getFirst().getRecipients();
@@ -80,7 +91,16 @@ public class NotificationState {
   }
 
   public int getMessageCount() {
-    return notificationCount;
+    if (threadSummaries.isEmpty()) return notificationCount;
+
+    int count = 0;
+
+    for (long threadId : threads) {
+      ThreadSummary summary = threadSummaries.get(threadId);
+      count += summary != null ? summary.messageCount : 0;
+    }
+
+    return count;
   }
 
   public List<NotificationItem> getNotifications() {
@@ -97,6 +117,15 @@ public class NotificationState {
     return list;
   }
 
+  public NotificationState getStateForThread(long threadId) {
+    NotificationState state   = new NotificationState(getNotificationsForThread(threadId));
+    ThreadSummary     summary = threadSummaries.get(threadId);
+
+    if (summary != null) state.threadSummaries.put(threadId, summary);
+
+    return state;
+  }
+
   public PendingIntent getMarkAsReadIntent(Context context, int notificationId) {
     long[] threadArray = new long[threads.size()];
     int    index       = 0;
@@ -181,14 +210,34 @@ public class NotificationState {
       mms[index++]   = notificationItem.isMms();
     }
 
+    long[] threadIds      = new long[threadSummaries.size()];
+    long[] receivedBefore = new long[threadIds.length];
+
+    index = 0;
+
+    for (Map.Entry<Long, ThreadSummary> entry : threadSummaries.entrySet()) {
+      threadIds[index]        = entry.getKey();
+      receivedBefore[index++] = entry.getValue().latestReceived;
+    }
+
     Intent intent = new Intent(context, DeleteNotificationReceiver.class);
     intent.setAction(DeleteNotificationReceiver.DELETE_NOTIFICATION_ACTION);
     intent.putExtra(DeleteNotificationReceiver.EXTRA_IDS, ids);
     intent.putExtra(DeleteNotificationReceiver.EXTRA_MMS, mms);
+    intent.putExtra(DeleteNotificationReceiver.EXTRA_THREAD_IDS, threadIds);
+    intent.putExtra(DeleteNotificationReceiver.EXTRA_RECEIVED_BEFORE, receivedBefore);
     intent.setData((Uri.parse("custom://"+System.currentTimeMillis())));
 
     return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
   }
 
+  private static class ThreadSummary {
+    private final int  messageCount;
+    private final long latestReceived;
 
+    private ThreadSummary(int messageCount, long latestReceived) {
+      this.messageCount   = messageCount;
+      this.latestReceived = latestReceived;
+    }
+  }
 }
@@ -21,6 +21,7 @@ import android.content.Intent;
 import android.support.annotation.NonNull;
 
 import org.thoughtcrime.securesms.database.Address;
+import org.thoughtcrime.securesms.util.ConcurrentLRUCache;
 
 import java.util.Collection;
 
@@ -63,4 +64,17 @@ public class RecipientFactory {
     context.sendBroadcast(new Intent(RECIPIENT_CLEAR_ACTION));
   }
 
+  public static void clearCache(@NonNull Context context, @NonNull Address address) {
+    provider.clearCache(address);
+    context.sendBroadcast(new Intent(RECIPIENT_CLEAR_ACTION));
+  }
+
+  public static @NonNull ConcurrentLRUCache.Stats getRecipientCacheStats() {
+    return provider.getRecipientCacheStats();
+  }
+
+  public static @NonNull ConcurrentLRUCache.Stats getRecipientsCacheStats() {
+    return provider.getRecipientsCacheStats();
+  }
+
 }
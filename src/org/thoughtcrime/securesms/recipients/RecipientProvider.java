@@ -35,27 +35,40 @@ import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.RecipientPreferenceDatabase.RecipientsPreferences;
 import org.thoughtcrime.securesms.util.GroupUtil;
-import org.thoughtcrime.securesms.util.LRUCache;
+import org.thoughtcrime.securesms.util.ConcurrentLRUCache;
 import org.thoughtcrime.securesms.util.ListenableFutureTask;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 
 class RecipientProvider {
 
   private static final String TAG = RecipientProvider.class.getSimpleName();
 
+  private static final int RESOLVER_THREADS      = 4;
+  private static final int MAX_PREFERENCES_BATCH = 50;
+
   private static final RecipientCache  recipientCache         = new RecipientCache();
   private static final RecipientsCache recipientsCache        = new RecipientsCache();
-  private static final ExecutorService asyncRecipientResolver = Util.newSingleThreadedLifoExecutor();
+  private static final ExecutorService asyncRecipientResolver = Util.newLifoExecutor(RESOLVER_THREADS);
+
+  private static final Map<Address, ListenableFutureTask<RecipientDetails>> inFlightDetails       = new ConcurrentHashMap<>();
+  private static final Set<Address>                                         queuedAddresses       = Collections.newSetFromMap(new ConcurrentHashMap<Address, Boolean>());
+  private static final Set<Address>                                         preferenceCandidates  = Collections.newSetFromMap(new ConcurrentHashMap<Address, Boolean>());
+  private static final Map<Address, Optional<RecipientsPreferences>>        prefetchedPreferences = new HashMap<>();
+  private static final Set<Address>                                         batchedAddresses      = new HashSet<>();
 
   private static final String[] CALLER_ID_PROJECTION = new String[] {
     PhoneLookup.DISPLAY_NAME,
@@ -111,28 +124,117 @@ class RecipientProvider {
     recipientsCache.reset();
   }
 
+  void clearCache(@NonNull Address address) {
+    recipientCache.reset(address);
+    recipientsCache.reset(address);
+  }
+
+  @NonNull ConcurrentLRUCache.Stats getRecipientCacheStats() {
+    return recipientCache.getStats();
+  }
+
+  @NonNull ConcurrentLRUCache.Stats getRecipientsCacheStats() {
+    return recipientsCache.getStats();
+  }
+
+  /**
+   * Resolves details on a small pool of threads. A request for an address that is already
+   * queued shares the queued task rather than starting another lookup.
+   */
   private @NonNull ListenableFutureTask<RecipientDetails> getRecipientDetailsAsync(final Context context, final @NonNull Address address)
   {
+    ListenableFutureTask<RecipientDetails> inFlight = inFlightDetails.get(address);
+
+    if (inFlight != null && queuedAddresses.contains(address)) {
+      return inFlight;
+    }
+
     Callable<RecipientDetails> task = new Callable<RecipientDetails>() {
       @Override
       public RecipientDetails call() throws Exception {
-        return getRecipientDetailsSync(context, address);
+        queuedAddresses.remove(address);
+        preferenceCandidates.remove(address);
+
+        if (address.isGroup()) return getGroupRecipientDetails(context, address);
+        else                   return getIndividualRecipientDetails(context, address, getBatchedPreferences(context, address));
       }
     };
 
-    ListenableFutureTask<RecipientDetails> future = new ListenableFutureTask<>(task);
+    ListenableFutureTask<RecipientDetails> future = new ListenableFutureTask<RecipientDetails>(task) {
+      @Override
+      protected synchronized void done() {
+        inFlightDetails.remove(address, this);
+        super.done();
+      }
+    };
+
+    inFlightDetails.put(address, future);
+    queuedAddresses.add(address);
+    if (!address.isGroup()) preferenceCandidates.add(address);
+
     asyncRecipientResolver.submit(future);
     return future;
   }
 
+  /**
+   * Looks up preferences for this address along with those of other individual addresses that
+   * are still waiting to be resolved, so a screen full of misses costs a few IN queries rather
+   * than one query per row. Every batched address has a queued task that will consume its entry.
+   *
+   * The query runs outside the lock. A task whose address is part of another task's query waits
+   * for that query to finish rather than issuing its own.
+   */
+  private @NonNull Optional<RecipientsPreferences> getBatchedPreferences(Context context, @NonNull Address address) {
+    List<Address> batch = new LinkedList<>();
+
+    synchronized (prefetchedPreferences) {
+      while (batchedAddresses.contains(address)) {
+        Util.wait(prefetchedPreferences, 0);
+      }
+
+      Optional<RecipientsPreferences> prefetched = prefetchedPreferences.remove(address);
+      if (prefetched != null) return prefetched;
+
+      batch.add(address);
+
+      for (Address candidate : preferenceCandidates) {
+        if (batch.size() >= MAX_PREFERENCES_BATCH) break;
+        if (preferenceCandidates.remove(candidate)) batch.add(candidate);
+      }
+
+      batchedAddresses.addAll(batch);
+    }
+
+    Map<Address, RecipientsPreferences> results = null;
+
+    try {
+      results = DatabaseFactory.getRecipientPreferenceDatabase(context).getIndividualRecipientsPreferences(batch);
+    } finally {
+      synchronized (prefetchedPreferences) {
+        batchedAddresses.removeAll(batch);
+
+        if (results != null) {
+          for (Address batched : batch) {
+            if (!batched.equals(address)) {
+              prefetchedPreferences.put(batched, Optional.fromNullable(results.get(batched)));
+            }
+          }
+        }
+
+        prefetchedPreferences.notifyAll();
+      }
+    }
+
+    return Optional.fromNullable(results.get(address));
+  }
+
   private @NonNull RecipientDetails getRecipientDetailsSync(Context context, @NonNull Address address) {
     if (address.isGroup()) return getGroupRecipientDetails(context, address);
-    else                   return getIndividualRecipientDetails(context, address);
+    else                   return getIndividualRecipientDetails(context, address, DatabaseFactory.getRecipientPreferenceDatabase(context).getRecipientsPreferences(new Address[]{address}));
   }
 
-  private @NonNull RecipientDetails getIndividualRecipientDetails(Context context, @NonNull Address address) {
-    Optional<RecipientsPreferences> preferences = DatabaseFactory.getRecipientPreferenceDatabase(context).getRecipientsPreferences(new Address[]{address});
-    MaterialColor                   color       = preferences.isPresent() ? preferences.get().getColor() : null;
+  private @NonNull RecipientDetails getIndividualRecipientDetails(Context context, @NonNull Address address, @NonNull Optional<RecipientsPreferences> preferences) {
+    MaterialColor color = preferences.isPresent() ? preferences.get().getColor() : null;
 
     if (address.isPhone()) {
       Uri    uri    = Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, Uri.encode(address.toPhoneString()));
@@ -243,42 +345,63 @@ class RecipientProvider {
 
   private static class RecipientCache {
 
-    private final Map<Address,Recipient> cache = new LRUCache<>(1000);
+    private final ConcurrentLRUCache<Address,Recipient> cache = new ConcurrentLRUCache<>(1000);
 
-    public synchronized Recipient get(Address address) {
+    public Recipient get(Address address) {
       return cache.get(address);
     }
 
-    public synchronized void set(Address address, Recipient recipient) {
+    public void set(Address address, Recipient recipient) {
       cache.put(address, recipient);
     }
 
-    public synchronized void reset() {
+    public void reset() {
       for (Recipient recipient : cache.values()) {
         recipient.setStale();
       }
     }
 
+    public void reset(Address address) {
+      Recipient recipient = cache.get(address);
+      if (recipient != null) recipient.setStale();
+    }
+
+    public ConcurrentLRUCache.Stats getStats() {
+      return cache.getStats();
+    }
+
   }
 
   private static class RecipientsCache {
 
-    private final Map<RecipientAddresses,Recipients> cache = new LRUCache<>(1000);
+    private final ConcurrentLRUCache<RecipientAddresses,Recipients> cache = new ConcurrentLRUCache<>(1000);
 
-    public synchronized Recipients get(RecipientAddresses addresses) {
+    public Recipients get(RecipientAddresses addresses) {
       return cache.get(addresses);
     }
 
-    public synchronized void set(RecipientAddresses addresses, Recipients recipients) {
+    public void set(RecipientAddresses addresses, Recipients recipients) {
       cache.put(addresses, recipients);
     }
 
-    public synchronized void reset() {
+    public void reset() {
       for (Recipients recipients : cache.values()) {
         recipients.setStale();
       }
     }
 
+    public void reset(Address address) {
+      for (Recipients recipients : cache.values()) {
+        if (recipients.getAddressesList().contains(address)) {
+          recipients.setStale();
+        }
+      }
+    }
+
+    public ConcurrentLRUCache.Stats getStats() {
+      return cache.getStats();
+    }
+
   }
 
 
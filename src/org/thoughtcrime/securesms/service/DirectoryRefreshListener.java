@@ -23,7 +23,7 @@ public class DirectoryRefreshListener extends PersistentAlarmManagerListener {
   protected long onAlarm(Context context, long scheduledTime) {
     if (scheduledTime != 0 && TextSecurePreferences.isPushRegistered(context)) {
       ApplicationContext.getInstance(context)
-                        .getJobManager()
+                        .getBulkJobManager()
                         .add(new DirectoryRefreshJob(context));
     }
 
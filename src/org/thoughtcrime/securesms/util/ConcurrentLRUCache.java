@@ -0,0 +1,180 @@
+package org.thoughtcrime.securesms.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache with least-recently-used eviction whose reads never block.
+ *
+ * Reads only stamp the entry with a logical access time. When the cache grows past its
+ * maximum size, a single writer evicts the least recently accessed entries down to 90% of
+ * the maximum, so the cost of ordering entries is paid once per batch of evictions rather
+ * than on every access.
+ */
+public class ConcurrentLRUCache<K, V> {
+
+  private final ConcurrentHashMap<K, Entry<V>> cache        = new ConcurrentHashMap<>();
+  private final ReentrantLock                  evictionLock = new ReentrantLock();
+  private final AtomicLong                     clock        = new AtomicLong();
+
+  private final AtomicLong hits      = new AtomicLong();
+  private final AtomicLong misses    = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private final int maxSize;
+  private final int evictToSize;
+
+  public ConcurrentLRUCache(int maxSize) {
+    this.maxSize     = maxSize;
+    this.evictToSize = Math.max(1, maxSize - maxSize / 10);
+  }
+
+  public @Nullable V get(@NonNull K key) {
+    Entry<V> entry = cache.get(key);
+
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    entry.lastAccess = clock.incrementAndGet();
+    hits.incrementAndGet();
+
+    return entry.value;
+  }
+
+  public void put(@NonNull K key, @NonNull V value) {
+    cache.put(key, new Entry<>(value, clock.incrementAndGet()));
+
+    if (cache.size() > maxSize) {
+      evict();
+    }
+  }
+
+  public void remove(@NonNull K key) {
+    cache.remove(key);
+  }
+
+  public @NonNull List<V> values() {
+    List<V> values = new ArrayList<>(cache.size());
+
+    for (Entry<V> entry : cache.values()) {
+      values.add(entry.value);
+    }
+
+    return values;
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  public @NonNull Stats getStats() {
+    return new Stats(cache.size(), hits.get(), misses.get(), evictions.get());
+  }
+
+  private void evict() {
+    if (!evictionLock.tryLock()) return;
+
+    try {
+      int excess = cache.size() - evictToSize;
+      if (excess <= 0) return;
+
+      List<Candidate<K, V>> candidates = new ArrayList<>(cache.size());
+
+      for (Map.Entry<K, Entry<V>> entry : cache.entrySet()) {
+        candidates.add(new Candidate<>(entry.getKey(), entry.getValue()));
+      }
+
+      Collections.sort(candidates, new Comparator<Candidate<K, V>>() {
+        @Override
+        public int compare(Candidate<K, V> lhs, Candidate<K, V> rhs) {
+          return lhs.lastAccess < rhs.lastAccess ? -1 : (lhs.lastAccess == rhs.lastAccess ? 0 : 1);
+        }
+      });
+
+      for (int i=0;i<excess && i<candidates.size();i++) {
+        Candidate<K, V> candidate = candidates.get(i);
+
+        if (cache.remove(candidate.key, candidate.entry)) {
+          evictions.incrementAndGet();
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private static class Entry<V> {
+    private final    V    value;
+    private volatile long lastAccess;
+
+    private Entry(V value, long lastAccess) {
+      this.value      = value;
+      this.lastAccess = lastAccess;
+    }
+  }
+
+  private static class Candidate<K, V> {
+    private final K        key;
+    private final Entry<V> entry;
+    private final long     lastAccess;
+
+    private Candidate(K key, Entry<V> entry) {
+      this.key        = key;
+      this.entry      = entry;
+      this.lastAccess = entry.lastAccess;
+    }
+  }
+
+  public static class Stats {
+
+    private final int  size;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    private Stats(int size, long hits, long misses, long evictions) {
+      this.size      = size;
+      this.hits      = hits;
+      this.misses    = misses;
+      this.evictions = evictions;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public long getEvictions() {
+      return evictions;
+    }
+
+    public double getHitRate() {
+      long total = hits + misses;
+      return total == 0 ? 0 : (double)hits / total;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return "size: " + size + ", hits: " + hits + ", misses: " + misses +
+             ", hit rate: " + getHitRate() + ", evictions: " + evictions;
+    }
+  }
+}
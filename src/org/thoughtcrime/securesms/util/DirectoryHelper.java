@@ -21,6 +21,7 @@ import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessagingDatabase.InsertResult;
 import org.thoughtcrime.securesms.database.NotInDirectoryException;
 import org.thoughtcrime.securesms.database.TextSecureDirectory;
+import org.thoughtcrime.securesms.jobs.ContactSearchIndexJob;
 import org.thoughtcrime.securesms.jobs.MultiDeviceContactUpdateJob;
 import org.thoughtcrime.securesms.notifications.MessageNotifier;
 import org.thoughtcrime.securesms.push.AccountManagerFactory;
@@ -83,7 +84,7 @@ public class DirectoryHelper {
 
     if (!result.getNewUsers().isEmpty() && TextSecurePreferences.isMultiDevice(context)) {
       ApplicationContext.getInstance(context)
-                        .getJobManager()
+                        .getBulkJobManager()
                         .add(new MultiDeviceContactUpdateJob(context));
     }
 
@@ -137,7 +138,7 @@ public class DirectoryHelper {
       RefreshResult result = updateContactsDatabase(context, details.get());
 
       if (!result.getNewUsers().isEmpty() && TextSecurePreferences.isMultiDevice(context)) {
-        ApplicationContext.getInstance(context).getJobManager().add(new MultiDeviceContactUpdateJob(context));
+        ApplicationContext.getInstance(context).getBulkJobManager().add(new MultiDeviceContactUpdateJob(context));
       }
 
       if (!result.isFresh()) {
@@ -198,6 +199,8 @@ public class DirectoryHelper {
                                                                @NonNull List<ContactTokenDetails> activeTokens,
                                                                boolean removeMissing)
   {
+    ContactSearchIndexJob.scheduleRefresh(context);
+
     Optional<AccountHolder> account = getOrCreateAccount(context);
 
     if (account.isPresent()) {
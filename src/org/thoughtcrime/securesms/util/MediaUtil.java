@@ -11,6 +11,7 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 
+import com.bumptech.glide.DrawableTypeRequest;
 import com.bumptech.glide.Glide;
 
 import org.thoughtcrime.securesms.R;
@@ -62,17 +63,44 @@ public class MediaUtil {
     return data;
   }
 
+  /**
+   * Generates a thumbnail from plaintext that is already in memory, such as an attachment
+   * captured while it was being written to disk.
+   */
+  public static @Nullable ThumbnailData generateThumbnail(Context context, String contentType, byte[] data)
+      throws BitmapDecodingException
+  {
+    long          startMillis = System.currentTimeMillis();
+    ThumbnailData thumbnail   = null;
+
+    if (isImageType(contentType)) {
+      thumbnail = new ThumbnailData(generateImageThumbnail(context, Glide.with(context).load(data)));
+    }
+
+    if (thumbnail != null) {
+      Log.w(TAG, String.format("generated thumbnail from memory, %dx%d (%.3f:1) in %dms",
+                               thumbnail.getBitmap().getWidth(), thumbnail.getBitmap().getHeight(),
+                               thumbnail.getAspectRatio(), System.currentTimeMillis() - startMillis));
+    }
+
+    return thumbnail;
+  }
+
   private static Bitmap generateImageThumbnail(Context context, MasterSecret masterSecret, Uri uri)
       throws BitmapDecodingException
+  {
+    return generateImageThumbnail(context, Glide.with(context).load(new DecryptableUri(masterSecret, uri)));
+  }
+
+  private static Bitmap generateImageThumbnail(Context context, DrawableTypeRequest<?> request)
+      throws BitmapDecodingException
   {
     try {
       int maxSize = context.getResources().getDimensionPixelSize(R.dimen.media_bubble_height);
-      return Glide.with(context)
-                  .load(new DecryptableUri(masterSecret, uri))
-                  .asBitmap()
-                  .centerCrop()
-                  .into(maxSize, maxSize)
-                  .get();
+      return request.asBitmap()
+                    .centerCrop()
+                    .into(maxSize, maxSize)
+                    .get();
     } catch (InterruptedException | ExecutionException e) {
       Log.w(TAG, e);
       throw new BitmapDecodingException(e);
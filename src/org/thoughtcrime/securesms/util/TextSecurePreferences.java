@@ -74,6 +74,7 @@ public class TextSecurePreferences {
   private static final String PROMPTED_SHARE_PREF              = "pref_prompted_share";
   private static final String SIGNALING_KEY_PREF               = "pref_signaling_key";
   private static final String DIRECTORY_FRESH_TIME_PREF        = "pref_directory_refresh_time";
+  private static final String CONTACT_SEARCH_INDEX_TIME_PREF   = "pref_contact_search_index_time";
   private static final String UPDATE_APK_REFRESH_TIME_PREF     = "pref_update_apk_refresh_time";
   private static final String UPDATE_APK_DOWNLOAD_ID           = "pref_update_apk_download_id";
   private static final String UPDATE_APK_DIGEST                = "pref_update_apk_digest";
@@ -279,6 +280,14 @@ public class TextSecurePreferences {
     setLongPreference(context, DIRECTORY_FRESH_TIME_PREF, value);
   }
 
+  public static long getContactSearchIndexTime(Context context) {
+    return getLongPreference(context, CONTACT_SEARCH_INDEX_TIME_PREF, 0L);
+  }
+
+  public static void setContactSearchIndexTime(Context context, long value) {
+    setLongPreference(context, CONTACT_SEARCH_INDEX_TIME_PREF, value);
+  }
+
   public static long getUpdateApkRefreshTime(Context context) {
     return getLongPreference(context, UPDATE_APK_REFRESH_TIME_PREF, 0L);
   }
@@ -7,59 +7,67 @@ import android.os.Build;
 
 import org.thoughtcrime.securesms.crypto.DecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
-import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.crypto.SeekablePartInputStream;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 
+/**
+ * Serves MediaPlayer/MediaMetadataRetriever reads from a single seekable decrypting stream
+ * that stays open until {@link #close()}, so each read only decrypts around its position.
+ */
 @TargetApi(Build.VERSION_CODES.M)
 public class EncryptedMediaDataSource extends MediaDataSource {
 
   private final File         mediaFile;
   private final MasterSecret masterSecret;
 
+  private SeekablePartInputStream inputStream;
+
   public EncryptedMediaDataSource(MasterSecret masterSecret, File mediaFile) {
     this.mediaFile    = mediaFile;
     this.masterSecret = masterSecret;
   }
 
   @Override
-  public int readAt(long position, byte[] bytes, int offset, int length) throws IOException {
-    InputStream inputStream     = DecryptingPartInputStream.createFor(masterSecret, mediaFile);
-    byte[]      buffer          = new byte[4096];
-    long        headerRemaining = position;
+  public synchronized int readAt(long position, byte[] bytes, int offset, int length) throws IOException {
+    SeekablePartInputStream inputStream = getInputStream();
+
+    if (position >= inputStream.getPlaintextLength()) return -1;
+    if (length == 0)                                  return 0;
+
+    inputStream.seek(position);
 
-    while (headerRemaining > 0) {
-      int read = inputStream.read(buffer, 0, Util.toIntExact(Math.min((long)buffer.length, headerRemaining)));
+    int totalRead = 0;
 
-      if (read == -1) return -1;
+    while (totalRead < length) {
+      int read = inputStream.read(bytes, offset + totalRead, length - totalRead);
 
-      headerRemaining -= read;
+      if (read == -1) break;
+      else            totalRead += read;
     }
 
-    int returnValue = inputStream.read(bytes, offset, length);
-    inputStream.close();
-    return returnValue;
+    return totalRead;
   }
 
   @Override
-  public long getSize() throws IOException {
-    InputStream inputStream = DecryptingPartInputStream.createFor(masterSecret, mediaFile);
-    byte[]      buffer      = new byte[4096];
-    long        size        = 0;
-
-    int read;
+  public synchronized long getSize() throws IOException {
+    return getInputStream().getPlaintextLength();
+  }
 
-    while ((read = inputStream.read(buffer)) != -1) {
-      size += read;
+  @Override
+  public synchronized void close() throws IOException {
+    if (inputStream != null) {
+      inputStream.close();
+      inputStream = null;
     }
-
-    return size;
   }
 
-  @Override
-  public void close() throws IOException {
+  private SeekablePartInputStream getInputStream() throws IOException {
+    if (inputStream == null) {
+      inputStream = DecryptingPartInputStream.createSeekableFor(masterSecret, mediaFile);
+    }
 
+    return inputStream;
   }
 }
@@ -0,0 +1,142 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.thoughtcrime.securesms.TextSecureTestCase;
+import org.thoughtcrime.securesms.database.ContactSearchDatabase.IndexedNumber;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContactSearchIndexTest extends TextSecureTestCase {
+
+  private static final String JANE_ADDRESS = "+15555551234";
+  private static final String IVAN_ADDRESS = "+15555556789";
+
+  private Locale                defaultLocale;
+  private SQLiteOpenHelper      databaseHelper;
+  private ContactSearchDatabase database;
+
+  @Override
+  public void setUp() {
+    super.setUp();
+
+    Context context = getInstrumentation().getTargetContext();
+
+    defaultLocale  = Locale.getDefault();
+    databaseHelper = new IndexDatabaseHelper(context);
+    database       = new ContactSearchDatabase(context, databaseHelper);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    Locale.setDefault(defaultLocale);
+    databaseHelper.close();
+    super.tearDown();
+  }
+
+  public void testNamePrefixesMatch() {
+    index(1, "Mary-Jane Smith", "(555) 555-1234", JANE_ADDRESS);
+    index(2, "Ivan Petrov", "555 555 6789", IVAN_ADDRESS);
+
+    assertThat(query("jan SM", true, true)).containsExactly("Mary-Jane Smith");
+    assertThat(query("petrov", true, true)).containsExactly("Ivan Petrov");
+    assertThat(query("ane", true, true)).isEmpty();
+  }
+
+  public void testNumberSuffixesMatch() {
+    index(1, "Mary-Jane Smith", "(555) 555-1234", JANE_ADDRESS);
+    index(2, "Ivan Petrov", "555 555 6789", IVAN_ADDRESS);
+
+    assertThat(query("12-34", true, true)).containsExactly("Mary-Jane Smith");
+    assertThat(query("+1 555 555", true, true)).containsOnly("Mary-Jane Smith", "Ivan Petrov");
+    assertThat(query("999", true, true)).isEmpty();
+  }
+
+  public void testRegisteredFilter() {
+    index(1, "Mary-Jane Smith", "(555) 555-1234", JANE_ADDRESS);
+    index(2, "Ivan Petrov", "555 555 6789", IVAN_ADDRESS);
+
+    database.updateIndex(Collections.<Long>emptySet(), new HashMap<Long, List<IndexedNumber>>(),
+                         Collections.singleton(IVAN_ADDRESS));
+
+    assertThat(query("555", true, false)).containsExactly("Ivan Petrov");
+    assertThat(query("555", false, true)).containsExactly("Mary-Jane Smith");
+  }
+
+  public void testIndexSurvivesLocaleChange() {
+    Locale.setDefault(new Locale("tr", "TR"));
+    index(1, "IVAN PETROV", "555 555 6789", IVAN_ADDRESS);
+
+    Locale.setDefault(Locale.US);
+    assertThat(query("ivan", true, true)).containsExactly("IVAN PETROV");
+
+    index(2, "Irina Ivanova", "(555) 555-1234", JANE_ADDRESS);
+
+    Locale.setDefault(new Locale("tr", "TR"));
+    assertThat(query("IRINA", true, true)).containsExactly("Irina Ivanova");
+  }
+
+  public void testRewrittenContactDropsOldTokens() {
+    index(1, "Mary-Jane Smith", "(555) 555-1234", JANE_ADDRESS);
+    index(1, "Mary-Jane Jones", "(555) 555-1234", JANE_ADDRESS);
+
+    assertThat(query("smith", true, true)).isEmpty();
+    assertThat(query("jones", true, true)).containsExactly("Mary-Jane Jones");
+  }
+
+  private void index(long contactId, String name, String number, String address) {
+    Map<Long, List<IndexedNumber>> contacts = new HashMap<>();
+    List<IndexedNumber>            numbers  = new LinkedList<>();
+
+    numbers.add(new IndexedNumber(name, number, 2, null, address));
+    contacts.put(contactId, numbers);
+
+    database.updateIndex(Collections.singleton(contactId), contacts, Collections.<String>emptySet());
+  }
+
+  private List<String> query(String filter, boolean includeRegistered, boolean includeUnregistered) {
+    List<String> names  = new LinkedList<>();
+    Cursor       cursor = database.query(filter, includeRegistered, includeUnregistered);
+
+    try {
+      while (cursor.moveToNext()) {
+        names.add(cursor.getString(cursor.getColumnIndexOrThrow(ContactSearchDatabase.NAME)));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return names;
+  }
+
+  private static class IndexDatabaseHelper extends SQLiteOpenHelper {
+
+    IndexDatabaseHelper(Context context) {
+      super(context, null, null, 1);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+      db.execSQL(ContactSearchDatabase.CREATE_TABLE);
+      db.execSQL(ContactSearchDatabase.CREATE_TOKEN_TABLE);
+
+      for (String statement : ContactSearchDatabase.CREATE_INDEXS) {
+        db.execSQL(statement);
+      }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    }
+  }
+}
@@ -0,0 +1,385 @@
+package org.thoughtcrime.securesms.attachments;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.core.classloader.annotations.SuppressStaticInitializationFor;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.crypto.MasterSecret;
+import org.thoughtcrime.securesms.crypto.SeekablePartInputStream;
+import org.thoughtcrime.securesms.mms.PartAuthority;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({ Log.class, Handler.class, Looper.class, TextUtils.class, PreferenceManager.class, PartAuthority.class, Uri.class })
+@SuppressStaticInitializationFor("org.thoughtcrime.securesms.mms.PartAuthority")
+public class AttachmentServerTest extends BaseUnitTest {
+
+  private byte[]     data;
+  private Attachment attachment;
+  private String     lastUri;
+
+  private final List<AttachmentServer> servers = new LinkedList<>();
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+
+    data = new byte[300 * 1024 + 13];
+    new Random(7).nextBytes(data);
+
+    attachment = mock(Attachment.class);
+    when(attachment.getContentType()).thenReturn("audio/mpeg");
+    when(attachment.getSize()).thenReturn((long)data.length);
+
+    mockStatic(Uri.class);
+    when(Uri.parse(anyString())).thenAnswer(new Answer<Uri>() {
+      @Override
+      public Uri answer(InvocationOnMock invocation) throws Throwable {
+        lastUri = (String)invocation.getArguments()[0];
+        return null;
+      }
+    });
+
+    mockStatic(PartAuthority.class);
+    when(PartAuthority.getSeekableAttachmentStream(any(Context.class), any(MasterSecret.class), any(Uri.class)))
+        .thenAnswer(new Answer<SeekablePartInputStream>() {
+          @Override
+          public SeekablePartInputStream answer(InvocationOnMock invocation) throws Throwable {
+            return new ByteArraySeekableStream(data);
+          }
+        });
+  }
+
+  @After
+  public void tearDown() {
+    for (AttachmentServer server : servers) {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void testKeepAliveRangeRequests() throws Exception {
+    String token  = startServer();
+    Socket socket = connect();
+
+    try {
+      InputStream  in  = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = socket.getOutputStream();
+
+      assertRange(in, out, token, 0, 99);
+      assertRange(in, out, token, 200 * 1024 - 10, 200 * 1024 + 10);
+      assertRange(in, out, token, 5, 64 * 1024 + 5);
+
+      sendRequest(out, token, "bytes=" + (data.length - 50) + "-");
+      Response tail = readResponse(in);
+      assertEquals(206, tail.status);
+      assertArrayEquals(Arrays.copyOfRange(data, data.length - 50, data.length), tail.body);
+
+      sendRequest(out, token, "bytes=-10");
+      Response suffix = readResponse(in);
+      assertEquals(206, suffix.status);
+      assertArrayEquals(Arrays.copyOfRange(data, data.length - 10, data.length), suffix.body);
+
+      sendRequest(out, token, null);
+      Response whole = readResponse(in);
+      assertEquals(200, whole.status);
+      assertArrayEquals(data, whole.body);
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testUnsatisfiableRange() throws Exception {
+    String token  = startServer();
+    Socket socket = connect();
+
+    try {
+      sendRequest(socket.getOutputStream(), token, "bytes=" + data.length + "-");
+      Response response = readResponse(new BufferedInputStream(socket.getInputStream()));
+
+      assertEquals(416, response.status);
+      assertEquals("bytes */" + data.length, response.headers.get("content-range"));
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testConcurrentClients() throws Exception {
+    final String                     token   = startServer();
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread[]                         clients = new Thread[8];
+
+    for (int i=0;i<clients.length;i++) {
+      final int seed = i;
+
+      clients[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Random random = new Random(seed);
+            Socket socket = connect();
+
+            try {
+              InputStream  in  = new BufferedInputStream(socket.getInputStream());
+              OutputStream out = socket.getOutputStream();
+
+              for (int j=0;j<20;j++) {
+                int start = random.nextInt(data.length);
+                int end   = Math.min(data.length - 1, start + random.nextInt(100 * 1024));
+
+                assertRange(in, out, token, start, end);
+              }
+            } finally {
+              socket.close();
+            }
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      };
+
+      clients[i].start();
+    }
+
+    for (Thread client : clients) {
+      client.join();
+    }
+
+    assertNull(failure.get());
+  }
+
+  @Test(timeout = 5000)
+  public void testIdleConnectionsDoNotBlockNewClients() throws Exception {
+    String       token = startServer();
+    List<Socket> idle  = new LinkedList<>();
+
+    try {
+      for (int i=0;i<8;i++) {
+        Socket socket = connect();
+        idle.add(socket);
+
+        assertRange(new BufferedInputStream(socket.getInputStream()), socket.getOutputStream(), token, 0, 99);
+      }
+
+      Socket socket = connect();
+
+      try {
+        assertRange(new BufferedInputStream(socket.getInputStream()), socket.getOutputStream(), token, 100, 199);
+      } finally {
+        socket.close();
+      }
+    } finally {
+      for (Socket socket : idle) {
+        socket.close();
+      }
+    }
+  }
+
+  @Test
+  public void testSequentialAttachment() throws Exception {
+    when(PartAuthority.getSeekableAttachmentStream(any(Context.class), any(MasterSecret.class), any(Uri.class))).thenReturn(null);
+    when(PartAuthority.getAttachmentStream(any(Context.class), any(MasterSecret.class), any(Uri.class)))
+        .thenAnswer(new Answer<InputStream>() {
+          @Override
+          public InputStream answer(InvocationOnMock invocation) throws Throwable {
+            return new ByteArrayInputStream(data);
+          }
+        });
+
+    String token  = startServer();
+    Socket socket = connect();
+
+    try {
+      InputStream  in  = new BufferedInputStream(socket.getInputStream());
+      OutputStream out = socket.getOutputStream();
+
+      assertRange(in, out, token, 128 * 1024, 192 * 1024);
+      assertRange(in, out, token, 10, 20);
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testSharedSocketClosedAfterLastStop() throws Exception {
+    AttachmentServer first = new AttachmentServer(context, masterSecret, attachment);
+    first.getUri();
+    int firstPort = getPort();
+
+    AttachmentServer second = new AttachmentServer(context, masterSecret, attachment);
+    second.getUri();
+    assertEquals(firstPort, getPort());
+
+    first.stop();
+    connect().close();
+
+    second.stop();
+    connect();
+  }
+
+  private String startServer() throws IOException {
+    AttachmentServer server = new AttachmentServer(context, masterSecret, attachment);
+    server.getUri();
+    server.start();
+    servers.add(server);
+
+    return lastUri.substring(lastUri.lastIndexOf('/') + 1);
+  }
+
+  private int getPort() {
+    String hostAndPort = lastUri.substring("http://".length(), lastUri.lastIndexOf('/'));
+    return Integer.parseInt(hostAndPort.substring(hostAndPort.indexOf(':') + 1));
+  }
+
+  private Socket connect() throws IOException {
+    return new Socket("127.0.0.1", getPort());
+  }
+
+  private void assertRange(InputStream in, OutputStream out, String token, int start, int end) throws IOException {
+    sendRequest(out, token, "bytes=" + start + "-" + end);
+    Response response = readResponse(in);
+
+    assertEquals(206, response.status);
+    assertEquals("bytes " + start + "-" + end + "/" + data.length, response.headers.get("content-range"));
+    assertArrayEquals(Arrays.copyOfRange(data, start, end + 1), response.body);
+  }
+
+  private static void sendRequest(OutputStream out, String token, String range) throws IOException {
+    StringBuilder request = new StringBuilder();
+    request.append("GET /").append(token).append(" HTTP/1.1\r\n");
+    request.append("Host: 127.0.0.1\r\n");
+
+    if (range != null) request.append("Range: ").append(range).append("\r\n");
+
+    request.append("\r\n");
+
+    out.write(request.toString().getBytes());
+    out.flush();
+  }
+
+  private static Response readResponse(InputStream in) throws IOException {
+    String              statusLine = readLine(in);
+    Map<String, String> headers    = new HashMap<>();
+    String              line;
+
+    while (!(line = readLine(in)).isEmpty()) {
+      int separator = line.indexOf(':');
+      headers.put(line.substring(0, separator).trim().toLowerCase(Locale.US), line.substring(separator + 1).trim());
+    }
+
+    byte[] body   = new byte[Integer.parseInt(headers.get("content-length"))];
+    int    offset = 0;
+
+    while (offset < body.length) {
+      int read = in.read(body, offset, body.length - offset);
+      if (read == -1) throw new IOException("Response ended early");
+      offset += read;
+    }
+
+    return new Response(Integer.parseInt(statusLine.split(" ")[1]), headers, body);
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int                   read;
+
+    while ((read = in.read()) != '\n') {
+      if (read == -1) throw new IOException("Connection closed");
+      if (read != '\r') line.write(read);
+    }
+
+    return line.toString();
+  }
+
+  private static class Response {
+    private final int                 status;
+    private final Map<String, String> headers;
+    private final byte[]              body;
+
+    private Response(int status, Map<String, String> headers, byte[] body) {
+      this.status  = status;
+      this.headers = headers;
+      this.body    = body;
+    }
+  }
+
+  private static class ByteArraySeekableStream extends SeekablePartInputStream {
+
+    private final byte[] data;
+
+    private int position;
+
+    private ByteArraySeekableStream(byte[] data) {
+      this.data = data;
+    }
+
+    @Override
+    public long getPlaintextLength() {
+      return data.length;
+    }
+
+    @Override
+    public long getPosition() {
+      return position;
+    }
+
+    @Override
+    public void seek(long position) {
+      this.position = (int)position;
+    }
+
+    @Override
+    public int read() {
+      return position < data.length ? data[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+      if (position >= data.length) return -1;
+
+      int read = Math.min(length, data.length - position);
+      System.arraycopy(data, position, buffer, offset, read);
+      position += read;
+
+      return read;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class EmojiParserTest {
+
+  private static final String GRINNING  = "\uD83D\uDE00";
+  private static final String THUMBS_UP = "\uD83D\uDC4D";
+  private static final String MAN       = "\uD83D\uDC68";
+  private static final String WOMAN     = "\uD83D\uDC69";
+  private static final String GIRL      = "\uD83D\uDC67";
+  private static final String ZWJ       = "\u200D";
+  private static final String FAMILY    = MAN + ZWJ + WOMAN + ZWJ + GIRL;
+  private static final String US_FLAG   = "\uD83C\uDDFA\uD83C\uDDF8";
+  private static final String KEYCAP    = "#\uFE0F\u20E3";
+
+  private EmojiDrawInfo grinning;
+  private EmojiDrawInfo thumbsUp;
+  private EmojiDrawInfo man;
+  private EmojiDrawInfo woman;
+  private EmojiDrawInfo family;
+  private EmojiDrawInfo usFlag;
+  private EmojiDrawInfo keycap;
+
+  private EmojiParser parser;
+
+  @Before
+  public void setUp() {
+    EmojiPageBitmap page = mock(EmojiPageBitmap.class);
+    EmojiTree       tree = new EmojiTree();
+
+    grinning = new EmojiDrawInfo(page, 0);
+    thumbsUp = new EmojiDrawInfo(page, 1);
+    man      = new EmojiDrawInfo(page, 2);
+    woman    = new EmojiDrawInfo(page, 3);
+    family   = new EmojiDrawInfo(page, 4);
+    usFlag   = new EmojiDrawInfo(page, 5);
+    keycap   = new EmojiDrawInfo(page, 6);
+
+    tree.add(GRINNING, grinning);
+    tree.add(THUMBS_UP, thumbsUp);
+    tree.add(MAN, man);
+    tree.add(WOMAN, woman);
+    tree.add(FAMILY, family);
+    tree.add(US_FLAG, usFlag);
+    tree.add(KEYCAP, keycap);
+
+    parser = new EmojiParser(tree);
+  }
+
+  @Test
+  public void testNonEmojiText() {
+    assertEmpty(parser.findCandidates(null));
+    assertEmpty(parser.findCandidates(""));
+    assertEmpty(parser.findCandidates("hello world"));
+    assertEmpty(parser.findCandidates("#hashtag"));
+    assertEmpty(parser.findCandidates("\u00E9\u4E2D\uD83C"));
+  }
+
+  @Test
+  public void testSingleCodepoint() {
+    EmojiParser.CandidateList candidates = parser.findCandidates("hi " + GRINNING + "!");
+
+    assertEquals(1, candidates.size());
+    assertCandidate(candidates.list.get(0), 3, 5, grinning);
+    assertFalse(candidates.allEmojis);
+  }
+
+  @Test
+  public void testMultiCodepointSequences() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(FAMILY + US_FLAG + KEYCAP);
+
+    assertEquals(3, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, FAMILY.length(), family);
+    assertCandidate(candidates.list.get(1), FAMILY.length(), FAMILY.length() + US_FLAG.length(), usFlag);
+    assertCandidate(candidates.list.get(2), FAMILY.length() + US_FLAG.length(), FAMILY.length() + US_FLAG.length() + KEYCAP.length(), keycap);
+    assertTrue(candidates.allEmojis);
+  }
+
+  @Test
+  public void testOverlappingPrefixes() {
+    String                    text       = MAN + ZWJ + WOMAN + " " + MAN;
+    EmojiParser.CandidateList candidates = parser.findCandidates(text);
+
+    assertEquals(3, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, 2, man);
+    assertCandidate(candidates.list.get(1), 3, 5, woman);
+    assertCandidate(candidates.list.get(2), 6, 8, man);
+    assertFalse(candidates.allEmojis);
+  }
+
+  @Test
+  public void testLongestMatchWins() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(FAMILY + MAN);
+
+    assertEquals(2, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, FAMILY.length(), family);
+    assertCandidate(candidates.list.get(1), FAMILY.length(), FAMILY.length() + 2, man);
+    assertTrue(candidates.allEmojis);
+  }
+
+  @Test
+  public void testFitzpatrickModifiers() {
+    for (Fitzpatrick modifier : Fitzpatrick.values()) {
+      EmojiParser.CandidateList candidates = parser.findCandidates(THUMBS_UP + modifier.unicode + GRINNING);
+
+      assertEquals(2, candidates.size());
+      assertCandidate(candidates.list.get(0), 0, 4, thumbsUp);
+      assertCandidate(candidates.list.get(1), 4, 6, grinning);
+      assertTrue(candidates.allEmojis);
+    }
+  }
+
+  @Test
+  public void testFitzpatrickModifierWithoutEmoji() {
+    EmojiParser.CandidateList candidates = parser.findCandidates("a" + Fitzpatrick.TYPE_3.unicode);
+
+    assertEmpty(candidates);
+  }
+
+  @Test
+  public void testTruncatedFitzpatrickModifier() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(THUMBS_UP + "\uD83C");
+
+    assertEquals(1, candidates.size());
+    assertCandidate(candidates.list.get(0), 0, 2, thumbsUp);
+    assertFalse(candidates.allEmojis);
+  }
+
+  private void assertEmpty(EmojiParser.CandidateList candidates) {
+    assertEquals(0, candidates.size());
+    assertFalse(candidates.allEmojis);
+  }
+
+  private void assertCandidate(EmojiParser.Candidate candidate, int start, int end, EmojiDrawInfo drawInfo) {
+    assertEquals(start, candidate.getStartIndex());
+    assertEquals(end, candidate.getEndIndex());
+    assertSame(drawInfo, candidate.getDrawInfo());
+  }
+}
@@ -0,0 +1,194 @@
+package org.thoughtcrime.securesms.crypto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.thoughtcrime.securesms.BaseUnitTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@PowerMockIgnore("javax.crypto.*")
+public class DecryptingPartInputStreamTest extends BaseUnitTest {
+
+  private File   file;
+  private File   legacyFile;
+  private byte[] plaintext;
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+
+    plaintext = new byte[100 * 1024 + 7];
+    new Random(42).nextBytes(plaintext);
+
+    file = File.createTempFile("part", ".mms");
+
+    OutputStream out = new EncryptingPartOutputStream(file, masterSecret);
+    out.write(plaintext);
+    out.close();
+
+    legacyFile = File.createTempFile("part", ".mms");
+    writeLegacyPart(legacyFile, plaintext);
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    legacyFile.delete();
+  }
+
+  @Test
+  public void testFormatDetection() throws Exception {
+    assertFalse(DecryptingPartInputStream.isLegacyFormat(file));
+    assertTrue(DecryptingPartInputStream.isLegacyFormat(legacyFile));
+  }
+
+  @Test
+  public void testVerifyFirstRoundTrip() throws Exception {
+    assertArrayEquals(plaintext, readAll(DecryptingPartInputStream.createFor(masterSecret, file)));
+  }
+
+  @Test
+  public void testWrappedStreamRoundTrip() throws Exception {
+    File wrapped = File.createTempFile("part", ".mms");
+
+    try {
+      FileOutputStream fileOut = new FileOutputStream(wrapped);
+      OutputStream     out     = new EncryptingPartOutputStream(fileOut, masterSecret);
+      out.write(plaintext);
+      out.close();
+
+      assertTrue(fileOut.getChannel().isOpen());
+      fileOut.close();
+
+      assertArrayEquals(plaintext, readAll(DecryptingPartInputStream.createFor(masterSecret, wrapped)));
+    } finally {
+      wrapped.delete();
+    }
+  }
+
+  @Test
+  public void testLegacyVerifyFirstRoundTrip() throws Exception {
+    assertArrayEquals(plaintext, readAll(DecryptingPartInputStream.createFor(masterSecret, legacyFile)));
+  }
+
+  @Test(expected = IOException.class)
+  public void testVerifyFirstBadMac() throws Exception {
+    corrupt(file);
+    readAll(DecryptingPartInputStream.createFor(masterSecret, file));
+  }
+
+  @Test(expected = IOException.class)
+  public void testLegacyVerifyFirstBadMac() throws Exception {
+    corrupt(legacyFile);
+    DecryptingPartInputStream.createFor(masterSecret, legacyFile);
+  }
+
+  @Test(expected = IOException.class)
+  public void testVerifyFirstTruncated() throws Exception {
+    truncate(file);
+    readAll(DecryptingPartInputStream.createFor(masterSecret, file));
+  }
+
+  @Test(expected = IOException.class)
+  public void testLegacyVerifyFirstTruncated() throws Exception {
+    truncate(legacyFile);
+    readAll(DecryptingPartInputStream.createFor(masterSecret, legacyFile));
+  }
+
+  @Test
+  public void testReadSurvivesReplacement() throws Exception {
+    InputStream             legacy   = DecryptingPartInputStream.createFor(masterSecret, legacyFile);
+    SeekablePartInputStream seekable = DecryptingPartInputStream.createSeekableFor(masterSecret, legacyFile);
+
+    assertTrue(file.renameTo(legacyFile));
+
+    assertArrayEquals(plaintext, readAll(legacy));
+    assertArrayEquals(plaintext, readAll(seekable));
+    assertFalse(DecryptingPartInputStream.isLegacyFormat(legacyFile));
+    assertArrayEquals(plaintext, readAll(DecryptingPartInputStream.createFor(masterSecret, legacyFile)));
+  }
+
+  @Test
+  public void testSkipToOffset() throws Exception {
+    InputStream in     = DecryptingPartInputStream.createFor(masterSecret, file);
+    long        offset = plaintext.length - 1000;
+
+    assertEquals(offset, in.skip(offset));
+
+    byte[] remaining = readAll(in);
+    byte[] expected  = new byte[1000];
+    System.arraycopy(plaintext, (int)offset, expected, 0, expected.length);
+
+    assertArrayEquals(expected, remaining);
+  }
+
+  private void corrupt(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.seek(file.length() - 1);
+    int last = raf.read();
+    raf.seek(file.length() - 1);
+    raf.write(last ^ 0x01);
+    raf.close();
+  }
+
+  private void truncate(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(file.length() / 2);
+    raf.close();
+  }
+
+  /**
+   * Writes a part in the pre-chunked format: a random IV, the AES/CBC ciphertext, and an
+   * HmacSHA1 over both.
+   */
+  private void writeLegacyPart(File file, byte[] plaintext) throws Exception {
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, masterSecret.getEncryptionKey());
+
+    Mac mac = Mac.getInstance("HmacSHA1");
+    mac.init(masterSecret.getMacKey());
+
+    byte[] iv         = cipher.getIV();
+    byte[] ciphertext = cipher.doFinal(plaintext);
+
+    mac.update(iv);
+    mac.update(ciphertext);
+
+    OutputStream out = new FileOutputStream(file);
+    out.write(iv);
+    out.write(ciphertext);
+    out.write(mac.doFinal());
+    out.close();
+  }
+
+  private byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out    = new ByteArrayOutputStream();
+    byte[]                buffer = new byte[4096];
+    int                   read;
+
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+
+    in.close();
+    return out.toByteArray();
+  }
+}
@@ -6,6 +6,9 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.thoughtcrime.securesms.BaseUnitTest;
 import org.whispersystems.libsignal.InvalidMessageException;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
 @PowerMockIgnore("javax.crypto.*")
 public class MasterCipherTest extends BaseUnitTest {
   private MasterCipher masterCipher;
@@ -21,4 +24,84 @@ public class MasterCipherTest extends BaseUnitTest {
   public void testEncryptBytesWithZeroBody() throws Exception {
     masterCipher.decryptBytes(new byte[]{});
   }
+
+  @Test
+  public void testEncryptDecryptBody() throws Exception {
+    String body = "a message body that spans more than one AES block";
+
+    assertEquals(body, masterCipher.decryptBody(masterCipher.encryptBody(body)));
+    assertEquals(body, new MasterCipher(masterSecret).decryptBody(masterCipher.encryptBody(body)));
+    assertEquals("", masterCipher.decryptBody(masterCipher.encryptBody("")));
+  }
+
+  @Test(expected = InvalidMessageException.class)
+  public void testDecryptBytesWithBadMac() throws Exception {
+    byte[] encrypted = masterCipher.encryptBytes(new byte[] {1, 2, 3});
+    encrypted[encrypted.length - 1] ^= 0x01;
+
+    masterCipher.decryptBytes(encrypted);
+  }
+
+  @Test
+  public void testEncryptDecryptRawBody() throws Exception {
+    String body    = "a message body that spans more than one AES block";
+    byte[] rawBody = MasterCipher.toRawBody(masterCipher.encryptBody(body));
+
+    assertEquals(MasterCipher.RAW_BODY_VERSION, rawBody[0]);
+    assertEquals(body, masterCipher.decryptRawBody(rawBody));
+    assertEquals(body, masterCipher.decryptBody(MasterCipher.fromRawBody(rawBody)));
+    assertArrayEquals(rawBody, MasterCipher.toRawBody(MasterCipher.fromRawBody(rawBody)));
+  }
+
+  @Test(expected = InvalidMessageException.class)
+  public void testDecryptRawBodyWithUnknownVersion() throws Exception {
+    byte[] rawBody = MasterCipher.toRawBody(masterCipher.encryptBody("body"));
+    rawBody[0] = MasterCipher.RAW_BODY_VERSION + 1;
+
+    masterCipher.decryptRawBody(rawBody);
+  }
+
+  @Test(expected = InvalidMessageException.class)
+  public void testDecryptRawBodyWithBadMac() throws Exception {
+    byte[] rawBody = MasterCipher.toRawBody(masterCipher.encryptBody("body"));
+    rawBody[rawBody.length - 1] ^= 0x01;
+
+    masterCipher.decryptRawBody(rawBody);
+  }
+
+  /**
+   * Compares the per-row cost of reading a 50k message thread stored as Base64 text and
+   * as raw bodies. It only checks the results; the rates are printed for comparison.
+   */
+  @Test
+  public void testRawBodyReadBenchmark() throws Exception {
+    int      rows    = 50000;
+    String[] encoded = new String[rows];
+    byte[][] raw     = new byte[rows][];
+
+    for (int i=0;i<rows;i++) {
+      encoded[i] = masterCipher.encryptBody("message number " + i + " in a long conversation");
+      raw[i]     = MasterCipher.toRawBody(encoded[i]);
+    }
+
+    long encodedStart = System.nanoTime();
+
+    for (int i=0;i<rows;i++) {
+      new MasterCipher(masterSecret).decryptBody(encoded[i]);
+    }
+
+    long encodedTime = System.nanoTime() - encodedStart;
+    long rawStart    = System.nanoTime();
+
+    for (int i=0;i<rows;i++) {
+      new MasterCipher(masterSecret).decryptRawBody(raw[i]);
+    }
+
+    long rawTime = System.nanoTime() - rawStart;
+
+    System.out.println("Base64 bodies: " + (rows * 1000000000L / Math.max(1, encodedTime)) + " rows/s, " +
+                       "raw bodies: " + (rows * 1000000000L / Math.max(1, rawTime)) + " rows/s");
+
+    assertEquals("message number 49999 in a long conversation", masterCipher.decryptRawBody(raw[rows - 1]));
+  }
 }
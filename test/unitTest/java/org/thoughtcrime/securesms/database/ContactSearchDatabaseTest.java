@@ -0,0 +1,237 @@
+package org.thoughtcrime.securesms.database;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.thoughtcrime.securesms.BaseUnitTest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({ Log.class, Handler.class, Looper.class, TextUtils.class, PreferenceManager.class, DatabaseFactory.class, Uri.class })
+public class ContactSearchDatabaseTest extends BaseUnitTest {
+
+  private SQLiteOpenHelper      databaseHelper;
+  private SQLiteDatabase        db;
+  private ContactSearchDatabase database;
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+
+    databaseHelper = mock(SQLiteOpenHelper.class);
+    db             = mock(SQLiteDatabase.class);
+    database       = new ContactSearchDatabase(context, databaseHelper);
+
+    when(databaseHelper.getReadableDatabase()).thenReturn(db);
+    when(databaseHelper.getWritableDatabase()).thenReturn(db);
+    when(TextUtils.join(anyString(), any(Iterable.class))).thenAnswer(new Answer<String>() {
+      @Override
+      public String answer(InvocationOnMock invocation) throws Throwable {
+        StringBuilder joined = new StringBuilder();
+
+        for (Object item : (Iterable<?>)invocation.getArguments()[1]) {
+          if (joined.length() > 0) joined.append(invocation.getArguments()[0]);
+          joined.append(item);
+        }
+
+        return joined.toString();
+      }
+    });
+  }
+
+  @Test
+  public void testTokenizeSplitsOnPunctuationAndSpace() {
+    assertEquals(Arrays.asList("mary", "jane", "o", "neil"), ContactSearchDatabase.tokenize("Mary-Jane  O'Neil"));
+  }
+
+  @Test
+  public void testTokenizeKeepsLettersAndDigits() {
+    assertEquals(Arrays.asList("zoë", "2nd"), ContactSearchDatabase.tokenize(" Zoë (2nd) "));
+  }
+
+  @Test
+  public void testTokenizeEmpty() {
+    assertEquals(Collections.<String>emptyList(), ContactSearchDatabase.tokenize(" -- "));
+  }
+
+  @Test
+  public void testNameWordsMatchByPrefix() {
+    Set<String>  tokens = ContactSearchDatabase.getTokens("Jonathan Smith-Jones", "555-1234", "+15555551234");
+    List<String> args   = queryArgs("jon SM", true, true);
+
+    assertEquals(Arrays.asList("jon*", "sm*"), args);
+    assertTrue(matches(tokens, args));
+    assertFalse(matches(tokens, queryArgs("nathan", true, true)));
+  }
+
+  @Test
+  public void testNumbersMatchByDigitSuffix() {
+    Set<String> tokens = ContactSearchDatabase.getTokens(null, "(555) 123-4567", "+15551234567");
+
+    assertTrue(tokens.contains("15551234567"));
+    assertTrue(tokens.contains("5551234567"));
+    assertTrue(tokens.contains("4567"));
+    assertTrue(tokens.contains("567"));
+    assertFalse(tokens.contains("67"));
+
+    assertEquals(Collections.singletonList("55512345*"), queryArgs("(555) 123-45", true, true));
+    assertEquals(Collections.singletonList("2345*"), queryArgs("23-45", true, true));
+    assertTrue(matches(tokens, queryArgs("23-45", true, true)));
+    assertTrue(matches(tokens, queryArgs("+1 555", true, true)));
+    assertFalse(matches(tokens, queryArgs("999", true, true)));
+  }
+
+  @Test
+  public void testShortNumbersAreIndexedWhole() {
+    Set<String> tokens = ContactSearchDatabase.getTokens("Voicemail", "12", "12");
+
+    assertTrue(tokens.contains("12"));
+    assertTrue(matches(tokens, queryArgs("1", true, true)));
+  }
+
+  @Test
+  public void testPushOnlyQueryFiltersRegistered() {
+    String query = querySql("jo", true, false);
+
+    assertTrue(query.contains(" AND " + ContactSearchDatabase.REGISTERED + " = 1"));
+    assertFalse(query.contains(" AND " + ContactSearchDatabase.REGISTERED + " = 0"));
+  }
+
+  @Test
+  public void testSmsOnlyQueryFiltersUnregistered() {
+    String query = querySql("jo", false, true);
+
+    assertTrue(query.contains(" AND " + ContactSearchDatabase.REGISTERED + " = 0"));
+    assertFalse(query.contains(" AND " + ContactSearchDatabase.REGISTERED + " = 1"));
+  }
+
+  @Test
+  public void testAllQueryDoesNotFilterRegistered() {
+    String query = querySql("jo", true, true);
+
+    assertFalse(query.contains(" AND " + ContactSearchDatabase.REGISTERED + " ="));
+  }
+
+  @Test
+  public void testIncrementalRefreshDeletesStaleContacts() {
+    Set<Long> staleIds = new HashSet<>(Arrays.asList(3L, 4L));
+    int       updated  = database.updateIndex(staleIds, new HashMap<Long, List<ContactSearchDatabase.IndexedNumber>>(),
+                                              Collections.<String>emptySet());
+
+    assertEquals(0, updated);
+
+    verify(db).delete(eq("contact_search_token"),
+                      eq("search_id IN (SELECT _id FROM contact_search WHERE contact_id IN (3, 4))"),
+                      any(String[].class));
+    verify(db).delete(eq("contact_search"), eq("contact_id IN (3, 4)"), any(String[].class));
+    verify(db, never()).compileStatement(anyString());
+  }
+
+  @Test
+  public void testIncrementalRefreshKeepsRewrittenContacts() {
+    Map<Long, List<ContactSearchDatabase.IndexedNumber>> contacts = new HashMap<>();
+    contacts.put(4L, Collections.<ContactSearchDatabase.IndexedNumber>emptyList());
+
+    when(db.compileStatement(anyString())).thenReturn(mock(SQLiteStatement.class));
+    database.updateIndex(new HashSet<>(Arrays.asList(3L, 4L)), contacts, Collections.<String>emptySet());
+
+    verify(db).delete(eq("contact_search"), eq("contact_id IN (3)"), any(String[].class));
+    verify(db).delete(eq("contact_search"), eq("contact_id IN (4)"), any(String[].class));
+  }
+
+  @Test
+  public void testFilteredConversationListMatchesGroupTitles() {
+    ThreadDatabase threadDatabase = new ThreadDatabase(context, databaseHelper);
+
+    mockStatic(DatabaseFactory.class);
+    mockStatic(Uri.class);
+    when(DatabaseFactory.getContactSearchDatabase(context)).thenReturn(database);
+    when(db.query(anyString(), any(String[].class), anyString(), any(String[].class),
+                  anyString(), anyString(), anyString())).thenReturn(mock(Cursor.class));
+
+    threadDatabase.getFilteredConversationList("Book Club");
+
+    ArgumentCaptor<String>   selection = ArgumentCaptor.forClass(String.class);
+    ArgumentCaptor<String[]> args      = ArgumentCaptor.forClass(String[].class);
+
+    verify(db).query(eq("thread"), (String[])isNull(), selection.capture(), args.capture(),
+                     (String)isNull(), (String)isNull(), eq("date DESC"));
+
+    assertTrue(selection.getValue().contains("recipient_ids IN (SELECT group_id FROM groups WHERE title LIKE ?)"));
+    assertEquals(Arrays.asList("book*", "club*", "%Book Club%"), Arrays.asList(args.getValue()));
+  }
+
+  private List<String> queryArgs(String filter, boolean includeRegistered, boolean includeUnregistered) {
+    ArgumentCaptor<String[]> args = ArgumentCaptor.forClass(String[].class);
+
+    database.query(filter, includeRegistered, includeUnregistered);
+    verify(db, atLeastOnce()).rawQuery(anyString(), args.capture());
+
+    List<String> values = Arrays.asList(args.getValue());
+    return values.subList(1, values.size());
+  }
+
+  private String querySql(String filter, boolean includeRegistered, boolean includeUnregistered) {
+    ArgumentCaptor<String> query = ArgumentCaptor.forClass(String.class);
+
+    database.query(filter, includeRegistered, includeUnregistered);
+    verify(db).rawQuery(query.capture(), any(String[].class));
+
+    return query.getValue();
+  }
+
+  /**
+   * Mirrors the GLOB lookups: every filter word has to be a prefix of one of the row's tokens.
+   */
+  private static boolean matches(Set<String> tokens, List<String> args) {
+    if (args.isEmpty()) return false;
+
+    for (String arg : args) {
+      String  prefix = arg.substring(0, arg.length() - 1);
+      boolean found  = false;
+
+      for (String token : tokens) {
+        if (token.startsWith(prefix)) found = true;
+      }
+
+      if (!found) return false;
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,113 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.sqlite.SQLiteTransactionListener;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.thoughtcrime.securesms.BaseUnitTest;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({ Log.class, Handler.class, Looper.class, TextUtils.class, PreferenceManager.class, Uri.class })
+public class DatabaseChangeNotifierTest extends BaseUnitTest {
+
+  private Handler                handler;
+  private ContentResolver        contentResolver;
+  private Uri                    conversationList;
+  private Uri                    conversation;
+  private DatabaseChangeNotifier notifier;
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+
+    handler          = mock(Handler.class);
+    contentResolver  = mock(ContentResolver.class);
+    conversationList = mock(Uri.class);
+    conversation     = mock(Uri.class);
+    notifier         = new DatabaseChangeNotifier(context, handler);
+
+    mockStatic(Uri.class);
+    when(Uri.parse(DatabaseChangeNotifier.CONVERSATION_LIST_URI)).thenReturn(conversationList);
+    when(Uri.parse(DatabaseChangeNotifier.CONVERSATION_URI + 1)).thenReturn(conversation);
+    when(context.getContentResolver()).thenReturn(contentResolver);
+  }
+
+  @Test
+  public void testBurstIsCoalesced() {
+    notifier.notifyConversation(1);
+    notifier.notifyConversationList();
+    notifier.notifyConversation(1);
+    notifier.notifyConversationList();
+    notifier.notifyConversation(1);
+
+    flush();
+
+    verify(contentResolver, times(1)).notifyChange(eq(conversation), (ContentObserver)isNull());
+    verify(contentResolver, times(1)).notifyChange(eq(conversationList), (ContentObserver)isNull());
+    assertEquals(2, notifier.getEmittedCount());
+    assertEquals(3, notifier.getSuppressedCount());
+  }
+
+  @Test
+  public void testTransactionHoldsNotificationsUntilCommit() {
+    SQLiteTransactionListener listener = notifier.getTransactionListener();
+
+    listener.onBegin();
+    listener.onBegin();
+    notifier.notifyConversation(1);
+    notifier.notifyConversationList();
+    listener.onCommit();
+
+    verify(handler, never()).postDelayed(any(Runnable.class), anyLong());
+
+    notifier.notifyConversation(1);
+    listener.onCommit();
+
+    flush();
+
+    verify(contentResolver, times(1)).notifyChange(eq(conversation), (ContentObserver)isNull());
+    verify(contentResolver, times(1)).notifyChange(eq(conversationList), (ContentObserver)isNull());
+    assertEquals(1, notifier.getSuppressedCount());
+  }
+
+  @Test
+  public void testRolledBackTransactionIsNotAnnounced() {
+    SQLiteTransactionListener listener = notifier.getTransactionListener();
+
+    listener.onBegin();
+    notifier.notifyConversation(1);
+    listener.onRollback();
+
+    verify(handler, never()).postDelayed(any(Runnable.class), anyLong());
+    assertEquals(0, notifier.getEmittedCount());
+  }
+
+  private void flush() {
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+
+    verify(handler, times(1)).postDelayed(flush.capture(), anyLong());
+    flush.getValue().run();
+  }
+}
@@ -0,0 +1,75 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.thoughtcrime.securesms.BaseUnitTest;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({ Log.class, Handler.class, Looper.class, TextUtils.class, PreferenceManager.class, DatabaseChangeNotifier.class })
+public class ThreadDatabaseTest extends BaseUnitTest {
+
+  private SQLiteDatabase db;
+  private ThreadDatabase database;
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+
+    SQLiteOpenHelper databaseHelper = mock(SQLiteOpenHelper.class);
+    Cursor           latestDate     = mock(Cursor.class);
+
+    db       = mock(SQLiteDatabase.class);
+    database = new ThreadDatabase(context, databaseHelper);
+
+    mockStatic(DatabaseChangeNotifier.class);
+    when(DatabaseChangeNotifier.getInstance(context)).thenReturn(mock(DatabaseChangeNotifier.class));
+    when(databaseHelper.getReadableDatabase()).thenReturn(db);
+    when(databaseHelper.getWritableDatabase()).thenReturn(db);
+    when(db.rawQuery(anyString(), any(String[].class))).thenReturn(latestDate);
+    when(latestDate.moveToFirst()).thenReturn(true);
+    when(latestDate.getLong(0)).thenReturn(1000L);
+  }
+
+  @Test
+  public void testSnippetTypeUpdatedForLatestMessage() {
+    database.updateSnippetTypeIfLatest(1, 1000, 23, 0, 1);
+
+    verify(db).update(eq("thread"), any(ContentValues.class), eq("_id = ?"), eq(new String[] {"1"}));
+  }
+
+  @Test
+  public void testSnippetTypeIgnoredForOlderMessage() {
+    database.updateSnippetTypeIfLatest(1, 999, 23, 0, 1);
+
+    verify(db, never()).update(anyString(), any(ContentValues.class), anyString(), any(String[].class));
+  }
+
+  @Test
+  public void testStatusUpdateDoesNotRecount() {
+    database.updateSnippetTypeIfLatest(1, 1000, 23, 0, 1);
+
+    verify(db, never()).query(anyString(), any(String[].class), anyString(), any(String[].class),
+                              anyString(), anyString(), anyString());
+    verify(db, never()).rawQuery(eq("SELECT COUNT(*) FROM sms WHERE thread_id = ?"), any(String[].class));
+  }
+}
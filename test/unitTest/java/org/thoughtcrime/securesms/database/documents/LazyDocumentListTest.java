@@ -0,0 +1,41 @@
+package org.thoughtcrime.securesms.database.documents;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.util.JsonUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LazyDocumentListTest extends BaseUnitTest {
+
+  private static final String DOCUMENT = "{\"l\":[{\"a\":\"+15555550100\"},{\"a\":\"+15555550101\"}]}";
+
+  @Test
+  public void testEmptyDocumentIsSharedEmptyList() {
+    assertSame(Collections.emptyList(), LazyDocumentList.from("", NetworkFailureList.class));
+  }
+
+  @Test
+  public void testParsesDocument() throws Exception {
+    List<NetworkFailure> expected = JsonUtils.fromJson(DOCUMENT, NetworkFailureList.class).getList();
+    List<NetworkFailure> lazy     = LazyDocumentList.from(DOCUMENT, NetworkFailureList.class);
+
+    assertEquals(2, lazy.size());
+    assertEquals(expected, lazy);
+  }
+
+  @Test
+  public void testMalformedDocumentIsEmpty() {
+    assertTrue(LazyDocumentList.from("{not json", NetworkFailureList.class).isEmpty());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testReadOnly() {
+    LazyDocumentList.from(DOCUMENT, NetworkFailureList.class).remove(0);
+  }
+}
@@ -0,0 +1,128 @@
+package org.thoughtcrime.securesms.database.loaders;
+
+import android.database.Cursor;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.thoughtcrime.securesms.database.MmsSmsColumns;
+import org.thoughtcrime.securesms.database.SmsDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConversationRowsTest {
+
+  @Test
+  public void testRowsWithoutPreviousHaveNoDiff() {
+    ConversationRows rows = ConversationRows.create(cursor(new long[] {1, 2}, new String[] {"a", "b"}), null);
+
+    assertEquals(2, rows.size());
+    assertNull(rows.getDiffFrom(ConversationRows.EMPTY));
+  }
+
+  @Test
+  public void testChangedBodyOnlyChangesItsRow() {
+    ConversationRows previous = ConversationRows.create(cursor(new long[] {3, 2, 1}, new String[] {"c", "b", "a"}), null);
+    ConversationRows current  = ConversationRows.create(cursor(new long[] {3, 2, 1}, new String[] {"c", "B", "a"}), previous);
+
+    assertEquals(previous.getId(1), current.getId(1));
+    assertNotEquals(previous.getVersion(1), current.getVersion(1));
+    assertEquals(previous.getVersion(0), current.getVersion(0));
+
+    assertEquals("changed 1 1\n", dispatch(current.getDiffFrom(previous)));
+  }
+
+  @Test
+  public void testNewMessageIsInserted() {
+    ConversationRows previous = ConversationRows.create(cursor(new long[] {2, 1}, new String[] {"b", "a"}), null);
+    ConversationRows current  = ConversationRows.create(cursor(new long[] {3, 2, 1}, new String[] {"c", "b", "a"}), previous);
+
+    assertEquals("inserted 0 1\n", dispatch(current.getDiffFrom(previous)));
+  }
+
+  @Test
+  public void testDiffOnlyAppliesToItsBase() {
+    ConversationRows first  = ConversationRows.create(cursor(new long[] {1}, new String[] {"a"}), null);
+    ConversationRows second = ConversationRows.create(cursor(new long[] {1}, new String[] {"a"}), first);
+    ConversationRows third  = ConversationRows.create(cursor(new long[] {1}, new String[] {"b"}), second);
+
+    assertNotNull(third.getDiffFrom(second));
+    assertNull(third.getDiffFrom(first));
+    assertNull(third.getDiffFrom(null));
+  }
+
+  private static String dispatch(DiffUtil.DiffResult diff) {
+    final StringBuilder updates = new StringBuilder();
+
+    diff.dispatchUpdatesTo(new ListUpdateCallback() {
+      @Override
+      public void onInserted(int position, int count) {
+        updates.append("inserted ").append(position).append(' ').append(count).append('\n');
+      }
+
+      @Override
+      public void onRemoved(int position, int count) {
+        updates.append("removed ").append(position).append(' ').append(count).append('\n');
+      }
+
+      @Override
+      public void onMoved(int fromPosition, int toPosition) {
+        updates.append("moved ").append(fromPosition).append(' ').append(toPosition).append('\n');
+      }
+
+      @Override
+      public void onChanged(int position, int count, Object payload) {
+        updates.append("changed ").append(position).append(' ').append(count).append('\n');
+      }
+    });
+
+    return updates.toString();
+  }
+
+  private static Cursor cursor(final long[] messageIds, final String[] bodies) {
+    final Cursor       cursor   = mock(Cursor.class);
+    final List<String> columns  = new ArrayList<>();
+    final int[]        position = {-1};
+
+    when(cursor.getCount()).thenReturn(messageIds.length);
+    when(cursor.moveToPosition(anyInt())).thenAnswer(new Answer<Boolean>() {
+      @Override
+      public Boolean answer(InvocationOnMock invocation) throws Throwable {
+        position[0] = (Integer)invocation.getArguments()[0];
+        return position[0] >= 0 && position[0] < messageIds.length;
+      }
+    });
+    when(cursor.getColumnIndexOrThrow(anyString())).thenAnswer(new Answer<Integer>() {
+      @Override
+      public Integer answer(InvocationOnMock invocation) throws Throwable {
+        String column = (String)invocation.getArguments()[0];
+        if (!columns.contains(column)) columns.add(column);
+        return columns.indexOf(column);
+      }
+    });
+    when(cursor.getString(anyInt())).thenAnswer(new Answer<String>() {
+      @Override
+      public String answer(InvocationOnMock invocation) throws Throwable {
+        String column = columns.get((Integer)invocation.getArguments()[0]);
+
+        if (MmsSmsColumns.UNIQUE_ROW_ID.equals(column)) return "SMS::" + messageIds[position[0]] + "::1";
+        else if (SmsDatabase.BODY.equals(column))       return bodies[position[0]];
+        else                                            return null;
+      }
+    });
+
+    return cursor;
+  }
+}
@@ -0,0 +1,75 @@
+package org.thoughtcrime.securesms.jobs;
+
+import org.junit.After;
+import org.junit.Test;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.notifications.MessageNotifier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AttachmentDownloadSchedulerTest extends BaseUnitTest {
+
+  private static final long VISIBLE_THREAD = 5;
+  private static final long OTHER_THREAD   = 6;
+
+  @After
+  public void tearDown() {
+    MessageNotifier.setVisibleThread(-1);
+  }
+
+  @Test
+  public void testSlotsAreBounded() {
+    AttachmentDownloadScheduler scheduler = new AttachmentDownloadScheduler(2);
+
+    assertTrue(scheduler.tryAcquire(new Object(), OTHER_THREAD) != -1);
+    assertTrue(scheduler.tryAcquire(new Object(), OTHER_THREAD) != -1);
+    assertEquals(-1, scheduler.tryAcquire(new Object(), OTHER_THREAD));
+    assertEquals(1, scheduler.getStats().getDeferred());
+
+    scheduler.release(System.currentTimeMillis(), true, 0);
+    assertTrue(scheduler.isSlotAvailable(new Object(), OTHER_THREAD));
+  }
+
+  @Test
+  public void testWaitingVisibleDownloadGetsNextSlot() {
+    AttachmentDownloadScheduler scheduler = new AttachmentDownloadScheduler(2);
+    Object                      visible   = new Object();
+    Object                      other     = new Object();
+
+    MessageNotifier.setVisibleThread(VISIBLE_THREAD);
+
+    long first = scheduler.tryAcquire(new Object(), OTHER_THREAD);
+    scheduler.tryAcquire(new Object(), OTHER_THREAD);
+
+    assertFalse(scheduler.isSlotAvailable(visible, VISIBLE_THREAD));
+
+    scheduler.release(first, true, 0);
+
+    assertFalse(scheduler.isSlotAvailable(other, OTHER_THREAD));
+    assertEquals(-1, scheduler.tryAcquire(other, OTHER_THREAD));
+    assertTrue(scheduler.tryAcquire(visible, VISIBLE_THREAD) != -1);
+
+    scheduler.release(System.currentTimeMillis(), true, 0);
+
+    assertTrue(scheduler.isSlotAvailable(other, OTHER_THREAD));
+  }
+
+  @Test
+  public void testReservationLapsesWhenThreadIsLeft() {
+    AttachmentDownloadScheduler scheduler = new AttachmentDownloadScheduler(1);
+    Object                      visible   = new Object();
+
+    MessageNotifier.setVisibleThread(VISIBLE_THREAD);
+
+    long first = scheduler.tryAcquire(new Object(), OTHER_THREAD);
+
+    assertFalse(scheduler.isSlotAvailable(visible, VISIBLE_THREAD));
+
+    scheduler.release(first, true, 0);
+    MessageNotifier.setVisibleThread(-1);
+
+    assertTrue(scheduler.isSlotAvailable(new Object(), OTHER_THREAD));
+  }
+}
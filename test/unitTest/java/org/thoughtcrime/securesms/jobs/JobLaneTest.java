@@ -0,0 +1,152 @@
+package org.thoughtcrime.securesms.jobs;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.thoughtcrime.securesms.BaseUnitTest;
+import org.thoughtcrime.securesms.crypto.MasterSecret;
+import org.thoughtcrime.securesms.service.KeyCachingService;
+import org.whispersystems.jobqueue.JobParameters;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({ Log.class, Handler.class, Looper.class, TextUtils.class, PreferenceManager.class, KeyCachingService.class })
+public class JobLaneTest extends BaseUnitTest {
+
+  @Before
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+
+    mockStatic(KeyCachingService.class);
+    when(KeyCachingService.getMasterSecret(any(Context.class))).thenReturn(masterSecret);
+  }
+
+  @Test
+  public void testRunUpdatesLaneStats() throws Exception {
+    JobLane.Stats before = JobLane.BULK.getStats();
+    TestJob       job    = new TestJob(false);
+
+    job.setLane(JobLane.BULK);
+    assertEquals(before.getQueueDepth() + 1, JobLane.BULK.getStats().getQueueDepth());
+
+    job.onRun();
+
+    JobLane.Stats after = JobLane.BULK.getStats();
+    assertEquals(before.getQueueDepth(), after.getQueueDepth());
+    assertEquals(before.getRunning(), after.getRunning());
+    assertEquals(1, job.runs);
+  }
+
+  @Test
+  public void testFailedRunIsStillFinished() {
+    JobLane.Stats before = JobLane.BULK.getStats();
+    TestJob       job    = new TestJob(true);
+
+    job.setLane(JobLane.BULK);
+
+    for (int i=0;i<2;i++) {
+      try {
+        job.onRun();
+        throw new AssertionError();
+      } catch (Exception e) {
+        assertTrue(e instanceof IOException);
+      }
+    }
+
+    JobLane.Stats after = JobLane.BULK.getStats();
+    assertEquals(before.getQueueDepth(), after.getQueueDepth());
+    assertEquals(before.getRunning(), after.getRunning());
+    assertEquals(2, job.runs);
+  }
+
+  @Test
+  public void testRunWithoutMasterSecretIsStillFinished() {
+    JobLane.Stats before = JobLane.BULK.getStats();
+    TestJob       job    = new TestJob(false);
+
+    when(KeyCachingService.getMasterSecret(any(Context.class))).thenReturn(null);
+    job.setLane(JobLane.BULK);
+
+    try {
+      job.onRun();
+      throw new AssertionError();
+    } catch (Exception e) {
+      assertTrue(job.onShouldRetry(e));
+    }
+
+    JobLane.Stats after = JobLane.BULK.getStats();
+    assertEquals(before.getQueueDepth(), after.getQueueDepth());
+    assertEquals(before.getRunning(), after.getRunning());
+    assertEquals(0, job.runs);
+  }
+
+  @Test
+  public void testLaneIsOnlyAssignedOnce() {
+    JobLane.Stats before = JobLane.MESSAGES.getStats();
+    TestJob       job    = new TestJob(false);
+
+    job.setLane(JobLane.MESSAGES);
+    job.setLane(JobLane.MESSAGES);
+
+    assertEquals(before.getQueueDepth() + 1, JobLane.MESSAGES.getStats().getQueueDepth());
+    assertTrue(JobLane.MESSAGES.getStats().toString().startsWith(JobLane.MESSAGES.getName()));
+  }
+
+  @Test
+  public void testDroppedJobLeavesQueue() throws InterruptedException {
+    int before = JobLane.MESSAGES.getStats().getQueueDepth();
+
+    new TestJob(false).setLane(JobLane.MESSAGES);
+    assertEquals(before + 1, JobLane.MESSAGES.getStats().getQueueDepth());
+
+    for (int i=0;i<50 && JobLane.MESSAGES.getStats().getQueueDepth() > before;i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertEquals(before, JobLane.MESSAGES.getStats().getQueueDepth());
+  }
+
+  private class TestJob extends MasterSecretJob {
+
+    private final boolean fail;
+
+    private int runs;
+
+    TestJob(boolean fail) {
+      super(context, JobParameters.newBuilder().create());
+      this.fail = fail;
+    }
+
+    @Override
+    public void onAdded() {}
+
+    @Override
+    public void onRun(MasterSecret masterSecret) throws IOException {
+      runs++;
+      if (fail) throw new IOException("Failed");
+    }
+
+    @Override
+    public boolean onShouldRetryThrowable(Exception exception) {
+      return false;
+    }
+
+    @Override
+    public void onCanceled() {}
+  }
+}